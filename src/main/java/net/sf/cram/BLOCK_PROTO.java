@@ -2,7 +2,6 @@ package net.sf.cram;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -10,19 +9,28 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.GZIPOutputStream;
 
 import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.encoding.BlockEncoding;
+import net.sf.cram.encoding.CodecPlan;
 import net.sf.cram.encoding.DataReaderFactory;
 import net.sf.cram.encoding.DataReaderFactory.DataReaderWithStats;
 import net.sf.cram.encoding.DataWriterFactory;
 import net.sf.cram.encoding.Reader;
+import net.sf.cram.encoding.SeriesProjection;
 import net.sf.cram.encoding.Writer;
 import net.sf.cram.encoding.read_features.BaseChange;
 import net.sf.cram.encoding.read_features.BaseQualityScore;
@@ -32,13 +40,19 @@ import net.sf.cram.encoding.read_features.Insertion;
 import net.sf.cram.encoding.read_features.ReadBase;
 import net.sf.cram.encoding.read_features.ReadFeature;
 import net.sf.cram.encoding.read_features.Substitution;
-import net.sf.cram.io.DefaultBitInputStream;
-import net.sf.cram.io.DefaultBitOutputStream;
+import net.sf.cram.io.ArrayBitInputStream;
+import net.sf.cram.io.ArrayBitOutputStream;
+import net.sf.cram.io.BitInputStream;
+import net.sf.cram.io.ByteBufferBitInputStream;
+import net.sf.cram.io.ByteBufferInputStream;
 import net.sf.cram.io.ExposedByteArrayOutputStream;
 import net.sf.cram.lossy.QualityScorePreservation;
+import net.sf.cram.stats.CompressionHeaderCache;
 import net.sf.cram.stats.CompressionHeaderFactory;
 import net.sf.cram.structure.Block;
+import net.sf.cram.structure.BlockCodecs;
 import net.sf.cram.structure.BlockCompressionMethod;
+import net.sf.cram.structure.BlockCompressionPolicy;
 import net.sf.cram.structure.BlockContentType;
 import net.sf.cram.structure.CompressionHeader;
 import net.sf.cram.structure.Container;
@@ -60,16 +74,54 @@ public class BLOCK_PROTO {
 	private static Log log = Log.getInstance(BLOCK_PROTO.class);
 	public static int recordsPerSlice = 10000;
 
+	/**
+	 * Number of threads used to build the slices of a container, 1 means the
+	 * slices are built one after another on the calling thread.
+	 */
+	public static int sliceThreads = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool slicePool;
+
+	/**
+	 * Chooses the compression method of external blocks.
+	 */
+	public static BlockCompressionPolicy blockCompression = new BlockCompressionPolicy(
+			BlockCodecs.GZIP);
+
 	public static List<CramRecord> getRecords(CompressionHeader h, Container c,
 			SAMFileHeader fileHeader, ArrayList<CramRecord> records)
 			throws IllegalArgumentException, IllegalAccessException,
 			IOException {
+		return getRecords(h, c, fileHeader, records, null);
+	}
+
+	/**
+	 * Same as above but takes records and arrays from the pool if it is not
+	 * null.
+	 */
+	public static List<CramRecord> getRecords(CompressionHeader h, Container c,
+			SAMFileHeader fileHeader, ArrayList<CramRecord> records,
+			CramRecordPool pool) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
+		return getRecords(h, c, fileHeader, records, pool,
+				SeriesProjection.ALL);
+	}
+
+	/**
+	 * Reads only the data series and tags in the projection, blocks read by
+	 * other series only are not decompressed.
+	 */
+	public static List<CramRecord> getRecords(CompressionHeader h, Container c,
+			SAMFileHeader fileHeader, ArrayList<CramRecord> records,
+			CramRecordPool pool, SeriesProjection projection)
+			throws IllegalArgumentException, IllegalAccessException,
+			IOException {
 		long time1 = System.nanoTime();
 		if (records == null)
 			records = new ArrayList<CramRecord>(c.nofRecords);
 		Map<String, Long> nanoMap = new TreeMap<String, Long>();
+		CodecPlan plan = CodecPlan.forReader(h, projection);
 		for (Slice s : c.slices)
-			records.addAll(getRecords(s, h, fileHeader, nanoMap));
+			records.addAll(getRecords(s, plan, fileHeader, nanoMap, pool));
 
 		long time2 = System.nanoTime();
 
@@ -112,39 +164,144 @@ public class BLOCK_PROTO {
 		}
 	}
 
+	/**
+	 * Stands in for the external blocks of data series left out of a
+	 * projection, so that they are neither read nor decompressed.
+	 */
+	private static class ZeroInputStream extends InputStream {
+
+		@Override
+		public int read() {
+			return 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			Arrays.fill(b, off, off + len, (byte) 0);
+			return len;
+		}
+	}
+
+	/**
+	 * Reads the raw content in place, arrays directly and other buffers, for
+	 * example memory mapped ones, through the buffer.
+	 */
+	private static BitInputStream bitInputStream(Block block) {
+		ByteBuffer buf = block.getRawContentBuffer();
+		if (buf.hasArray())
+			return new ArrayBitInputStream(buf.array(), buf.arrayOffset()
+					+ buf.position(), buf.remaining());
+		return new ByteBufferBitInputStream(buf);
+	}
+
 	public static List<CramRecord> getRecords(Slice s, CompressionHeader h,
 			SAMFileHeader fileHeader, Map<String, Long> nanoMap)
 			throws IllegalArgumentException, IllegalAccessException,
 			IOException {
-		String seqName = SAMRecord.NO_ALIGNMENT_REFERENCE_NAME;
-		if (s.sequenceId != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-			SAMSequenceRecord sequence = fileHeader.getSequence(s.sequenceId);
-			seqName = sequence.getSequenceName();
+		return getRecords(s, CodecPlan.forReader(h), fileHeader, nanoMap,
+				null);
+	}
+
+	private static List<CramRecord> getRecords(Slice s, CodecPlan plan,
+			SAMFileHeader fileHeader, Map<String, Long> nanoMap,
+			CramRecordPool pool) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
+		SliceRecordReader sliceReader = new SliceRecordReader(s, plan,
+				fileHeader, pool);
+
+		List<CramRecord> records = new ArrayList<CramRecord>(s.nofRecords);
+
+		long readNanos = 0;
+		while (sliceReader.hasNext()) {
+			long time = System.nanoTime();
+			records.add(sliceReader.next());
+			readNanos += System.nanoTime() - time;
 		}
-		DataReaderFactory f = new DataReaderFactory();
-		Map<Integer, InputStream> inputMap = new HashMap<Integer, InputStream>();
-		for (Integer exId : s.external.keySet()) {
-			inputMap.put(exId, new ByteArrayInputStream(s.external.get(exId)
-					.getRawContent()));
+		log.debug("Slice records read time: " + readNanos / 1000000);
+
+		Map<String, DataReaderWithStats> statMap = sliceReader.factory
+				.getStats(sliceReader.reader);
+		for (String key : statMap.keySet()) {
+			long value = 0;
+			if (!nanoMap.containsKey(key)) {
+				nanoMap.put(key, 0L);
+				value = 0;
+			} else
+				value = nanoMap.get(key);
+			nanoMap.put(key, value + statMap.get(key).nanos);
 		}
 
-		long time = 0;
-		Reader reader = f.buildReader(new DefaultBitInputStream(
-				new ByteArrayInputStream(s.coreBlock.getRawContent())),
-				inputMap, h, s.sequenceId);
+		return records;
+	}
 
-		List<CramRecord> records = new ArrayList<CramRecord>();
+	/**
+	 * Reads the records of a slice one at a time, so that a slice can be
+	 * decoded in parts.
+	 */
+	static class SliceRecordReader {
+		private final Slice s;
+		private final CompressionHeader h;
+		private final SAMFileHeader fileHeader;
+		private CramRecordPool pool;
+		private final String seqName;
+		private final DataReaderFactory factory = new DataReaderFactory();
+		private final Reader reader;
+		private int prevStart;
+		private int index = 0;
+
+		SliceRecordReader(Slice s, CodecPlan plan, SAMFileHeader fileHeader,
+				CramRecordPool pool) throws IllegalArgumentException,
+				IllegalAccessException, IOException {
+			this.s = s;
+			this.h = plan.getHeader();
+			this.fileHeader = fileHeader;
+			this.pool = pool;
 
-		long readNanos = 0;
-		int prevStart = s.alignmentStart;
-		for (int i = 0; i < s.nofRecords; i++) {
-			CramRecord r = new CramRecord();
-			r.index = i;
+			if (s.sequenceId != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+				SAMSequenceRecord sequence = fileHeader
+						.getSequence(s.sequenceId);
+				seqName = sequence.getSequenceName();
+			} else
+				seqName = SAMRecord.NO_ALIGNMENT_REFERENCE_NAME;
+
+			Map<Integer, InputStream> inputMap = new HashMap<Integer, InputStream>();
+			for (Integer exId : s.external.keySet()) {
+				if (plan.getSkippedContentIds().contains(exId))
+					inputMap.put(exId, new ZeroInputStream());
+				else if (plan.getBlockEncodings().containsKey(exId))
+					inputMap.put(exId, new ByteBufferInputStream(ByteBuffer
+							.wrap(plan.getBlockEncodings().get(exId)
+									.decodeBlock(s.external.get(exId)
+											.getRawContentBuffer()))));
+				else
+					inputMap.put(exId, new ByteBufferInputStream(s.external
+							.get(exId).getRawContentBuffer()));
+			}
+
+			reader = factory.buildReader(bitInputStream(s.coreBlock),
+					inputMap, plan, s.sequenceId);
+			reader.pool = pool;
+			prevStart = s.alignmentStart;
+		}
+
+		/**
+		 * Takes the following records and their arrays from another pool.
+		 */
+		void setPool(CramRecordPool pool) {
+			this.pool = pool;
+			reader.pool = pool;
+		}
+
+		boolean hasNext() {
+			return index < s.nofRecords;
+		}
+
+		CramRecord next() throws IOException {
+			CramRecord r = pool == null ? new CramRecord() : pool.getRecord();
+			r.index = index++;
 
 			try {
-				time = System.nanoTime();
 				reader.read(r);
-				readNanos += System.nanoTime() - time;
 			} catch (EOFException e) {
 				e.printStackTrace();
 				throw e;
@@ -163,27 +320,12 @@ public class BLOCK_PROTO {
 				}
 			}
 
-			records.add(r);
-
 			if (h.AP_seriesDelta) {
 				prevStart += r.alignmentStartOffsetFromPreviousRecord;
 				r.setAlignmentStart(prevStart);
 			}
+			return r;
 		}
-		log.debug("Slice records read time: " + readNanos / 1000000);
-
-		Map<String, DataReaderWithStats> statMap = f.getStats(reader);
-		for (String key : statMap.keySet()) {
-			long value = 0;
-			if (!nanoMap.containsKey(key)) {
-				nanoMap.put(key, 0L);
-				value = 0;
-			} else
-				value = nanoMap.get(key);
-			nanoMap.put(key, value + statMap.get(key).nanos);
-		}
-
-		return records;
 	}
 
 	public static Container buildContainer(List<CramRecord> records,
@@ -191,10 +333,34 @@ public class BLOCK_PROTO {
 			long globalRecordCounter, SubstitutionMatrix substitutionMatrix,
 			boolean AP_delta) throws IllegalArgumentException,
 			IllegalAccessException, IOException {
+		return buildContainer(records, fileHeader, preserveReadNames,
+				globalRecordCounter, substitutionMatrix, AP_delta, null, 0);
+	}
+
+	/**
+	 * @param headerCache
+	 *            shares compression headers between containers, null to build
+	 *            a header for every container
+	 * @param sequence
+	 *            the number of the container for the cache
+	 */
+	public static Container buildContainer(List<CramRecord> records,
+			SAMFileHeader fileHeader, boolean preserveReadNames,
+			long globalRecordCounter, SubstitutionMatrix substitutionMatrix,
+			boolean AP_delta, CompressionHeaderCache headerCache,
+			long sequence) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
 		// get stats, create compression header and slices
 		long time1 = System.nanoTime();
-		CompressionHeader h = new CompressionHeaderFactory().build(records,
-				substitutionMatrix);
+		// large containers are counted in parts on the slice threads:
+		ForkJoinPool statsPool = sliceThreads > 1 ? getSlicePool() : null;
+		CompressionHeader h;
+		if (headerCache == null)
+			h = new CompressionHeaderFactory().build(records,
+					substitutionMatrix, statsPool, sliceThreads);
+		else
+			h = headerCache.get(records, sequence, substitutionMatrix,
+					statsPool, sliceThreads);
 		h.AP_seriesDelta = AP_delta;
 		long time2 = System.nanoTime();
 
@@ -211,15 +377,23 @@ public class BLOCK_PROTO {
 		c.blockCount = 0;
 
 		long time3 = System.nanoTime();
+		List<List<CramRecord>> sliceRecordLists = new ArrayList<List<CramRecord>>();
+		for (int i = 0; i < records.size(); i += recordsPerSlice)
+			sliceRecordLists.add(records.subList(i,
+					Math.min(records.size(), i + recordsPerSlice)));
+
+		CodecPlan plan = CodecPlan.forWriter(h);
+		if (sliceThreads > 1 && sliceRecordLists.size() > 1)
+			slices = buildSlicesInParallel(sliceRecordLists, plan, fileHeader);
+		else
+			for (List<CramRecord> sliceRecords : sliceRecordLists)
+				slices.add(buildSlice(sliceRecords, plan, fileHeader));
+
 		long lastGlobalRecordCounter = c.globalRecordCounter;
-		for (int i = 0; i < records.size(); i += recordsPerSlice) {
-			List<CramRecord> sliceRecords = records.subList(i,
-					Math.min(records.size(), i + recordsPerSlice));
-			Slice slice = buildSlice(sliceRecords, h, fileHeader);
+		for (Slice slice : slices) {
 			slice.globalRecordCounter = lastGlobalRecordCounter;
 			lastGlobalRecordCounter += slice.nofRecords;
 			c.bases += slice.bases;
-			slices.add(slice);
 
 			// assuming one sequence per container max:
 			if (c.sequenceId == -1 && slice.sequenceId != -1)
@@ -252,18 +426,67 @@ public class BLOCK_PROTO {
 		}
 	}
 
-	private static Slice buildSlice(List<CramRecord> records,
-			CompressionHeader h, SAMFileHeader fileHeader)
-			throws IllegalArgumentException, IllegalAccessException,
-			IOException {
+	private static synchronized ForkJoinPool getSlicePool() {
+		if (slicePool == null || slicePool.getParallelism() != sliceThreads) {
+			if (slicePool != null)
+				slicePool.shutdown();
+			slicePool = new ForkJoinPool(sliceThreads);
+		}
+		return slicePool;
+	}
+
+	/**
+	 * Slices share only the compression header and its codecs, which are not
+	 * modified while the slices are written, so they can be built
+	 * independently. The slices
+	 * are returned in the same order as the record lists.
+	 */
+	private static List<Slice> buildSlicesInParallel(
+			List<List<CramRecord>> sliceRecordLists, final CodecPlan plan,
+			final SAMFileHeader fileHeader) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
+		ForkJoinPool pool = getSlicePool();
+		List<ForkJoinTask<Slice>> tasks = new ArrayList<ForkJoinTask<Slice>>(
+				sliceRecordLists.size());
+		for (final List<CramRecord> sliceRecords : sliceRecordLists)
+			tasks.add(pool.submit(new Callable<Slice>() {
+
+				@Override
+				public Slice call() throws Exception {
+					return buildSlice(sliceRecords, plan, fileHeader);
+				}
+			}));
+
+		List<Slice> slices = new ArrayList<Slice>(tasks.size());
+		try {
+			for (ForkJoinTask<Slice> task : tasks)
+				slices.add(task.get());
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof IllegalAccessException)
+				throw (IllegalAccessException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+		return slices;
+	}
+
+	private static Slice buildSlice(List<CramRecord> records, CodecPlan plan,
+			SAMFileHeader fileHeader) throws IllegalArgumentException,
+			IllegalAccessException, IOException {
+		CompressionHeader h = plan.getHeader();
 		Map<Integer, ExposedByteArrayOutputStream> map = new HashMap<Integer, ExposedByteArrayOutputStream>();
 		for (int id : h.externalIds) {
 			map.put(id, new ExposedByteArrayOutputStream());
 		}
 
 		DataWriterFactory f = new DataWriterFactory();
-		ExposedByteArrayOutputStream bitBAOS = new ExposedByteArrayOutputStream();
-		DefaultBitOutputStream bos = new DefaultBitOutputStream(bitBAOS);
+		ArrayBitOutputStream bos = new ArrayBitOutputStream();
 
 		Slice slice = new Slice();
 		slice.nofRecords = records.size();
@@ -307,7 +530,7 @@ public class BLOCK_PROTO {
 			slice.alignmentSpan = maxAlEnd - minAlStart;
 		}
 
-		Writer writer = f.buildWriter(bos, map, h, slice.sequenceId);
+		Writer writer = f.buildWriter(bos, map, plan, slice.sequenceId);
 		int prevAlStart = slice.alignmentStart;
 		for (CramRecord r : records) {
 			r.alignmentStartOffsetFromPreviousRecord = r.getAlignmentStart()
@@ -322,7 +545,7 @@ public class BLOCK_PROTO {
 		bos.close();
 		slice.coreBlock = new Block();
 		slice.coreBlock.method = BlockCompressionMethod.RAW.ordinal();
-		slice.coreBlock.setRawContent(bitBAOS.toByteArray());
+		slice.coreBlock.setRawContent(bos.toByteArray());
 		slice.coreBlock.contentType = BlockContentType.CORE;
 
 		slice.external = new HashMap<Integer, Block>();
@@ -331,10 +554,21 @@ public class BLOCK_PROTO {
 
 			Block externalBlock = new Block();
 			externalBlock.contentType = BlockContentType.EXTERNAL;
-			externalBlock.method = BlockCompressionMethod.GZIP.ordinal();
 			externalBlock.contentId = i;
 
-			externalBlock.setRawContent(os.toByteArray());
+			BlockEncoding blockEncoding = plan.getBlockEncodings().get(i);
+			if (blockEncoding == null)
+				externalBlock.setRawContent(os.toByteArray());
+			else
+				externalBlock.setRawContent(blockEncoding.encodeBlock(
+						os.getBuffer(), 0, os.size()));
+
+			// compress now rather than when writing, so it happens in
+			// parallel with other slices:
+			if (blockEncoding != null && !blockEncoding.isCompressible())
+				externalBlock.compress(BlockCodecs.RAW);
+			else
+				blockCompression.compress(externalBlock);
 			slice.external.put(i, externalBlock);
 		}
 
@@ -15,14 +15,26 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPOutputStream;
 
 import net.sf.cram.CramTools.LevelConverter;
 import net.sf.cram.ReadWrite.CramHeader;
 import net.sf.cram.lossy.QualityScorePreservation;
+import net.sf.cram.stats.CompressionHeaderCache;
+import net.sf.cram.stats.CompressionHeaderFactory;
+import net.sf.cram.structure.BlockCodecs;
+import net.sf.cram.structure.BlockCompressionPolicy;
 import net.sf.cram.structure.Container;
 import net.sf.cram.structure.Slice;
-import net.sf.picard.reference.ReferenceSequence;
 import net.sf.picard.reference.ReferenceSequenceFile;
 import net.sf.picard.reference.ReferenceSequenceFileFactory;
 import net.sf.picard.util.Log;
@@ -60,8 +72,35 @@ public class Bam2Cram {
 		return set;
 	}
 
+	/**
+	 * Fetches the reference bases under the records. The region ends a base
+	 * past the records because slice MD5s are calculated up to there.
+	 */
+	private static ReferenceRegion getReferenceRegion(
+			List<SAMRecord> samRecords, ReferenceSource referenceSource) {
+		SAMRecord first = samRecords.get(0);
+		if (first.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+			return ReferenceRegion.EMPTY;
+
+		int start = Integer.MAX_VALUE;
+		int end = 0;
+		for (SAMRecord samRecord : samRecords) {
+			int alStart = samRecord.getAlignmentStart();
+			if (alStart == SAMRecord.NO_ALIGNMENT_START)
+				continue;
+			start = Math.min(start, alStart - 1);
+			end = Math.max(end, Math.max(samRecord.getAlignmentEnd() + 1,
+					alStart + samRecord.getReadLength()));
+		}
+		if (start == Integer.MAX_VALUE)
+			return ReferenceRegion.EMPTY;
+
+		return referenceSource.getRegion(first.getHeader().getSequence(
+				first.getReferenceIndex()), start, end);
+	}
+
 	private static List<CramRecord> convert(List<SAMRecord> samRecords,
-			SAMFileHeader samFileHeader, byte[] ref,
+			SAMFileHeader samFileHeader, ReferenceRegion ref,
 			QualityScorePreservation preservation, boolean captureAllTags,
 			String captureTags, String ignoreTags) {
 
@@ -200,7 +239,7 @@ public class Bam2Cram {
 
 	public static void main(String[] args) throws IOException,
 			IllegalArgumentException, IllegalAccessException,
-			NoSuchAlgorithmException {
+			NoSuchAlgorithmException, InterruptedException {
 		Params params = new Params();
 		JCommander jc = new JCommander(params);
 		try {
@@ -247,18 +286,16 @@ public class Bam2Cram {
 		ReferenceSequenceFile referenceSequenceFile = ReferenceSequenceFileFactory
 				.getReferenceSequenceFile(params.referenceFasta);
 
-		BLOCK_PROTO.recordsPerSlice = params.maxSliceSize;
-		ReferenceSequence sequence = null;
+		ReferenceSource referenceSource = new ReferenceSource(
+				referenceSequenceFile);
 		List<SAMRecord> samRecords = new ArrayList<SAMRecord>(
 				params.maxContainerSize);
 		int prevSeqId = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
 		SAMRecordIterator iterator = samFileReader.iterator();
 		{
-			String seqName = null;
 			SAMRecord samRecord = iterator.next();
 			if (samRecord == null)
 				throw new RuntimeException("No records found.");
-			seqName = samRecord.getReferenceName();
 			prevSeqId = samRecord.getReferenceIndex();
 			samRecords.add(samRecord);
 
@@ -273,13 +310,6 @@ public class Bam2Cram {
 			// .setSample(Sam2CramRecordFactory.UNKNOWN_READ_GROUP_SAMPLE);
 			// samFileReader.getFileHeader().addReadGroup(readGroup);
 			// }
-
-			if (SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(seqName))
-				sequence = null;
-			else
-				sequence = Utils.trySequenceNameVariants(referenceSequenceFile,
-						seqName);
-
 		}
 
 		QualityScorePreservation preservation;
@@ -288,24 +318,6 @@ public class Bam2Cram {
 		else
 			preservation = new QualityScorePreservation(params.qsSpec);
 
-		byte[] ref = sequence == null ? new byte[0] : sequence.getBases();
-
-		{
-			// hack:
-			int newLines = 0;
-			for (byte b : ref)
-				if (b == 10)
-					newLines++;
-			byte[] ref2 = new byte[ref.length - newLines];
-			int j = 0;
-			for (int i = 0; i < ref.length; i++)
-				if (ref[i] == 10)
-					continue;
-				else
-					ref2[j++] = ref[i];
-			ref = ref2;
-		}
-
 		OutputStream os;
 		if (params.outputCramFile != null) {
 			FileOutputStream fos = new FileOutputStream(params.outputCramFile);
@@ -326,163 +338,85 @@ public class Bam2Cram {
 		long offset = ReadWrite.writeCramHeader(h, os);
 
 		long bases = 0;
-		long coreBytes = 0;
-		long[] externalBytes = new long[10];
 		BLOCK_PROTO.recordsPerSlice = params.maxSliceSize;
+		BLOCK_PROTO.sliceThreads = params.sliceThreads;
+		BLOCK_PROTO.blockCompression = BlockCompressionPolicy.fromSpec(
+				params.blockCompression, params.blockCompressionTrial);
 		long globalRecordCounter = 0;
-		MessageDigest md5_MessageDigest = MessageDigest.getInstance("MD5");
+		long containers = 0;
 
-		do {
-			if (params.outputCramFile == null && System.out.checkError())
-				return;
+		CompressionHeaderFactory.qualityScoreContextOrder = params.qualityContextOrder;
+		CompressionHeaderFactory.tokenizeReadNames = params.tokenizeReadNames;
 
-			SAMRecord samRecord = iterator.next();
-			if (samRecord == null)
-				// no more records
-				break;
-			if (samRecord.getReferenceIndex() != prevSeqId
-					|| samRecords.size() >= params.maxContainerSize) {
-				if (!samRecords.isEmpty()) {
-					List<CramRecord> records = convert(samRecords,
-							samFileReader.getFileHeader(), ref, preservation,
-							params.captureAllTags, params.captureTags,
-							params.ignoreTags);
-					samRecords.clear();
-
-					Container container = BLOCK_PROTO.buildContainer(records,
-							samFileReader.getFileHeader(),
-							params.preserveReadNames, globalRecordCounter,
-							null, true);
-					for (Slice s : container.slices) {
-						if (s.alignmentStart < 1) {
-							s.refMD5 = new byte[16];
-							Arrays.fill(s.refMD5, (byte) 0);
-							continue;
-						}
-
-						md5_MessageDigest.reset();
-
-						int span = Math.min(s.alignmentSpan, ref.length
-								- s.alignmentStart);
-						if (s.alignmentStart == 0)
-							System.out.println("gotcha");
+		CompressionHeaderCache headerCache = null;
+		if (params.reuseCompressionHeader) {
+			headerCache = new CompressionHeaderCache();
+			headerCache.sampleRecords = params.headerSampleSize;
+			headerCache.maxDrift = params.headerMaxDrift / 100.0;
+		}
 
-						md5_MessageDigest.update(ref, s.alignmentStart - 1,
-								span);
+		ContainerWriter writer = new ContainerWriter(os, offset);
+		ContainerPipeline pipeline = null;
+		if (params.threads > 1) {
+			log.info("Building containers with " + params.threads + " threads.");
+			pipeline = new ContainerPipeline(writer, params.threads,
+					headerCache);
+		}
 
-						String sliceRef = new String(ref, s.alignmentStart - 1,
-								Math.min(span, 30));
-						s.refMD5 = md5_MessageDigest.digest();
-						log.debug("Slice ref starts with: " + sliceRef);
-						log.debug("Slice ref md5: "
-								+ (String.format("%032x", new BigInteger(1,
-										s.refMD5))));
-					}
-					globalRecordCounter += records.size();
-					records.clear();
-					long len = ReadWrite.writeContainer(container, os);
-					container.offset = offset;
-					offset += len;
-
-					log.info(String
-							.format("CONTAINER WRITE TIMES: header build time %dms, slices build time %dms, io time %dms.",
-									container.buildHeaderTime / 1000000,
-									container.buildSlicesTime / 1000000,
-									container.writeTime / 1000000));
-
-					for (Slice s : container.slices) {
-						coreBytes += s.coreBlock.getCompressedContent().length;
-						for (Integer i : s.external.keySet())
-							externalBytes[i] += s.external.get(i)
-									.getCompressedContent().length;
+		try {
+			do {
+				if (params.outputCramFile == null && System.out.checkError())
+					break;
+
+				SAMRecord samRecord = iterator.next();
+				if (samRecord == null)
+					// no more records
+					break;
+				if (samRecord.getReferenceIndex() != prevSeqId
+						|| samRecords.size() >= params.maxContainerSize) {
+					if (!samRecords.isEmpty()) {
+						ContainerTask task = new ContainerTask(samRecords,
+								samFileReader.getFileHeader(), referenceSource,
+								preservation, params, globalRecordCounter,
+								headerCache, containers++);
+						globalRecordCounter += samRecords.size();
+						samRecords = new ArrayList<SAMRecord>(
+								params.maxContainerSize);
+
+						if (pipeline == null)
+							writer.write(task.call());
+						else
+							pipeline.submit(task);
 					}
 				}
-			}
 
-			if (prevSeqId != samRecord.getReferenceIndex()) {
-				if (samRecord.getReferenceIndex() != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-					sequence = Utils
-							.trySequenceNameVariants(referenceSequenceFile,
-									samRecord.getReferenceName());
-					ref = sequence.getBases();
-					{
-						// hack:
-						int newLines = 0;
-						for (byte b : ref)
-							if (b == 10)
-								newLines++;
-						byte[] ref2 = new byte[ref.length - newLines];
-						int j = 0;
-						for (int i = 0; i < ref.length; i++)
-							if (ref[i] == 10)
-								continue;
-							else
-								ref2[j++] = ref[i];
-						ref = ref2;
-					}
-				} else
-					ref = new byte[] {};
 				prevSeqId = samRecord.getReferenceIndex();
-			}
 
-			samRecords.add(samRecord);
-			bases += samRecord.getReadLength();
+				samRecords.add(samRecord);
+				bases += samRecord.getReadLength();
 
-			if (params.maxRecords-- < 1)
-				break;
-		} while (iterator.hasNext());
+				if (params.maxRecords-- < 1)
+					break;
+			} while (iterator.hasNext());
 
-		{ // copied for now, should be a subroutine:
 			if (!samRecords.isEmpty()) {
-				List<CramRecord> records = convert(samRecords,
-						samFileReader.getFileHeader(), ref, preservation,
-						params.captureAllTags, params.captureTags,
-						params.ignoreTags);
-				samRecords.clear();
-				Container container = BLOCK_PROTO.buildContainer(records,
-						samFileReader.getFileHeader(),
-						params.preserveReadNames, globalRecordCounter, null,
-						true);
-				for (Slice s : container.slices) {
-					if (s.alignmentStart < 1) {
-						s.refMD5 = new byte[16];
-						Arrays.fill(s.refMD5, (byte) 0);
-						continue;
-					}
-
-					md5_MessageDigest.reset();
-
-					int span = Math.min(s.alignmentSpan, ref.length
-							- s.alignmentStart);
-					if (s.alignmentStart == 0)
-						System.out.println("gotcha");
-
-					md5_MessageDigest.update(ref, s.alignmentStart - 1,
-							span);
-
-					String sliceRef = new String(ref, s.alignmentStart - 1,
-							Math.min(span, 30));
-					s.refMD5 = md5_MessageDigest.digest();
-					log.debug("Slice ref starts with: " + sliceRef);
-					log.debug("Slice ref md5: "
-							+ (String.format("%032x", new BigInteger(1,
-									s.refMD5))));
-				}
-				records.clear();
-				ReadWrite.writeContainer(container, os);
-				log.info(String
-						.format("CONTAINER WRITE TIMES: header build time %dms, slices build time %dms, io time %dms.",
-								container.buildHeaderTime / 1000000,
-								container.buildSlicesTime / 1000000,
-								container.writeTime / 1000000));
-
-				for (Slice s : container.slices) {
-					coreBytes += s.coreBlock.getCompressedContent().length;
-					for (Integer i : s.external.keySet())
-						externalBytes[i] += s.external.get(i)
-								.getCompressedContent().length;
-				}
+				ContainerTask task = new ContainerTask(samRecords,
+						samFileReader.getFileHeader(), referenceSource,
+						preservation, params, globalRecordCounter, headerCache,
+						containers++);
+				globalRecordCounter += samRecords.size();
+
+				if (pipeline == null)
+					writer.write(task.call());
+				else
+					pipeline.submit(task);
 			}
+
+			if (pipeline != null)
+				pipeline.finish();
+		} finally {
+			if (pipeline != null)
+				pipeline.close();
 		}
 
 		iterator.close();
@@ -490,18 +424,267 @@ public class Bam2Cram {
 		os.close();
 
 		StringBuilder sb = new StringBuilder();
-		sb.append(String.format("STATS: core %.2f b/b", 8f * coreBytes / bases));
-		for (int i = 0; i < externalBytes.length; i++)
-			if (externalBytes[i] > 0)
+		sb.append(String.format("STATS: core %.2f b/b", 8f * writer.coreBytes
+				/ bases));
+		for (int i = 0; i < writer.externalBytes.length; i++)
+			if (writer.externalBytes[i] > 0)
 				sb.append(String.format(", ex%d %.2f b/b, ", i, 8f
-						* externalBytes[i] / bases));
+						* writer.externalBytes[i] / bases));
 
 		log.info(sb.toString());
+		log.info("Block compression:\n" + BlockCodecs.report());
+		if (headerCache != null)
+			log.info(String.format(
+					"Compression headers: %d built, %d reused.",
+					headerCache.headersBuilt, headerCache.headersReused));
 		if (params.outputCramFile != null)
 			log.info(String.format("Compression: %.2f b/b.",
 					(8f * params.outputCramFile.length() / bases)));
 	}
 
+	/**
+	 * Converts a batch of SAM records into a container ready to be written.
+	 * The reference source and the header cache it shares with other tasks
+	 * are thread safe, so it can run on any thread.
+	 */
+	private static class ContainerTask implements Callable<Container> {
+		private List<SAMRecord> samRecords;
+		private SAMFileHeader samFileHeader;
+		private ReferenceSource referenceSource;
+		private QualityScorePreservation preservation;
+		private Params params;
+		private long globalRecordCounter;
+		private CompressionHeaderCache headerCache;
+		private long sequence;
+
+		public ContainerTask(List<SAMRecord> samRecords,
+				SAMFileHeader samFileHeader, ReferenceSource referenceSource,
+				QualityScorePreservation preservation, Params params,
+				long globalRecordCounter, CompressionHeaderCache headerCache,
+				long sequence) {
+			this.samRecords = samRecords;
+			this.samFileHeader = samFileHeader;
+			this.referenceSource = referenceSource;
+			this.preservation = preservation;
+			this.params = params;
+			this.globalRecordCounter = globalRecordCounter;
+			this.headerCache = headerCache;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public Container call() throws IllegalArgumentException,
+				IllegalAccessException, IOException, NoSuchAlgorithmException {
+			List<SAMRecord> list = samRecords;
+			samRecords = null;
+			return buildContainer(list, samFileHeader, referenceSource,
+					preservation, params.preserveReadNames,
+					params.captureAllTags, params.captureTags,
+					params.ignoreTags, globalRecordCounter, headerCache,
+					sequence);
+		}
+	}
+
+	/**
+	 * Converts SAM records on one reference sequence into a container and
+	 * sets the reference md5 of its slices. The list is cleared once the
+	 * records are converted.
+	 */
+	static Container buildContainer(List<SAMRecord> samRecords,
+			SAMFileHeader samFileHeader, ReferenceSource referenceSource,
+			QualityScorePreservation preservation, boolean preserveReadNames,
+			boolean captureAllTags, String captureTags, String ignoreTags,
+			long globalRecordCounter) throws IllegalArgumentException,
+			IllegalAccessException, IOException, NoSuchAlgorithmException {
+		return buildContainer(samRecords, samFileHeader, referenceSource,
+				preservation, preserveReadNames, captureAllTags, captureTags,
+				ignoreTags, globalRecordCounter, null, 0);
+	}
+
+	/**
+	 * @param headerCache
+	 *            shares compression headers between containers, null to build
+	 *            a header for every container
+	 * @param sequence
+	 *            the number of the container for the cache
+	 */
+	static Container buildContainer(List<SAMRecord> samRecords,
+			SAMFileHeader samFileHeader, ReferenceSource referenceSource,
+			QualityScorePreservation preservation, boolean preserveReadNames,
+			boolean captureAllTags, String captureTags, String ignoreTags,
+			long globalRecordCounter, CompressionHeaderCache headerCache,
+			long sequence) throws IllegalArgumentException,
+			IllegalAccessException, IOException, NoSuchAlgorithmException {
+		ReferenceRegion ref = getReferenceRegion(samRecords, referenceSource);
+		List<CramRecord> records = convert(samRecords, samFileHeader, ref,
+				preservation, captureAllTags, captureTags, ignoreTags);
+		samRecords.clear();
+
+		Container container = BLOCK_PROTO.buildContainer(records,
+				samFileHeader, preserveReadNames, globalRecordCounter, null,
+				true, headerCache, sequence);
+		records.clear();
+
+		MessageDigest md5_MessageDigest = MessageDigest.getInstance("MD5");
+		for (Slice s : container.slices) {
+			if (s.alignmentStart < 1) {
+				s.refMD5 = new byte[16];
+				Arrays.fill(s.refMD5, (byte) 0);
+				continue;
+			}
+
+			md5_MessageDigest.reset();
+
+			int span = Math.min(s.alignmentSpan, ref.end() - s.alignmentStart);
+
+			md5_MessageDigest.update(ref.bases, s.alignmentStart - 1
+					- ref.start, span);
+
+			String sliceRef = new String(ref.bases, s.alignmentStart - 1
+					- ref.start, Math.min(span, 30));
+			s.refMD5 = md5_MessageDigest.digest();
+			log.debug("Slice ref starts with: " + sliceRef);
+			log.debug("Slice ref md5: "
+					+ (String.format("%032x", new BigInteger(1, s.refMD5))));
+		}
+		return container;
+	}
+
+	private static class ContainerWriter {
+		private OutputStream os;
+		private long offset;
+		private long coreBytes = 0;
+		private long[] externalBytes = new long[10];
+
+		public ContainerWriter(OutputStream os, long offset) {
+			this.os = os;
+			this.offset = offset;
+		}
+
+		public void write(Container container) throws IOException {
+			long len = ReadWrite.writeContainer(container, os);
+			container.offset = offset;
+			offset += len;
+
+			log.info(String
+					.format("CONTAINER WRITE TIMES: header build time %dms, slices build time %dms, io time %dms.",
+							container.buildHeaderTime / 1000000,
+							container.buildSlicesTime / 1000000,
+							container.writeTime / 1000000));
+
+			for (Slice s : container.slices) {
+				coreBytes += s.coreBlock.getCompressedContent().length;
+				for (Integer i : s.external.keySet())
+					externalBytes[i] += s.external.get(i)
+							.getCompressedContent().length;
+			}
+		}
+	}
+
+	/**
+	 * Builds containers on a thread pool and writes them on a separate thread
+	 * in the order they were submitted. The number of containers in flight is
+	 * bounded, so the caller blocks when the writer falls behind.
+	 */
+	private static class ContainerPipeline {
+		private static final Future<Container> END = new FutureTask<Container>(
+				new Callable<Container>() {
+
+					@Override
+					public Container call() throws Exception {
+						return null;
+					}
+				});
+
+		private ExecutorService executor;
+		private BlockingQueue<Future<Container>> queue;
+		private Thread writerThread;
+		private volatile Throwable error;
+		private CompressionHeaderCache headerCache;
+
+		/**
+		 * @param headerCache
+		 *            the cache shared by the tasks or null, it is abandoned
+		 *            when a container fails
+		 */
+		public ContainerPipeline(final ContainerWriter writer, int threads,
+				CompressionHeaderCache headerCache) {
+			this.headerCache = headerCache;
+			// daemon threads, so that a failed run can still exit:
+			ThreadFactory threadFactory = new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "container-builder");
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+			executor = Executors.newFixedThreadPool(threads, threadFactory);
+			queue = new ArrayBlockingQueue<Future<Container>>(2 * threads);
+
+			writerThread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Future<Container> future;
+						while ((future = queue.take()) != END) {
+							if (error != null) {
+								future.cancel(true);
+								continue;
+							}
+							try {
+								writer.write(future.get());
+							} catch (ExecutionException e) {
+								error = e.getCause();
+							} catch (IOException e) {
+								error = e;
+							}
+							// later containers may wait for the failed one:
+							if (error != null)
+								abandonHeaderCache();
+						}
+					} catch (InterruptedException e) {
+						error = e;
+						abandonHeaderCache();
+					}
+				}
+			}, "container-writer");
+			writerThread.setDaemon(true);
+			writerThread.start();
+		}
+
+		public void submit(ContainerTask task) throws InterruptedException {
+			if (error != null)
+				throw new RuntimeException(error);
+			queue.put(executor.submit(task));
+		}
+
+		public void finish() throws InterruptedException {
+			queue.put(END);
+			writerThread.join();
+			executor.shutdown();
+			if (error != null)
+				throw new RuntimeException(error);
+		}
+
+		/**
+		 * Stops the builders and the writer. Must be called whether or not
+		 * the pipeline finished, containers still in flight are dropped.
+		 */
+		public void close() {
+			abandonHeaderCache();
+			executor.shutdownNow();
+			writerThread.interrupt();
+		}
+
+		private void abandonHeaderCache() {
+			if (headerCache != null)
+				headerCache.fail();
+		}
+	}
+
 	@Parameters(commandDescription = "BAM to CRAM converter. ")
 	static class Params {
 		@Parameter(names = { "-l", "--log-level" }, description = "Change log level: DEBUG, INFO, WARNING, ERROR.", converter = LevelConverter.class)
@@ -555,5 +738,34 @@ public class Bam2Cram {
 		@Parameter(names = { "--input-is-sam" }, description = "Input is in SAM format.")
 		boolean inputIsSam = false;
 
+		@Parameter(names = { "--threads", "-t" }, description = "Build and compress containers using this many threads.")
+		int threads = 1;
+
+		@Parameter(names = { "--slice-threads" }, description = "Build slices of a container using this many threads, 1 to build them one by one.")
+		int sliceThreads = BLOCK_PROTO.sliceThreads;
+
+		@Parameter(names = { "--block-compression" }, description = "Compression of external blocks by content id, for example '1:BZIP2,2:BZIP2,*:GZIP-1'. "
+				+ "Content ids are 0 for bases, 1 for quality scores, 2 for read names, 3 for mate info and 4 for tag values, '*' sets the default. "
+				+ "Codecs are RAW, GZIP, GZIP-1 to GZIP-9 and BZIP2.")
+		String blockCompression;
+
+		@Parameter(names = { "--block-compression-trial" }, description = "Compress external blocks without a fixed codec with each of these codecs and keep the smallest, for example 'GZIP-1,GZIP-9,BZIP2'.")
+		String blockCompressionTrial;
+
+		@Parameter(names = { "--reuse-compression-header" }, description = "Reuse the compression header of previous containers while it fits the records.")
+		boolean reuseCompressionHeader = false;
+
+		@Parameter(names = { "--header-sample-size" }, description = "Build reused compression headers from at least this many records.")
+		int headerSampleSize = CompressionHeaderCache.DEFAULT_SAMPLE_RECORDS;
+
+		@Parameter(names = { "--header-max-drift" }, description = "Rebuild a reused compression header when its codes get this many percent worse than for the records it was built from.")
+		int headerMaxDrift = (int) (100 * CompressionHeaderCache.DEFAULT_MAX_DRIFT);
+
+		@Parameter(names = { "--quality-context-order" }, description = "Range code quality scores with an adaptive model of this order: 0, 1 or 2. A negative value writes them to a plain external block.")
+		int qualityContextOrder = -1;
+
+		@Parameter(names = { "--tokenize-read-names" }, description = "Code read names by tokens against the previous name, used with '--preserve-read-names'.")
+		boolean tokenizeReadNames = false;
+
 	}
 }
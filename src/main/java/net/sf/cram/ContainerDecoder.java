@@ -0,0 +1,577 @@
+package net.sf.cram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.encoding.CodecPlan;
+import net.sf.cram.encoding.SeriesProjection;
+import net.sf.cram.io.CountingInputStream;
+import net.sf.cram.structure.CompressionHeaderBLock.LastHeader;
+import net.sf.cram.structure.Container;
+import net.sf.cram.structure.Slice;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.SeekableStream;
+
+/**
+ * Reads containers from a stream and turns them into normalized cram records.
+ * With more than one thread a reader thread keeps reading containers ahead
+ * while a pool of workers decodes and normalizes them. Containers are always
+ * returned in the stream order and the number of containers in flight is
+ * bounded by twice the number of threads.
+ */
+public class ContainerDecoder {
+	private static Log log = Log.getInstance(ContainerDecoder.class);
+
+	private static final Future<DecodedContainer> END = new FutureTask<DecodedContainer>(
+			new Callable<DecodedContainer>() {
+
+				@Override
+				public DecodedContainer call() throws Exception {
+					return null;
+				}
+			});
+
+	private InputStream is;
+	private MappedContainerReader mappedReader;
+	private CramHeader cramHeader;
+	private ReferenceSource referenceSource;
+	private CramNormalizer normalizer;
+	private int threads;
+	private boolean wholeSequences = true;
+	private boolean recordPooling = false;
+	private final ArrayDeque<CramRecordPool> freePools = new ArrayDeque<CramRecordPool>();
+	private SeriesProjection projection = SeriesProjection.ALL;
+	private LastHeader lastHeader = new LastHeader();
+	private int maxDecodedRecords = 0;
+
+	// decoding a container in parts, see setMaxDecodedRecords:
+	private Container partial;
+	private CodecPlan partialPlan;
+	private ReferenceRegion partialRef;
+	private int partialSlice;
+	private BLOCK_PROTO.SliceRecordReader sliceReader;
+	private CramRecordPool partPool;
+
+	private int readCounter = 0;
+	private int prevSeqId = -1;
+	private ReferenceRegion ref = null;
+
+	private ExecutorService executor;
+	private BlockingQueue<Future<DecodedContainer>> queue;
+	private Thread readerThread;
+	private volatile Throwable error;
+	private volatile boolean closed = false;
+	private boolean eof = false;
+
+	public static class DecodedContainer {
+		public Container container;
+		public ArrayList<CramRecord> records;
+		/**
+		 * Reference bases covering the records, only the slices' region when
+		 * decoded with {@link ContainerDecoder#decodeSlices}.
+		 */
+		public ReferenceRegion ref;
+		public long normTime;
+
+		/**
+		 * The pool the records were taken from, null if not pooled or already
+		 * recycled, see {@link ContainerDecoder#recycle}.
+		 */
+		public CramRecordPool pool;
+
+		/**
+		 * Stream offset of the following container, only known when decoded
+		 * with {@link ContainerDecoder#decodeSlices}.
+		 */
+		public long nextContainerOffset = -1;
+	}
+
+	public ContainerDecoder(InputStream is, CramHeader cramHeader,
+			ReferenceSequenceFile referenceSequenceFile, int threads) {
+		this.is = is;
+		this.cramHeader = cramHeader;
+		this.referenceSource = new ReferenceSource(referenceSequenceFile);
+		this.threads = threads;
+		normalizer = new CramNormalizer(cramHeader.samFileHeader);
+	}
+
+	/**
+	 * Reads the containers from a memory mapped file instead of a stream.
+	 */
+	public ContainerDecoder(MappedContainerReader mappedReader,
+			CramHeader cramHeader, ReferenceSequenceFile referenceSequenceFile,
+			int threads) {
+		this((InputStream) null, cramHeader, referenceSequenceFile, threads);
+		this.mappedReader = mappedReader;
+	}
+
+	/**
+	 * By default whole reference sequences are loaded and shared by all
+	 * containers on them. This is better for reading long stretches, for
+	 * short queries reading only the reference under each container saves
+	 * loading the whole sequence.
+	 */
+	public void setWholeSequences(boolean wholeSequences) {
+		this.wholeSequences = wholeSequences;
+	}
+
+	/**
+	 * Takes records and their arrays from pools. Each container is decoded
+	 * with a pool of its own so that workers do not contend for one, the
+	 * caller should give the records of each container back with
+	 * {@link #recycle} when done with them.
+	 */
+	public void setRecordPooling(boolean recordPooling) {
+		this.recordPooling = recordPooling;
+	}
+
+	/**
+	 * Recycles the records of the container and makes its pool available to
+	 * the next container decoded.
+	 *
+	 * @param withArrays
+	 *            also recycle the bases and quality scores arrays, only if
+	 *            they have not been handed over
+	 */
+	public void recycle(DecodedContainer d, boolean withArrays) {
+		CramRecordPool pool = d.pool;
+		if (pool == null)
+			return;
+		d.pool = null;
+		pool.recycle(d.records, withArrays);
+		synchronized (freePools) {
+			freePools.push(pool);
+		}
+	}
+
+	/**
+	 * @return a pool no other container is using or null if not pooling
+	 */
+	private CramRecordPool takePool() {
+		if (!recordPooling)
+			return null;
+		synchronized (freePools) {
+			if (!freePools.isEmpty())
+				return freePools.pop();
+		}
+		return new CramRecordPool();
+	}
+
+	/**
+	 * Decodes only the data series and tags in the projection, see
+	 * {@link SeriesProjection}.
+	 */
+	public void setProjection(SeriesProjection projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * Decodes containers in parts of about this many records instead of
+	 * whole, so that the decoded records held do not depend on the container
+	 * size. A part is extended while it has records whose mates come later in
+	 * the container. Only the compressed container is kept between parts.
+	 * Containers are not read ahead in this mode.
+	 *
+	 * @param maxDecodedRecords
+	 *            records per part or 0 to decode whole containers
+	 */
+	public void setMaxDecodedRecords(int maxDecodedRecords) {
+		this.maxDecodedRecords = maxDecodedRecords;
+	}
+
+	/**
+	 * @return the next container or null if there are no more containers in
+	 *         the stream. With {@link #setMaxDecodedRecords} the records are
+	 *         only a part of the container.
+	 */
+	public DecodedContainer next() throws IOException, IllegalAccessException {
+		if (eof)
+			return null;
+
+		if (maxDecodedRecords > 0)
+			return nextPart();
+
+		if (threads < 2) {
+			Container c = readContainer();
+			if (c == null) {
+				eof = true;
+				return null;
+			}
+			return createTask(c).call();
+		}
+
+		if (readerThread == null)
+			start();
+
+		Future<DecodedContainer> future;
+		try {
+			future = queue.take();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (future == END) {
+			eof = true;
+			executor.shutdown();
+			if (error != null)
+				rethrow(error);
+			return null;
+		}
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			rethrow(e.getCause());
+			return null;
+		}
+	}
+
+	private DecodedContainer nextPart() throws IOException,
+			IllegalAccessException {
+		ArrayList<CramRecord> records = new ArrayList<CramRecord>(
+				maxDecodedRecords);
+		partPool = takePool();
+		if (sliceReader != null)
+			sliceReader.setPool(partPool);
+		// index of the last downstream mate of the records in the part:
+		int lastMate = -1;
+		while (records.size() < maxDecodedRecords || lastMate >= records.size()) {
+			if (sliceReader == null || !sliceReader.hasNext()) {
+				if (!nextPartialSlice()) {
+					if (!records.isEmpty())
+						// a part never spans containers
+						break;
+					Container c = readContainer();
+					if (c == null) {
+						eof = true;
+						return null;
+					}
+					partial = c;
+					partialPlan = CodecPlan.forReader(c.h, projection);
+					partialRef = wholeSequences ? getSequenceRegion(c)
+							: getSliceRegion(c);
+					partialSlice = 0;
+					continue;
+				}
+			}
+
+			CramRecord r = sliceReader.next();
+			records.add(r);
+			if (r.multiFragment && !r.detached && r.hasMateDownStream)
+				lastMate = Math.max(lastMate, records.size()
+						+ r.recordsToNextFragment);
+		}
+
+		DecodedContainer d = new DecodeTask(partial, partialRef, readCounter)
+				.normalize(records, partPool);
+		readCounter += records.size();
+		return d;
+	}
+
+	/**
+	 * Moves to the next slice of the container decoded in parts, the slices
+	 * done with are let go with their blocks.
+	 *
+	 * @return false if the container has no more slices
+	 */
+	private boolean nextPartialSlice() throws IOException,
+			IllegalAccessException {
+		sliceReader = null;
+		if (partial == null)
+			return false;
+		if (partialSlice > 0)
+			partial.slices[partialSlice - 1] = null;
+		if (partialSlice >= partial.slices.length)
+			return false;
+
+		sliceReader = new BLOCK_PROTO.SliceRecordReader(
+				partial.slices[partialSlice++], partialPlan,
+				cramHeader.samFileHeader, partPool);
+		return true;
+	}
+
+	/**
+	 * Decodes some of the slices of the container at the given offset. The
+	 * range is widened by a slice at a time while records in it have mates in
+	 * slices outside of it, so that mate information is restored exactly as
+	 * when decoding the whole container. Cannot be mixed with reading ahead.
+	 *
+	 * @return the decoded slices or null if there is no container at the
+	 *         offset
+	 */
+	public DecodedContainer decodeSlices(SeekableStream s,
+			long containerOffset, int fromSlice, int toSlice)
+			throws IOException, IllegalAccessException {
+		if (readerThread != null)
+			throw new IllegalStateException(
+					"Random access is not supported while reading ahead.");
+
+		s.seek(containerOffset);
+		CountingInputStream cis = new CountingInputStream(s);
+		Container header = ReadWrite.readContainerHeader(cis);
+		if (header == null)
+			return null;
+		long nextContainerOffset = containerOffset + cis.getCount()
+				+ header.containerByteSize;
+		toSlice = Math.min(toSlice, header.landmarks.length - 1);
+
+		CramRecordPool pool = takePool();
+		while (true) {
+			s.seek(containerOffset);
+			Container c = ReadWrite.readContainer(cramHeader.samFileHeader, s,
+					fromSlice, toSlice - fromSlice + 1, lastHeader);
+			ArrayList<CramRecord> records = new ArrayList<CramRecord>();
+			BLOCK_PROTO.getRecords(c.h, c, cramHeader.samFileHeader, records,
+					pool, projection);
+
+			boolean widen = false;
+			if (fromSlice > 0 && hasMateUpstream(records)) {
+				fromSlice--;
+				widen = true;
+			}
+			if (toSlice < c.landmarks.length - 1 && hasMateDownstream(records)) {
+				toSlice++;
+				widen = true;
+			}
+			if (widen) {
+				if (pool != null)
+					pool.recycle(records, true);
+				log.debug(String.format(
+						"Mates outside of slices, widening to slices %d-%d.",
+						fromSlice, toSlice));
+				continue;
+			}
+
+			// name reads as a sequential decode would, the counter follows
+			// the slices decoded and not the whole container:
+			if (c.slices.length > 0 && c.slices[0].globalRecordCounter >= 0)
+				readCounter = (int) c.slices[0].globalRecordCounter;
+			DecodedContainer d = new DecodeTask(c, getSliceRegion(c),
+					readCounter).normalize(records, pool);
+			readCounter += records.size();
+			d.nextContainerOffset = nextContainerOffset;
+			return d;
+		}
+	}
+
+	/**
+	 * Reads only the part of the reference under the slices instead of the
+	 * whole sequence.
+	 */
+	private ReferenceRegion getSliceRegion(Container c) {
+		if (c.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+			return ReferenceRegion.EMPTY;
+
+		int start = Integer.MAX_VALUE;
+		int end = 0;
+		for (Slice slice : c.slices) {
+			if (slice.alignmentStart == SAMRecord.NO_ALIGNMENT_START)
+				continue;
+			start = Math.min(start, slice.alignmentStart - 1);
+			end = Math.max(end, slice.alignmentStart - 1 + slice.alignmentSpan);
+		}
+		if (start == Integer.MAX_VALUE)
+			return ReferenceRegion.EMPTY;
+
+		return referenceSource.getRegion(
+				cramHeader.samFileHeader.getSequence(c.sequenceId), start, end);
+	}
+
+	/**
+	 * @return true if a record is the downstream mate of a record that is not
+	 *         in the list
+	 */
+	private static boolean hasMateUpstream(ArrayList<CramRecord> records) {
+		boolean[] linked = new boolean[records.size()];
+		for (int i = 0; i < records.size(); i++) {
+			CramRecord r = records.get(i);
+			int mate = i + r.recordsToNextFragment + 1;
+			if (r.multiFragment && !r.detached && r.hasMateDownStream
+					&& mate < linked.length)
+				linked[mate] = true;
+		}
+
+		for (int i = 0; i < records.size(); i++) {
+			CramRecord r = records.get(i);
+			if (r.multiFragment && !r.detached && !r.hasMateDownStream
+					&& !linked[i])
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean hasMateDownstream(ArrayList<CramRecord> records) {
+		for (int i = 0; i < records.size(); i++) {
+			CramRecord r = records.get(i);
+			if (r.multiFragment && !r.detached && r.hasMateDownStream
+					&& i + r.recordsToNextFragment + 1 >= records.size())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stops reading ahead. The underlying stream is not closed.
+	 */
+	public void close() {
+		closed = true;
+		if (readerThread != null) {
+			readerThread.interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	private void start() {
+		ThreadFactory threadFactory = new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "container-decoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		executor = Executors.newFixedThreadPool(threads, threadFactory);
+		queue = new ArrayBlockingQueue<Future<DecodedContainer>>(2 * threads);
+
+		readerThread = threadFactory.newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Container c;
+					while (!closed
+							&& (c = readContainer()) != null)
+						queue.put(executor.submit(createTask(c)));
+				} catch (InterruptedException e) {
+					return;
+				} catch (Throwable t) {
+					error = t;
+				}
+
+				try {
+					queue.put(END);
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		readerThread.start();
+	}
+
+	private Container readContainer() throws IOException {
+		if (mappedReader != null)
+			return mappedReader.next();
+		return ReadWrite.readContainer(cramHeader.samFileHeader, is, 0,
+				Integer.MAX_VALUE, lastHeader);
+	}
+
+	/**
+	 * Must be called in the stream order: the reference and the read counter
+	 * are resolved here so that the task itself does not depend on the order
+	 * in which containers are decoded.
+	 */
+	private DecodeTask createTask(Container c) {
+		if (!wholeSequences)
+			return createTask(c, getSliceRegion(c));
+
+		return createTask(c, getSequenceRegion(c));
+	}
+
+	/**
+	 * The whole reference sequence of the container, shared with the
+	 * previous container if it is on the same sequence.
+	 */
+	private ReferenceRegion getSequenceRegion(Container c) {
+		if (c.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+			ref = ReferenceRegion.EMPTY;
+			prevSeqId = c.sequenceId;
+		} else if (prevSeqId < 0 || prevSeqId != c.sequenceId) {
+			SAMSequenceRecord sequence = cramHeader.samFileHeader
+					.getSequence(c.sequenceId);
+			ref = referenceSource.getSequence(sequence);
+			prevSeqId = c.sequenceId;
+		}
+		return ref;
+	}
+
+	private DecodeTask createTask(Container c, ReferenceRegion ref) {
+		DecodeTask task = new DecodeTask(c, ref, readCounter);
+		readCounter += c.nofRecords;
+		return task;
+	}
+
+	private class DecodeTask implements Callable<DecodedContainer> {
+		private Container container;
+		private ReferenceRegion ref;
+		private int readCounter;
+
+		public DecodeTask(Container container, ReferenceRegion ref,
+				int readCounter) {
+			this.container = container;
+			this.ref = ref;
+			this.readCounter = readCounter;
+		}
+
+		@Override
+		public DecodedContainer call() throws IOException,
+				IllegalAccessException {
+			ArrayList<CramRecord> records = new ArrayList<CramRecord>(
+					container.nofRecords);
+			CramRecordPool pool = takePool();
+			BLOCK_PROTO.getRecords(container.h, container,
+					cramHeader.samFileHeader, records, pool, projection);
+
+			if (records.size() != container.nofRecords)
+				log.warn(String.format(
+						"Container declares %d records but %d found.",
+						container.nofRecords, records.size()));
+			return normalize(records, pool);
+		}
+
+		DecodedContainer normalize(ArrayList<CramRecord> records,
+				CramRecordPool pool) {
+			DecodedContainer d = new DecodedContainer();
+			d.container = container;
+			d.ref = ref;
+			d.records = records;
+			d.pool = pool;
+
+			long time = System.nanoTime();
+			normalizer.normalize(d.records, true, ref,
+					container.alignmentStart, container.h.substitutionMatrix,
+					container.h.AP_seriesDelta, readCounter, pool);
+			d.normTime = System.nanoTime() - time;
+			return d;
+		}
+	}
+
+	private static void rethrow(Throwable t) throws IOException,
+			IllegalAccessException {
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof IllegalAccessException)
+			throw (IllegalAccessException) t;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new RuntimeException(t);
+	}
+}
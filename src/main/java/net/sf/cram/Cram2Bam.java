@@ -9,17 +9,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import net.sf.cram.ContainerDecoder.DecodedContainer;
 import net.sf.cram.CramTools.LevelConverter;
 import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.encoding.SeriesProjection;
 import net.sf.cram.index.CramIndex;
 import net.sf.cram.index.CramIndex.Entry;
 import net.sf.cram.io.CountingInputStream;
+import net.sf.cram.structure.BlockCodecs;
 import net.sf.cram.structure.Container;
 import net.sf.picard.reference.ReferenceSequence;
 import net.sf.picard.reference.ReferenceSequenceFile;
@@ -155,134 +157,115 @@ public class Cram2Bam {
 		long samTime = 0;
 		long writeTime = 0;
 		long time = 0;
-		ArrayList<CramRecord> cramRecords = new ArrayList<CramRecord>(10000);
-
-		CramNormalizer n = new CramNormalizer(cramHeader.samFileHeader);
-
-		byte[] ref = null;
-		int prevSeqId = -1;
-		while (true) {
-//			try {
-				time = System.nanoTime();
-				// cis = new CountingInputStream(is);
-				c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
-				if (c == null) break ;
-				// c.offset = offset;
-				// offset += cis.getCount();
-				readTime += System.nanoTime() - time;
-//			} catch (EOFException e) {
-//				break;
-//			}
-
-			// for random access check if the sequence is the one look for:
-			if (location != null
-					&& cramHeader.samFileHeader.getSequence(location.sequence)
-							.getSequenceIndex() != c.sequenceId)
-				break;
-
-			if (params.countOnly && params.requiredFlags == 0
-					&& params.filteringFlags == 0) {
+
+		if (params.countOnly && params.requiredFlags == 0
+				&& params.filteringFlags == 0) {
+			// container headers are enough, the blocks are skipped:
+			while ((c = ReadWrite.skipContainer(is)) != null) {
+				// for random access check if the sequence is the one look for:
+				if (location != null
+						&& cramHeader.samFileHeader.getSequence(location.sequence)
+								.getSequenceIndex() != c.sequenceId)
+					break;
+
 				recordCount += c.nofRecords;
-				continue;
 			}
+		} else {
+			ContainerDecoder decoder;
+			FileChannel channel = null;
+			if (params.cramFile != null && !params.decrypt && location == null) {
+				// plain files are memory mapped to avoid copying the blocks:
+				channel = new FileInputStream(params.cramFile).getChannel();
+				decoder = new ContainerDecoder(new MappedContainerReader(
+						channel, cramHeader.samFileHeader, offset), cramHeader,
+						referenceSequenceFile, params.threads);
+			} else
+				decoder = new ContainerDecoder(is, cramHeader,
+						referenceSequenceFile, params.threads);
+			decoder.setWholeSequences(location == null);
+			// flags and positions are enough to count records:
+			if (params.countOnly)
+				decoder.setProjection(SeriesProjection.of());
+			decoder.setRecordPooling(true);
+			while (true) {
+				DecodedContainer d = decoder.next();
+				if (d == null)
+					break;
+				c = d.container;
+				readTime += c.readTime;
+				parseTime += c.parseTime;
+				normTime += d.normTime;
+
+				// for random access check if the sequence is the one look for:
+				if (location != null
+						&& cramHeader.samFileHeader.getSequence(location.sequence)
+								.getSequenceIndex() != c.sequenceId)
+					break;
 
-			try {
-				time = System.nanoTime();
-				cramRecords.clear();
-				BLOCK_PROTO.getRecords(c.h, c, cramHeader.samFileHeader,
-						cramRecords);
-				parseTime += System.nanoTime() - time;
-			} catch (EOFException e) {
-				throw e;
-			}
+				ArrayList<CramRecord> cramRecords = d.records;
+				ReferenceRegion ref = d.ref;
 
-			if (c.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-				ref = new byte[] {};
-			} else if (prevSeqId < 0 || prevSeqId != c.sequenceId) {
-				SAMSequenceRecord sequence = cramHeader.samFileHeader
-						.getSequence(c.sequenceId);
-				ReferenceSequence referenceSequence = Utils
-						.trySequenceNameVariants(referenceSequenceFile,
-								sequence.getSequenceName());
-				ref = referenceSequence.getBases();
-				{
-					// hack:
-					int newLines = 0;
-					for (byte b : ref)
-						if (b == 10)
-							newLines++;
-					byte[] ref2 = new byte[ref.length - newLines];
-					int j = 0;
-					for (int i = 0; i < ref.length; i++)
-						if (ref[i] == 10)
-							continue;
-						else
-							ref2[j++] = ref[i];
-					ref = ref2;
-				}
-				prevSeqId = c.sequenceId;
-			}
+				Cram2BamRecordFactory c2sFactory = new Cram2BamRecordFactory(
+						cramHeader.samFileHeader);
 
-			long time1 = System.nanoTime();
-			n.normalize(cramRecords, true, ref, c.alignmentStart, c.h.substitutionMatrix, c.h.AP_seriesDelta);
-			long time2 = System.nanoTime();
-			normTime += time2 - time1;
-
-			Cram2BamRecordFactory c2sFactory = new Cram2BamRecordFactory(
-					cramHeader.samFileHeader);
-
-			long c2sTime = 0;
-			long sWriteTime = 0;
-
-			boolean enough = false;
-			for (CramRecord r : cramRecords) {
-				// check if the record ends before the query start:
-				if (location != null && r.getAlignmentStart() < location.start)
-					continue;
-
-				time = System.nanoTime();
-				SAMRecord s = c2sFactory.create(r);
-
-				if (params.requiredFlags != 0
-						&& ((params.requiredFlags & s.getFlags()) == 0))
-					continue;
-				if (params.filteringFlags != 0
-						&& ((params.filteringFlags & s.getFlags()) != 0))
-					continue;
-				if (params.countOnly) {
-					recordCount++;
-					continue;
+				long c2sTime = 0;
+				long sWriteTime = 0;
+
+				boolean enough = false;
+				for (CramRecord r : cramRecords) {
+					// check if the record ends before the query start:
+					if (location != null && r.getAlignmentStart() < location.start)
+						continue;
+
+					time = System.nanoTime();
+					SAMRecord s = c2sFactory.create(r);
+
+					if (params.requiredFlags != 0
+							&& ((params.requiredFlags & s.getFlags()) == 0))
+						continue;
+					if (params.filteringFlags != 0
+							&& ((params.filteringFlags & s.getFlags()) != 0))
+						continue;
+					if (params.countOnly) {
+						recordCount++;
+						continue;
+					}
+
+					if (ref != null)
+						Utils.calculateMdAndNmTags(s, ref, params.calculateMdTag,
+								params.calculateNmTag);
+					c2sTime += System.nanoTime() - time;
+					samTime += System.nanoTime() - time;
+
+					time = System.nanoTime();
+					writer.addAlignment(s);
+					sWriteTime += System.nanoTime() - time;
+					writeTime += System.nanoTime() - time;
+					if (params.outputFile == null && System.out.checkError())
+						break;
+
+					// we got all the reads for random access:
+					if (location != null && location.end < s.getAlignmentStart()) {
+						enough = true;
+						break;
+					}
 				}
+				// SAM records written share the arrays unless only counted:
+				decoder.recycle(d, params.countOnly);
 
-				if (ref != null)
-					Utils.calculateMdAndNmTags(s, ref, params.calculateMdTag,
-							params.calculateNmTag);
-				c2sTime += System.nanoTime() - time;
-				samTime += System.nanoTime() - time;
-
-				time = System.nanoTime();
-				writer.addAlignment(s);
-				sWriteTime += System.nanoTime() - time;
-				writeTime += System.nanoTime() - time;
-				if (params.outputFile == null && System.out.checkError())
-					break;
+				log.info(String
+						.format("CONTAINER READ: io %dms, parse %dms, norm %dms, convert %dms, BAM write %dms",
+								c.readTime / 1000000, c.parseTime / 1000000,
+								d.normTime / 1000000, c2sTime / 1000000,
+								sWriteTime / 1000000));
 
-				// we got all the reads for random access:
-				if (location != null && location.end < s.getAlignmentStart()) {
-					enough = true;
+				if (enough
+						|| (params.outputFile == null && System.out.checkError()))
 					break;
-				}
 			}
-
-			log.info(String
-					.format("CONTAINER READ: io %dms, parse %dms, norm %dms, convert %dms, BAM write %dms",
-							c.readTime / 1000000, c.parseTime / 1000000,
-							(time2 - time1) / 1000000, c2sTime / 1000000,
-							sWriteTime / 1000000));
-
-			if (enough
-					|| (params.outputFile == null && System.out.checkError()))
-				break;
+			decoder.close();
+			if (channel != null)
+				channel.close();
 		}
 
 		if (params.countOnly)
@@ -297,6 +280,7 @@ public class Cram2Bam {
 						readTime / 1000000000, parseTime / 1000000000,
 						normTime / 1000000000, samTime / 1000000000,
 						writeTime / 1000000000));
+		log.info("Block compression:\n" + BlockCodecs.report());
 	}
 
 	private static Container skipToContainer(File cramFile,
@@ -310,6 +294,8 @@ public class Cram2Bam {
 			if (entries != null) {
 				try {
 					Entry leftmost = CramIndex.getLeftmost(entries);
+					if (leftmost == null)
+						return null;
 					cramFileInputStream.seek(leftmost.containerStartOffset);
 					c = ReadWrite.readContainerHeader(cramFileInputStream);
 					if (c == null) return null ;
@@ -368,25 +354,14 @@ public class Cram2Bam {
 			AlignmentSliceQuery location) throws IOException {
 		File indexFile = new File(cramFile.getAbsolutePath() + ".crai");
 		if (indexFile.exists()) {
-			FileInputStream fis = new FileInputStream(indexFile);
-			GZIPInputStream gis = new GZIPInputStream(new BufferedInputStream(
-					fis));
-			BufferedInputStream bis = new BufferedInputStream(gis);
-			List<CramIndex.Entry> full = CramIndex.readIndex(gis);
-
-			List<CramIndex.Entry> entries = new LinkedList<CramIndex.Entry>();
 			SAMSequenceRecord sequence = cramHeader.samFileHeader
 					.getSequence(location.sequence);
 			if (sequence == null)
 				throw new RuntimeException("Sequence not found: "
 						+ location.sequence);
 
-			entries.addAll(CramIndex.find(full, sequence.getSequenceIndex(),
-					location.start, location.end - location.start));
-
-			bis.close();
-
-			return entries;
+			return CramIndex.find(indexFile, sequence.getSequenceIndex(),
+					location.start, location.end - location.start);
 		}
 		return null;
 	}
@@ -539,6 +514,9 @@ public class Cram2Bam {
 		@Parameter(names = { "--filter-flags", "-F" }, description = "Filtering flags. ")
 		int filteringFlags = 0;
 
+		@Parameter(names = { "--threads", "-t" }, description = "Decode containers using this many threads.")
+		int threads = 1;
+
 	}
 
 }
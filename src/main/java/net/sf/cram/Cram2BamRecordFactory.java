@@ -31,8 +31,13 @@ public class Cram2BamRecordFactory {
 	}
 
 	public SAMRecord create(CramRecord cramRecord) {
-		SAMRecord samRecord = new SAMRecord(header);
+		return create(cramRecord, new SAMRecord(header));
+	}
 
+	/**
+	 * Fills the given record, which must be new, from the cram record.
+	 */
+	public SAMRecord create(CramRecord cramRecord, SAMRecord samRecord) {
 		samRecord.setReadName(cramRecord.getReadName());
 		copyFlags(cramRecord, samRecord);
 
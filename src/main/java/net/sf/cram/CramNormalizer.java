@@ -22,6 +22,7 @@ public class CramNormalizer {
 	private int readCounter = 0;
 	private String readNamePrefix = "";
 	private byte defaultQualityScore = '?' - '!';
+	private CramRecordPool pool;
 
 	private static Log log = Log.getInstance(CramNormalizer.class);
 
@@ -29,115 +30,149 @@ public class CramNormalizer {
 		this.header = header;
 	}
 
+	/**
+	 * Takes the bases and quality scores arrays from the pool instead of
+	 * allocating them.
+	 */
+	public void setRecordPool(CramRecordPool pool) {
+		this.pool = pool;
+	}
+
 	public void normalize(ArrayList<CramRecord> records, boolean resetPairing,
-			byte[] ref, int alignmentStart,
+			ReferenceRegion ref, int alignmentStart,
 			SubstitutionMatrix substitutionMatrix, boolean AP_delta) {
-
 		int startCounter = readCounter;
+		readCounter += records.size();
+		normalize(records, resetPairing, ref, alignmentStart,
+				substitutionMatrix, AP_delta, startCounter);
+	}
 
-		for (CramRecord r : records) {
-			r.index = ++readCounter;
+	/**
+	 * Same as above but does not update the internal read counter, the
+	 * records are indexed starting from startCounter+1 instead. This is safe
+	 * to call concurrently for different record lists. The reference region
+	 * must cover the alignment spans of all mapped records.
+	 */
+	public void normalize(ArrayList<CramRecord> records, boolean resetPairing,
+			ReferenceRegion ref, int alignmentStart,
+			SubstitutionMatrix substitutionMatrix, boolean AP_delta,
+			int startCounter) {
+		normalize(records, resetPairing, ref, alignmentStart,
+				substitutionMatrix, AP_delta, startCounter, pool);
+	}
 
-			if (r.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-				r.setSequenceName(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME);
-				r.setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
-			} else {
-				r.setSequenceName(header.getSequence(r.sequenceId)
-						.getSequenceName());
-			}
-		}
+	/**
+	 * Same as above but takes the arrays from the given pool, or allocates
+	 * them if it is null. Concurrent calls must use different pools.
+	 */
+	public void normalize(ArrayList<CramRecord> records, boolean resetPairing,
+			ReferenceRegion ref, int alignmentStart,
+			SubstitutionMatrix substitutionMatrix, boolean AP_delta,
+			int startCounter, CramRecordPool pool) {
 
-		{// restore pairing first:
-			for (CramRecord r : records) {
-				if (!r.multiFragment || r.detached) {
-					r.recordsToNextFragment = -1;
+		int readCounter = startCounter;
 
-					r.next = null;
-					r.previous = null;
-					continue;
-				}
-				if (r.hasMateDownStream) {
-					CramRecord downMate = records.get(r.index
-							+ r.recordsToNextFragment - startCounter);
-					r.next = downMate;
-					downMate.previous = r;
-
-					r.mateAlignmentStart = downMate.getAlignmentStart();
-					r.mateUmapped = downMate.segmentUnmapped;
-					r.mateNegativeStrand = downMate.negativeStrand;
-					r.mateSequnceID = downMate.sequenceId;
-					if (r.mateSequnceID == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
-						r.mateAlignmentStart = SAMRecord.NO_ALIGNMENT_START;
-
-					downMate.mateAlignmentStart = r.getAlignmentStart();
-					downMate.mateUmapped = r.segmentUnmapped;
-					downMate.mateNegativeStrand = r.negativeStrand;
-					downMate.mateSequnceID = r.sequenceId;
-					if (downMate.mateSequnceID == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
-						downMate.mateAlignmentStart = SAMRecord.NO_ALIGNMENT_START;
-
-					if (r.firstSegment && downMate.lastSegment) {
-						r.templateSize = Utils.computeInsertSize(r, downMate);
-						downMate.templateSize = -r.templateSize;
-					} else if (r.lastSegment && downMate.firstSegment) {
-						downMate.templateSize = Utils.computeInsertSize(
-								downMate, r);
-						r.templateSize = -downMate.templateSize;
-					}
+		// a single pass: mates downstream are only linked, everything else
+		// about them is resolved when the pass gets to them
+		for (int i = 0; i < records.size(); i++) {
+			CramRecord r = records.get(i);
+			r.index = ++readCounter;
+			resolveSequence(r);
+
+			// restore pairing:
+			if (!r.multiFragment || r.detached) {
+				r.recordsToNextFragment = -1;
+
+				r.next = null;
+				r.previous = null;
+			} else if (r.hasMateDownStream) {
+				CramRecord downMate = records.get(i + r.recordsToNextFragment
+						+ 1);
+				resolveSequence(downMate);
+				r.next = downMate;
+				downMate.previous = r;
+
+				r.mateAlignmentStart = downMate.getAlignmentStart();
+				r.mateUmapped = downMate.segmentUnmapped;
+				r.mateNegativeStrand = downMate.negativeStrand;
+				r.mateSequnceID = downMate.sequenceId;
+				if (r.mateSequnceID == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+					r.mateAlignmentStart = SAMRecord.NO_ALIGNMENT_START;
+
+				downMate.mateAlignmentStart = r.getAlignmentStart();
+				downMate.mateUmapped = r.segmentUnmapped;
+				downMate.mateNegativeStrand = r.negativeStrand;
+				downMate.mateSequnceID = r.sequenceId;
+				if (downMate.mateSequnceID == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+					downMate.mateAlignmentStart = SAMRecord.NO_ALIGNMENT_START;
+
+				if (r.firstSegment && downMate.lastSegment) {
+					r.templateSize = Utils.computeInsertSize(r, downMate);
+					downMate.templateSize = -r.templateSize;
+				} else if (r.lastSegment && downMate.firstSegment) {
+					downMate.templateSize = Utils.computeInsertSize(downMate,
+							r);
+					r.templateSize = -downMate.templateSize;
 				}
 			}
-		}
 
-		// assign some read names if needed:
-		for (CramRecord r : records) {
-			if (r.getReadName() == null) {
-				String name = readNamePrefix + r.index;
-				r.setReadName(name);
+			// assign some read names if needed:
+			if (!r.hasReadName()) {
+				r.setReadName(readNamePrefix, r.index);
 				if (r.next != null)
-					r.next.setReadName(name);
+					r.next.setReadName(readNamePrefix, r.index);
 				if (r.previous != null)
-					r.previous.setReadName(name);
+					r.previous.setReadName(readNamePrefix, r.index);
 			}
-		}
 
-		// resolve bases:
-		for (CramRecord r : records) {
-			if (r.segmentUnmapped)
-				continue;
+			// resolve bases:
+			if (!r.segmentUnmapped)
+				r.setReadBases(restoreReadBases(r, ref.bases, ref.start,
+						substitutionMatrix, pool));
 
-			byte[] bases = restoreReadBases(r, ref, substitutionMatrix);
-			r.setReadBases(bases);
+			// restore quality scores:
+			restoreQualityScores(r, pool);
 		}
+	}
 
-		// restore quality scores:
-		for (CramRecord r : records) {
-			if (!r.forcePreserveQualityScores) {
-				byte[] scores = new byte[r.getReadLength()];
-				Arrays.fill(scores, defaultQualityScore);
-				if (r.getReadFeatures() != null)
-					for (ReadFeature f : r.getReadFeatures()) {
-						if (f.getOperator() == BaseQualityScore.operator) {
-							int pos = f.getPosition();
-							byte q = ((BaseQualityScore) f).getQualityScore();
-
-							try {
-								scores[pos - 1] = q;
-							} catch (ArrayIndexOutOfBoundsException e) {
-								System.err.println("PROBLEM CAUSED BY:");
-								System.err.println(r.toString());
-								throw e;
-							}
-						}
+	private void resolveSequence(CramRecord r) {
+		if (r.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+			r.setSequenceName(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME);
+			r.setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+		} else {
+			r.setSequenceName(header.getSequence(r.sequenceId)
+					.getSequenceName());
+		}
+	}
 
+	private void restoreQualityScores(CramRecord r, CramRecordPool pool) {
+		if (!r.forcePreserveQualityScores) {
+			byte[] scores = pool == null ? new byte[r.getReadLength()] : pool
+					.getBytes(r.getReadLength());
+			Arrays.fill(scores, defaultQualityScore);
+			if (r.getReadFeatures() != null)
+				for (ReadFeature f : r.getReadFeatures()) {
+					if (f.getOperator() == BaseQualityScore.operator) {
+						int pos = f.getPosition();
+						byte q = ((BaseQualityScore) f).getQualityScore();
+
+						try {
+							scores[pos - 1] = q;
+						} catch (ArrayIndexOutOfBoundsException e) {
+							System.err.println("PROBLEM CAUSED BY:");
+							System.err.println(r.toString());
+							throw e;
+						}
 					}
 
-				r.setQualityScores(scores);
-			} else {
-				byte[] scores = r.getQualityScores();
-				for (int i = 0; i < scores.length; i++)
-					if (scores[i] == -1)
-						scores[i] = defaultQualityScore;
-			}
+				}
+
+			r.setQualityScores(scores);
+		} else {
+			byte[] scores = r.getQualityScores();
+			for (int i = 0; i < scores.length; i++)
+				if (scores[i] == -1)
+					scores[i] = defaultQualityScore;
 		}
 	}
 
@@ -167,13 +202,19 @@ public class CramNormalizer {
 		return len;
 	}
 
+	/**
+	 * @param refStart
+	 *            0-based position of the first reference base on the sequence
+	 */
 	private static final byte[] restoreReadBases(CramRecord record, byte[] ref,
-			SubstitutionMatrix substitutionMatrix) {
+			int refStart, SubstitutionMatrix substitutionMatrix,
+			CramRecordPool pool) {
 		int readLength = (int) record.getReadLength();
-		byte[] bases = new byte[readLength];
+		byte[] bases = pool == null ? new byte[readLength] : pool
+				.getBytes(readLength);
 
 		int posInRead = 1;
-		int alignmentStart = record.getAlignmentStart() - 1;
+		int alignmentStart = record.getAlignmentStart() - 1 - refStart;
 
 		int posInSeq = 0;
 		if (record.getReadFeatures() == null
@@ -16,6 +16,7 @@
 package net.sf.cram;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -82,12 +83,18 @@ public class CramRecord implements Serializable {
 	private String sequenceName;
 	public int sequenceId;
 	private String readName;
+	// generated read names are only built when asked for:
+	private String readNamePrefix;
+	private long readNameIndex = -1;
 	public int templateSize;
 	public long counter = 1;
 
 	public byte[] tagIds;
 	public MutableInt tagIdsIndex;
 
+	// read feature list kept by reset() for reuse:
+	private List<ReadFeature> spareReadFeatures;
+
 	public int getFlags() {
 		if (flags == null) {
 			int b = 0;
@@ -246,7 +253,7 @@ public class CramRecord implements Serializable {
 		if (!areEqual(flags, r.flags))
 			return false;
 
-		if (!areEqual(readName, r.readName))
+		if (!areEqual(getReadName(), r.getReadName()))
 			return false;
 
 		return true;
@@ -269,8 +276,8 @@ public class CramRecord implements Serializable {
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer("[");
-		if (readName != null)
-			sb.append(readName).append("; ");
+		if (getReadName() != null)
+			sb.append(getReadName()).append("; ");
 		sb.append("flags=").append(getFlags());
 		sb.append("; aloffset=").append(alignmentStartOffsetFromPreviousRecord);
 		sb.append("; mateoffset=").append(recordsToNextFragment);
@@ -395,11 +402,99 @@ public class CramRecord implements Serializable {
 	}
 
 	public String getReadName() {
+		if (readName == null && readNameIndex >= 0)
+			readName = readNamePrefix + readNameIndex;
 		return readName;
 	}
 
 	public void setReadName(String readName) {
 		this.readName = readName;
+		readNameIndex = -1;
+	}
+
+	/**
+	 * Names the read prefix followed by the index, the name string is not
+	 * created until {@link #getReadName()} is called.
+	 */
+	public void setReadName(String prefix, long index) {
+		readName = null;
+		readNamePrefix = prefix;
+		readNameIndex = index;
+	}
+
+	public boolean hasReadName() {
+		return readName != null || readNameIndex >= 0;
+	}
+
+	/**
+	 * @return an empty list for read features, reusing the one of the record
+	 *         before it was reset
+	 */
+	public List<ReadFeature> newReadFeatures() {
+		List<ReadFeature> list = spareReadFeatures;
+		spareReadFeatures = null;
+		if (list == null)
+			list = new ArrayList<ReadFeature>();
+		readFeatures = list;
+		return list;
+	}
+
+	/**
+	 * Restores the state of a newly created record so that the object can be
+	 * reused. Bases and scores arrays are dropped, the read feature list is
+	 * cleared and kept for {@link #newReadFeatures()}.
+	 */
+	public void reset() {
+		tags = null;
+		index = 0;
+		alignmentStart = 0;
+		alignmentStartOffsetFromPreviousRecord = 0;
+		readLength = 0;
+		recordsToNextFragment = -1;
+		readBases = null;
+		qualityScores = null;
+		if (readFeatures != null) {
+			readFeatures.clear();
+			spareReadFeatures = readFeatures;
+			readFeatures = null;
+		}
+		readGroupID = 0;
+
+		flags = null;
+		multiFragment = false;
+		properPair = false;
+		segmentUnmapped = false;
+		negativeStrand = false;
+		firstSegment = false;
+		lastSegment = false;
+		secondaryALignment = false;
+		vendorFiltered = false;
+		duplicate = false;
+
+		next = null;
+		previous = null;
+
+		mateFlags = null;
+		mateUmapped = false;
+		mateNegativeStrand = false;
+
+		compressionFlags = null;
+		hasMateDownStream = false;
+		detached = false;
+		forcePreserveQualityScores = false;
+
+		mateSequnceID = -1;
+		mateAlignmentStart = 0;
+		mappingQuality = 0;
+		sequenceName = null;
+		sequenceId = 0;
+		readName = null;
+		readNamePrefix = null;
+		readNameIndex = -1;
+		templateSize = 0;
+		counter = 1;
+		tagIds = null;
+		tagIdsIndex = null;
 	}
 
 	public int calcualteAlignmentEnd() {
@@ -0,0 +1,67 @@
+package net.sf.cram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recycles cram records and their bases and scores arrays between containers.
+ * Records must only be recycled once nothing refers to them any more, the
+ * arrays only if they have not been handed over, for example to a SAMRecord.
+ * Not synchronized: a pool is owned by one thread at a time, see
+ * {@link ContainerDecoder#setRecordPooling}.
+ */
+public class CramRecordPool {
+	private ArrayList<CramRecord> records = new ArrayList<CramRecord>();
+	private Map<Integer, ArrayList<byte[]>> arrays = new HashMap<Integer, ArrayList<byte[]>>();
+
+	public CramRecord getRecord() {
+		if (records.isEmpty())
+			return new CramRecord();
+		return records.remove(records.size() - 1);
+	}
+
+	/**
+	 * @return an array of the given length with undefined content
+	 */
+	public byte[] getBytes(int length) {
+		ArrayList<byte[]> list = arrays.get(length);
+		if (list == null || list.isEmpty())
+			return new byte[length];
+		return list.remove(list.size() - 1);
+	}
+
+	private void putBytes(byte[] array) {
+		if (array == null)
+			return;
+		ArrayList<byte[]> list = arrays.get(array.length);
+		if (list == null) {
+			list = new ArrayList<byte[]>();
+			arrays.put(array.length, list);
+		}
+		list.add(array);
+	}
+
+	/**
+	 * @param withArrays
+	 *            also recycle the bases and quality scores arrays of the
+	 *            records
+	 */
+	public void recycle(List<CramRecord> list, boolean withArrays) {
+		records.ensureCapacity(records.size() + list.size());
+		for (int i = 0; i < list.size(); i++) {
+			CramRecord r = list.get(i);
+			if (withArrays) {
+				putBytes(r.getReadBases());
+				putBytes(r.getQualityScores());
+			}
+			r.reset();
+			records.add(r);
+		}
+	}
+
+	public int size() {
+		return records.size();
+	}
+}
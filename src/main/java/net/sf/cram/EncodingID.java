@@ -1,5 +1,5 @@
 package net.sf.cram;
 
 public enum EncodingID {
-	NULL, EXTERNAL, GOLOMB, HUFFMAN, BYTE_ARRAY_LEN, BYTE_ARRAY_STOP, BETA, SUBEXP, GOLOMB_RICE, GAMMA;
+	NULL, EXTERNAL, GOLOMB, HUFFMAN, BYTE_ARRAY_LEN, BYTE_ARRAY_STOP, BETA, SUBEXP, GOLOMB_RICE, GAMMA, RANGE, TOKENS;
 }
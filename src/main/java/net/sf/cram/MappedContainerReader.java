@@ -0,0 +1,97 @@
+package net.sf.cram;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.sf.cram.structure.CompressionHeaderBLock.LastHeader;
+import net.sf.cram.structure.Container;
+import net.sf.samtools.SAMFileHeader;
+
+/**
+ * Reads containers sequentially from a memory mapped file. The file is mapped
+ * in windows, a window is remapped when the next container does not fit in
+ * it. Blocks stored RAW keep views of the mapping instead of copies, the
+ * mapping is released once no container refers to it any more.
+ */
+public class MappedContainerReader {
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private FileChannel channel;
+	private SAMFileHeader samFileHeader;
+	private int windowSize;
+	private long offset;
+	private long windowOffset;
+	private MappedByteBuffer window;
+	private LastHeader lastHeader = new LastHeader();
+
+	/**
+	 * @param offset
+	 *            file offset of the first container
+	 */
+	public MappedContainerReader(FileChannel channel,
+			SAMFileHeader samFileHeader, long offset) {
+		this(channel, samFileHeader, offset, DEFAULT_WINDOW_SIZE);
+	}
+
+	public MappedContainerReader(FileChannel channel,
+			SAMFileHeader samFileHeader, long offset, int windowSize) {
+		this.channel = channel;
+		this.samFileHeader = samFileHeader;
+		this.offset = offset;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @return file offset of the next container
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the next container or null at the end of the file
+	 */
+	public Container next() throws IOException {
+		while (true) {
+			long size = channel.size();
+			if (window == null)
+				map(Math.min(windowSize, size - offset));
+
+			window.position((int) (offset - windowOffset));
+			try {
+				Container c = ReadWrite.readContainer(samFileHeader, window,
+						0, Integer.MAX_VALUE, lastHeader);
+				if (c != null) {
+					offset = windowOffset + window.position();
+					return c;
+				}
+			} catch (BufferUnderflowException e) {
+				// the container does not fit in the window
+			}
+
+			long windowEnd = windowOffset + window.limit();
+			if (windowEnd >= size) {
+				if (offset == windowEnd)
+					return null;
+				throw new EOFException("Truncated container at offset "
+						+ offset);
+			}
+
+			long needed = offset == windowOffset ? 2L * window.limit()
+					: windowSize;
+			if (needed > Integer.MAX_VALUE)
+				throw new RuntimeException("Container too large to map: "
+						+ offset);
+			windowSize = (int) Math.max(windowSize, needed);
+			map(Math.min(windowSize, size - offset));
+		}
+	}
+
+	private void map(long length) throws IOException {
+		windowOffset = offset;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+}
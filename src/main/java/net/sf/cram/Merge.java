@@ -4,17 +4,19 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
 
 import net.sf.cram.CramTools.LevelConverter;
 import net.sf.cram.CramTools.ValidationStringencyConverter;
+import net.sf.cram.ReadWrite.CramHeader;
 import net.sf.cram.index.BAMQueryFilteringIterator;
 import net.sf.cram.index.CramIndex;
+import net.sf.cram.lossy.QualityScorePreservation;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.reference.ReferenceSequenceFile;
 import net.sf.picard.reference.ReferenceSequenceFileFactory;
@@ -75,6 +77,11 @@ public class Merge {
 			System.exit(1);
 		}
 
+		if (params.cram && params.outFile == null) {
+			System.out.println("An output file is required for CRAM output.");
+			System.exit(1);
+		}
+
 		ReferenceSequenceFile refFile = null;
 		if (params.reference != null) {
 			System.setProperty("reference", params.reference.getAbsolutePath());
@@ -90,7 +97,11 @@ public class Merge {
 		AlignmentSliceQuery query = params.region == null ? null
 				: new AlignmentSliceQuery(params.region);
 
-		List<RecordSource> list = readFiles(params.files, refFile, query, params.validationLevel);
+		// CRAM sources decode a batch of records at a time:
+		int maxDecodedRecords = MergedIterator.batchSize(
+				params.readAheadRecords, params.files.size());
+		List<RecordSource> list = readFiles(params.files, refFile, query,
+				params.validationLevel, maxDecodedRecords);
 
 		StringBuffer mergeComment = new StringBuffer("Merged from:");
 		for (RecordSource source : list) {
@@ -101,6 +112,32 @@ public class Merge {
 		SAMFileHeader header = mergeHeaders(list);
 		header.addComment(mergeComment.toString());
 
+		if (params.cram) {
+			List<String> ids = new ArrayList<String>(list.size());
+			for (RecordSource source : list) {
+				ids.add(source.id);
+				source.close();
+			}
+			ShardedMerge merge = new ShardedMerge(params.files, ids, header,
+					refFile);
+			merge.maxContainerSize = params.maxContainerSize;
+			merge.readAheadRecords = params.readAheadRecords;
+			if (params.losslessQS)
+				merge.preservation = new QualityScorePreservation("*40");
+			else
+				merge.preservation = new QualityScorePreservation(
+						params.qsSpec);
+			merge.preserveReadNames = params.preserveReadNames;
+			merge.captureAllTags = params.captureAllTags;
+			merge.captureTags = params.captureTags;
+			merge.ignoreTags = params.ignoreTags;
+			// the shards are encoded in parallel already:
+			BLOCK_PROTO.sliceThreads = 1;
+			merge.run(ShardedMerge.split(header, query, params.shardSize),
+					params.outFile, params.threads);
+			return;
+		}
+
 		SAMFileWriter writer = null;
 		if (params.outFile != null)
 			if (!params.samFormat)
@@ -124,7 +161,15 @@ public class Merge {
 					params.printSAMHeader);
 		}
 
-		MergedIterator mergedIterator = new MergedIterator(list, header);
+		List<String> ids = new ArrayList<String>(list.size());
+		List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>(
+				list.size());
+		for (RecordSource source : list) {
+			ids.add(source.id);
+			iterators.add(source.it);
+		}
+		MergedIterator mergedIterator = new MergedIterator(ids, iterators,
+				header, params.readAheadRecords, params.threads);
 		while (mergedIterator.hasNext()) {
 			SAMRecord record = mergedIterator.next();
 			writer.addAlignment(record);
@@ -149,7 +194,8 @@ public class Merge {
 	}
 
 	private static List<RecordSource> readFiles(List<File> files,
-			ReferenceSequenceFile refFile, AlignmentSliceQuery query, ValidationStringency ValidationStringency)
+			ReferenceSequenceFile refFile, AlignmentSliceQuery query,
+			ValidationStringency ValidationStringency, int maxDecodedRecords)
 			throws IOException {
 		List<RecordSource> sources = new ArrayList<Merge.RecordSource>(
 				files.size());
@@ -178,30 +224,23 @@ public class Merge {
 					SAMFileReader reader = new SAMFileReader(file);
 					source.reader = reader;
 					if (query == null)
-						source.it = reader.iterator();
+						source.it = openCram(file, refFile,
+								ValidationStringency, maxDecodedRecords);
 					else {
 						SeekableFileStream is = new SeekableFileStream(file);
 
-						FileInputStream fis = new FileInputStream(index);
-						GZIPInputStream gis = new GZIPInputStream(
-								new BufferedInputStream(fis));
-						BufferedInputStream bis = new BufferedInputStream(gis);
-						List<CramIndex.Entry> full = CramIndex.readIndex(gis);
-
-						List<CramIndex.Entry> entries = new LinkedList<CramIndex.Entry>();
 						SAMSequenceRecord sequence = reader.getFileHeader()
 								.getSequence(query.sequence);
 						if (sequence == null)
 							throw new RuntimeException("Sequence not found: "
 									+ query.sequence);
 
-						entries.addAll(CramIndex.find(full,
+						List<CramIndex.Entry> entries = CramIndex.find(index,
 								sequence.getSequenceIndex(), query.start,
-								query.end - query.start));
-
-						bis.close();
+								query.end - query.start);
 
 						SAMIterator it = new SAMIterator(is, refFile);
+						it.setMaxDecodedRecords(maxDecodedRecords);
 						is.seek(entries.get(0).containerStartOffset);
 						BAMQueryFilteringIterator bit = new BAMQueryFilteringIterator(
 								it, query.sequence, query.start, query.end,
@@ -212,7 +251,11 @@ public class Merge {
 				} else {
 					SAMFileReader reader = new SAMFileReader(file);
 					source.reader = reader;
-					source.it = reader.iterator();
+					if (isCram(file))
+						source.it = openCram(file, refFile,
+								ValidationStringency, maxDecodedRecords);
+					else
+						source.it = reader.iterator();
 				}
 			}
 		}
@@ -220,6 +263,32 @@ public class Merge {
 		return sources;
 	}
 
+	private static boolean isCram(File file) throws IOException {
+		byte[] magick = new byte[CramHeader.magick.length];
+		InputStream is = new FileInputStream(file);
+		try {
+			return is.read(magick) == magick.length
+					&& Arrays.equals(magick, CramHeader.magick);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads a CRAM file holding only a part of a container of decoded records
+	 * at a time.
+	 */
+	private static SAMIterator openCram(File file,
+			ReferenceSequenceFile refFile,
+			ValidationStringency validationStringency, int maxDecodedRecords)
+			throws IOException {
+		SAMIterator it = new SAMIterator(new BufferedInputStream(
+				new FileInputStream(file)), refFile);
+		it.setValidationStringency(validationStringency);
+		it.setMaxDecodedRecords(maxDecodedRecords);
+		return it;
+	}
+
 	private static List<String> resolveCollisions(List<RecordSource> list) {
 
 		ArrayList<String> result = new ArrayList<String>(list.size());
@@ -299,120 +368,6 @@ public class Merge {
 		return header;
 	}
 
-	// private static class SAMQueue implements BlockingQueue<SAMRecord> {
-	// }
-
-	private static class MergedIterator implements SAMRecordIterator {
-		private static String delim = ".";
-		private RecordSource[] sources;
-		private SAMRecord[] records;
-		private SAMRecord next;
-		private SAMFileHeader header;
-
-		public MergedIterator(List<RecordSource> list, SAMFileHeader header) {
-			this.header = header;
-			sources = (RecordSource[]) list.toArray(new RecordSource[list
-					.size()]);
-			records = new SAMRecord[list.size()];
-
-			for (int i = 0; i < records.length; i++) {
-				if (sources[i].it.hasNext())
-					records[i] = sources[i].it.next();
-			}
-
-			advance();
-		}
-
-		@Override
-		public void close() {
-			if (sources != null)
-				for (RecordSource source : sources)
-					if (source != null)
-						source.close();
-
-			records = null;
-			next = null;
-		}
-
-		@Override
-		public boolean hasNext() {
-			return next != null;
-		}
-
-		private void advance() {
-			int candidateIndex = getIndexOfMinAlignment();
-			if (candidateIndex < 0) {
-				next = null;
-			} else {
-				next = records[candidateIndex];
-				SAMSequenceRecord sequence = header.getSequence(next
-						.getReferenceName());
-
-				next.setHeader(header);
-
-				next.setReferenceIndex(sequence.getSequenceIndex());
-
-				next.setReadName(sources[candidateIndex].id + delim
-						+ next.getReadName());
-
-				if (next.getMateReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-					next.setMateAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
-				} else {
-					SAMSequenceRecord mateSequence = header.getSequence(next
-							.getMateReferenceName());
-					next.setMateReferenceIndex(mateSequence.getSequenceIndex());
-				}
-
-				if (sources[candidateIndex].it.hasNext())
-					records[candidateIndex] = sources[candidateIndex].it.next();
-				else
-					records[candidateIndex] = null;
-			}
-		}
-
-		@Override
-		public SAMRecord next() {
-			if (next == null)
-				return null;
-
-			SAMRecord result = next;
-			advance();
-
-			return result;
-		}
-
-		@Override
-		public void remove() {
-			throw new RuntimeException("Unsupported operation.");
-		}
-
-		@Override
-		public SAMRecordIterator assertSorted(SortOrder sortOrder) {
-			// TODO Auto-generated method stub
-			return null;
-		}
-
-		private int getIndexOfMinAlignment() {
-			if (records == null || records.length == 0)
-				return -1;
-
-			int min = Integer.MAX_VALUE;
-			int index = -1;
-			for (int i = 0; i < records.length; i++) {
-				if (records[i] == null)
-					continue;
-
-				int start = records[i].getAlignmentStart();
-				if (start > 0 && start < min) {
-					min = start;
-					index = i;
-				}
-			}
-			return index;
-		}
-
-	}
-
 	@Parameters(commandDescription = "Tool to merge CRAM or BAM files. ")
 	static class Params {
 		@Parameter(names = { "-l", "--log-level" }, description = "Change log level: DEBUG, INFO, WARNING, ERROR.", converter = LevelConverter.class)
@@ -424,7 +379,7 @@ public class Merge {
 		@Parameter(names = { "--reference-fasta-file", "-R" }, converter = FileConverter.class, description = "Path to the reference fasta file, it must be uncompressed and indexed (use 'samtools faidx' for example).")
 		File reference;
 
-		@Parameter(names = { "--output-file" }, converter = FileConverter.class, description = "Path to the output BAM file. Omit for stdout.")
+		@Parameter(names = { "--output-file" }, converter = FileConverter.class, description = "Path to the output BAM or CRAM file. Omit for stdout.")
 		File outFile;
 
 		@Parameter(names = { "--sam-format" }, description = "Output in SAM rather than BAM format.")
@@ -436,6 +391,39 @@ public class Merge {
 		@Parameter(names = { "--region", "-r" }, description = "Alignment slice specification, for example: chr1:65000-100000.")
 		String region;
 
+		@Parameter(names = { "--read-ahead-records" }, description = "Number of records read ahead from all input files together.")
+		int readAheadRecords = MergedIterator.DEFAULT_READ_AHEAD_RECORDS;
+
+		@Parameter(names = { "--threads", "-t" }, description = "Read the input files using this many threads, 0 to read them on the main thread. For CRAM output the number of regions merged at the same time.")
+		int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+		@Parameter(names = { "--cram" }, description = "Output CRAM and its .crai index. The regions of the genome are merged in parallel, this requires the output file and a .bai index for every input file.")
+		boolean cram = false;
+
+		@Parameter(names = { "--shard-size" }, description = "Length in bases of the regions merged in parallel for CRAM output.")
+		int shardSize = ShardedMerge.DEFAULT_SHARD_SIZE;
+
+		@Parameter(names = { "--max-container-size" }, hidden = true)
+		int maxContainerSize = 10000;
+
+		@Parameter(names = { "--preserve-read-names", "-n" }, description = "Preserve all read names in CRAM output.")
+		boolean preserveReadNames = false;
+
+		@Parameter(names = { "--lossless-quality-score", "-Q" }, description = "Preserve all quality scores in CRAM output. Overwrites '--lossy-quality-score-spec'.")
+		boolean losslessQS = false;
+
+		@Parameter(names = { "--lossy-quality-score-spec", "-L" }, description = "A string specifying what quality scores should be preserved in CRAM output.")
+		String qsSpec = "";
+
+		@Parameter(names = { "--ignore-tags" }, description = "Ignore the tags listed in CRAM output, for example 'OQ:XA:XB'")
+		String ignoreTags = "";
+
+		@Parameter(names = { "--capture-tags" }, description = "Capture the tags listed in CRAM output, for example 'OQ:XA:XB'")
+		String captureTags = "";
+
+		@Parameter(names = { "--capture-all-tags" }, description = "Capture all tags in CRAM output.")
+		boolean captureAllTags = false;
+
 		@Parameter(names = { "-h", "--help" }, description = "Print help and quit")
 		boolean help = false;
 
@@ -0,0 +1,283 @@
+package net.sf.cram;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileHeader.SortOrder;
+import net.sf.samtools.SAMIterator;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordIterator;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Merges coordinate sorted iterators into one. The next record of every
+ * source is kept in a heap, so taking a record costs log(k) for k sources.
+ * Records are read from the sources in batches by a shared pool of threads:
+ * while one batch of a source is merged the next one is read. The batch size
+ * is a third of the read ahead budget divided by the number of sources: two
+ * batches are held for every source, and CRAM sources should decode no more
+ * than a batch of records at a time (see
+ * {@link SAMIterator#setMaxDecodedRecords}), so the number of records held does
+ * not grow with the number of sources.
+ * <p>
+ * Records are moved to the merged header and their names are prefixed with
+ * the id of their source.
+ */
+public class MergedIterator implements SAMRecordIterator {
+	public static final int DEFAULT_READ_AHEAD_RECORDS = 100000;
+	private static final String delim = ".";
+
+	private final SAMFileHeader header;
+	private final Source[] sources;
+	private final PriorityQueue<Source> heap;
+	private ExecutorService executor;
+
+	/**
+	 * @param ids
+	 *            read name prefixes, one per iterator
+	 * @param readAheadRecords
+	 *            number of records read ahead for all sources together, at
+	 *            least one batch of a record is read for every source
+	 * @param threads
+	 *            number of threads reading the sources, 0 to read the
+	 *            sources on the calling thread
+	 */
+	public MergedIterator(List<String> ids,
+			List<? extends CloseableIterator<SAMRecord>> iterators,
+			SAMFileHeader header, int readAheadRecords, int threads) {
+		this.header = header;
+		int batchSize = batchSize(readAheadRecords, iterators.size());
+
+		if (threads > 0) {
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "merge-reader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+
+		sources = new Source[iterators.size()];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = new Source(i, ids.get(i), iterators.get(i),
+					batchSize);
+			sources[i].prefetch();
+		}
+
+		heap = new PriorityQueue<Source>(Math.max(1, sources.length),
+				new Comparator<Source>() {
+
+					@Override
+					public int compare(Source o1, Source o2) {
+						return o1.compareTo(o2);
+					}
+				});
+		for (Source source : sources)
+			if (source.advance())
+				heap.add(source);
+	}
+
+	/**
+	 * @return the number of records read from each source at a time
+	 */
+	public static int batchSize(int readAheadRecords, int sources) {
+		return Math.max(1, readAheadRecords / 3 / Math.max(1, sources));
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !heap.isEmpty();
+	}
+
+	@Override
+	public SAMRecord next() {
+		Source source = heap.poll();
+		if (source == null)
+			throw new NoSuchElementException();
+
+		SAMRecord record = source.head;
+		if (source.advance())
+			heap.add(source);
+		return record;
+	}
+
+	/**
+	 * Waits for the batches being read before closing the sources: the
+	 * iterators are not safe to close while a task reads them.
+	 */
+	@Override
+	public void close() {
+		if (executor != null) {
+			for (Source source : sources)
+				if (source.nextBatch != null)
+					source.nextBatch.cancel(false);
+			executor.shutdownNow();
+			try {
+				while (!executor.isTerminated())
+					executor.awaitTermination(60, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		for (Source source : sources)
+			source.it.close();
+		heap.clear();
+	}
+
+	@Override
+	public void remove() {
+		throw new RuntimeException("Unsupported operation.");
+	}
+
+	@Override
+	public SAMRecordIterator assertSorted(SortOrder sortOrder) {
+		throw new RuntimeException("Not implemented.");
+	}
+
+	private class Source {
+		private final int index;
+		private final String id;
+		private final CloseableIterator<SAMRecord> it;
+		private final int batchSize;
+
+		private List<SAMRecord> batch;
+		private int batchIndex = 0;
+		private Future<List<SAMRecord>> nextBatch;
+		private boolean exhausted = false;
+
+		private SAMRecord head;
+		private int headSequenceIndex;
+		private int headStart;
+
+		Source(int index, String id, CloseableIterator<SAMRecord> it,
+				int batchSize) {
+			this.index = index;
+			this.id = id;
+			this.it = it;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Starts reading the next batch, the iterator is used by one task
+		 * at a time.
+		 */
+		void prefetch() {
+			if (exhausted || executor == null)
+				return;
+			nextBatch = executor.submit(new Callable<List<SAMRecord>>() {
+
+				@Override
+				public List<SAMRecord> call() throws Exception {
+					return readBatch();
+				}
+			});
+		}
+
+		private List<SAMRecord> readBatch() {
+			List<SAMRecord> list = new ArrayList<SAMRecord>(batchSize);
+			while (list.size() < batchSize && it.hasNext())
+				list.add(it.next());
+			return list;
+		}
+
+		private List<SAMRecord> takeBatch() {
+			if (executor == null)
+				return readBatch();
+			try {
+				return nextBatch.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		/**
+		 * @return false if the source has no more records
+		 */
+		boolean advance() {
+			if (batch == null || batchIndex >= batch.size()) {
+				if (exhausted) {
+					head = null;
+					return false;
+				}
+				batch = takeBatch();
+				batchIndex = 0;
+				if (batch.size() < batchSize)
+					exhausted = true;
+				prefetch();
+				if (batch.isEmpty()) {
+					head = null;
+					return false;
+				}
+			}
+
+			head = batch.get(batchIndex);
+			// let the batch go as it is merged:
+			batch.set(batchIndex++, null);
+			moveToHeader(head);
+			headSequenceIndex = head.getReferenceIndex();
+			headStart = head.getAlignmentStart();
+			return true;
+		}
+
+		private void moveToHeader(SAMRecord record) {
+			String sequenceName = record.getReferenceName();
+			String mateSequenceName = record.getMateReferenceName();
+			record.setHeader(header);
+
+			if (SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(sequenceName))
+				record.setReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+			else {
+				SAMSequenceRecord sequence = header.getSequence(sequenceName);
+				record.setReferenceIndex(sequence.getSequenceIndex());
+			}
+
+			record.setReadName(id + delim + record.getReadName());
+
+			if (SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(mateSequenceName)) {
+				record.setMateReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+				record.setMateAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+			} else {
+				SAMSequenceRecord mateSequence = header
+						.getSequence(mateSequenceName);
+				record.setMateReferenceIndex(mateSequence.getSequenceIndex());
+			}
+		}
+
+		/**
+		 * Coordinate order, records without a reference go last. Ties are
+		 * taken from the sources in their order.
+		 */
+		int compareTo(Source o) {
+			if (headSequenceIndex != o.headSequenceIndex) {
+				if (headSequenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+					return 1;
+				if (o.headSequenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+					return -1;
+				return headSequenceIndex < o.headSequenceIndex ? -1 : 1;
+			}
+			if (headStart != o.headStart)
+				return headStart < o.headStart ? -1 : 1;
+			return index < o.index ? -1 : (index == o.index ? 0 : 1);
+		}
+	}
+}
@@ -269,17 +269,22 @@ public class ReadTag implements Comparable<ReadTag> {
 		return index;
 	}
 
-	// yeah, I'm that risky:
-	private static final ByteBuffer buf = ByteBuffer
-			.allocateDirect(1024 * 1024);
-	static {
-		buf.order(ByteOrder.LITTLE_ENDIAN);
-	}
+	// one buffer per thread, containers may be built concurrently:
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+		@Override
+		protected ByteBuffer initialValue() {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		}
+	};
 	private static final Charset charset = Charset.forName("US-ASCII");
 
 	public static byte[] writeSingleValue(byte tagType, Object value,
 			boolean isUnsignedArray) {
 
+		ByteBuffer buf = buffers.get();
 		buf.clear();
 		switch (tagType) {
 		case 'Z':
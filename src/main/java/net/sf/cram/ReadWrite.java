@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -14,11 +15,13 @@ import java.util.Arrays;
 import java.util.List;
 
 import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.CountingInputStream;
 import net.sf.cram.io.ExposedByteArrayOutputStream;
 import net.sf.cram.structure.Block;
 import net.sf.cram.structure.BlockCompressionMethod;
 import net.sf.cram.structure.BlockContentType;
 import net.sf.cram.structure.CompressionHeaderBLock;
+import net.sf.cram.structure.CompressionHeaderBLock.LastHeader;
 import net.sf.cram.structure.Container;
 import net.sf.cram.structure.ContainerHeaderIO;
 import net.sf.cram.structure.Slice;
@@ -120,8 +123,7 @@ public class ReadWrite {
 			sio.write(s, baos);
 			c.blockCount++ ;
 			c.blockCount++;
-			if (s.embeddedRefBlock != null)
-				c.blockCount++;
+			// an embedded reference block is one of the external blocks:
 			c.blockCount += s.external.size();
 		}
 		c.landmarks = new int[landmarks.size()];
@@ -129,7 +131,7 @@ public class ReadWrite {
 			c.landmarks[i] = landmarks.get(i);
 
 		c.containerByteSize = baos.size();
-		calculateSliceOffsetsAndSizes(c);
+		calculateSliceOffsetsAndSizes(c, 0);
 
 		ContainerHeaderIO chio = new ContainerHeaderIO();
 		int len = chio.writeContainerHeader(c, os);
@@ -157,33 +159,94 @@ public class ReadWrite {
 		return c;
 	}
 
+	/**
+	 * Reads only the container header and skips the rest of the container,
+	 * this is enough to count records or to list containers and seeks past
+	 * the blocks on streams that support skipping.
+	 */
+	public static Container skipContainer(InputStream is) throws IOException {
+		Container c = readContainerHeader(is);
+		if (c == null)
+			return null;
+		ByteBufferUtils.skipFully(is, c.containerByteSize);
+		return c;
+	}
+
+	/**
+	 * Reads the container header and the head block of every slice, the
+	 * compression header and the slice blocks are skipped. The stream is left
+	 * at the end of the container.
+	 */
+	public static Container readSliceHeaders(InputStream is)
+			throws IOException {
+		Container c = readContainerHeader(is);
+		if (c == null)
+			return null;
+
+		CountingInputStream cis = new CountingInputStream(is);
+		SliceIO sio = new SliceIO();
+		c.slices = new Slice[c.landmarks.length];
+		for (int i = 0; i < c.landmarks.length; i++) {
+			ByteBufferUtils.skipFully(cis, c.landmarks[i] - cis.getCount());
+			Slice slice = new Slice();
+			slice.index = i;
+			sio.readSliceHeadBlock(slice, cis);
+			c.slices[i] = slice;
+		}
+		ByteBufferUtils.skipFully(cis, c.containerByteSize - cis.getCount());
+
+		calculateSliceOffsetsAndSizes(c, 0);
+		return c;
+	}
+
+	/**
+	 * Reads only some of the slices, the stream is left right after the last
+	 * slice read. Container.landmarks still describe all slices.
+	 */
 	public static Container readContainer(SAMFileHeader samFileHeader,
 			InputStream is, int fromSlice, int howManySlices)
 			throws IOException {
+		return readContainer(samFileHeader, is, fromSlice, howManySlices,
+				null);
+	}
+
+	/**
+	 * Returns the last header of the stream again if the container has the
+	 * same compression header, see {@link LastHeader}.
+	 */
+	public static Container readContainer(SAMFileHeader samFileHeader,
+			InputStream is, int fromSlice, int howManySlices,
+			LastHeader lastHeader) throws IOException {
 
 		long time1 = System.nanoTime();
 		Container c = readContainerHeader(is);
 		if (c == null) return null ;
 
-		CompressionHeaderBLock chb = new CompressionHeaderBLock(is);
+		CompressionHeaderBLock chb = new CompressionHeaderBLock(is, lastHeader);
 		c.h = chb.getCompressionHeader();
-		howManySlices = Math.min(c.landmarks.length, howManySlices);
+		int toSlice = (int) Math.min(c.landmarks.length, (long) fromSlice
+				+ howManySlices);
 
+		// landmarks count from the end of the container header, the
+		// compression header block is everything before the first slice:
 		if (fromSlice > 0)
-			is.skip(c.landmarks[fromSlice]);
+			ByteBufferUtils.skipFully(is, c.landmarks[fromSlice]
+					- c.landmarks[0]);
 
 		SliceIO sio = new SliceIO();
 		List<Slice> slices = new ArrayList<Slice>();
-		for (int s = fromSlice; s < howManySlices - fromSlice; s++) {
+		for (int s = fromSlice; s < toSlice; s++) {
 			Slice slice = new Slice();
+			slice.index = s;
 			sio.readSliceHeadBlock(slice, is);
-			sio.readSliceBlocks(slice, true, is);
+			// blocks are decompressed when the records are read, if at all:
+			sio.readSliceBlocks(slice, false, is);
 			slices.add(slice) ;
 		}
 
 		c.slices = (Slice[]) slices.toArray(new Slice[slices.size()]);
 
-		calculateSliceOffsetsAndSizes(c);
+		calculateSliceOffsetsAndSizes(c, fromSlice);
 
 		long time2 = System.nanoTime();
 
@@ -193,15 +256,115 @@ public class ReadWrite {
 		return c;
 	}
 
-	private static void calculateSliceOffsetsAndSizes(Container c) {
-		for (int i = 0; i < c.slices.length - 1; i++) {
+	public static Container readContainerHeader(ByteBuffer buf)
+			throws IOException {
+		Container c = new Container();
+		ContainerHeaderIO chio = new ContainerHeaderIO();
+		if (!chio.readContainerHeader(c, buf))
+			return null;
+		return c;
+	}
+
+	/**
+	 * Same as {@link #readSliceHeaders(InputStream)} but parses the container
+	 * at the buffer's position, for example in a memory mapped file. The
+	 * position is left at the end of the container.
+	 */
+	public static Container readSliceHeaders(ByteBuffer buf)
+			throws IOException {
+		Container c = readContainerHeader(buf);
+		if (c == null)
+			return null;
+
+		int headerEnd = buf.position();
+		if (buf.remaining() < c.containerByteSize)
+			throw new BufferUnderflowException();
+		SliceIO sio = new SliceIO();
+		c.slices = new Slice[c.landmarks.length];
+		for (int i = 0; i < c.landmarks.length; i++) {
+			buf.position(headerEnd + c.landmarks[i]);
+			Slice slice = new Slice();
+			slice.index = i;
+			sio.readSliceHeadBlock(slice, buf);
+			c.slices[i] = slice;
+		}
+		buf.position(headerEnd + c.containerByteSize);
+
+		calculateSliceOffsetsAndSizes(c, 0);
+		return c;
+	}
+
+	public static Container readContainer(SAMFileHeader samFileHeader,
+			ByteBuffer buf) throws IOException {
+		return readContainer(samFileHeader, buf, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Same as {@link #readContainer(SAMFileHeader, InputStream, int, int)} but
+	 * parses the container at the buffer's position. Blocks stored RAW are
+	 * not copied, they keep views of the buffer.
+	 * 
+	 * @throws BufferUnderflowException
+	 *             if the container does not fit in the buffer
+	 */
+	public static Container readContainer(SAMFileHeader samFileHeader,
+			ByteBuffer buf, int fromSlice, int howManySlices)
+			throws IOException {
+		return readContainer(samFileHeader, buf, fromSlice, howManySlices,
+				null);
+	}
+
+	public static Container readContainer(SAMFileHeader samFileHeader,
+			ByteBuffer buf, int fromSlice, int howManySlices,
+			LastHeader lastHeader) throws IOException {
+		long time1 = System.nanoTime();
+		Container c = readContainerHeader(buf);
+		if (c == null)
+			return null;
+		int headerEnd = buf.position();
+		if (buf.remaining() < c.containerByteSize)
+			throw new BufferUnderflowException();
+
+		CompressionHeaderBLock chb = new CompressionHeaderBLock(buf,
+				lastHeader);
+		c.h = chb.getCompressionHeader();
+		int toSlice = (int) Math.min(c.landmarks.length, (long) fromSlice
+				+ howManySlices);
+
+		SliceIO sio = new SliceIO();
+		c.slices = new Slice[Math.max(0, toSlice - fromSlice)];
+		for (int s = fromSlice; s < toSlice; s++) {
+			buf.position(headerEnd + c.landmarks[s]);
+			Slice slice = new Slice();
+			slice.index = s;
+			sio.readSliceHeadBlock(slice, buf);
+			sio.readSliceBlocks(slice, false, buf);
+			c.slices[s - fromSlice] = slice;
+		}
+
+		calculateSliceOffsetsAndSizes(c, fromSlice);
+
+		log.debug("READ CONTAINER: " + c.toString());
+		c.readTime = System.nanoTime() - time1;
+
+		return c;
+	}
+
+	/**
+	 * @param fromSlice
+	 *            index of the first slice in the container
+	 */
+	private static void calculateSliceOffsetsAndSizes(Container c,
+			int fromSlice) {
+		for (int i = 0; i < c.slices.length; i++) {
 			Slice s = c.slices[i];
-			s.offset = c.landmarks[i];
-			s.size = c.landmarks[i + 1] - s.offset;
+			int index = fromSlice + i;
+			s.offset = c.landmarks[index];
+			if (index + 1 < c.landmarks.length)
+				s.size = c.landmarks[index + 1] - s.offset;
+			else
+				s.size = c.containerByteSize - s.offset;
 		}
-		Slice lastSlice = c.slices[c.slices.length - 1];
-		lastSlice.offset = c.landmarks[c.landmarks.length - 1];
-		lastSlice.size = c.containerByteSize - lastSlice.offset;
 	}
 
 	private static byte[] toByteArray(SAMFileHeader samFileHeader) {
@@ -0,0 +1,206 @@
+package net.sf.cram;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.sf.picard.reference.ReferenceSequence;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Process-wide cache of reference bases. Sequences are keyed by their MD5 if
+ * the SAM header has one, otherwise by the fasta file and the sequence name,
+ * so readers of different files in one JVM share a single copy. Bases are
+ * stored with new lines removed and capitalised as in
+ * {@link Utils#capitaliseAndCheckBases(byte[], boolean)}, the arrays must not
+ * be modified by the callers. The least recently used sequences are evicted
+ * when the cache grows over its size limit.
+ */
+public class ReferenceCache {
+	private static Log log = Log.getInstance(ReferenceCache.class);
+
+	private static final ReferenceCache instance = new ReferenceCache(Runtime
+			.getRuntime().maxMemory() / 4);
+
+	private long maxBytes;
+	private long bytes = 0;
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+			0.75f, true);
+
+	private static class Entry {
+		FutureTask<byte[]> task;
+		long size = 0;
+	}
+
+	public ReferenceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public static ReferenceCache getInstance() {
+		return instance;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public byte[] getBases(ReferenceSequenceFile rsFile,
+			SAMSequenceRecord sequence) {
+		return getBases(rsFile, sequence.getSequenceName(),
+				sequence.getAttribute(SAMSequenceRecord.MD5_TAG));
+	}
+
+	/**
+	 * @return the bases if the sequence has been loaded already or null
+	 */
+	public synchronized byte[] getCachedBases(ReferenceSequenceFile rsFile,
+			SAMSequenceRecord sequence) {
+		Entry entry = entries.get(key(rsFile, sequence.getSequenceName(),
+				sequence.getAttribute(SAMSequenceRecord.MD5_TAG)));
+		if (entry == null || !entry.task.isDone())
+			return null;
+		try {
+			return entry.task.get();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static String key(ReferenceSequenceFile rsFile, String name,
+			String md5) {
+		return md5 != null ? md5 : rsFile.toString() + ":" + name;
+	}
+
+	/**
+	 * Loads the sequence if it is not in the cache yet. Concurrent requests
+	 * for the same sequence wait for a single load.
+	 *
+	 * @param md5
+	 *            MD5 of the sequence or null if not known
+	 */
+	public byte[] getBases(final ReferenceSequenceFile rsFile,
+			final String name, String md5) {
+		String key = key(rsFile, name, md5);
+
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				entry.task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+					@Override
+					public byte[] call() throws Exception {
+						return load(rsFile, name);
+					}
+				});
+				entries.put(key, entry);
+				load = true;
+			}
+		}
+
+		if (load) {
+			entry.task.run();
+			synchronized (this) {
+				try {
+					entry.size = entry.task.get().length;
+					bytes += entry.size;
+					evict();
+				} catch (Exception e) {
+					// do not cache failures:
+					entries.remove(key);
+				}
+			}
+		}
+
+		try {
+			return entry.task.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Evicts least recently used sequences but never the last one.
+	 */
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (bytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+			Entry entry = it.next();
+			if (!entry.task.isDone())
+				continue;
+			bytes -= entry.size;
+			it.remove();
+		}
+	}
+
+	private static byte[] load(ReferenceSequenceFile rsFile, String name) {
+		long time = System.nanoTime();
+		ReferenceSequence sequence;
+		// fasta files are not safe for concurrent reads:
+		synchronized (rsFile) {
+			sequence = Utils.trySequenceNameVariants(rsFile, name);
+		}
+		if (sequence == null)
+			throw new RuntimeException("Reference sequence " + name
+					+ " not found in the fasta file " + rsFile.toString());
+
+		byte[] bases = normalize(sequence.getBases());
+		log.debug(String.format("Reference sequence %s loaded in %dms.",
+				name, (System.nanoTime() - time) / 1000000));
+		return bases;
+	}
+
+	/**
+	 * Removes new lines and capitalises in place, in a single pass.
+	 */
+	static byte[] normalize(byte[] bases) {
+		int j = 0;
+		for (int i = 0; i < bases.length; i++) {
+			byte b = bases[i];
+			switch (b) {
+			case '\n':
+				continue;
+			case 'A':
+			case 'C':
+			case 'G':
+			case 'T':
+			case 'N':
+				break;
+			case 'a':
+			case 'c':
+			case 'g':
+			case 't':
+			case 'n':
+				b -= 'a' - 'A';
+				break;
+			default:
+				b = 'N';
+				break;
+			}
+			bases[j++] = b;
+		}
+		return j == bases.length ? bases : Arrays.copyOf(bases, j);
+	}
+}
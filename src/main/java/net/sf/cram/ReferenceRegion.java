@@ -0,0 +1,34 @@
+package net.sf.cram;
+
+/**
+ * Reference bases for a part of a sequence. The bases are capitalised and
+ * must not be modified.
+ */
+public class ReferenceRegion {
+	public static final ReferenceRegion EMPTY = new ReferenceRegion(
+			new byte[0], 0);
+
+	public final byte[] bases;
+
+	/**
+	 * 0-based position of the first base on the sequence.
+	 */
+	public final int start;
+
+	public ReferenceRegion(byte[] bases, int start) {
+		this.bases = bases;
+		this.start = start;
+	}
+
+	/**
+	 * @return 0-based position following the last base
+	 */
+	public int end() {
+		return start + bases.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[%d, %d)", start, end());
+	}
+}
@@ -0,0 +1,130 @@
+package net.sf.cram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.picard.PicardException;
+import net.sf.picard.reference.ReferenceSequence;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMSequenceRecord;
+
+/**
+ * Provides reference bases for whole sequences or regions of them. Whole
+ * sequences are shared through the {@link ReferenceCache}. Regions are read
+ * from the fasta file using its .fai index, so that the memory needed is
+ * proportional to the region rather than to the sequence, unless the whole
+ * sequence is in the cache already. Without the .fai index, or if the index
+ * does not match the file, regions are served from the whole sequence.
+ */
+public class ReferenceSource {
+	private static Log log = Log.getInstance(ReferenceSource.class);
+
+	// how many bases to read to check that the .fai index matches the file:
+	private static final int INDEX_CHECK_LENGTH = 1000;
+
+	private ReferenceSequenceFile rsFile;
+	private ReferenceCache cache;
+	private Map<String, String> fastaNames = new HashMap<String, String>();
+
+	public ReferenceSource(ReferenceSequenceFile rsFile) {
+		this(rsFile, ReferenceCache.getInstance());
+	}
+
+	public ReferenceSource(ReferenceSequenceFile rsFile, ReferenceCache cache) {
+		this.rsFile = rsFile;
+		this.cache = cache;
+	}
+
+	public ReferenceSequenceFile getReferenceSequenceFile() {
+		return rsFile;
+	}
+
+	public ReferenceRegion getSequence(SAMSequenceRecord sequence) {
+		return new ReferenceRegion(cache.getBases(rsFile, sequence), 0);
+	}
+
+	/**
+	 * @param start
+	 *            0-based start of the region, inclusive
+	 * @param end
+	 *            0-based end of the region, exclusive
+	 * @return bases for at least the region, which is cut at the end of the
+	 *         sequence
+	 */
+	public ReferenceRegion getRegion(SAMSequenceRecord sequence, int start,
+			int end) {
+		byte[] bases = cache.getCachedBases(rsFile, sequence);
+		if (bases != null)
+			return new ReferenceRegion(bases, 0);
+
+		if (!rsFile.isIndexed())
+			return getSequence(sequence);
+
+		start = Math.max(0, start);
+		end = Math.min(end, sequence.getSequenceLength());
+		if (end <= start)
+			return new ReferenceRegion(new byte[0], start);
+
+		ReferenceSequence rs;
+		try {
+			String name = getFastaName(sequence);
+			if (name == null)
+				return getSequence(sequence);
+			// fasta files are not safe for concurrent reads:
+			synchronized (rsFile) {
+				rs = rsFile.getSubsequenceAt(name, start + 1, end);
+			}
+		} catch (PicardException e) {
+			log.warn(String.format(
+					"Failed to read region %d-%d of %s, using the whole sequence: %s",
+					start + 1, end, sequence.getSequenceName(), e.getMessage()));
+			return getSequence(sequence);
+		}
+
+		return new ReferenceRegion(ReferenceCache.normalize(rs.getBases()),
+				start);
+	}
+
+	/**
+	 * Resolves the name of the sequence in the fasta file, see
+	 * {@link Utils#sequenceNameVariants(String)}.
+	 * 
+	 * @return the name or null if the .fai index does not match the file:
+	 *         line breaks end up in the bases read with it
+	 */
+	private String getFastaName(SAMSequenceRecord sequence) {
+		String name = sequence.getSequenceName();
+		int checkLength = Math.min(INDEX_CHECK_LENGTH,
+				sequence.getSequenceLength());
+		synchronized (fastaNames) {
+			if (fastaNames.containsKey(name))
+				return fastaNames.get(name);
+
+			for (String variant : Utils.sequenceNameVariants(name)) {
+				ReferenceSequence rs;
+				try {
+					synchronized (rsFile) {
+						rs = rsFile.getSubsequenceAt(variant, 1, checkLength);
+					}
+				} catch (PicardException e) {
+					continue;
+				}
+
+				String fastaName = variant;
+				for (byte b : rs.getBases()) {
+					if (b == '\n' || b == '\r') {
+						log.warn("The fasta index does not match the file for sequence "
+								+ variant + ", reading whole sequences.");
+						fastaName = null;
+						break;
+					}
+				}
+				fastaNames.put(name, fastaName);
+				return fastaName;
+			}
+		}
+		throw new RuntimeException("Reference sequence " + name
+				+ " not found in the fasta file " + rsFile.toString());
+	}
+}
@@ -1,12 +1,14 @@
 package net.sf.cram;
 
-import java.awt.Window;
 import java.util.Arrays;
 
 public class ReferenceTracks {
 	private int sequenceId;
 	private String sequenceName;
 	private byte[] reference;
+	// 0-based position of the first reference base on the sequence:
+	private int referenceStart;
+	private int referenceEnd;
 
 	private int position;
 
@@ -17,15 +19,35 @@ public class ReferenceTracks {
 
 	public ReferenceTracks(int sequenceId, String sequenceName,
 			byte[] reference, int windowSize) {
+		this(sequenceId, sequenceName, capitalise(reference), 0, windowSize);
+	}
+
+	/**
+	 * Tracks for a region of the reference, the window cannot be moved
+	 * outside of it.
+	 */
+	public ReferenceTracks(int sequenceId, String sequenceName,
+			ReferenceRegion region, int windowSize) {
+		this(sequenceId, sequenceName, region.bases, region.start, windowSize);
+	}
+
+	private ReferenceTracks(int sequenceId, String sequenceName,
+			byte[] reference, int referenceStart, int windowSize) {
 		this.sequenceId = sequenceId;
 		this.sequenceName = sequenceName;
 		this.reference = reference;
+		this.referenceStart = referenceStart;
+		this.referenceEnd = referenceStart + reference.length;
 
 		bases = new byte[Math.min(windowSize, reference.length)];
 		coverage = new short[Math.min(windowSize, reference.length)];
 		mismatches = new short[Math.min(windowSize, reference.length)];
-		position = 1;
+		position = referenceStart + 1;
 
+		reset();
+	}
+
+	private static byte[] capitalise(byte[] reference) {
 		for (int i = 0; i < reference.length; i++) {
 			switch (reference[i]) {
 			case 'A':
@@ -51,8 +73,7 @@ public class ReferenceTracks {
 				break;
 			}
 		}
-
-		reset();
+		return reference;
 	}
 
 	public int getSequenceId() {
@@ -71,8 +92,12 @@ public class ReferenceTracks {
 		return bases.length;
 	}
 
+	/**
+	 * @return 0-based position following the last known reference base,
+	 *         which is the sequence length unless tracking a region
+	 */
 	public int getReferenceLength() {
-		return reference.length;
+		return referenceEnd;
 	}
 
 	public void ensure(int start, int end) {
@@ -91,7 +116,7 @@ public class ReferenceTracks {
 	 *            position and smaller than reference length.
 	 */
 	public void moveForwardTo(int newPos) {
-		if (newPos - 1 >= reference.length)
+		if (newPos - 1 >= referenceEnd)
 			throw new RuntimeException("New position is beyond the reference: "
 					+ newPos);
 
@@ -99,14 +124,14 @@ public class ReferenceTracks {
 			throw new RuntimeException(
 					"Cannot shift to smaller position on the reference.");
 
-		if (newPos > reference.length - bases.length + 1)
-			newPos = reference.length - bases.length + 1;
+		if (newPos > referenceEnd - bases.length + 1)
+			newPos = referenceEnd - bases.length + 1;
 
 		if (newPos == position)
 			return;
 
-		System.arraycopy(reference, newPos - 1, bases, 0,
-				Math.min(bases.length, reference.length - newPos + 1));
+		System.arraycopy(reference, newPos - 1 - referenceStart, bases, 0,
+				Math.min(bases.length, referenceEnd - newPos + 1));
 
 		if (newPos > position && position + bases.length - newPos > 0) {
 			for (int i = 0; i < coverage.length; i++) {
@@ -127,8 +152,8 @@ public class ReferenceTracks {
 	}
 
 	public void reset() {
-		System.arraycopy(reference, position - 1, bases, 0,
-				Math.min(bases.length, reference.length - position + 1));
+		System.arraycopy(reference, position - 1 - referenceStart, bases, 0,
+				Math.min(bases.length, referenceEnd - position + 1));
 		Arrays.fill(coverage, (short) 0);
 		Arrays.fill(mismatches, (short) 0);
 	}
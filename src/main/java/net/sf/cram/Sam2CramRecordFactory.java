@@ -63,6 +63,8 @@ public class Sam2CramRecordFactory {
 	public final static byte ignorePositionsWithQualityScore = -1;
 
 	private byte[] refBases;
+	// 0-based position of the first reference base on the sequence:
+	private int refStart = 0;
 	private byte[] refSNPs;
 	private RefMaskUtils.RefMask refPile;
 
@@ -97,7 +99,17 @@ public class Sam2CramRecordFactory {
 	private List<ReadTag> readTagList = new ArrayList<ReadTag>();
 
 	public Sam2CramRecordFactory(byte[] refBases, SAMFileHeader samFileHeader) {
-		this.refBases = refBases;
+		this(new ReferenceRegion(refBases, 0), samFileHeader);
+	}
+
+	/**
+	 * @param ref
+	 *            reference bases covering the alignment spans of the records
+	 */
+	public Sam2CramRecordFactory(ReferenceRegion ref,
+			SAMFileHeader samFileHeader) {
+		this.refBases = ref.bases;
+		this.refStart = ref.start;
 
 		List<SAMReadGroupRecord> readGroups = samFileHeader.getReadGroups();
 		for (int i = 0; i < readGroups.size(); i++) {
@@ -360,10 +372,10 @@ public class Sam2CramRecordFactory {
 			oneBasedPositionInRead = i + fromPosInRead + 1;
 			int refCoord = (int) (cramRecord.getAlignmentStart() + i + alignmentStartOffset) - 1;
 			qualityAdded = false;
-			if (refCoord >= refBases.length)
+			if (refCoord - refStart >= refBases.length)
 				refBase = 'N';
 			else
-				refBase = refBases[refCoord];
+				refBase = refBases[refCoord - refStart];
 
 			if (bases[i + fromPosInRead] != refBase) {
 				Substitution sv = new Substitution();
@@ -486,6 +498,7 @@ public class Sam2CramRecordFactory {
 
 	public void setRefBases(byte[] refBases) {
 		this.refBases = refBases;
+		this.refStart = 0;
 	}
 
 	public byte[] getRefSNPs() {
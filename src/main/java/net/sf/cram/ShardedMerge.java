@@ -0,0 +1,379 @@
+package net.sf.cram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.index.CramIndex;
+import net.sf.cram.lossy.QualityScorePreservation;
+import net.sf.cram.structure.CompressionHeaderBLock.LastHeader;
+import net.sf.cram.structure.Container;
+import net.sf.cram.structure.Slice;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileHeader.SortOrder;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Merges indexed CRAM or BAM files into a CRAM file region by region. The
+ * genome is split into shards, each shard is merged from index queries of
+ * the input files and encoded into containers of a temporary file on a pool
+ * of threads. The shards are then copied into the output in their order,
+ * only the record counters of the containers are changed, and the output is
+ * indexed as it is written.
+ * <p>
+ * A record belongs to the shard its alignment starts in, unplaced unmapped
+ * records go into the last shard.
+ */
+class ShardedMerge {
+	private static Log log = Log.getInstance(ShardedMerge.class);
+
+	public static final int DEFAULT_SHARD_SIZE = 10000000;
+
+	private final List<File> files;
+	private final List<String> ids;
+	private final SAMFileHeader header;
+	private final ReferenceSequenceFile refFile;
+
+	public int maxContainerSize = 10000;
+	public int readAheadRecords = MergedIterator.DEFAULT_READ_AHEAD_RECORDS;
+
+	// what to keep of the records, as in Bam2Cram:
+	public QualityScorePreservation preservation = new QualityScorePreservation(
+			"*40");
+	public boolean preserveReadNames = true;
+	public boolean captureAllTags = true;
+	public String captureTags = "";
+	public String ignoreTags = "";
+
+	/**
+	 * @param files
+	 *            coordinate sorted files, each with a .bai index
+	 * @param ids
+	 *            read name prefixes, one per file
+	 * @param header
+	 *            the merged header, records are moved to it
+	 */
+	public ShardedMerge(List<File> files, List<String> ids,
+			SAMFileHeader header, ReferenceSequenceFile refFile) {
+		for (File file : files)
+			if (!getIndexFile(file).exists())
+				throw new RuntimeException("Index file not found: "
+						+ getIndexFile(file).getAbsolutePath());
+		this.files = files;
+		this.ids = ids;
+		this.header = header;
+		this.refFile = refFile;
+	}
+
+	private static File getIndexFile(File file) {
+		return new File(file.getAbsolutePath() + ".bai");
+	}
+
+	static class Shard {
+		/**
+		 * The sequence index in the merged header or -1 for unplaced
+		 * records.
+		 */
+		final int sequenceIndex;
+		final String sequenceName;
+		// 1-based, inclusive:
+		final int start;
+		final int end;
+
+		private File file;
+		private long records;
+
+		Shard(int sequenceIndex, String sequenceName, int start, int end) {
+			this.sequenceIndex = sequenceIndex;
+			this.sequenceName = sequenceName;
+			this.start = start;
+			this.end = end;
+		}
+
+		boolean contains(SAMRecord record) {
+			if (sequenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+				return SAMRecord.NO_ALIGNMENT_REFERENCE_NAME.equals(record
+						.getReferenceName());
+			int alStart = record.getAlignmentStart();
+			return sequenceName.equals(record.getReferenceName())
+					&& alStart >= start && alStart <= end;
+		}
+
+		@Override
+		public String toString() {
+			if (sequenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+				return "unmapped";
+			return sequenceName + ":" + start + "-" + end;
+		}
+	}
+
+	/**
+	 * Splits the sequences of the header into shards of the given size in
+	 * their order.
+	 *
+	 * @param query
+	 *            the region to split or null for the whole genome including
+	 *            the unplaced records
+	 */
+	static List<Shard> split(SAMFileHeader header, AlignmentSliceQuery query,
+			int shardSize) {
+		List<Shard> shards = new ArrayList<Shard>();
+		for (SAMSequenceRecord sequence : header.getSequenceDictionary()
+				.getSequences()) {
+			if (query != null
+					&& !query.sequence.equals(sequence.getSequenceName()))
+				continue;
+
+			int start = query == null ? 1 : Math.max(1, query.start);
+			int end = sequence.getSequenceLength() > 0 ? sequence
+					.getSequenceLength() : Integer.MAX_VALUE;
+			if (query != null)
+				end = Math.min(end, query.end);
+
+			for (long s = start; s <= end; s += shardSize)
+				shards.add(new Shard(sequence.getSequenceIndex(), sequence
+						.getSequenceName(), (int) s, (int) Math.min(end, s
+						+ shardSize - 1)));
+		}
+
+		if (query == null)
+			shards.add(new Shard(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX,
+					SAMRecord.NO_ALIGNMENT_REFERENCE_NAME, 0, 0));
+		else if (shards.isEmpty())
+			throw new RuntimeException("Sequence not found: " + query.sequence);
+		return shards;
+	}
+
+	/**
+	 * @param threads
+	 *            number of shards merged at the same time
+	 */
+	public void run(List<Shard> shards, File outFile, int threads)
+			throws IOException {
+		File dir = outFile.getAbsoluteFile().getParentFile();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				threads));
+		List<Future<Shard>> futures = new ArrayList<Future<Shard>>(
+				shards.size());
+		for (Shard shard : shards)
+			futures.add(executor.submit(new ShardTask(shard, dir)));
+		executor.shutdown();
+
+		header.setSortOrder(SortOrder.coordinate);
+		OutputStream os = null;
+		CramIndex index = null;
+		try {
+			os = new BufferedOutputStream(new FileOutputStream(outFile));
+			index = new CramIndex(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(outFile
+							.getAbsolutePath() + ".crai"))));
+			CramHeader cramHeader = new CramHeader(2, 0, outFile.getName(),
+					header);
+			long offset = ReadWrite.writeCramHeader(cramHeader, os);
+			long globalRecordCounter = 0;
+
+			for (Future<Shard> future : futures) {
+				Shard shard = future.get();
+				offset += append(shard, os, index, offset, globalRecordCounter);
+				globalRecordCounter += shard.records;
+				log.info(String.format("Merged %d records from %s.",
+						shard.records, shard));
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			for (Future<Shard> future : futures)
+				if (future.isDone() && !future.isCancelled())
+					try {
+						Shard shard = future.get();
+						if (shard.file != null)
+							shard.file.delete();
+					} catch (Exception e) {
+					}
+
+			if (os != null)
+				os.close();
+			if (index != null)
+				index.close();
+		}
+	}
+
+	/**
+	 * Copies the containers of a shard to the output. The blocks are not
+	 * decompressed, the containers are only moved to the position of the
+	 * shard in the record count.
+	 *
+	 * @return the number of bytes written
+	 */
+	private long append(Shard shard, OutputStream os, CramIndex index,
+			long offset, long globalRecordCounter) throws IOException {
+		if (shard.file == null)
+			return 0;
+
+		long len = 0;
+		InputStream is = new BufferedInputStream(new FileInputStream(
+				shard.file));
+		LastHeader lastHeader = new LastHeader();
+		Container c;
+		while ((c = ReadWrite.readContainer(header, is, 0, Integer.MAX_VALUE,
+				lastHeader)) != null) {
+			c.globalRecordCounter += globalRecordCounter;
+			for (Slice s : c.slices)
+				s.globalRecordCounter += globalRecordCounter;
+
+			c.offset = offset + len;
+			len += ReadWrite.writeContainer(c, os);
+			index.addContainer(c);
+		}
+		is.close();
+		shard.file.delete();
+		shard.file = null;
+		return len;
+	}
+
+	private class ShardTask implements Callable<Shard> {
+		private Shard shard;
+		private File dir;
+
+		public ShardTask(Shard shard, File dir) {
+			this.shard = shard;
+			this.dir = dir;
+		}
+
+		@Override
+		public Shard call() throws Exception {
+			List<SAMFileReader> readers = new ArrayList<SAMFileReader>(
+					files.size());
+			List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>(
+					files.size());
+			for (File file : files) {
+				SAMFileReader reader = new SAMFileReader(file,
+						getIndexFile(file));
+				readers.add(reader);
+				iterators.add(new ShardIterator(query(reader), shard));
+			}
+
+			MergedIterator it = new MergedIterator(ids, iterators, header,
+					readAheadRecords, 0);
+			try {
+				encode(it);
+			} finally {
+				it.close();
+				for (SAMFileReader reader : readers)
+					reader.close();
+			}
+			return shard;
+		}
+
+		private CloseableIterator<SAMRecord> query(SAMFileReader reader) {
+			if (shard.sequenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+				return reader.queryUnmapped();
+			if (reader.getFileHeader().getSequence(shard.sequenceName) == null)
+				return null;
+			return reader.query(shard.sequenceName, shard.start, shard.end,
+					false);
+		}
+
+		private void encode(MergedIterator it) throws Exception {
+			if (!it.hasNext())
+				return;
+
+			// a reference source per shard, the fasta file reads are
+			// synchronized by the source:
+			ReferenceSource referenceSource = new ReferenceSource(refFile);
+
+			shard.file = File.createTempFile("shard", ".cram", dir);
+			shard.file.deleteOnExit();
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(
+					shard.file));
+			try {
+				List<SAMRecord> records = new ArrayList<SAMRecord>(
+						maxContainerSize);
+				while (it.hasNext()) {
+					records.add(it.next());
+					if (records.size() >= maxContainerSize || !it.hasNext()) {
+						int count = records.size();
+						Container c = Bam2Cram.buildContainer(records, header,
+								referenceSource, preservation,
+								preserveReadNames, captureAllTags,
+								captureTags, ignoreTags, shard.records);
+						shard.records += count;
+						ReadWrite.writeContainer(c, os);
+					}
+				}
+			} finally {
+				os.close();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the records starting in the shard, the index queries return
+	 * records overlapping it.
+	 */
+	private static class ShardIterator implements CloseableIterator<SAMRecord> {
+		private CloseableIterator<SAMRecord> it;
+		private Shard shard;
+		private SAMRecord next;
+
+		ShardIterator(CloseableIterator<SAMRecord> it, Shard shard) {
+			this.it = it;
+			this.shard = shard;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && it != null && it.hasNext()) {
+				SAMRecord record = it.next();
+				if (shard.contains(record))
+					next = record;
+			}
+			return next != null;
+		}
+
+		@Override
+		public SAMRecord next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			SAMRecord record = next;
+			next = null;
+			return record;
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException("Unsupported operation.");
+		}
+
+		@Override
+		public void close() {
+			if (it != null)
+				it.close();
+		}
+	}
+}
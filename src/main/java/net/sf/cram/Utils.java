@@ -327,35 +327,40 @@ public class Utils {
 	private static final Pattern chrPattern = Pattern.compile("chr.*",
 			Pattern.CASE_INSENSITIVE);
 
-	public static ReferenceSequence trySequenceNameVariants(
-			ReferenceSequenceFile rsFile, String name) {
-		ReferenceSequence rs = getReferenceSequenceOrNull(rsFile, name);
+	/**
+	 * @return the name itself followed by the alternative names the sequence
+	 *         may have in a fasta file, in the order they should be tried
+	 */
+	public static List<String> sequenceNameVariants(String name) {
+		List<String> names = new ArrayList<String>();
+		names.add(name);
 
-		if (rs == null && name.equals("M")) {
-			rs = getReferenceSequenceOrNull(rsFile, "MT");
-		}
+		if (name.equals("M"))
+			names.add("MT");
 
-		if (rs == null && name.equals("MT")) {
-			rs = getReferenceSequenceOrNull(rsFile, "M");
-		}
+		if (name.equals("MT"))
+			names.add("M");
 
-		boolean chrPatternMatch = chrPattern.matcher(name).matches();
-		if (rs == null) {
-			if (chrPatternMatch)
-				rs = getReferenceSequenceOrNull(rsFile, name.substring(3));
-			else
-				rs = getReferenceSequenceOrNull(rsFile, "chr" + name);
-		}
+		if (chrPattern.matcher(name).matches())
+			names.add(name.substring(3));
+		else
+			names.add("chr" + name);
 
-		if (rs == null && "chrM".equals(name)) {
-			// chrM case:
-			rs = getReferenceSequenceOrNull(rsFile, "MT");
-		}
+		// chrM case:
+		if ("chrM".equals(name))
+			names.add("MT");
 
-		if (rs == null)
-			return null;
+		return names;
+	}
 
-		return rs;
+	public static ReferenceSequence trySequenceNameVariants(
+			ReferenceSequenceFile rsFile, String name) {
+		for (String variant : sequenceNameVariants(name)) {
+			ReferenceSequence rs = getReferenceSequenceOrNull(rsFile, variant);
+			if (rs != null)
+				return rs;
+		}
+		return null;
 	}
 
 	public static byte[] getBasesOrNull(ReferenceSequenceFile rsFile,
@@ -405,13 +410,24 @@ public class Utils {
 	 */
 	public static void calculateMdAndNmTags(SAMRecord record, byte[] ref,
 			boolean calcMD, boolean calcNM) {
+		calculateMdAndNmTags(record, new ReferenceRegion(ref, 0), calcMD,
+				calcNM);
+	}
+
+	/**
+	 * Same as above but only needs the reference bases for the alignment span
+	 * of the record.
+	 */
+	public static void calculateMdAndNmTags(SAMRecord record,
+			ReferenceRegion region, boolean calcMD, boolean calcNM) {
 		if (!calcMD && !calcNM)
 			return;
 
 		Cigar cigar = record.getCigar();
 		List<CigarElement> cigarElements = cigar.getCigarElements();
 		byte[] seq = record.getReadBases();
-		int start = record.getAlignmentStart() - 1;
+		byte[] ref = region.bases;
+		int start = record.getAlignmentStart() - 1 - region.start;
 		int i, x, y, u = 0;
 		int nm = 0;
 		StringBuffer str = new StringBuffer();
@@ -453,7 +469,7 @@ public class Utils {
 				str.append(u);
 				str.append('^');
 				for (j = 0; j < l; ++j) {
-					if (ref[x + j] == 0)
+					if (ref.length <= x + j || ref[x + j] == 0)
 						break;
 					str.appendCodePoint(ref[x + j]);
 				}
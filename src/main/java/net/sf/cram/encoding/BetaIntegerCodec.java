@@ -21,7 +21,7 @@ import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class BetaIntegerCodec implements BitCodec<Integer> {
+public class BetaIntegerCodec implements IntBitCodec {
 	private int offset = 0;
 	private int readNofBits;
 	
@@ -31,12 +31,12 @@ public class BetaIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final Integer read(BitInputStream bis) throws IOException {
+	public final int readInt(BitInputStream bis) throws IOException {
 		return bis.readBits(readNofBits) - offset;
 	}
 
 	@Override
-	public final long write(BitOutputStream bos, Integer value) throws IOException {
+	public final long writeInt(BitOutputStream bos, int value) throws IOException {
 //		if (value + offset < 0)
 //			throw new IllegalArgumentException("Value is less then offset: " + value);
 
@@ -46,6 +46,16 @@ public class BetaIntegerCodec implements BitCodec<Integer> {
 		return nofBits;
 	}
 
+	@Override
+	public final Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public final long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public final long numberOfBits(Integer value) {
 		if (value > (1L << readNofBits))
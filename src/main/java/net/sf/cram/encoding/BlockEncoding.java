@@ -0,0 +1,23 @@
+package net.sf.cram.encoding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoding whose codecs read and write the plain bytes of an external
+ * block, the block is coded as a whole when a slice is built and decoded
+ * before its records are read. All data series using the block share the
+ * coding.
+ */
+public interface BlockEncoding {
+
+	public int getContentId();
+
+	public byte[] encodeBlock(byte[] data, int offset, int length);
+
+	public byte[] decodeBlock(ByteBuffer buf);
+
+	/**
+	 * @return true if the coded block should still be compressed
+	 */
+	public boolean isCompressible();
+}
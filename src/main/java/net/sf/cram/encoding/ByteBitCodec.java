@@ -0,0 +1,16 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+import net.sf.cram.io.BitInputStream;
+import net.sf.cram.io.BitOutputStream;
+
+/**
+ * A codec for byte values that can be used without boxing.
+ */
+public interface ByteBitCodec extends BitCodec<Byte> {
+
+	public byte readByte(BitInputStream bis) throws IOException;
+
+	public long writeByte(BitOutputStream bos, byte value) throws IOException;
+}
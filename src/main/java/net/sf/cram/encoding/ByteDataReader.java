@@ -0,0 +1,8 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+public interface ByteDataReader extends DataReader<Byte> {
+
+	public byte readByte() throws IOException;
+}
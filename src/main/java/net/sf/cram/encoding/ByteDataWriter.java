@@ -0,0 +1,8 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+public interface ByteDataWriter extends DataWriter<Byte> {
+
+	public long writeByte(byte value) throws IOException;
+}
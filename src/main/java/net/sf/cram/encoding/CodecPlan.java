@@ -0,0 +1,308 @@
+package net.sf.cram.encoding;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.sf.cram.DataSeriesType;
+import net.sf.cram.EncodingID;
+import net.sf.cram.EncodingKey;
+import net.sf.cram.EncodingParams;
+import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+import net.sf.cram.structure.CompressionHeader;
+
+/**
+ * Encodings of a compression header resolved once for all data series of a
+ * {@link Reader} or {@link Writer}, so that every slice of a container can be
+ * wired up without parsing encoding parameters again. The annotated series
+ * are scanned once per class, per slice the codecs are handed to
+ * {@link Reader#setSeriesReader} and {@link Writer#setSeriesWriter}, which
+ * assign the fields without reflection. Codecs that do not depend on external
+ * blocks are built once and shared by all slices, the others are built for
+ * each slice.
+ * <p>
+ * A reader plan can be limited to a {@link SeriesProjection}: series left out
+ * that read only external blocks no other series needs are bound to no-op
+ * readers and those blocks are not decompressed.
+ */
+public class CodecPlan {
+	private static final SeriesField[] READER_FIELDS = scan(Reader.class);
+	private static final SeriesField[] WRITER_FIELDS = scan(Writer.class);
+
+	final CompressionHeader header;
+	final SeriesProjection projection;
+	final Series[] series;
+	final Map<Integer, Series> tags = new TreeMap<Integer, Series>();
+	private final Set<Integer> skippedContentIds = new HashSet<Integer>();
+	private final Map<Integer, BlockEncoding> blockEncodings = new TreeMap<Integer, BlockEncoding>();
+
+	static class SeriesField {
+		final EncodingKey key;
+		final DataSeriesType type;
+
+		SeriesField(EncodingKey key, DataSeriesType type) {
+			this.key = key;
+			this.type = type;
+		}
+	}
+
+	static class Series {
+		/**
+		 * Null for tags.
+		 */
+		final EncodingKey key;
+		final DataSeriesType type;
+		final EncodingID id;
+		final byte[] params;
+		final Encoding<?> encoding;
+		final BitCodec<?> sharedCodec;
+		/**
+		 * Left out of the projection, the series is not read at all.
+		 */
+		boolean skipped = false;
+
+		Series(EncodingKey key, DataSeriesType type, EncodingParams params) {
+			this.key = key;
+			this.type = type;
+			this.id = params.id;
+			this.params = params.params;
+
+			EncodingFactory f = new EncodingFactory();
+			encoding = f.createEncoding(type, params.id);
+			if (encoding == null)
+				throw new RuntimeException("Encoding not found: value type="
+						+ type.name() + ", encoding id=" + params.id.name());
+			encoding.fromByteArray(params.params);
+
+			sharedCodec = isStreamBound(params.id) ? null : encoding
+					.buildCodec(null, null);
+		}
+
+		<T> BitCodec<T> codec(Map<Integer, InputStream> inputMap,
+				Map<Integer, ExposedByteArrayOutputStream> outputMap) {
+			if (sharedCodec != null)
+				return (BitCodec<T>) sharedCodec;
+			return (BitCodec<T>) encoding.buildCodec(inputMap, outputMap);
+		}
+	}
+
+	private CodecPlan(CompressionHeader h, SeriesField[] fields,
+			SeriesProjection projection) {
+		this.header = h;
+		this.projection = projection;
+
+		series = new Series[fields.length];
+		boolean[] included = new boolean[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			SeriesField sf = fields[i];
+			EncodingParams params = h.eMap.get(sf.key);
+			if (params == null)
+				throw new RuntimeException("Encoding not found for key: "
+						+ sf.key);
+			series[i] = new Series(sf.key, sf.type, params);
+			included[i] = projection.includes(sf.key);
+			if (series[i].encoding instanceof BlockEncoding) {
+				BlockEncoding e = (BlockEncoding) series[i].encoding;
+				blockEncodings.put(e.getContentId(), e);
+			}
+		}
+
+		for (Integer key : h.tMap.keySet())
+			tags.put(key, new Series(null, DataSeriesType.BYTE_ARRAY,
+					h.tMap.get(key)));
+
+		if (projection != SeriesProjection.ALL)
+			project(included);
+	}
+
+	/**
+	 * External blocks are needed if an included series reads them or if a
+	 * series left out has to be read anyway because it also reads the core
+	 * bit stream. Only the values of byte arrays with lengths in the core
+	 * can be taken from a skipped block, they are read as zeros.
+	 */
+	private void project(boolean[] included) {
+		List<Series> all = new ArrayList<Series>();
+		List<Boolean> allIncluded = new ArrayList<Boolean>();
+		for (int i = 0; i < series.length; i++) {
+			all.add(series[i]);
+			allIncluded.add(included[i]);
+		}
+		for (Integer key : tags.keySet()) {
+			all.add(tags.get(key));
+			allIncluded.add(projection.includesTag(key));
+		}
+
+		Set<Integer> referenced = new HashSet<Integer>();
+		Set<Integer> needed = new HashSet<Integer>();
+		boolean[] externalOnly = new boolean[all.size()];
+		for (int i = 0; i < all.size(); i++) {
+			Series s = all.get(i);
+			Set<Integer> ids = new HashSet<Integer>();
+			externalOnly[i] = externalIds(s.id, s.params, ids);
+			referenced.addAll(ids);
+
+			if (allIncluded.get(i))
+				needed.addAll(ids);
+			else if (externalOnly[i])
+				continue;
+			else if (s.id == EncodingID.BYTE_ARRAY_LEN)
+				lengthIds(s.params, needed);
+			else
+				needed.addAll(ids);
+		}
+
+		// series left out that read only external blocks still share them
+		// with other series:
+		for (int i = 0; i < all.size(); i++) {
+			Series s = all.get(i);
+			if (allIncluded.get(i) || !externalOnly[i])
+				continue;
+			Set<Integer> ids = new HashSet<Integer>();
+			externalIds(s.id, s.params, ids);
+			ids.retainAll(needed);
+			s.skipped = ids.isEmpty();
+		}
+
+		skippedContentIds.addAll(referenced);
+		skippedContentIds.removeAll(needed);
+	}
+
+	/**
+	 * Collects the content ids of external blocks read by the encoding.
+	 * 
+	 * @return true if the encoding does not read the core bit stream
+	 */
+	private static boolean externalIds(EncodingID id, byte[] params,
+			Set<Integer> ids) {
+		ByteBuffer buf = ByteBuffer.wrap(params);
+		switch (id) {
+		case NULL:
+			return true;
+		case EXTERNAL:
+		case RANGE:
+		case TOKENS:
+			ids.add(ByteBufferUtils.readUnsignedITF8(buf));
+			return true;
+		case BYTE_ARRAY_STOP:
+			buf.get();
+			ids.add(ByteBufferUtils.readUnsignedITF8(buf));
+			return true;
+		case BYTE_ARRAY_LEN:
+			boolean lenExternal = externalIds(
+					EncodingID.values()[buf.get()], subParams(buf), ids);
+			boolean valuesExternal = externalIds(
+					EncodingID.values()[buf.get()], subParams(buf), ids);
+			return lenExternal && valuesExternal;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the external ids of the lengths of a byte array encoding, and of
+	 * the values too unless they are read by length from an external block.
+	 */
+	private static void lengthIds(byte[] params, Set<Integer> ids) {
+		ByteBuffer buf = ByteBuffer.wrap(params);
+		externalIds(EncodingID.values()[buf.get()], subParams(buf), ids);
+		EncodingID valueId = EncodingID.values()[buf.get()];
+		byte[] valueParams = subParams(buf);
+		if (valueId != EncodingID.EXTERNAL)
+			externalIds(valueId, valueParams, ids);
+	}
+
+	private static byte[] subParams(ByteBuffer buf) {
+		byte[] bytes = new byte[ByteBufferUtils.readUnsignedITF8(buf)];
+		buf.get(bytes);
+		return bytes;
+	}
+
+	public static CodecPlan forReader(CompressionHeader h) {
+		return forReader(h, SeriesProjection.ALL);
+	}
+
+	/**
+	 * The plan is kept on the header and returned again for the same
+	 * projection, containers sharing a header share the codecs.
+	 */
+	public static CodecPlan forReader(CompressionHeader h,
+			SeriesProjection projection) {
+		synchronized (h) {
+			CodecPlan plan = h.readerPlans.get(projection);
+			if (plan == null) {
+				plan = new CodecPlan(h, READER_FIELDS, projection);
+				h.readerPlans.put(projection, plan);
+			}
+			return plan;
+		}
+	}
+
+	public static CodecPlan forWriter(CompressionHeader h) {
+		synchronized (h) {
+			if (h.writerPlan == null)
+				h.writerPlan = new CodecPlan(h, WRITER_FIELDS,
+						SeriesProjection.ALL);
+			return h.writerPlan;
+		}
+	}
+
+	public CompressionHeader getHeader() {
+		return header;
+	}
+
+	public SeriesProjection getProjection() {
+		return projection;
+	}
+
+	/**
+	 * @return content ids of external blocks no series of the plan reads
+	 */
+	public Set<Integer> getSkippedContentIds() {
+		return skippedContentIds;
+	}
+
+	/**
+	 * @return encodings of external blocks coded as a whole by content id
+	 */
+	public Map<Integer, BlockEncoding> getBlockEncodings() {
+		return blockEncodings;
+	}
+
+	/**
+	 * Codecs of these encodings keep a reference to the external block
+	 * streams of a slice.
+	 */
+	private static boolean isStreamBound(EncodingID id) {
+		switch (id) {
+		case EXTERNAL:
+		case BYTE_ARRAY_LEN:
+		case BYTE_ARRAY_STOP:
+		case RANGE:
+		case TOKENS:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	private static SeriesField[] scan(Class<?> clazz) {
+		List<SeriesField> list = new ArrayList<SeriesField>();
+		for (Field f : clazz.getFields()) {
+			if (f.isAnnotationPresent(DataSeries.class)) {
+				DataSeries ds = f.getAnnotation(DataSeries.class);
+				list.add(new SeriesField(ds.key(), ds.type()));
+			}
+		}
+		return list.toArray(new SeriesField[list.size()]);
+	}
+}
@@ -10,7 +10,6 @@ import java.util.TreeMap;
 import net.sf.cram.DataSeriesType;
 import net.sf.cram.EncodingID;
 import net.sf.cram.EncodingKey;
-import net.sf.cram.EncodingParams;
 import net.sf.cram.ReadTag;
 import net.sf.cram.io.BitInputStream;
 import net.sf.cram.structure.CompressionHeader;
@@ -22,74 +21,89 @@ public class DataReaderFactory {
 	public Reader buildReader(BitInputStream bis,
 			Map<Integer, InputStream> inputMap, CompressionHeader h, int refId)
 			throws IllegalArgumentException, IllegalAccessException {
+		return buildReader(bis, inputMap, CodecPlan.forReader(h), refId);
+	}
+
+	/**
+	 * Builds a reader for one slice, the plan can be shared by all slices
+	 * of a container.
+	 */
+	public Reader buildReader(BitInputStream bis,
+			Map<Integer, InputStream> inputMap, CodecPlan plan, int refId)
+			throws IllegalArgumentException, IllegalAccessException {
 		Reader reader = new Reader();
-		reader.captureReadNames = h.readNamesIncluded;
-		reader.refId = refId ;
+		reader.captureReadNames = plan.header.readNamesIncluded;
+		reader.refId = refId;
+		reader.projection = plan.projection;
 
-		for (Field f : reader.getClass().getFields()) {
-			if (f.isAnnotationPresent(DataSeries.class)) {
-				// debug hook:
-				// if (f.getName().equals("fc"))
-				// System.out.println("qwe");
-				DataSeries ds = f.getAnnotation(DataSeries.class);
-				EncodingKey key = ds.key();
-				DataSeriesType type = ds.type();
-				if (h.eMap.get(key) == null) {
-					System.err.println("Encoding not found for key: " + key);
-				}
-				f.set(reader,
-						createReader(type, h.eMap.get(key), bis, inputMap));
-			}
+		for (CodecPlan.Series series : plan.series)
+			reader.setSeriesReader(series.key, series.type,
+					createReader(series, bis, inputMap));
 
-			if (f.isAnnotationPresent(DataSeriesMap.class)) {
-				DataSeriesMap dsm = f.getAnnotation(DataSeriesMap.class);
-				String name = dsm.name();
-				if ("TAG".equals(name)) {
-					Map<Integer, DataReader<byte[]>> map = new HashMap<Integer, DataReader<byte[]>>();
-					for (Integer key : h.tMap.keySet()) {
-						EncodingParams params = h.tMap.get(key);
-						DataReader<byte[]> tagReader = createReader(
-								DataSeriesType.BYTE_ARRAY, params, bis,
-								inputMap);
-						map.put(key, tagReader);
-					}
-					f.set(reader, map);
-				}
-			}
+		Map<Integer, DataReader<byte[]>> map = new HashMap<Integer, DataReader<byte[]>>();
+		for (Integer key : plan.tags.keySet()) {
+			DataReader<byte[]> tagReader = createReader(plan.tags.get(key),
+					bis, inputMap);
+			map.put(key, tagReader);
 		}
+		reader.tagValueCodecs = map;
 
-		reader.tagIdDictionary = h.dictionary;
+		reader.tagIdDictionary = plan.header.dictionary;
 		return reader;
 	}
 
-	private <T> DataReader<T> createReader(DataSeriesType valueType,
-			EncodingParams params, BitInputStream bis,
-			Map<Integer, InputStream> inputMap) {
-		if (params.id == EncodingID.NULL)
-			return collectStats ? new DataReaderWithStats(
-					buildNullReader(valueType)) : buildNullReader(valueType);
+	private <T> DataReader<T> createReader(CodecPlan.Series series,
+			BitInputStream bis, Map<Integer, InputStream> inputMap) {
+		DataReader<T> reader;
+		if (series.id == EncodingID.NULL || series.skipped)
+			reader = buildNullReader(series.type);
+		else {
+			BitCodec<T> codec = series.codec(inputMap, null);
+			reader = buildReader(series.type, codec, bis);
+		}
+
+		return collectStats ? withStats(series.type, reader) : reader;
+	}
 
-		EncodingFactory f = new EncodingFactory();
-		Encoding<T> encoding = f.createEncoding(valueType, params.id);
-		if (encoding == null)
-			throw new RuntimeException("Encoding not found for value type "
-					+ valueType.name() + ", id=" + params.id);
-		encoding.fromByteArray(params.params);
+	/**
+	 * Int and byte data series get readers that can be used without boxing.
+	 */
+	private static <T> DataReader<T> buildReader(DataSeriesType valueType,
+			BitCodec<T> codec, BitInputStream bis) {
+		switch (valueType) {
+		case INT:
+			return (DataReader<T>) new DefaultIntDataReader(
+					(BitCodec<Integer>) codec, bis);
+		case BYTE:
+			return (DataReader<T>) new DefaultByteDataReader(
+					(BitCodec<Byte>) codec, bis);
 
-		return collectStats ? new DataReaderWithStats(new DefaultDataReader<T>(
-				encoding.buildCodec(inputMap, null), bis))
-				: new DefaultDataReader<T>(encoding.buildCodec(inputMap, null),
-						bis);
+		default:
+			return new DefaultDataReader<T>(codec, bis);
+		}
+	}
+
+	private static <T> DataReader<T> withStats(DataSeriesType valueType,
+			DataReader<T> reader) {
+		switch (valueType) {
+		case INT:
+			return (DataReader<T>) new IntDataReaderWithStats(
+					(IntDataReader) reader);
+		case BYTE:
+			return (DataReader<T>) new ByteDataReaderWithStats(
+					(ByteDataReader) reader);
+
+		default:
+			return new DataReaderWithStats<T>(reader);
+		}
 	}
 
 	private static <T> DataReader<T> buildNullReader(DataSeriesType valueType) {
 		switch (valueType) {
 		case BYTE:
-			return (DataReader<T>) new SingleValueReader<Byte>(new Byte(
-					(byte) 0));
+			return (DataReader<T>) new SingleByteValueReader((byte) 0);
 		case INT:
-			return (DataReader<T>) new SingleValueReader<Integer>(
-					new Integer(0));
+			return (DataReader<T>) new SingleIntValueReader(0);
 		case LONG:
 			return (DataReader<T>) new SingleValueReader<Long>(new Long(0));
 		case BYTE_ARRAY:
@@ -120,6 +134,69 @@ public class DataReaderFactory {
 		}
 	}
 
+	/**
+	 * Falls back to the boxed read if the codec has no primitive path.
+	 */
+	private static class DefaultIntDataReader implements IntDataReader {
+		private final BitCodec<Integer> codec;
+		private final IntBitCodec intCodec;
+		private final BitInputStream bis;
+
+		public DefaultIntDataReader(BitCodec<Integer> codec, BitInputStream bis) {
+			this.codec = codec;
+			this.intCodec = codec instanceof IntBitCodec ? (IntBitCodec) codec
+					: null;
+			this.bis = bis;
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			if (intCodec != null)
+				return intCodec.readInt(bis);
+			return codec.read(bis);
+		}
+
+		@Override
+		public Integer readData() throws IOException {
+			return readInt();
+		}
+
+		@Override
+		public Integer readDataArray(int len) throws IOException {
+			return codec.read(bis, len);
+		}
+	}
+
+	private static class DefaultByteDataReader implements ByteDataReader {
+		private final BitCodec<Byte> codec;
+		private final ByteBitCodec byteCodec;
+		private final BitInputStream bis;
+
+		public DefaultByteDataReader(BitCodec<Byte> codec, BitInputStream bis) {
+			this.codec = codec;
+			this.byteCodec = codec instanceof ByteBitCodec ? (ByteBitCodec) codec
+					: null;
+			this.bis = bis;
+		}
+
+		@Override
+		public byte readByte() throws IOException {
+			if (byteCodec != null)
+				return byteCodec.readByte(bis);
+			return codec.read(bis);
+		}
+
+		@Override
+		public Byte readData() throws IOException {
+			return readByte();
+		}
+
+		@Override
+		public Byte readDataArray(int len) throws IOException {
+			return codec.read(bis, len);
+		}
+	}
+
 	private static class SingleValueReader<T> implements DataReader<T> {
 		private T value;
 
@@ -140,6 +217,52 @@ public class DataReaderFactory {
 
 	}
 
+	private static class SingleIntValueReader implements IntDataReader {
+		private int value;
+
+		public SingleIntValueReader(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public int readInt() {
+			return value;
+		}
+
+		@Override
+		public Integer readData() {
+			return value;
+		}
+
+		@Override
+		public Integer readDataArray(int len) {
+			return value;
+		}
+	}
+
+	private static class SingleByteValueReader implements ByteDataReader {
+		private byte value;
+
+		public SingleByteValueReader(byte value) {
+			this.value = value;
+		}
+
+		@Override
+		public byte readByte() {
+			return value;
+		}
+
+		@Override
+		public Byte readData() {
+			return value;
+		}
+
+		@Override
+		public Byte readDataArray(int len) {
+			return value;
+		}
+	}
+
 	public static class DataReaderWithStats<T> implements DataReader<T> {
 		public long nanos = 0;
 		DataReader<T> delegate;
@@ -165,6 +288,42 @@ public class DataReaderFactory {
 		}
 	}
 
+	public static class IntDataReaderWithStats extends
+			DataReaderWithStats<Integer> implements IntDataReader {
+		private IntDataReader intDelegate;
+
+		public IntDataReaderWithStats(IntDataReader delegate) {
+			super(delegate);
+			this.intDelegate = delegate;
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			long time = System.nanoTime();
+			int value = intDelegate.readInt();
+			nanos += System.nanoTime() - time;
+			return value;
+		}
+	}
+
+	public static class ByteDataReaderWithStats extends
+			DataReaderWithStats<Byte> implements ByteDataReader {
+		private ByteDataReader byteDelegate;
+
+		public ByteDataReaderWithStats(ByteDataReader delegate) {
+			super(delegate);
+			this.byteDelegate = delegate;
+		}
+
+		@Override
+		public byte readByte() throws IOException {
+			long time = System.nanoTime();
+			byte value = byteDelegate.readByte();
+			nanos += System.nanoTime() - time;
+			return value;
+		}
+	}
+
 	public Map<String, DataReaderWithStats> getStats(Reader reader)
 			throws IllegalArgumentException, IllegalAccessException {
 		Map<String, DataReaderWithStats> map = new TreeMap<String, DataReaderFactory.DataReaderWithStats>();
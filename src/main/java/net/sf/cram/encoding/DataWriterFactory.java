@@ -1,14 +1,9 @@
 package net.sf.cram.encoding;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 
-import net.sf.cram.DataSeriesType;
-import net.sf.cram.EncodingID;
-import net.sf.cram.EncodingKey;
-import net.sf.cram.EncodingParams;
 import net.sf.cram.io.BitOutputStream;
 import net.sf.cram.io.ExposedByteArrayOutputStream;
 import net.sf.cram.structure.CompressionHeader;
@@ -19,55 +14,53 @@ public class DataWriterFactory {
 			Map<Integer, ExposedByteArrayOutputStream> outputMap,
 			CompressionHeader h, int refId) throws IllegalArgumentException,
 			IllegalAccessException {
+		return buildWriter(bos, outputMap, CodecPlan.forWriter(h), refId);
+	}
+
+	/**
+	 * Builds a writer for one slice, the plan can be shared by all slices
+	 * of a container.
+	 */
+	public Writer buildWriter(BitOutputStream bos,
+			Map<Integer, ExposedByteArrayOutputStream> outputMap,
+			CodecPlan plan, int refId) throws IllegalArgumentException,
+			IllegalAccessException {
 		Writer writer = new Writer();
-		writer.captureReadNames = h.readNamesIncluded;
-		writer.refId = refId ;
-		writer.substitutionMatrix = h.substitutionMatrix ;
-		writer.AP_delta = h.AP_seriesDelta ;
-
-		for (Field f : writer.getClass().getFields()) {
-			if (f.isAnnotationPresent(DataSeries.class)) {
-				DataSeries ds = f.getAnnotation(DataSeries.class);
-				EncodingKey key = ds.key();
-				DataSeriesType type = ds.type();
-				
-				f.set(writer,
-						createWriter(type, h.eMap.get(key), bos, outputMap));
-			}
-
-			if (f.isAnnotationPresent(DataSeriesMap.class)) {
-				DataSeriesMap dsm = f.getAnnotation(DataSeriesMap.class);
-				String name = dsm.name();
-				if ("TAG".equals(name)) {
-					Map<Integer, DataWriter<byte[]>> map = new HashMap<Integer, DataWriter<byte[]>>();
-					for (Integer key : h.tMap.keySet()) {
-						EncodingParams params = h.tMap.get(key);
-						DataWriter<byte[]> tagWtiter = createWriter(
-								DataSeriesType.BYTE_ARRAY, params, bos,
-								outputMap);
-						map.put(key, tagWtiter);
-					}
-					f.set(writer, map);
-				}
-			}
+		writer.captureReadNames = plan.header.readNamesIncluded;
+		writer.refId = refId;
+		writer.substitutionMatrix = plan.header.substitutionMatrix;
+		writer.AP_delta = plan.header.AP_seriesDelta;
+
+		for (CodecPlan.Series series : plan.series)
+			writer.setSeriesWriter(series.key, series.type,
+					createWriter(series, bos, outputMap));
+
+		Map<Integer, DataWriter<byte[]>> map = new HashMap<Integer, DataWriter<byte[]>>();
+		for (Integer key : plan.tags.keySet()) {
+			DataWriter<byte[]> tagWtiter = createWriter(plan.tags.get(key),
+					bos, outputMap);
+			map.put(key, tagWtiter);
 		}
-		
+		writer.tagValueCodecs = map;
+
 		return writer;
 	}
 
-	private <T> DataWriter<T> createWriter(DataSeriesType valueType,
-			EncodingParams params, BitOutputStream bos,
+	private <T> DataWriter<T> createWriter(CodecPlan.Series series,
+			BitOutputStream bos,
 			Map<Integer, ExposedByteArrayOutputStream> outputMap) {
-		EncodingFactory f = new EncodingFactory();
-		Encoding<T> encoding = f.createEncoding(valueType, params.id);
-		if (encoding == null)
-			throw new RuntimeException("Encoding not found: value type="
-					+ valueType.name() + ", encoding id=" + params.id.name());
-
-		encoding.fromByteArray(params.params);
+		BitCodec<T> codec = series.codec(null, outputMap);
+		switch (series.type) {
+		case INT:
+			return (DataWriter<T>) new DefaultIntDataWriter(
+					(BitCodec<Integer>) codec, bos);
+		case BYTE:
+			return (DataWriter<T>) new DefaultByteDataWriter(
+					(BitCodec<Byte>) codec, bos);
 
-		return new DefaultDataWriter<T>(encoding.buildCodec(null, outputMap),
-				bos);
+		default:
+			return new DefaultDataWriter<T>(codec, bos);
+		}
 	}
 
 	private static class DefaultDataWriter<T> implements DataWriter<T> {
@@ -85,4 +78,57 @@ public class DataWriterFactory {
 		}
 
 	}
+
+	/**
+	 * Falls back to the boxed write if the codec has no primitive path.
+	 */
+	private static class DefaultIntDataWriter implements IntDataWriter {
+		private final BitCodec<Integer> codec;
+		private final IntBitCodec intCodec;
+		private final BitOutputStream bos;
+
+		public DefaultIntDataWriter(BitCodec<Integer> codec, BitOutputStream bos) {
+			this.codec = codec;
+			this.intCodec = codec instanceof IntBitCodec ? (IntBitCodec) codec
+					: null;
+			this.bos = bos;
+		}
+
+		@Override
+		public long writeInt(int value) throws IOException {
+			if (intCodec != null)
+				return intCodec.writeInt(bos, value);
+			return codec.write(bos, value);
+		}
+
+		@Override
+		public long writeData(Integer value) throws IOException {
+			return writeInt(value);
+		}
+	}
+
+	private static class DefaultByteDataWriter implements ByteDataWriter {
+		private final BitCodec<Byte> codec;
+		private final ByteBitCodec byteCodec;
+		private final BitOutputStream bos;
+
+		public DefaultByteDataWriter(BitCodec<Byte> codec, BitOutputStream bos) {
+			this.codec = codec;
+			this.byteCodec = codec instanceof ByteBitCodec ? (ByteBitCodec) codec
+					: null;
+			this.bos = bos;
+		}
+
+		@Override
+		public long writeByte(byte value) throws IOException {
+			if (byteCodec != null)
+				return byteCodec.writeByte(bos, value);
+			return codec.write(bos, value);
+		}
+
+		@Override
+		public long writeData(Byte value) throws IOException {
+			return writeByte(value);
+		}
+	}
 }
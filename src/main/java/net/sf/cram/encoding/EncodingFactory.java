@@ -14,6 +14,8 @@ public class EncodingFactory {
 				return (Encoding<T>) new ExternalByteEncoding();
 			case HUFFMAN:
 				return (Encoding<T>) new HuffmanByteEncoding();
+			case RANGE:
+				return (Encoding<T>) new RangeByteEncoding();
 			case NULL:
 				return new NullEncoding<T>();
 
@@ -71,6 +73,10 @@ public class EncodingFactory {
 				return (Encoding<T>) new ByteArrayStopEncoding();
 			case EXTERNAL:
 				return (Encoding<T>) new ExternalByteArrayEncoding();
+			case RANGE:
+				return (Encoding<T>) new RangeByteArrayEncoding();
+			case TOKENS:
+				return (Encoding<T>) new TokenizedNameEncoding();
 
 			default:
 				break;
@@ -8,7 +8,7 @@ import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class ExternalByteCodec implements BitCodec<Byte> {
+public class ExternalByteCodec implements ByteBitCodec {
 	private OutputStream os;
 	private InputStream is;
 
@@ -18,16 +18,26 @@ public class ExternalByteCodec implements BitCodec<Byte> {
 	}
 
 	@Override
-	public Byte read(BitInputStream bis) throws IOException {
+	public byte readByte(BitInputStream bis) throws IOException {
 		return (byte) is.read();
 	}
 
 	@Override
-	public long write(BitOutputStream bos, Byte object) throws IOException {
-		os.write(object);
+	public long writeByte(BitOutputStream bos, byte value) throws IOException {
+		os.write(value);
 		return 8;
 	}
 
+	@Override
+	public Byte read(BitInputStream bis) throws IOException {
+		return readByte(bis);
+	}
+
+	@Override
+	public long write(BitOutputStream bos, Byte object) throws IOException {
+		return writeByte(bos, object);
+	}
+
 	@Override
 	public long numberOfBits(Byte object) {
 		return 8;
@@ -9,7 +9,7 @@ import net.sf.cram.io.BitOutputStream;
 import net.sf.cram.io.ByteBufferUtils;
 
 
-public class ExternalIntegerCodec implements BitCodec<Integer> {
+public class ExternalIntegerCodec implements IntBitCodec {
 	private OutputStream os;
 	private InputStream is;
 	private OutputStream nullOS = new OutputStream() {
@@ -33,15 +33,25 @@ public class ExternalIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public Integer read(BitInputStream bis) throws IOException {
+	public int readInt(BitInputStream bis) throws IOException {
 		return ByteBufferUtils.readUnsignedITF8(is);
 	}
 
 	@Override
-	public long write(BitOutputStream bos, Integer value) throws IOException {
+	public long writeInt(BitOutputStream bos, int value) throws IOException {
 		return ByteBufferUtils.writeUnsignedITF8(value, os);
 	}
 
+	@Override
+	public Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public long numberOfBits(Integer value) {
 		try {
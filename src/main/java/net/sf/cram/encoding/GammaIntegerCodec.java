@@ -20,7 +20,7 @@ import java.io.IOException;
 import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
-public class GammaIntegerCodec implements BitCodec<Integer> {
+public class GammaIntegerCodec implements IntBitCodec {
 	private int offset = 0;
 	private boolean lenCodingBit = false;
 
@@ -38,7 +38,7 @@ public class GammaIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final Integer  read(BitInputStream bis) throws IOException {
+	public final int readInt(BitInputStream bis) throws IOException {
 		int len = 1;
 		while (bis.readBit() == lenCodingBit)
 			len++;
@@ -48,7 +48,7 @@ public class GammaIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final long write(BitOutputStream bos, Integer  value) throws IOException {
+	public final long writeInt(BitOutputStream bos, int value) throws IOException {
 		if (value + offset < 1)
 			throw new IllegalArgumentException("Gamma codec handles only positive values: " + value);
 
@@ -61,6 +61,16 @@ public class GammaIntegerCodec implements BitCodec<Integer> {
 		return betaCodeLength * 2 - 1;
 	}
 
+	@Override
+	public final Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public final long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public final long numberOfBits(Integer  value) {
 		long newValue = value + offset;
@@ -21,7 +21,7 @@ import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class GolombIntegerCodec implements BitCodec<Integer> {
+public class GolombIntegerCodec implements IntBitCodec {
 	private int m;
 	private boolean quotientBit = true;
 	private int offset = 0;
@@ -40,7 +40,7 @@ public class GolombIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final Integer read(final BitInputStream bis) throws IOException {
+	public final int readInt(final BitInputStream bis) throws IOException {
 		int quotient = 0;
 		while (bis.readBit() == quotientBit)
 			quotient++;
@@ -57,7 +57,7 @@ public class GolombIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final long write(final BitOutputStream bos, final Integer value)
+	public final long writeInt(final BitOutputStream bos, final int value)
 			throws IOException {
 		int newValue = value + offset;
 		int quotient = (int) (newValue / m);
@@ -79,6 +79,16 @@ public class GolombIntegerCodec implements BitCodec<Integer> {
 		return len;
 	}
 
+	@Override
+	public final Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public final long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public final long numberOfBits(Integer value) {
 		int newValue = value + offset;
@@ -21,7 +21,7 @@ import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class GolombRiceIntegerCodec implements BitCodec<Integer> {
+public class GolombRiceIntegerCodec implements IntBitCodec {
 	private int m;
 	private int log2m;
 	private long mask ;
@@ -44,7 +44,8 @@ public class GolombRiceIntegerCodec implements BitCodec<Integer> {
 		mask = ~(~0 << log2m) ;
 	}
 
-	public final Integer read(final BitInputStream bis) throws IOException {
+	@Override
+	public final int readInt(final BitInputStream bis) throws IOException {
 
 		int unary = 0;
 		while (bis.readBit() == quotientBit)
@@ -57,7 +58,7 @@ public class GolombRiceIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final long write(final BitOutputStream bos, final Integer value) throws IOException {
+	public final long writeInt(final BitOutputStream bos, final int value) throws IOException {
 		long newValue = value + offset;
 		long quotient = newValue >>> log2m;
 		if (quotient > 0x7fffffffL)
@@ -81,6 +82,16 @@ public class GolombRiceIntegerCodec implements BitCodec<Integer> {
 		return bits;
 	}
 
+	@Override
+	public final Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public final long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public final long numberOfBits(Integer value) {
 		return (value + offset) / m + 1 + log2m;
@@ -0,0 +1,16 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+import net.sf.cram.io.BitInputStream;
+import net.sf.cram.io.BitOutputStream;
+
+/**
+ * A codec for int values that can be used without boxing.
+ */
+public interface IntBitCodec extends BitCodec<Integer> {
+
+	public int readInt(BitInputStream bis) throws IOException;
+
+	public long writeInt(BitOutputStream bos, int value) throws IOException;
+}
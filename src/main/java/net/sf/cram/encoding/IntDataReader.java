@@ -0,0 +1,8 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+public interface IntDataReader extends DataReader<Integer> {
+
+	public int readInt() throws IOException;
+}
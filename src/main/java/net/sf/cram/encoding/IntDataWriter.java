@@ -0,0 +1,8 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+
+public interface IntDataWriter extends DataWriter<Integer> {
+
+	public long writeInt(int value) throws IOException;
+}
@@ -0,0 +1,301 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+
+/**
+ * Codes a block of read names, each followed by a zero byte, as tokens
+ * compared with the tokens of the previous name. A name is split into runs of
+ * digits and runs of other characters, for example
+ * <code>HWI-ST1234:8:1101:12345:67890</code> into <code>HWI-ST</code>,
+ * 1234, <code>:</code>, 8 and so on. Runs of up to 9 digits without a leading
+ * zero are numbers, the other runs are strings.
+ * <p>
+ * Every token is coded by an operation against the token at the same
+ * position in the previous name: a match, a small increase of a number, a
+ * new number or a new string. A name equal to the previous one is a single
+ * operation. Operations, strings, numbers and increases go to separate
+ * streams for every token position, the streams of a position hold values
+ * of the same kind and compress well.
+ * <p>
+ * A coded block is the ITF8 number of names and of token positions, followed
+ * by the ITF8 length and the bytes of each stream: operations, strings,
+ * numbers and increases for every position in turn.
+ */
+public class NameTokenizer {
+	/**
+	 * The rest of a name after this many tokens is a single string.
+	 */
+	static final int MAX_TOKENS = 32;
+	private static final int MAX_DIGITS = 9;
+
+	private static final byte STRING = 0;
+	private static final byte NUMBER = 1;
+
+	/**
+	 * The name is the same as the previous one.
+	 */
+	private static final byte DUP = 0;
+	/**
+	 * No more tokens.
+	 */
+	private static final byte END = 1;
+	private static final byte MATCH = 2;
+	/**
+	 * A number up to 255 greater than the previous one, the difference is in
+	 * the increase stream.
+	 */
+	private static final byte DELTA = 3;
+	private static final byte DIGITS = 4;
+	private static final byte CHARS = 5;
+
+	private static final int OPS = 0;
+	private static final int STRINGS = 1;
+	private static final int NUMBERS = 2;
+	private static final int DELTAS = 3;
+	private static final int STREAMS = 4;
+
+	/**
+	 * Tokens of a name as ranges of a byte array.
+	 */
+	private static class Tokens {
+		int count = 0;
+		final byte[] types = new byte[MAX_TOKENS];
+		final int[] values = new int[MAX_TOKENS];
+		final int[] starts = new int[MAX_TOKENS];
+		final int[] ends = new int[MAX_TOKENS];
+
+		void tokenize(byte[] data, int start, int end) {
+			count = 0;
+			int p = start;
+			while (p < end) {
+				int s = p;
+				if (count == MAX_TOKENS - 1) {
+					add(STRING, 0, s, end);
+					break;
+				}
+
+				boolean digit = isDigit(data[p]);
+				while (p < end && isDigit(data[p]) == digit)
+					p++;
+				if (digit && p - s <= MAX_DIGITS
+						&& (data[s] != '0' || p - s == 1)) {
+					int value = 0;
+					for (int i = s; i < p; i++)
+						value = value * 10 + data[i] - '0';
+					add(NUMBER, value, s, p);
+				} else
+					add(STRING, 0, s, p);
+			}
+		}
+
+		void add(byte type, int value, int start, int end) {
+			types[count] = type;
+			values[count] = value;
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+		}
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean equal(byte[] data, int start1, int end1,
+			int start2, int end2) {
+		if (end1 - start1 != end2 - start2)
+			return false;
+		for (int i = 0; i < end1 - start1; i++)
+			if (data[start1 + i] != data[start2 + i])
+				return false;
+		return true;
+	}
+
+	public static byte[] encode(byte[] data, int offset, int length) {
+		ExposedByteArrayOutputStream[][] streams = new ExposedByteArrayOutputStream[MAX_TOKENS + 1][STREAMS];
+		for (int i = 0; i < streams.length; i++)
+			for (int j = 0; j < STREAMS; j++)
+				streams[i][j] = new ExposedByteArrayOutputStream();
+
+		Tokens prev = new Tokens();
+		Tokens cur = new Tokens();
+		int names = 0;
+		int positions = 0;
+		int prevStart = 0, prevEnd = 0;
+		int end = offset + length;
+		for (int p = offset; p < end;) {
+			int e = p;
+			while (e < end && data[e] != 0)
+				e++;
+
+			if (names > 0 && equal(data, p, e, prevStart, prevEnd)) {
+				streams[0][OPS].write(DUP);
+				positions = Math.max(positions, 1);
+			} else {
+				cur.tokenize(data, p, e);
+				for (int i = 0; i < cur.count; i++) {
+					ExposedByteArrayOutputStream[] s = streams[i];
+					byte type = cur.types[i];
+					int value = cur.values[i];
+					boolean sameType = i < prev.count && prev.types[i] == type;
+
+					if (sameType
+							&& (type == NUMBER ? prev.values[i] == value
+									: equal(data, cur.starts[i], cur.ends[i],
+											prev.starts[i], prev.ends[i])))
+						s[OPS].write(MATCH);
+					else if (type == NUMBER && sameType
+							&& value - prev.values[i] >= 0
+							&& value - prev.values[i] < 256) {
+						s[OPS].write(DELTA);
+						s[DELTAS].write(value - prev.values[i]);
+					} else if (type == NUMBER) {
+						s[OPS].write(DIGITS);
+						for (int b = 0; b < 32; b += 8)
+							s[NUMBERS].write(value >>> b);
+					} else {
+						s[OPS].write(CHARS);
+						s[STRINGS].write(data, cur.starts[i], cur.ends[i]
+								- cur.starts[i]);
+						s[STRINGS].write(0);
+					}
+				}
+				streams[cur.count][OPS].write(END);
+				positions = Math.max(positions, cur.count + 1);
+
+				Tokens t = prev;
+				prev = cur;
+				cur = t;
+			}
+
+			prevStart = p;
+			prevEnd = e;
+			names++;
+			p = e + 1;
+		}
+
+		ExposedByteArrayOutputStream os = new ExposedByteArrayOutputStream(
+				length / 4 + 16);
+		try {
+			ByteBufferUtils.writeUnsignedITF8(names, os);
+			ByteBufferUtils.writeUnsignedITF8(positions, os);
+			for (int i = 0; i < positions; i++) {
+				for (int j = 0; j < STREAMS; j++) {
+					ByteBufferUtils.writeUnsignedITF8(streams[i][j].size(), os);
+					os.write(streams[i][j].getBuffer(), 0,
+							streams[i][j].size());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("This should have never happened.", e);
+		}
+		return os.toByteArray();
+	}
+
+	public static byte[] decode(byte[] data) {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decodes a block from the position of the buffer to its limit.
+	 */
+	public static byte[] decode(ByteBuffer buf) {
+		int names = ByteBufferUtils.readUnsignedITF8(buf);
+		int positions = ByteBufferUtils.readUnsignedITF8(buf);
+		if (positions > MAX_TOKENS + 1)
+			throw new RuntimeException("Too many read name tokens: "
+					+ positions);
+
+		// next byte of every stream:
+		int[][] next = new int[positions][STREAMS];
+		byte[] in;
+		if (buf.hasArray()) {
+			in = buf.array();
+			buf.position(buf.arrayOffset() + buf.position());
+		} else {
+			in = new byte[buf.remaining()];
+			buf.get(in);
+			buf = ByteBuffer.wrap(in);
+		}
+		for (int i = 0; i < positions; i++) {
+			for (int j = 0; j < STREAMS; j++) {
+				int size = ByteBufferUtils.readUnsignedITF8(buf);
+				next[i][j] = buf.position();
+				buf.position(buf.position() + size);
+			}
+		}
+
+		ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream(
+				names * 24 + 16);
+		byte[] digits = new byte[10];
+		Tokens prev = new Tokens();
+		Tokens cur = new Tokens();
+		int prevStart = 0, prevEnd = 0;
+		for (int n = 0; n < names; n++) {
+			int start = out.size();
+			byte op = in[next[0][OPS]++];
+			if (op == DUP)
+				out.write(out.getBuffer(), prevStart, prevEnd - prevStart);
+			else {
+				cur.count = 0;
+				for (int i = 0; op != END; op = in[next[++i][OPS]++]) {
+					int[] s = next[i];
+					int tokenStart = out.size();
+					byte type;
+					int value = 0;
+					switch (op) {
+					case MATCH:
+						type = prev.types[i];
+						value = prev.values[i];
+						out.write(out.getBuffer(), prev.starts[i],
+								prev.ends[i] - prev.starts[i]);
+						break;
+					case DELTA:
+					case DIGITS:
+						type = NUMBER;
+						if (op == DELTA)
+							value = prev.values[i] + (0xFF & in[s[DELTAS]++]);
+						else {
+							for (int b = 0; b < 32; b += 8)
+								value |= (0xFF & in[s[NUMBERS]++]) << b;
+						}
+						int d = digits.length;
+						int v = value;
+						do {
+							digits[--d] = (byte) ('0' + v % 10);
+							v /= 10;
+						} while (v > 0);
+						out.write(digits, d, digits.length - d);
+						break;
+					case CHARS:
+						type = STRING;
+						int e = s[STRINGS];
+						while (in[e] != 0)
+							e++;
+						out.write(in, s[STRINGS], e - s[STRINGS]);
+						s[STRINGS] = e + 1;
+						break;
+
+					default:
+						throw new RuntimeException(
+								"Unknown read name token operation: " + op);
+					}
+					cur.add(type, value, tokenStart, out.size());
+				}
+
+				Tokens t = prev;
+				prev = cur;
+				cur = t;
+			}
+
+			prevStart = start;
+			prevEnd = out.size();
+			out.write(0);
+		}
+		return out.toByteArray();
+	}
+}
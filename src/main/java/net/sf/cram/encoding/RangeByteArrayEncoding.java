@@ -0,0 +1,64 @@
+package net.sf.cram.encoding;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.sf.cram.EncodingID;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+
+/**
+ * Byte arrays in a block coded by the {@link RangeCoder}, the parameters are
+ * the same as of {@link RangeByteEncoding} so that single bytes and arrays
+ * of a data series can share the block.
+ */
+public class RangeByteArrayEncoding implements Encoding<byte[]>, BlockEncoding {
+	private final RangeByteEncoding params = new RangeByteEncoding();
+
+	public RangeByteArrayEncoding() {
+	}
+
+	public byte[] toByteArray() {
+		return params.toByteArray();
+	}
+
+	public void fromByteArray(byte[] data) {
+		params.fromByteArray(data);
+	}
+
+	@Override
+	public BitCodec<byte[]> buildCodec(Map<Integer, InputStream> inputMap,
+			Map<Integer, ExposedByteArrayOutputStream> outputMap) {
+		InputStream is = inputMap == null ? null : inputMap
+				.get(params.contentId);
+		ExposedByteArrayOutputStream os = outputMap == null ? null : outputMap
+				.get(params.contentId);
+		return (BitCodec) new ExternalByteArrayCodec(os, is);
+	}
+
+	@Override
+	public int getContentId() {
+		return params.contentId;
+	}
+
+	@Override
+	public byte[] encodeBlock(byte[] data, int offset, int length) {
+		return params.encodeBlock(data, offset, length);
+	}
+
+	@Override
+	public byte[] decodeBlock(ByteBuffer buf) {
+		return params.decodeBlock(buf);
+	}
+
+	@Override
+	public boolean isCompressible() {
+		return false;
+	}
+
+	@Override
+	public EncodingID id() {
+		return RangeByteEncoding.encodingId;
+	}
+
+}
@@ -0,0 +1,80 @@
+package net.sf.cram.encoding;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.sf.cram.EncodingID;
+import net.sf.cram.EncodingParams;
+import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+
+/**
+ * Bytes of an external block coded as a whole by the {@link RangeCoder}.
+ */
+public class RangeByteEncoding implements Encoding<Byte>, BlockEncoding {
+	public static final EncodingID encodingId = EncodingID.RANGE;
+	public int contentId = -1;
+	public int order = RangeCoder.MAX_ORDER;
+
+	public RangeByteEncoding() {
+	}
+
+	public static EncodingParams toParam(int contentId, int order) {
+		RangeByteEncoding e = new RangeByteEncoding();
+		e.contentId = contentId;
+		e.order = order;
+		return new EncodingParams(encodingId, e.toByteArray());
+	}
+
+	public byte[] toByteArray() {
+		ByteBuffer buf = ByteBuffer.allocate(10);
+		ByteBufferUtils.writeUnsignedITF8(contentId, buf);
+		ByteBufferUtils.writeUnsignedITF8(order, buf);
+		buf.flip();
+		byte[] data = new byte[buf.limit()];
+		buf.get(data);
+		return data;
+	}
+
+	public void fromByteArray(byte[] data) {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		contentId = ByteBufferUtils.readUnsignedITF8(buf);
+		order = ByteBufferUtils.readUnsignedITF8(buf);
+	}
+
+	@Override
+	public BitCodec<Byte> buildCodec(Map<Integer, InputStream> inputMap,
+			Map<Integer, ExposedByteArrayOutputStream> outputMap) {
+		InputStream is = inputMap == null ? null : inputMap.get(contentId);
+		ExposedByteArrayOutputStream os = outputMap == null ? null : outputMap
+				.get(contentId);
+		return (BitCodec) new ExternalByteCodec(os, is);
+	}
+
+	@Override
+	public int getContentId() {
+		return contentId;
+	}
+
+	@Override
+	public byte[] encodeBlock(byte[] data, int offset, int length) {
+		return RangeCoder.encode(data, offset, length, order);
+	}
+
+	@Override
+	public byte[] decodeBlock(ByteBuffer buf) {
+		return RangeCoder.decode(buf);
+	}
+
+	@Override
+	public boolean isCompressible() {
+		return false;
+	}
+
+	@Override
+	public EncodingID id() {
+		return encodingId;
+	}
+
+}
@@ -0,0 +1,302 @@
+package net.sf.cram.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+
+/**
+ * A range coder (rANS) with adaptive order-0, order-1 or order-2 context
+ * models for blocks of bytes such as quality scores: every byte is coded with
+ * the frequencies seen so far after the same one or two preceding bytes.
+ * <p>
+ * The bytes of a block are mapped to a dense alphabet of the values present,
+ * so that a context model has an entry per present value only. A model codes
+ * with frequencies scaled to a power of two and a table from every slot of
+ * the range to its symbol, so that a byte is decoded with a lookup, a
+ * multiplication and no division. The counts of a model are updated with
+ * every byte, its table is rebuilt from them after a number of bytes that
+ * doubles up to {@link #MAX_REBUILD_INTERVAL}.
+ * <p>
+ * rANS codes the bytes last to first: the encoder collects the frequencies
+ * of all bytes in the order the decoder sees them and then codes them
+ * backwards.
+ * <p>
+ * Bytes are coded by {@link #STATES} interleaved states. A coded block is the
+ * ITF8 number of bytes, the order, the ITF8 alphabet size and the alphabet,
+ * followed by the final states of the encoder in four bytes each, the 16 bit
+ * words shifted out of the states and two bytes of padding, the decoder
+ * reads a word ahead instead of branching on every byte.
+ */
+public class RangeCoder {
+	public static final int MAX_ORDER = 2;
+
+	private static final int SCALE_BITS = 10;
+	private static final int SCALE = 1 << SCALE_BITS;
+	private static final int SLOT_MASK = SCALE - 1;
+	/**
+	 * Lower bound of the state, it is kept in [L, L << 16) and shifted by 16
+	 * bits at most once per byte.
+	 */
+	private static final int L = 1 << 15;
+	/**
+	 * Bytes are coded with this many states in turn, so that the decoding of
+	 * a byte does not have to wait for the one before.
+	 */
+	private static final int STATES = 4;
+	private static final int MAX_COUNT_TOTAL = 1 << 16;
+	private static final int FIRST_REBUILD_INTERVAL = 16;
+	private static final int MAX_REBUILD_INTERVAL = 1024;
+	/**
+	 * Limits the tables of a block to 4 MB, the order is lowered for large
+	 * alphabets.
+	 */
+	private static final int MAX_CONTEXTS = 1 << 12;
+
+	/**
+	 * @return the highest order not above the given one that can be used for
+	 *         an alphabet of this size
+	 */
+	static int order(int order, int symbols) {
+		order = Math.max(0, Math.min(order, MAX_ORDER));
+		while (order > 0 && contexts(order, symbols) > MAX_CONTEXTS)
+			order--;
+		return order;
+	}
+
+	private static long contexts(int order, int symbols) {
+		long contexts = 1;
+		for (int i = 0; i < order; i++)
+			contexts *= symbols;
+		return contexts;
+	}
+
+	public static byte[] encode(byte[] data, int offset, int length,
+			int order) {
+		boolean[] present = new boolean[256];
+		for (int i = offset; i < offset + length; i++)
+			present[0xFF & data[i]] = true;
+		int n = 0;
+		int[] index = new int[256];
+		byte[] alphabet = new byte[256];
+		for (int v = 0; v < 256; v++) {
+			if (present[v]) {
+				index[v] = n;
+				alphabet[n++] = (byte) v;
+			}
+		}
+		order = order(order, n);
+
+		ExposedByteArrayOutputStream os = new ExposedByteArrayOutputStream(
+				16 + n + length / 2);
+		try {
+			ByteBufferUtils.writeUnsignedITF8(length, os);
+			os.write(order);
+			ByteBufferUtils.writeUnsignedITF8(n, os);
+			os.write(alphabet, 0, n);
+		} catch (IOException e) {
+			throw new RuntimeException("This should have never happened.", e);
+		}
+		if (length == 0)
+			return os.toByteArray();
+
+		// frequency and cumulative frequency of every byte as the decoder
+		// will see them:
+		Model model = new Model(order, n);
+		int[] codes = new int[length];
+		int c1 = 0, c2 = 0;
+		for (int p = 0; p < length; p++) {
+			int s = index[0xFF & data[offset + p]];
+			int ctx = order == 2 ? c2 * n + c1 : order == 1 ? c1 : 0;
+			int e = model.entry(ctx) + s;
+			codes[p] = model.codes[e];
+			model.update(ctx, e);
+			c2 = c1;
+			c1 = s;
+		}
+
+		// at most SCALE_BITS bits per byte plus the states and padding:
+		byte[] out = new byte[length + length / 2 + 4 * STATES + 2];
+		int pos = out.length - 2;
+		long[] states = new long[STATES];
+		Arrays.fill(states, L);
+		for (int p = length - 1; p >= 0; p--) {
+			int freq = codes[p] >>> 16;
+			int cum = codes[p] & 0xFFFF;
+			long x = states[p & (STATES - 1)];
+			if (x >= ((long) (L >> SCALE_BITS) << 16) * freq) {
+				out[--pos] = (byte) (x >>> 8);
+				out[--pos] = (byte) x;
+				x >>>= 16;
+			}
+			states[p & (STATES - 1)] = ((x / freq) << SCALE_BITS) + x % freq
+					+ cum;
+		}
+		for (int j = STATES - 1; j >= 0; j--)
+			for (int i = 0; i < 4; i++)
+				out[--pos] = (byte) (states[j] >>> (8 * i));
+
+		os.write(out, pos, out.length - pos);
+		return os.toByteArray();
+	}
+
+	public static byte[] decode(byte[] data) {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decodes a block from the position of the buffer to its limit.
+	 */
+	public static byte[] decode(ByteBuffer buf) {
+		int length = ByteBufferUtils.readUnsignedITF8(buf);
+		int order = buf.get();
+		int n = ByteBufferUtils.readUnsignedITF8(buf);
+		byte[] alphabet = new byte[n];
+		buf.get(alphabet);
+		byte[] out = new byte[length];
+		if (length == 0)
+			return out;
+
+		byte[] in;
+		int pos, end;
+		if (buf.hasArray()) {
+			in = buf.array();
+			pos = buf.arrayOffset() + buf.position();
+			end = buf.arrayOffset() + buf.limit();
+		} else {
+			in = new byte[buf.remaining()];
+			buf.get(in);
+			pos = 0;
+			end = in.length;
+		}
+		buf.position(buf.limit());
+		if (end - pos < 4 * STATES)
+			throw new RuntimeException("Range coded block is truncated.");
+
+		int[] states = new int[STATES];
+		for (int j = 0; j < STATES; j++)
+			for (int i = 0; i < 4; i++)
+				states[j] = states[j] << 8 | 0xFF & in[pos++];
+
+		Model model = new Model(order, n);
+		int[] codes = model.codes;
+		byte[] lookup = model.lookup;
+		int c1 = 0, c2 = 0;
+		for (int p = 0; p < length; p++) {
+			int ctx = order == 2 ? c2 * n + c1 : order == 1 ? c1 : 0;
+			int base = model.entry(ctx);
+
+			int x = states[p & (STATES - 1)];
+			int slot = x & SLOT_MASK;
+			int s = 0xFF & lookup[ctx << SCALE_BITS | slot];
+			int code = codes[base + s];
+			x = (code >>> 16) * (x >> SCALE_BITS) + slot - (code & 0xFFFF);
+			int renorm = (x - L) >> 31;
+			x = x << (renorm & 16)
+					| (0xFF & in[pos] | (0xFF & in[pos + 1]) << 8) & renorm;
+			pos -= renorm << 1;
+			states[p & (STATES - 1)] = x;
+
+			out[p] = alphabet[s];
+			model.update(ctx, base + s);
+			c2 = c1;
+			c1 = s;
+		}
+		return out;
+	}
+
+	/**
+	 * Counts and coding tables of all contexts, the tables of a context are
+	 * built when it is first seen.
+	 */
+	private static final class Model {
+		final int n;
+		final int[] counts;
+		/**
+		 * Frequency and cumulative frequency of every entry, the frequency in
+		 * the upper 16 bits.
+		 */
+		final int[] codes;
+		private final int[] freqs;
+		final byte[] lookup;
+		final boolean[] seen;
+		final int[] intervals;
+		final int[] left;
+
+		Model(int order, int n) {
+			this.n = n;
+			int contexts = (int) contexts(order, n);
+			counts = new int[contexts * n];
+			codes = new int[contexts * n];
+			freqs = new int[n];
+			lookup = new byte[contexts << SCALE_BITS];
+			seen = new boolean[contexts];
+			intervals = new int[contexts];
+			left = new int[contexts];
+		}
+
+		/**
+		 * @return index of the first entry of the context
+		 */
+		int entry(int ctx) {
+			int base = ctx * n;
+			if (!seen[ctx]) {
+				seen[ctx] = true;
+				Arrays.fill(counts, base, base + n, 1);
+				intervals[ctx] = left[ctx] = FIRST_REBUILD_INTERVAL;
+				rebuild(ctx);
+			}
+			return base;
+		}
+
+		/**
+		 * Counts the entry of the context.
+		 */
+		void update(int ctx, int e) {
+			counts[e]++;
+			if (--left[ctx] == 0) {
+				if (intervals[ctx] < MAX_REBUILD_INTERVAL)
+					intervals[ctx] <<= 1;
+				left[ctx] = intervals[ctx];
+				rebuild(ctx);
+			}
+		}
+
+		/**
+		 * Scales the counts of the context to frequencies adding up to
+		 * {@link #SCALE}, every symbol keeps a frequency of at least 1 so
+		 * that it can still be coded.
+		 */
+		private void rebuild(int ctx) {
+			int base = ctx * n;
+			long total = 0;
+			for (int e = base; e < base + n; e++)
+				total += counts[e];
+			if (total > MAX_COUNT_TOTAL) {
+				total = 0;
+				for (int e = base; e < base + n; e++)
+					total += (counts[e] -= counts[e] >> 1);
+			}
+
+			int sum = 0;
+			int max = 0;
+			for (int i = 0; i < n; i++) {
+				freqs[i] = 1 + (int) (counts[base + i] * (long) (SCALE - n)
+						/ total);
+				sum += freqs[i];
+				if (freqs[i] > freqs[max])
+					max = i;
+			}
+			freqs[max] += SCALE - sum;
+
+			int slot = ctx << SCALE_BITS;
+			for (int i = 0; i < n; i++) {
+				codes[base + i] = freqs[i] << 16 | slot & SLOT_MASK;
+				Arrays.fill(lookup, slot, slot + freqs[i], (byte) i);
+				slot += freqs[i];
+			}
+		}
+	}
+}
@@ -3,10 +3,10 @@ package net.sf.cram.encoding;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.util.LinkedList;
 import java.util.Map;
 
 import net.sf.cram.CramRecord;
+import net.sf.cram.CramRecordPool;
 import net.sf.cram.DataSeriesType;
 import net.sf.cram.EncodingKey;
 import net.sf.cram.ReadTag;
@@ -28,55 +28,55 @@ public class Reader {
 	public byte[][][] tagIdDictionary;
 
 	@DataSeries(key = EncodingKey.BF_BitFlags, type = DataSeriesType.INT)
-	public DataReader<Integer> bitFlagsC;
+	public IntDataReader bitFlagsC;
 
 	@DataSeries(key = EncodingKey.CF_CompressionBitFlags, type = DataSeriesType.BYTE)
-	public DataReader<Byte> compBitFlagsC;
+	public ByteDataReader compBitFlagsC;
 
 	@DataSeries(key = EncodingKey.RL_ReadLength, type = DataSeriesType.INT)
-	public DataReader<Integer> readLengthC;
+	public IntDataReader readLengthC;
 
 	@DataSeries(key = EncodingKey.AP_AlignmentPositionOffset, type = DataSeriesType.INT)
-	public DataReader<Integer> alStartC;
+	public IntDataReader alStartC;
 
 	@DataSeries(key = EncodingKey.RG_ReadGroup, type = DataSeriesType.INT)
-	public DataReader<Integer> readGroupC;
+	public IntDataReader readGroupC;
 
 	@DataSeries(key = EncodingKey.RN_ReadName, type = DataSeriesType.BYTE_ARRAY)
 	public DataReader<byte[]> readNameC;
 
 	@DataSeries(key = EncodingKey.NF_RecordsToNextFragment, type = DataSeriesType.INT)
-	public DataReader<Integer> distanceC;
+	public IntDataReader distanceC;
 
 	@DataSeries(key = EncodingKey.TC_TagCount, type = DataSeriesType.BYTE)
-	public DataReader<Byte> tagCountC;
+	public ByteDataReader tagCountC;
 
 	@DataSeries(key = EncodingKey.TN_TagNameAndType, type = DataSeriesType.INT)
-	public DataReader<Integer> tagNameAndTypeC;
+	public IntDataReader tagNameAndTypeC;
 
 	@DataSeriesMap(name = "TAG")
 	public Map<Integer, DataReader<byte[]>> tagValueCodecs;
 
 	@DataSeries(key = EncodingKey.FN_NumberOfReadFeatures, type = DataSeriesType.INT)
-	public DataReader<Integer> nfc;
+	public IntDataReader nfc;
 
 	@DataSeries(key = EncodingKey.FP_FeaturePosition, type = DataSeriesType.INT)
-	public DataReader<Integer> fp;
+	public IntDataReader fp;
 
 	@DataSeries(key = EncodingKey.FC_FeatureCode, type = DataSeriesType.BYTE)
-	public DataReader<Byte> fc;
+	public ByteDataReader fc;
 
 	@DataSeries(key = EncodingKey.BA_Base, type = DataSeriesType.BYTE)
-	public DataReader<Byte> bc;
+	public ByteDataReader bc;
 
 	@DataSeries(key = EncodingKey.QS_QualityScore, type = DataSeriesType.BYTE)
-	public DataReader<Byte> qc;
+	public ByteDataReader qc;
 
 	@DataSeries(key = EncodingKey.QS_QualityScore, type = DataSeriesType.BYTE_ARRAY)
 	public DataReader<byte[]> qcArray;
 
 	@DataSeries(key = EncodingKey.BS_BaseSubstitutionCode, type = DataSeriesType.BYTE)
-	public DataReader<Byte> bsc;
+	public ByteDataReader bsc;
 
 	@DataSeries(key = EncodingKey.IN_Insertion, type = DataSeriesType.BYTE_ARRAY)
 	public DataReader<byte[]> inc;
@@ -85,86 +85,202 @@ public class Reader {
 	public DataReader<byte[]> softClipCodec;
 
 	@DataSeries(key = EncodingKey.DL_DeletionLength, type = DataSeriesType.INT)
-	public DataReader<Integer> dlc;
+	public IntDataReader dlc;
 
 	@DataSeries(key = EncodingKey.MQ_MappingQualityScore, type = DataSeriesType.INT)
-	public DataReader<Integer> mqc;
+	public IntDataReader mqc;
 
 	@DataSeries(key = EncodingKey.MF_MateBitFlags, type = DataSeriesType.BYTE)
-	public DataReader<Byte> mbfc;
+	public ByteDataReader mbfc;
 
 	@DataSeries(key = EncodingKey.NS_NextFragmentReferenceSequenceID, type = DataSeriesType.INT)
-	public DataReader<Integer> mrc;
+	public IntDataReader mrc;
 
 	@DataSeries(key = EncodingKey.NP_NextFragmentAlignmentStart, type = DataSeriesType.INT)
-	public DataReader<Integer> malsc;
+	public IntDataReader malsc;
 
 	@DataSeries(key = EncodingKey.TS_InsetSize, type = DataSeriesType.INT)
-	public DataReader<Integer> tsc;
+	public IntDataReader tsc;
 
 	public static int detachedCount = 0;
 	private int recordCount = 0;
 	private CramRecord prevRecord;
 
 	@DataSeries(key = EncodingKey.TM_TestMark, type = DataSeriesType.INT)
-	public DataReader<Integer> testC;
+	public IntDataReader testC;
 
 	@DataSeries(key = EncodingKey.TL_TagIdList, type = DataSeriesType.INT)
-	public DataReader<Integer> tagIdListCodec;
+	public IntDataReader tagIdListCodec;
 
 	@DataSeries(key = EncodingKey.RI_RefId, type = DataSeriesType.INT)
-	public DataReader<Integer> refIdCodec;
+	public IntDataReader refIdCodec;
 
 	@DataSeries(key = EncodingKey.RS_RefSkip, type = DataSeriesType.INT)
-	public DataReader<Integer> refSkipCodec;
+	public IntDataReader refSkipCodec;
 
 	public int refId;
 	public SubstitutionMatrix substitutionMatrix;
 	public boolean AP_delta = true;
+	public CramRecordPool pool;
+	/**
+	 * Values of series and tags left out are read if they have to be but not
+	 * kept in the records.
+	 */
+	public SeriesProjection projection = SeriesProjection.ALL;
+
+	/**
+	 * Sets the field of a data series, see {@link DataSeries}. Called for
+	 * every slice, so the fields are assigned directly rather than through
+	 * reflection.
+	 */
+	@SuppressWarnings("unchecked")
+	void setSeriesReader(EncodingKey key, DataSeriesType type,
+			DataReader<?> reader) {
+		switch (key) {
+		case BF_BitFlags:
+			bitFlagsC = (IntDataReader) reader;
+			break;
+		case CF_CompressionBitFlags:
+			compBitFlagsC = (ByteDataReader) reader;
+			break;
+		case RL_ReadLength:
+			readLengthC = (IntDataReader) reader;
+			break;
+		case AP_AlignmentPositionOffset:
+			alStartC = (IntDataReader) reader;
+			break;
+		case RG_ReadGroup:
+			readGroupC = (IntDataReader) reader;
+			break;
+		case RN_ReadName:
+			readNameC = (DataReader<byte[]>) reader;
+			break;
+		case NF_RecordsToNextFragment:
+			distanceC = (IntDataReader) reader;
+			break;
+		case TC_TagCount:
+			tagCountC = (ByteDataReader) reader;
+			break;
+		case TN_TagNameAndType:
+			tagNameAndTypeC = (IntDataReader) reader;
+			break;
+		case FN_NumberOfReadFeatures:
+			nfc = (IntDataReader) reader;
+			break;
+		case FP_FeaturePosition:
+			fp = (IntDataReader) reader;
+			break;
+		case FC_FeatureCode:
+			fc = (ByteDataReader) reader;
+			break;
+		case BA_Base:
+			bc = (ByteDataReader) reader;
+			break;
+		case QS_QualityScore:
+			if (type == DataSeriesType.BYTE)
+				qc = (ByteDataReader) reader;
+			else
+				qcArray = (DataReader<byte[]>) reader;
+			break;
+		case BS_BaseSubstitutionCode:
+			bsc = (ByteDataReader) reader;
+			break;
+		case IN_Insertion:
+			inc = (DataReader<byte[]>) reader;
+			break;
+		case SC_SoftClip:
+			softClipCodec = (DataReader<byte[]>) reader;
+			break;
+		case DL_DeletionLength:
+			dlc = (IntDataReader) reader;
+			break;
+		case MQ_MappingQualityScore:
+			mqc = (IntDataReader) reader;
+			break;
+		case MF_MateBitFlags:
+			mbfc = (ByteDataReader) reader;
+			break;
+		case NS_NextFragmentReferenceSequenceID:
+			mrc = (IntDataReader) reader;
+			break;
+		case NP_NextFragmentAlignmentStart:
+			malsc = (IntDataReader) reader;
+			break;
+		case TS_InsetSize:
+			tsc = (IntDataReader) reader;
+			break;
+		case TM_TestMark:
+			testC = (IntDataReader) reader;
+			break;
+		case TL_TagIdList:
+			tagIdListCodec = (IntDataReader) reader;
+			break;
+		case RI_RefId:
+			refIdCodec = (IntDataReader) reader;
+			break;
+		case RS_RefSkip:
+			refSkipCodec = (IntDataReader) reader;
+			break;
+
+		default:
+			throw new RuntimeException("No field for data series: " + key);
+		}
+	}
 
 	public void read(CramRecord r) throws IOException {
 		try {
-			// int mark = testC.readData();
+			// int mark = testC.readInt();
 			// if (Writer.TEST_MARK != mark) {
 			// System.err.println("Record counter=" + recordCount);
 			// System.err.println(r.toString());
 			// throw new RuntimeException("Test mark not found.");
 			// }
 
-			r.setFlags(bitFlagsC.readData());
-			r.setCompressionFlags(compBitFlagsC.readData());
+			r.setFlags(bitFlagsC.readInt());
+			r.setCompressionFlags(compBitFlagsC.readByte());
 			if (refId == -2)
-				r.sequenceId = refIdCodec.readData();
+				r.sequenceId = refIdCodec.readInt();
+			else
+				r.sequenceId = refId;
 
-			r.setReadLength(readLengthC.readData());
+			r.setReadLength(readLengthC.readInt());
 			if (AP_delta)
-				r.alignmentStartOffsetFromPreviousRecord = alStartC.readData();
+				r.alignmentStartOffsetFromPreviousRecord = alStartC.readInt();
 			else
-				r.setAlignmentStart(alStartC.readData());
-			r.setReadGroupID(readGroupC.readData());
+				r.setAlignmentStart(alStartC.readInt());
+			r.setReadGroupID(readGroupC.readInt());
 
+			boolean keepReadName = projection.includes(EncodingKey.RN_ReadName);
 			if (captureReadNames) {
-				r.setReadName(new String(readNameC.readData(), charset));
+				byte[] name = readNameC.readData();
+				if (keepReadName)
+					r.setReadName(new String(name, charset));
 			}
 
 			// mate record:
 			if (r.detached) {
-				r.setMateFlags(mbfc.readData());
-				if (!captureReadNames)
-					r.setReadName(new String(readNameC.readData(), charset));
+				r.setMateFlags(mbfc.readByte());
+				if (!captureReadNames) {
+					byte[] name = readNameC.readData();
+					if (keepReadName)
+						r.setReadName(new String(name, charset));
+				}
 
-				r.mateSequnceID = mrc.readData();
-				r.mateAlignmentStart = malsc.readData();
-				r.templateSize = tsc.readData();
+				r.mateSequnceID = mrc.readInt();
+				r.mateAlignmentStart = malsc.readInt();
+				r.templateSize = tsc.readInt();
 				detachedCount++;
 			} else if (r.hasMateDownStream)
-				r.setRecordsToNextFragment(distanceC.readData());
+				r.setRecordsToNextFragment(distanceC.readInt());
 
-			Integer tagIdList = tagIdListCodec.readData();
+			int tagIdList = tagIdListCodec.readInt();
 			byte[][] ids = tagIdDictionary[tagIdList];
 			if (ids.length > 0) {
 				int tagCount = ids.length;
-				r.tags = new ReadTag[tagCount];
+				if (!projection.includesAllTags())
+					tagCount = countProjectedTags(ids);
+				r.tags = tagCount == 0 ? null : new ReadTag[tagCount];
+				int tagIndex = 0;
 				for (int i = 0; i < ids.length; i++) {
 					int id = ReadTag.name3BytesToInt(ids[i]);
 					DataReader<byte[]> dataReader = tagValueCodecs.get(id);
@@ -174,35 +290,38 @@ public class Reader {
 					} catch (EOFException e) {
 						throw e;
 					}
+					// values of tags left out may not be real and are not
+					// parsed:
+					if (!projection.includesTag(id))
+						continue;
 					ReadTag tag = new ReadTag(id, data);
-					r.tags[i] = tag;
+					r.tags[tagIndex++] = tag;
 				}
 			}
 
 			if (!r.segmentUnmapped) {
 				// writing read features:
-				int size = nfc.readData();
+				int size = nfc.readInt();
 				int prevPos = 0;
-				java.util.List<ReadFeature> rf = new LinkedList<ReadFeature>();
-				r.setReadFeatures(rf);
+				java.util.List<ReadFeature> rf = r.newReadFeatures();
 				for (int i = 0; i < size; i++) {
-					Byte operator = fc.readData();
+					byte operator = fc.readByte();
 
-					int pos = prevPos + fp.readData();
+					int pos = prevPos + fp.readInt();
 					prevPos = pos;
 
 					switch (operator) {
 					case ReadBase.operator:
-						ReadBase rb = new ReadBase(pos, bc.readData(),
-								qc.readData());
+						ReadBase rb = new ReadBase(pos, bc.readByte(),
+								qc.readByte());
 						rf.add(rb);
 						break;
 					case Substitution.operator:
 						Substitution sv = new Substitution();
 						sv.setPosition(pos);
-						byte code = bsc.readData();
+						byte code = bsc.readByte();
 						sv.setCode(code);
-						// sv.setBaseChange(new BaseChange(bsc.readData()));
+						// sv.setBaseChange(new BaseChange(bsc.readByte()));
 						rf.add(sv);
 						break;
 					case Insertion.operator:
@@ -215,20 +334,20 @@ public class Reader {
 						rf.add(fv);
 						break;
 					case Deletion.operator:
-						Deletion dv = new Deletion(pos, dlc.readData());
+						Deletion dv = new Deletion(pos, dlc.readInt());
 						rf.add(dv);
 						break;
 					case RefSkip.operator:
-						RefSkip rsv = new RefSkip(pos, refSkipCodec.readData());
+						RefSkip rsv = new RefSkip(pos, refSkipCodec.readInt());
 						rf.add(rsv);
 						break;
 					case InsertBase.operator:
-						InsertBase ib = new InsertBase(pos, bc.readData());
+						InsertBase ib = new InsertBase(pos, bc.readByte());
 						rf.add(ib);
 						break;
 					case BaseQualityScore.operator:
 						BaseQualityScore bqs = new BaseQualityScore(pos,
-								qc.readData());
+								qc.readByte());
 						rf.add(bqs);
 						break;
 					default:
@@ -238,26 +357,27 @@ public class Reader {
 				}
 
 				// mapping quality:
-				r.setMappingQuality(mqc.readData());
+				r.setMappingQuality(mqc.readInt());
 				if (r.forcePreserveQualityScores) {
 					// byte[] qs = new byte[r.getReadLength()];
 					// for (int i = 0; i < qs.length; i++)
-					// qs[i] = qc.readData();
+					// qs[i] = qc.readByte();
 					byte[] qs = qcArray.readDataArray(r.getReadLength());
-					r.setQualityScores(qs);
+					setQualityScores(r, qs);
 				}
 			} else {
-				byte[] bases = new byte[r.getReadLength()];
+				byte[] bases = pool == null ? new byte[r.getReadLength()]
+						: pool.getBytes(r.getReadLength());
 				for (int i = 0; i < bases.length; i++)
-					bases[i] = bc.readData();
+					bases[i] = bc.readByte();
 				r.setReadBases(bases);
 
 				if (r.forcePreserveQualityScores) {
 					// byte[] qs = new byte[r.getReadLength()];
 					// for (int i = 0; i < qs.length; i++)
-					// qs[i] = qc.readData();
+					// qs[i] = qc.readByte();
 					byte[] qs = qcArray.readDataArray(r.getReadLength());
-					r.setQualityScores(qs);
+					setQualityScores(r, qs);
 				}
 			}
 
@@ -272,4 +392,19 @@ public class Reader {
 			throw new RuntimeException(e);
 		}
 	}
-}
+
+	private void setQualityScores(CramRecord r, byte[] qs) {
+		if (projection.includes(EncodingKey.QS_QualityScore))
+			r.setQualityScores(qs);
+		else
+			r.forcePreserveQualityScores = false;
+	}
+
+	private int countProjectedTags(byte[][] ids) {
+		int count = 0;
+		for (byte[] id : ids)
+			if (projection.includesTag(ReadTag.name3BytesToInt(id)))
+				count++;
+		return count;
+	}
+}
\ No newline at end of file
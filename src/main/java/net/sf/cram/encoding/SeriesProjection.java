@@ -0,0 +1,84 @@
+package net.sf.cram.encoding;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.cram.EncodingKey;
+
+/**
+ * Data series and tags a caller needs from the records. Series that define
+ * the layout of the records (flags, positions, read features and so on) are
+ * always read, the others are left out unless asked for. External blocks
+ * read only by series left out are not decompressed at all.
+ */
+public class SeriesProjection {
+	private static final EnumSet<EncodingKey> PAYLOAD = EnumSet.of(
+			EncodingKey.QS_QualityScore, EncodingKey.RN_ReadName,
+			EncodingKey.BA_Base, EncodingKey.BS_BaseSubstitutionCode,
+			EncodingKey.NP_NextFragmentAlignmentStart,
+			EncodingKey.TS_InsetSize);
+
+	public static final SeriesProjection ALL = new SeriesProjection(
+			EnumSet.allOf(EncodingKey.class), true, null);
+
+	private final EnumSet<EncodingKey> keys;
+	private final boolean allTags;
+	private final Set<Integer> tags;
+
+	private SeriesProjection(EnumSet<EncodingKey> keys, boolean allTags,
+			Set<Integer> tags) {
+		this.keys = keys;
+		this.allTags = allTags;
+		this.tags = tags;
+	}
+
+	/**
+	 * @return a projection of the given series and the structural ones,
+	 *         without tags
+	 */
+	public static SeriesProjection of(EncodingKey... keys) {
+		EnumSet<EncodingKey> set = EnumSet.complementOf(PAYLOAD);
+		for (EncodingKey key : keys)
+			set.add(key);
+		return new SeriesProjection(set, false, new HashSet<Integer>());
+	}
+
+	/**
+	 * @param names
+	 *            two character tag names, for example "RG"
+	 */
+	public SeriesProjection withTags(String... names) {
+		if (allTags)
+			return this;
+		Set<Integer> set = new HashSet<Integer>(tags);
+		for (String name : names) {
+			if (name.length() != 2)
+				throw new IllegalArgumentException("Invalid tag name: "
+						+ name);
+			set.add(name.charAt(0) << 8 | name.charAt(1));
+		}
+		return new SeriesProjection(keys, false, set);
+	}
+
+	public SeriesProjection withAllTags() {
+		return new SeriesProjection(keys, true, null);
+	}
+
+	public boolean includes(EncodingKey key) {
+		return keys.contains(key);
+	}
+
+	/**
+	 * @param id
+	 *            tag id including the value type, as in the compression
+	 *            header's tag map
+	 */
+	public boolean includesTag(int id) {
+		return allTags || tags.contains(id >>> 8);
+	}
+
+	public boolean includesAllTags() {
+		return allTags;
+	}
+}
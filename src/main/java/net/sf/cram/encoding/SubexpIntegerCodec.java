@@ -21,7 +21,7 @@ import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class SubexpIntegerCodec implements BitCodec<Integer> {
+public class SubexpIntegerCodec implements IntBitCodec {
 	private int offset = 0;
 	private int k = 2;
 	private boolean unaryBit = true;
@@ -41,7 +41,7 @@ public class SubexpIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final Integer read(BitInputStream bis) throws IOException {
+	public final int readInt(BitInputStream bis) throws IOException {
 		int u = 0;
 		while (bis.readBit() == unaryBit)
 			u++;
@@ -60,7 +60,7 @@ public class SubexpIntegerCodec implements BitCodec<Integer> {
 	}
 
 	@Override
-	public final long write(BitOutputStream bos, Integer value) throws IOException {
+	public final long writeInt(BitOutputStream bos, int value) throws IOException {
 		if (value + offset < 0)
 			throw new IllegalArgumentException("Value is less then offset: " + value);
 
@@ -82,6 +82,16 @@ public class SubexpIntegerCodec implements BitCodec<Integer> {
 		return u + 1 + b;
 	}
 
+	@Override
+	public final Integer read(BitInputStream bis) throws IOException {
+		return readInt(bis);
+	}
+
+	@Override
+	public final long write(BitOutputStream bos, Integer value) throws IOException {
+		return writeInt(bos, value);
+	}
+
 	@Override
 	public final long numberOfBits(Integer value) {
 		long newValue = value + offset;
@@ -0,0 +1,76 @@
+package net.sf.cram.encoding;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.sf.cram.EncodingID;
+import net.sf.cram.EncodingParams;
+import net.sf.cram.io.ByteBufferUtils;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+
+/**
+ * Read names in an external block coded as a whole by the
+ * {@link NameTokenizer}. The codec writes the names followed by a zero byte.
+ */
+public class TokenizedNameEncoding implements Encoding<byte[]>, BlockEncoding {
+	public static final EncodingID encodingId = EncodingID.TOKENS;
+	public int contentId = -1;
+
+	public TokenizedNameEncoding() {
+	}
+
+	public static EncodingParams toParam(int contentId) {
+		TokenizedNameEncoding e = new TokenizedNameEncoding();
+		e.contentId = contentId;
+		return new EncodingParams(encodingId, e.toByteArray());
+	}
+
+	public byte[] toByteArray() {
+		ByteBuffer buf = ByteBuffer.allocate(5);
+		ByteBufferUtils.writeUnsignedITF8(contentId, buf);
+		buf.flip();
+		byte[] data = new byte[buf.limit()];
+		buf.get(data);
+		return data;
+	}
+
+	public void fromByteArray(byte[] data) {
+		contentId = ByteBufferUtils.readUnsignedITF8(ByteBuffer.wrap(data));
+	}
+
+	@Override
+	public BitCodec<byte[]> buildCodec(Map<Integer, InputStream> inputMap,
+			Map<Integer, ExposedByteArrayOutputStream> outputMap) {
+		InputStream is = inputMap == null ? null : inputMap.get(contentId);
+		ExposedByteArrayOutputStream os = outputMap == null ? null : outputMap
+				.get(contentId);
+		return new ByteArrayStopEncoding.ByteArrayStopCodec((byte) 0, is, os);
+	}
+
+	@Override
+	public int getContentId() {
+		return contentId;
+	}
+
+	@Override
+	public byte[] encodeBlock(byte[] data, int offset, int length) {
+		return NameTokenizer.encode(data, offset, length);
+	}
+
+	@Override
+	public byte[] decodeBlock(ByteBuffer buf) {
+		return NameTokenizer.decode(buf);
+	}
+
+	@Override
+	public boolean isCompressible() {
+		return true;
+	}
+
+	@Override
+	public EncodingID id() {
+		return encodingId;
+	}
+
+}
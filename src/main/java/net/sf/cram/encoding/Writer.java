@@ -26,55 +26,55 @@ public class Writer {
 	public boolean captureReadNames = false;
 
 	@DataSeries(key = EncodingKey.BF_BitFlags, type = DataSeriesType.INT)
-	public DataWriter<Integer> bitFlagsC;
+	public IntDataWriter bitFlagsC;
 
 	@DataSeries(key = EncodingKey.CF_CompressionBitFlags, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> compBitFlagsC;
+	public ByteDataWriter compBitFlagsC;
 
 	@DataSeries(key = EncodingKey.RL_ReadLength, type = DataSeriesType.INT)
-	public DataWriter<Integer> readLengthC;
+	public IntDataWriter readLengthC;
 
 	@DataSeries(key = EncodingKey.AP_AlignmentPositionOffset, type = DataSeriesType.INT)
-	public DataWriter<Integer> alStartC;
+	public IntDataWriter alStartC;
 
 	@DataSeries(key = EncodingKey.RG_ReadGroup, type = DataSeriesType.INT)
-	public DataWriter<Integer> readGroupC;
+	public IntDataWriter readGroupC;
 
 	@DataSeries(key = EncodingKey.RN_ReadName, type = DataSeriesType.BYTE_ARRAY)
 	public DataWriter<byte[]> readNameC;
 
 	@DataSeries(key = EncodingKey.NF_RecordsToNextFragment, type = DataSeriesType.INT)
-	public DataWriter<Integer> distanceC;
+	public IntDataWriter distanceC;
 
 	@DataSeries(key = EncodingKey.TC_TagCount, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> tagCountC;
+	public ByteDataWriter tagCountC;
 
 	@DataSeries(key = EncodingKey.TN_TagNameAndType, type = DataSeriesType.INT)
-	public DataWriter<Integer> tagNameAndTypeC;
+	public IntDataWriter tagNameAndTypeC;
 
 	@DataSeriesMap(name = "TAG")
 	public Map<Integer, DataWriter<byte[]>> tagValueCodecs;
 
 	@DataSeries(key = EncodingKey.FN_NumberOfReadFeatures, type = DataSeriesType.INT)
-	public DataWriter<Integer> nfc;
+	public IntDataWriter nfc;
 
 	@DataSeries(key = EncodingKey.FP_FeaturePosition, type = DataSeriesType.INT)
-	public DataWriter<Integer> fp;
+	public IntDataWriter fp;
 
 	@DataSeries(key = EncodingKey.FC_FeatureCode, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> fc;
+	public ByteDataWriter fc;
 
 	@DataSeries(key = EncodingKey.BA_Base, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> bc;
+	public ByteDataWriter bc;
 
 	@DataSeries(key = EncodingKey.QS_QualityScore, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> qc;
+	public ByteDataWriter qc;
 
 	@DataSeries(key = EncodingKey.QS_QualityScore, type = DataSeriesType.BYTE_ARRAY)
 	public DataWriter<byte[]> qcArray;
 
 	@DataSeries(key = EncodingKey.BS_BaseSubstitutionCode, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> bsc;
+	public ByteDataWriter bsc;
 
 	@DataSeries(key = EncodingKey.IN_Insertion, type = DataSeriesType.BYTE_ARRAY)
 	public DataWriter<byte[]> inc;
@@ -83,34 +83,34 @@ public class Writer {
 	public DataWriter<byte[]> softClipCodec;
 
 	@DataSeries(key = EncodingKey.DL_DeletionLength, type = DataSeriesType.INT)
-	public DataWriter<Integer> dlc;
+	public IntDataWriter dlc;
 
 	@DataSeries(key = EncodingKey.MQ_MappingQualityScore, type = DataSeriesType.INT)
-	public DataWriter<Integer> mqc;
+	public IntDataWriter mqc;
 
 	@DataSeries(key = EncodingKey.MF_MateBitFlags, type = DataSeriesType.BYTE)
-	public DataWriter<Byte> mbfc;
+	public ByteDataWriter mbfc;
 
 	@DataSeries(key = EncodingKey.NS_NextFragmentReferenceSequenceID, type = DataSeriesType.INT)
-	public DataWriter<Integer> mrc;
+	public IntDataWriter mrc;
 
 	@DataSeries(key = EncodingKey.NP_NextFragmentAlignmentStart, type = DataSeriesType.INT)
-	public DataWriter<Integer> malsc;
+	public IntDataWriter malsc;
 
 	@DataSeries(key = EncodingKey.TS_InsetSize, type = DataSeriesType.INT)
-	public DataWriter<Integer> tsc;
+	public IntDataWriter tsc;
 
 	@DataSeries(key = EncodingKey.TM_TestMark, type = DataSeriesType.INT)
-	public DataWriter<Integer> testC;
+	public IntDataWriter testC;
 
 	@DataSeries(key = EncodingKey.TL_TagIdList, type = DataSeriesType.INT)
-	public DataWriter<Integer> tagIdListCodec;
+	public IntDataWriter tagIdListCodec;
 
 	@DataSeries(key = EncodingKey.RI_RefId, type = DataSeriesType.INT)
-	public DataWriter<Integer> refIdCodec;
+	public IntDataWriter refIdCodec;
 
 	@DataSeries(key = EncodingKey.RS_RefSkip, type = DataSeriesType.INT)
-	public DataWriter<Integer> refSkipCodec;
+	public IntDataWriter refSkipCodec;
 
 	public int refId;
 	public SubstitutionMatrix substitutionMatrix;
@@ -118,22 +118,121 @@ public class Writer {
 
 	public static int detachedCount = 0;
 
+	/**
+	 * Sets the field of a data series, see {@link DataSeries}. Called for
+	 * every slice, so the fields are assigned directly rather than through
+	 * reflection.
+	 */
+	@SuppressWarnings("unchecked")
+	void setSeriesWriter(EncodingKey key, DataSeriesType type,
+			DataWriter<?> writer) {
+		switch (key) {
+		case BF_BitFlags:
+			bitFlagsC = (IntDataWriter) writer;
+			break;
+		case CF_CompressionBitFlags:
+			compBitFlagsC = (ByteDataWriter) writer;
+			break;
+		case RL_ReadLength:
+			readLengthC = (IntDataWriter) writer;
+			break;
+		case AP_AlignmentPositionOffset:
+			alStartC = (IntDataWriter) writer;
+			break;
+		case RG_ReadGroup:
+			readGroupC = (IntDataWriter) writer;
+			break;
+		case RN_ReadName:
+			readNameC = (DataWriter<byte[]>) writer;
+			break;
+		case NF_RecordsToNextFragment:
+			distanceC = (IntDataWriter) writer;
+			break;
+		case TC_TagCount:
+			tagCountC = (ByteDataWriter) writer;
+			break;
+		case TN_TagNameAndType:
+			tagNameAndTypeC = (IntDataWriter) writer;
+			break;
+		case FN_NumberOfReadFeatures:
+			nfc = (IntDataWriter) writer;
+			break;
+		case FP_FeaturePosition:
+			fp = (IntDataWriter) writer;
+			break;
+		case FC_FeatureCode:
+			fc = (ByteDataWriter) writer;
+			break;
+		case BA_Base:
+			bc = (ByteDataWriter) writer;
+			break;
+		case QS_QualityScore:
+			if (type == DataSeriesType.BYTE)
+				qc = (ByteDataWriter) writer;
+			else
+				qcArray = (DataWriter<byte[]>) writer;
+			break;
+		case BS_BaseSubstitutionCode:
+			bsc = (ByteDataWriter) writer;
+			break;
+		case IN_Insertion:
+			inc = (DataWriter<byte[]>) writer;
+			break;
+		case SC_SoftClip:
+			softClipCodec = (DataWriter<byte[]>) writer;
+			break;
+		case DL_DeletionLength:
+			dlc = (IntDataWriter) writer;
+			break;
+		case MQ_MappingQualityScore:
+			mqc = (IntDataWriter) writer;
+			break;
+		case MF_MateBitFlags:
+			mbfc = (ByteDataWriter) writer;
+			break;
+		case NS_NextFragmentReferenceSequenceID:
+			mrc = (IntDataWriter) writer;
+			break;
+		case NP_NextFragmentAlignmentStart:
+			malsc = (IntDataWriter) writer;
+			break;
+		case TS_InsetSize:
+			tsc = (IntDataWriter) writer;
+			break;
+		case TM_TestMark:
+			testC = (IntDataWriter) writer;
+			break;
+		case TL_TagIdList:
+			tagIdListCodec = (IntDataWriter) writer;
+			break;
+		case RI_RefId:
+			refIdCodec = (IntDataWriter) writer;
+			break;
+		case RS_RefSkip:
+			refSkipCodec = (IntDataWriter) writer;
+			break;
+
+		default:
+			throw new RuntimeException("No field for data series: " + key);
+		}
+	}
+
 	public void write(CramRecord r) throws IOException {
-		// testC.writeData(TEST_MARK) ;
+		// testC.writeInt(TEST_MARK) ;
 
-		bitFlagsC.writeData(r.getFlags());
-		compBitFlagsC.writeData(r.getCompressionFlags());
+		bitFlagsC.writeInt(r.getFlags());
+		compBitFlagsC.writeByte(r.getCompressionFlags());
 		if (refId == -2)
-			refIdCodec.writeData(r.sequenceId);
+			refIdCodec.writeInt(r.sequenceId);
 
-		readLengthC.writeData(r.getReadLength());
+		readLengthC.writeInt(r.getReadLength());
 
 		if (AP_delta)
-			alStartC.writeData(r.alignmentStartOffsetFromPreviousRecord);
+			alStartC.writeInt(r.alignmentStartOffsetFromPreviousRecord);
 		else
-			alStartC.writeData(r.getAlignmentStart());
+			alStartC.writeInt(r.getAlignmentStart());
 
-		readGroupC.writeData(r.getReadGroupID());
+		readGroupC.writeInt(r.getReadGroupID());
 
 		if (captureReadNames) {
 			readNameC.writeData(r.getReadName().getBytes(charset));
@@ -141,20 +240,20 @@ public class Writer {
 
 		// mate record:
 		if (r.detached) {
-			mbfc.writeData(r.getMateFlags());
+			mbfc.writeByte(r.getMateFlags());
 			if (!captureReadNames)
 				readNameC.writeData(r.getReadName().getBytes(charset));
 
-			mrc.writeData(r.mateSequnceID);
-			malsc.writeData(r.mateAlignmentStart);
-			tsc.writeData(r.templateSize);
+			mrc.writeInt(r.mateSequnceID);
+			malsc.writeInt(r.mateAlignmentStart);
+			tsc.writeInt(r.templateSize);
 
 			detachedCount++;
 		} else if (r.hasMateDownStream)
-			distanceC.writeData(r.recordsToNextFragment);
+			distanceC.writeInt(r.recordsToNextFragment);
 
 		// tag records:
-		tagIdListCodec.writeData(r.tagIdsIndex.value);
+		tagIdListCodec.writeInt(r.tagIdsIndex.value);
 		if (r.tags != null) {
 			for (int i = 0; i < r.tags.length; i++) {
 				DataWriter<byte[]> writer = tagValueCodecs
@@ -165,10 +264,10 @@ public class Writer {
 
 		if (!r.segmentUnmapped) {
 			// writing read features:
-			nfc.writeData(r.getReadFeatures().size());
+			nfc.writeInt(r.getReadFeatures().size());
 			int prevPos = 0;
 			for (ReadFeature f : r.getReadFeatures()) {
-				fc.writeData(f.getOperator());
+				fc.writeByte(f.getOperator());
 				switch (f.getOperator()) {
 				case Substitution.operator:
 					break;
@@ -177,23 +276,23 @@ public class Writer {
 					break;
 				}
 
-				fp.writeData(f.getPosition() - prevPos);
+				fp.writeInt(f.getPosition() - prevPos);
 				prevPos = f.getPosition();
 
 				switch (f.getOperator()) {
 				case ReadBase.operator:
 					ReadBase rb = (ReadBase) f;
-					bc.writeData(rb.getBase());
-					qc.writeData(rb.getQualityScore());
+					bc.writeByte(rb.getBase());
+					qc.writeByte(rb.getQualityScore());
 					break;
 				case Substitution.operator:
 					Substitution sv = (Substitution) f;
 					if (sv.getCode() < 0)
-						bsc.writeData(substitutionMatrix.code(
+						bsc.writeByte(substitutionMatrix.code(
 								sv.getRefernceBase(), sv.getBase()));
 					else
-						bsc.writeData(sv.getCode());
-					// bsc.writeData((byte) sv.getBaseChange().getChange());
+						bsc.writeByte(sv.getCode());
+					// bsc.writeByte((byte) sv.getBaseChange().getChange());
 					break;
 				case Insertion.operator:
 					Insertion iv = (Insertion) f;
@@ -205,19 +304,19 @@ public class Writer {
 					break;
 				case Deletion.operator:
 					Deletion dv = (Deletion) f;
-					dlc.writeData(dv.getLength());
+					dlc.writeInt(dv.getLength());
 					break;
 				case RefSkip.operator:
 					RefSkip rsv = (RefSkip) f;
-					refSkipCodec.writeData(rsv.getLength());
+					refSkipCodec.writeInt(rsv.getLength());
 					break;
 				case InsertBase.operator:
 					InsertBase ib = (InsertBase) f;
-					bc.writeData(ib.getBase());
+					bc.writeByte(ib.getBase());
 					break;
 				case BaseQualityScore.operator:
 					BaseQualityScore bqs = (BaseQualityScore) f;
-					qc.writeData(bqs.getQualityScore());
+					qc.writeByte(bqs.getQualityScore());
 					break;
 				default:
 					throw new RuntimeException(
@@ -227,13 +326,13 @@ public class Writer {
 			}
 
 			// mapping quality:
-			mqc.writeData(r.getMappingQuality());
+			mqc.writeInt(r.getMappingQuality());
 			if (r.forcePreserveQualityScores) {
 				qcArray.writeData(r.getQualityScores());
 			}
 		} else {
 			for (byte b : r.getReadBases())
-				bc.writeData(b);
+				bc.writeByte(b);
 			if (r.forcePreserveQualityScores) {
 				qcArray.writeData(r.getQualityScores());
 			}
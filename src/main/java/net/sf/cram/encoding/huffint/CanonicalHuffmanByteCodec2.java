@@ -9,12 +9,12 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import net.sf.cram.encoding.BitCodec;
+import net.sf.cram.encoding.ByteBitCodec;
 import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class CanonicalHuffmanByteCodec2 implements BitCodec<Byte> {
+public class CanonicalHuffmanByteCodec2 implements ByteBitCodec {
 	private final HelperByte helper ;
 
 	/*
@@ -25,6 +25,16 @@ public class CanonicalHuffmanByteCodec2 implements BitCodec<Byte> {
 		helper = new HelperByte(values, bitLengths) ;
 	}
 	
+	@Override
+	public byte readByte(BitInputStream bis) throws IOException {
+		return helper.read(bis) ;
+	}
+
+	@Override
+	public long writeByte(BitOutputStream bos, byte value) throws IOException {
+		return helper.write(bos, value) ;
+	}
+
 	@Override
 	public Byte read(BitInputStream bis) throws IOException {
 		return helper.read(bis) ;
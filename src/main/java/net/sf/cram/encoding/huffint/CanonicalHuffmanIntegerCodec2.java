@@ -9,12 +9,12 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import net.sf.cram.encoding.BitCodec;
+import net.sf.cram.encoding.IntBitCodec;
 import net.sf.cram.io.BitInputStream;
 import net.sf.cram.io.BitOutputStream;
 
 
-public class CanonicalHuffmanIntegerCodec2 implements BitCodec<Integer> {
+public class CanonicalHuffmanIntegerCodec2 implements IntBitCodec {
 	private final Helper helper ;
 
 	/*
@@ -25,6 +25,16 @@ public class CanonicalHuffmanIntegerCodec2 implements BitCodec<Integer> {
 		helper = new Helper(values, bitLengths) ;
 	}
 	
+	@Override
+	public int readInt(BitInputStream bis) throws IOException {
+		return helper.read(bis) ;
+	}
+
+	@Override
+	public long writeInt(BitOutputStream bos, int value) throws IOException {
+		return helper.write(bos, value) ;
+	}
+
 	@Override
 	public Integer read(BitInputStream bis) throws IOException {
 		return helper.read(bis) ;
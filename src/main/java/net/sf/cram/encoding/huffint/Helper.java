@@ -43,6 +43,7 @@ class Helper {
 	final int[] sortedValuesByBitCode;
 	final int[] sortedBitLensByBitCode;
 	final int[] bitCodeToValue;
+	final HuffmanDecodingTable decodingTable;
 
 	Helper(int[] values, int[] bitLengths) {
 		this.values = values;
@@ -91,6 +92,8 @@ class Helper {
 				maxBitCode = sortedCodes[i].bitCode;
 		}
 
+		decodingTable = new HuffmanDecodingTable(sortedCodes);
+
 		bitCodeToValue = new int[maxBitCode + 1];
 		Arrays.fill(bitCodeToValue, -1);
 		for (int i = 0; i < sortedBitCodes.length; i++) {
@@ -154,6 +157,14 @@ class Helper {
 	private HuffmanBitCode searchCode = new HuffmanBitCode();
 
 	final int read(final BitInputStream bis) throws IOException {
+		return sortedValuesByBitCode[decodingTable.read(bis)];
+	}
+
+	/**
+	 * The old decoder reading one code length at a time, kept for
+	 * benchmarking.
+	 */
+	final int readBitByBit(final BitInputStream bis) throws IOException {
 		int prevLen = 0;
 		int bits = 0;
 		for (int i = 0; i < sortedCodes.length; i++) {
@@ -258,28 +269,47 @@ class Helper {
 		bos.close();
 		long time2 = System.nanoTime();
 
-		ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-		DefaultBitInputStream bis = new DefaultBitInputStream(bais);
-
-		long time3 = System.nanoTime();
-		int counter = 0;
-		for (int i = 0; i < size; i++) {
-			for (int b : cal.values()) {
-				int v = helper.read(bis);
-				if (v != b)
-					fail("Mismatch: " + v + " vs " + b + " at " + counter);
-
-				counter++;
+		byte[] data = baos.toByteArray();
+		long readTime = 0, readBitByBitTime = 0;
+		for (int round = 0; round < 5; round++) {
+			DefaultBitInputStream bis = new DefaultBitInputStream(
+					new ByteArrayInputStream(data));
+			long time3 = System.nanoTime();
+			int counter = 0;
+			for (int i = 0; i < size; i++) {
+				for (int b : cal.values()) {
+					int v = helper.readBitByBit(bis);
+					if (v != b)
+						fail("Mismatch: " + v + " vs " + b + " at " + counter);
+
+					counter++;
+				}
+			}
+			long time4 = System.nanoTime();
+			readBitByBitTime = time4 - time3;
+
+			bis = new DefaultBitInputStream(new ByteArrayInputStream(data));
+			time3 = System.nanoTime();
+			counter = 0;
+			for (int i = 0; i < size; i++) {
+				for (int b : cal.values()) {
+					int v = helper.read(bis);
+					if (v != b)
+						fail("Mismatch: " + v + " vs " + b + " at " + counter);
+
+					counter++;
+				}
 			}
+			time4 = System.nanoTime();
+			readTime = time4 - time3;
 		}
-		long time4 = System.nanoTime();
 
 		System.out
-				.printf("Size: %d bytes, bits per value: %.2f, create time %dms, write time %d ms, read time %d ms.",
+				.printf("Size: %d bytes, bits per value: %.2f, create time %dms, write time %d ms, read time %d ms, bit-by-bit read time %d ms.\n",
 						baos.size(), 8f * baos.size() / size
 								/ cal.values().length,
 						(time6 - time5) / 1000000, (time2 - time1) / 1000000,
-						(time4 - time3) / 1000000);
+						readTime / 1000000, readBitByBitTime / 1000000);
 
 		// String message = "12341111111111111122222223334";
 		//
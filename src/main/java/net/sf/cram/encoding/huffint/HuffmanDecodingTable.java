@@ -0,0 +1,83 @@
+package net.sf.cram.encoding.huffint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sf.cram.io.BitInputStream;
+
+/**
+ * Decodes canonical huffman codes by peeking a fixed number of bits and
+ * looking them up in a table. Codes longer than the table are resolved by
+ * reading the remaining bits one at a time and comparing against the first
+ * code of each length.
+ *
+ * The decoder returns the index of the code in the canonical order, that is
+ * sorted by bit length and then by bit code.
+ */
+class HuffmanDecodingTable {
+	static final int MAX_TABLE_BITS = 10;
+	private static final int LENGTH_BITS = 6;
+	private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+	private final int tableBits;
+	/**
+	 * Code index shifted by LENGTH_BITS ORed with the code length, or -1 if
+	 * the code is longer than tableBits.
+	 */
+	private final int[] table;
+
+	private final int maxLength;
+	private final int[] firstCode;
+	private final int[] firstIndex;
+	private final int[] count;
+
+	HuffmanDecodingTable(HuffmanBitCode[] sortedCodes) {
+		int maxLength = 0;
+		for (HuffmanBitCode code : sortedCodes)
+			maxLength = Math.max(maxLength, code.bitLentgh);
+		this.maxLength = maxLength;
+
+		tableBits = Math.min(maxLength, MAX_TABLE_BITS);
+		table = new int[1 << tableBits];
+		Arrays.fill(table, -1);
+
+		firstCode = new int[maxLength + 1];
+		firstIndex = new int[maxLength + 1];
+		count = new int[maxLength + 1];
+
+		for (int i = 0; i < sortedCodes.length; i++) {
+			HuffmanBitCode code = sortedCodes[i];
+			int len = code.bitLentgh;
+			if (count[len]++ == 0) {
+				firstCode[len] = code.bitCode;
+				firstIndex[len] = i;
+			}
+
+			if (len <= tableBits) {
+				int shift = tableBits - len;
+				int from = code.bitCode << shift;
+				int to = from + (1 << shift);
+				for (int j = from; j < to; j++)
+					table[j] = (i << LENGTH_BITS) | len;
+			}
+		}
+	}
+
+	final int read(final BitInputStream bis) throws IOException {
+		int entry = table[bis.peekBits(tableBits)];
+		if (entry != -1) {
+			bis.readBits(entry & LENGTH_MASK);
+			return entry >>> LENGTH_BITS;
+		}
+
+		int bits = bis.readBits(tableBits);
+		for (int len = tableBits + 1; len <= maxLength; len++) {
+			bits = (bits << 1) | (bis.readBit() ? 1 : 0);
+			int offset = bits - firstCode[len];
+			if (offset >= 0 && offset < count[len])
+				return firstIndex[len] + offset;
+		}
+
+		throw new RuntimeException("Not found.");
+	}
+}
@@ -38,7 +38,8 @@ class BaiIndexer {
 
 	private boolean nextContainer() throws IOException {
 		long offset = is.getCount();
-		Container c = ReadWrite.readContainer(samFileHeader, is);
+		// the slice headers are enough for the index:
+		Container c = ReadWrite.readSliceHeaders(is);
 		if (c == null)
 			return false;
 		c.offset = offset;
@@ -0,0 +1,268 @@
+package net.sf.cram.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.cram.index.CramIndex.Entry;
+
+/**
+ * Binary CRAM index. The file starts with a header:
+ *
+ * <pre>
+ * magic 'BCRI', int version, int number of references,
+ * per reference: int sequence id, int first entry, int entry count, int max span
+ * </pre>
+ *
+ * followed by fixed width entries sorted by sequence id and alignment start:
+ *
+ * <pre>
+ * int sequence id, int alignment start, int alignment span,
+ * long container offset, int slice offset, int slice size, int slice index
+ * </pre>
+ *
+ * All values are big-endian. The entries are not parsed on open, queries do a
+ * binary search directly over the (memory mapped) buffer.
+ */
+public class BinaryCramIndex {
+	public static final byte[] MAGIC = "BCRI".getBytes();
+	public static final int VERSION = 1;
+	private static final int ENTRY_SIZE = 6 * 4 + 8;
+
+	private final ByteBuffer buf;
+	private final int entriesOffset;
+	private final int[] sequenceIds;
+	private final int[] firstEntries;
+	private final int[] entryCounts;
+	private final int[] maxSpans;
+
+	public BinaryCramIndex(ByteBuffer buf) {
+		this.buf = buf;
+		byte[] magic = new byte[MAGIC.length];
+		buf.position(0);
+		buf.get(magic);
+		if (!Arrays.equals(MAGIC, magic))
+			throw new RuntimeException("Not a binary CRAM index.");
+		int version = buf.getInt();
+		if (version != VERSION)
+			throw new RuntimeException("Unsupported binary CRAM index version: "
+					+ version);
+
+		int nofReferences = buf.getInt();
+		sequenceIds = new int[nofReferences];
+		firstEntries = new int[nofReferences];
+		entryCounts = new int[nofReferences];
+		maxSpans = new int[nofReferences];
+		for (int i = 0; i < nofReferences; i++) {
+			sequenceIds[i] = buf.getInt();
+			firstEntries[i] = buf.getInt();
+			entryCounts[i] = buf.getInt();
+			maxSpans[i] = buf.getInt();
+		}
+		entriesOffset = buf.position();
+	}
+
+	/**
+	 * Maps the file into memory, only the header is read.
+	 */
+	public static BinaryCramIndex open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new BinaryCramIndex(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static boolean isBinary(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			int read = 0;
+			while (read < magic.length) {
+				int len = is.read(magic, read, magic.length - read);
+				if (len < 0)
+					return false;
+				read += len;
+			}
+			return Arrays.equals(MAGIC, magic);
+		} finally {
+			is.close();
+		}
+	}
+
+	public int size() {
+		return (buf.limit() - entriesOffset) / ENTRY_SIZE;
+	}
+
+	private int alignmentStart(int index) {
+		return buf.getInt(entriesOffset + index * ENTRY_SIZE + 4);
+	}
+
+	private int alignmentSpan(int index) {
+		return buf.getInt(entriesOffset + index * ENTRY_SIZE + 8);
+	}
+
+	public Entry get(int index) {
+		int offset = entriesOffset + index * ENTRY_SIZE;
+		Entry e = new Entry();
+		e.sequenceId = buf.getInt(offset);
+		e.alignmentStart = buf.getInt(offset + 4);
+		e.alignmentSpan = buf.getInt(offset + 8);
+		e.containerStartOffset = buf.getLong(offset + 12);
+		e.sliceOffset = buf.getInt(offset + 20);
+		e.sliceSize = buf.getInt(offset + 24);
+		e.sliceIndex = buf.getInt(offset + 28);
+		return e;
+	}
+
+	/**
+	 * @return index of the first entry in [from, to) with alignment start not
+	 *         less than the given position or to if there is none
+	 */
+	private int lowerBound(int from, int to, long alignmentStart) {
+		int lo = from, hi = to;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (alignmentStart(mid) < alignmentStart)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Finds slices overlapping the given region.
+	 *
+	 * @return entries sorted by alignment start
+	 */
+	public List<Entry> find(int seqId, int start, int span) {
+		int ref = Arrays.binarySearch(sequenceIds, seqId);
+		if (ref < 0)
+			return Collections.emptyList();
+
+		long end = (long) start + Math.max(span, 1);
+		int from = firstEntries[ref];
+		int to = from + entryCounts[ref];
+
+		// no entry for this reference spans more than maxSpan:
+		int lo = lowerBound(from, to, (long) start - maxSpans[ref]);
+		int hi = lowerBound(lo, to, end);
+
+		List<Entry> found = new ArrayList<Entry>();
+		for (int i = lo; i < hi; i++)
+			if ((long) alignmentStart(i) + alignmentSpan(i) > start)
+				found.add(get(i));
+		return found;
+	}
+
+	/**
+	 * Writes the entries in binary format, the list is sorted in place.
+	 */
+	public static void write(List<Entry> entries, OutputStream os)
+			throws IOException {
+		Collections.sort(entries);
+
+		List<int[]> references = new ArrayList<int[]>();
+		int[] ref = null;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry e = entries.get(i);
+			if (ref == null || ref[0] != e.sequenceId) {
+				ref = new int[] { e.sequenceId, i, 0, 0 };
+				references.add(ref);
+			}
+			ref[2]++;
+			ref[3] = Math.max(ref[3], e.alignmentSpan);
+		}
+
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.write(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(references.size());
+		for (int[] r : references)
+			for (int value : r)
+				dos.writeInt(value);
+
+		for (Entry e : entries) {
+			dos.writeInt(e.sequenceId);
+			dos.writeInt(e.alignmentStart);
+			dos.writeInt(e.alignmentSpan);
+			dos.writeLong(e.containerStartOffset);
+			dos.writeInt(e.sliceOffset);
+			dos.writeInt(e.sliceSize);
+			dos.writeInt(e.sliceIndex);
+		}
+		dos.flush();
+	}
+
+	/**
+	 * Text indexes do not store slice indexes, recover them from the slice
+	 * offsets within each container.
+	 */
+	private static void setSliceIndexes(List<Entry> entries) {
+		List<Entry> byOffset = new ArrayList<Entry>(entries);
+		Collections.sort(byOffset, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				if (o1.containerStartOffset != o2.containerStartOffset)
+					return o1.containerStartOffset < o2.containerStartOffset ? -1
+							: 1;
+				return o1.sliceOffset - o2.sliceOffset;
+			}
+		});
+
+		for (int i = 0; i < byOffset.size(); i++) {
+			Entry e = byOffset.get(i);
+			if (i > 0
+					&& byOffset.get(i - 1).containerStartOffset == e.containerStartOffset)
+				e.sliceIndex = byOffset.get(i - 1).sliceIndex + 1;
+			else
+				e.sliceIndex = 0;
+		}
+	}
+
+	/**
+	 * Converts a gzipped text crai file into the binary format. The files may
+	 * be the same, in this case the text index is replaced.
+	 */
+	public static void convert(File textIndexFile, File binaryIndexFile)
+			throws IOException {
+		InputStream is = new GZIPInputStream(new BufferedInputStream(
+				new FileInputStream(textIndexFile)));
+		List<Entry> entries = CramIndex.readIndex(is);
+		setSliceIndexes(entries);
+
+		File tmp = new File(binaryIndexFile.getAbsolutePath() + ".tmp");
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+		try {
+			write(entries, os);
+		} finally {
+			os.close();
+		}
+
+		if (binaryIndexFile.exists() && !binaryIndexFile.delete())
+			throw new IOException("Failed to replace "
+					+ binaryIndexFile.getAbsolutePath());
+		if (!tmp.renameTo(binaryIndexFile))
+			throw new IOException("Failed to rename " + tmp.getAbsolutePath());
+	}
+}
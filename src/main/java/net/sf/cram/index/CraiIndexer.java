@@ -7,6 +7,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 import net.sf.cram.ReadWrite;
@@ -22,25 +25,44 @@ class CraiIndexer {
 	private CountingInputStream is;
 	private SAMFileHeader samFileHeader;
 	private CramIndex index;
+	private File output;
+	private List<CramIndex.Entry> entries;
 
 	public CraiIndexer(InputStream is, File output)
 			throws FileNotFoundException, IOException {
+		this(is, output, false);
+	}
+
+	/**
+	 * @param binary
+	 *            write a {@link BinaryCramIndex} instead of gzipped text
+	 */
+	public CraiIndexer(InputStream is, File output, boolean binary)
+			throws FileNotFoundException, IOException {
 		this.is = new CountingInputStream(is);
 		CramHeader cramHeader = ReadWrite.readCramHeader(this.is);
 		samFileHeader = cramHeader.samFileHeader;
 
-		index = new CramIndex(new GZIPOutputStream(new BufferedOutputStream(
-				new FileOutputStream(output))));
+		if (binary) {
+			this.output = output;
+			entries = new ArrayList<CramIndex.Entry>();
+		} else
+			index = new CramIndex(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(output))));
 
 	}
 
 	private boolean nextContainer() throws IOException {
 		long offset = is.getCount();
-		Container c = ReadWrite.readContainer(samFileHeader, is);
+		// the slice headers are enough for the index:
+		Container c = ReadWrite.readSliceHeaders(is);
 		if (c == null)
 			return false;
 		c.offset = offset;
-		index.addContainer(c);
+		if (entries != null)
+			entries.addAll(CramIndex.getEntries(c));
+		else
+			index.addContainer(c);
 		log.info("INDEXED: " + c.toString());
 		return true;
 	}
@@ -54,6 +76,12 @@ class CraiIndexer {
 
 	public void run() throws IOException {
 		index();
-		index.close();
+		if (entries != null) {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(
+					output));
+			BinaryCramIndex.write(entries, os);
+			os.close();
+		} else
+			index.close();
 	}
 }
\ No newline at end of file
@@ -1,12 +1,16 @@
 package net.sf.cram.index;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 import net.sf.cram.structure.Container;
 import net.sf.cram.structure.Slice;
@@ -19,6 +23,15 @@ public class CramIndex {
 	}
 
 	public void addContainer(Container c) throws IOException {
+		for (Entry e : getEntries(c)) {
+			String string = e.toString();
+			os.write(string.getBytes());
+			os.write('\n');
+		}
+	}
+
+	public static List<Entry> getEntries(Container c) {
+		List<Entry> entries = new ArrayList<Entry>(c.slices.length);
 		for (int i = 0; i < c.slices.length; i++) {
 			Slice s = c.slices[i];
 			Entry e = new Entry();
@@ -30,11 +43,9 @@ public class CramIndex {
 			e.sliceSize = s.size;
 
 			e.sliceIndex = i;
-
-			String string = e.toString();
-			os.write(string.getBytes());
-			os.write('\n');
+			entries.add(e);
 		}
+		return entries;
 	}
 
 	public static class Entry implements Comparable<Entry>, Cloneable {
@@ -87,12 +98,13 @@ public class CramIndex {
 			entry.containerStartOffset = containerStartOffset;
 			entry.sliceOffset = sliceOffset;
 			entry.sliceSize = sliceSize;
+			entry.sliceIndex = sliceIndex;
 			return entry;
 		}
 	}
 
 	public static List<Entry> readIndex(InputStream is) {
-		List<Entry> list = new LinkedList<CramIndex.Entry>();
+		List<Entry> list = new ArrayList<CramIndex.Entry>();
 		Scanner scanner = new Scanner(is);
 
 		try {
@@ -124,7 +136,7 @@ public class CramIndex {
 		int index = Collections.binarySearch(list, query);
 		if (index < 0)
 			index = -index - 1;
-		if (list.get(index).sequenceId != seqId)
+		if (index >= list.size() || list.get(index).sequenceId != seqId)
 			return Collections.EMPTY_LIST;
 
 		query.alignmentStart = start + span;
@@ -138,6 +150,23 @@ public class CramIndex {
 		return list.subList(index, index2);
 	}
 
+	/**
+	 * Finds slices in either a gzipped text or a binary index file.
+	 */
+	public static List<Entry> find(File indexFile, int seqId, int start,
+			int span) throws IOException {
+		if (BinaryCramIndex.isBinary(indexFile))
+			return BinaryCramIndex.open(indexFile).find(seqId, start, span);
+
+		InputStream is = new GZIPInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		try {
+			return find(readIndex(is), seqId, start, span);
+		} finally {
+			is.close();
+		}
+	}
+
 	public void close() throws IOException {
 		os.close();
 	}
@@ -59,6 +59,11 @@ public class CramIndexer {
 
 		Log.setGlobalLogLevel(params.logLevel);
 
+		if (params.convertCrai) {
+			BinaryCramIndex.convert(params.inputFile, params.inputFile);
+			return;
+		}
+
 		if (CRAMFileReader.isCRAMFile(params.inputFile)) {
 			if (params.bai) {
 
@@ -83,7 +88,8 @@ public class CramIndexer {
 				File cramIndexFile = new File(
 						params.inputFile.getAbsolutePath() + ".crai");
 
-				create_CRAI_forCramFile(params.inputFile, cramIndexFile);
+				create_CRAI_forCramFile(params.inputFile, cramIndexFile,
+						params.binaryCrai);
 
 			}
 		} else {
@@ -132,6 +138,12 @@ public class CramIndexer {
 		@Parameter(names = { "--bam-style-index" }, description = "Choose between BAM index (bai) and CRAM index (crai). ")
 		boolean bai = false;
 
+		@Parameter(names = { "--binary-crai" }, description = "Write the CRAM index (crai) in binary format, it is faster to open and query. ")
+		boolean binaryCrai = false;
+
+		@Parameter(names = { "--convert-crai" }, description = "Convert the text crai file given as input into binary format in place. ")
+		boolean convertCrai = false;
+
 		@Parameter(names = { "--help", "-h" }, description = "Print help and exit.")
 		boolean help = false;
 
@@ -161,8 +173,13 @@ public class CramIndexer {
 
 	public static void create_CRAI_forCramFile(File cramFile, File cramIndexFile)
 			throws IOException {
+		create_CRAI_forCramFile(cramFile, cramIndexFile, false);
+	}
+
+	public static void create_CRAI_forCramFile(File cramFile,
+			File cramIndexFile, boolean binary) throws IOException {
 		InputStream is = new BufferedInputStream(new FileInputStream(cramFile));
-		CraiIndexer ic = new CraiIndexer(is, cramIndexFile);
+		CraiIndexer ic = new CraiIndexer(is, cramIndexFile, binary);
 
 		ic.run();
 	}
@@ -0,0 +1,156 @@
+package net.sf.cram.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A bit output stream that writes into a growing byte array. Bits are
+ * collected in a 64-bit accumulator and only whole bytes are moved to the
+ * array.
+ */
+public class ArrayBitOutputStream implements BitOutputStream {
+	private byte[] data;
+	private int count = 0;
+
+	/**
+	 * The lowest nofBufferedBits bits are waiting to be written.
+	 */
+	private long buffer = 0;
+	private int nofBufferedBits = 0;
+
+	public ArrayBitOutputStream() {
+		this(1024);
+	}
+
+	public ArrayBitOutputStream(int initialCapacity) {
+		data = new byte[Math.max(initialCapacity, 16)];
+	}
+
+	private final void ensureCapacity(int extra) {
+		if (count + extra > data.length)
+			data = Arrays.copyOf(data,
+					Math.max(data.length << 1, count + extra));
+	}
+
+	private final void drain() {
+		ensureCapacity(8);
+		while (nofBufferedBits >= 8) {
+			nofBufferedBits -= 8;
+			data[count++] = (byte) (buffer >>> nofBufferedBits);
+		}
+	}
+
+	/**
+	 * Appends up to 56 bits.
+	 */
+	private final void put(long value, int n) {
+		if (nofBufferedBits + n > 64)
+			drain();
+		buffer = (buffer << n) | (value & ((1L << n) - 1));
+		nofBufferedBits += n;
+	}
+
+	@Override
+	public void write(long value, int nofBitsToWrite) throws IOException {
+		if (nofBitsToWrite == 0)
+			return;
+
+		if (nofBitsToWrite < 1 || nofBitsToWrite > 64)
+			throw new IOException("Expecting 1 to 64 bits, got: value=" + value + ", nofBits=" + nofBitsToWrite);
+
+		if (nofBitsToWrite > 56) {
+			put(value >>> 32, nofBitsToWrite - 32);
+			put(value, 32);
+		} else
+			put(value, nofBitsToWrite);
+	}
+
+	@Override
+	public void write(int value, int nofBitsToWrite) throws IOException {
+		if (nofBitsToWrite == 0)
+			return;
+
+		if (nofBitsToWrite < 1 || nofBitsToWrite > 32)
+			throw new IOException("Expecting 1 to 32 bits.");
+
+		put(value, nofBitsToWrite);
+	}
+
+	@Override
+	public void write(byte value, int nofBitsToWrite) throws IOException {
+		if (nofBitsToWrite < 0 || nofBitsToWrite > 8)
+			throw new IOException("Expecting 0 to 8 bits.");
+
+		if (nofBitsToWrite > 0)
+			put(value, nofBitsToWrite);
+	}
+
+	@Override
+	public void write(boolean bit) throws IOException {
+		put(bit ? 1L : 0L, 1);
+	}
+
+	@Override
+	public void write(boolean bit, long repeat) throws IOException {
+		final long bits = bit ? ~0L : 0L;
+		for (; repeat >= 32; repeat -= 32)
+			put(bits, 32);
+		if (repeat > 0)
+			put(bits, (int) repeat);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		drain();
+		if (nofBufferedBits == 0) {
+			ensureCapacity(b.length);
+			System.arraycopy(b, 0, data, count, b.length);
+			count += b.length;
+		} else
+			for (byte v : b)
+				put(v, 8);
+	}
+
+	@Override
+	public void write(byte b) throws IOException {
+		put(b, 8);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		alignToByte();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	@Override
+	public int alignToByte() throws IOException {
+		drain();
+		int bitsFlushed = nofBufferedBits;
+		if (nofBufferedBits > 0) {
+			data[count++] = (byte) (buffer << (8 - nofBufferedBits));
+			nofBufferedBits = 0;
+		}
+		return bitsFlushed;
+	}
+
+	/**
+	 * @return the number of whole bytes written so far, pending bits are not
+	 *         included until the stream is flushed.
+	 */
+	public int size() {
+		return count + nofBufferedBits / 8;
+	}
+
+	/**
+	 * @return a copy of the bytes written so far, call {@link #close()} first
+	 *         to include the last partial byte.
+	 */
+	public byte[] toByteArray() {
+		drain();
+		return Arrays.copyOf(data, count);
+	}
+}
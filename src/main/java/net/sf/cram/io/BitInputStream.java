@@ -23,6 +23,12 @@ public interface BitInputStream {
 
 	public int readBits(int len) throws IOException;
 
+	/**
+	 * Returns the next len bits without consuming them. Bits beyond the end
+	 * of the stream are returned as zeros. At most 24 bits can be peeked.
+	 */
+	public int peekBits(int len) throws IOException;
+
 	public long readLongBits(int len) throws IOException;
 
 	public boolean endOfStream() throws IOException;
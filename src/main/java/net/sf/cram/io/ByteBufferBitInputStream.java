@@ -0,0 +1,152 @@
+package net.sf.cram.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Same as {@link ArrayBitInputStream} but reads the bytes of a byte buffer,
+ * so that memory mapped data does not have to be copied into an array. The
+ * buffer's position is not changed.
+ */
+public class ByteBufferBitInputStream implements BitInputStream {
+	private final ByteBuffer data;
+	private final int end;
+	private int pos;
+
+	/**
+	 * The lowest nofBufferedBits bits are the next bits in the stream.
+	 */
+	private long buffer = 0;
+	private int nofBufferedBits = 0;
+	private boolean endOfStream = false;
+
+	/**
+	 * Reads the bytes between the buffer's position and limit.
+	 */
+	public ByteBufferBitInputStream(ByteBuffer data) {
+		this.data = data;
+		this.pos = data.position();
+		this.end = data.limit();
+	}
+
+	/**
+	 * Loads whole bytes into the accumulator until it holds more than 56
+	 * bits or the buffer ends.
+	 */
+	private final void refill() {
+		int bytes = (64 - nofBufferedBits) >>> 3;
+		if (bytes > end - pos)
+			bytes = end - pos;
+
+		long b = buffer;
+		for (int i = 0; i < bytes; i++)
+			b = (b << 8) | (data.get(pos + i) & 0xFF);
+		buffer = b;
+		pos += bytes;
+		nofBufferedBits += bytes << 3;
+	}
+
+	private final void fill(int n) throws IOException {
+		refill();
+		if (n > nofBufferedBits) {
+			endOfStream = true;
+			throw new EOFException("End of stream.");
+		}
+	}
+
+	/**
+	 * Reads up to 56 bits.
+	 */
+	private final long take(int n) throws IOException {
+		if (n > nofBufferedBits)
+			fill(n);
+		nofBufferedBits -= n;
+		return (buffer >>> nofBufferedBits) & ((1L << n) - 1);
+	}
+
+	@Override
+	public final boolean readBit() throws IOException {
+		return take(1) == 1;
+	}
+
+	@Override
+	public final int readBits(int n) throws IOException {
+		if (n == 0)
+			return 0;
+		if (n > 32)
+			throw new RuntimeException("More then 32 bits are requested in one read from bit stream.");
+		return (int) take(n);
+	}
+
+	@Override
+	public final int peekBits(int n) throws IOException {
+		if (n > 32)
+			throw new RuntimeException("More then 32 bits are requested in one peek from bit stream.");
+
+		if (n > nofBufferedBits) {
+			refill();
+			if (n > nofBufferedBits)
+				return (int) ((buffer & ((1L << nofBufferedBits) - 1)) << (n - nofBufferedBits));
+		}
+		return (int) ((buffer >>> (nofBufferedBits - n)) & ((1L << n) - 1));
+	}
+
+	@Override
+	public final long readLongBits(int n) throws IOException {
+		if (n > 64)
+			throw new RuntimeException("More then 64 bits are requested in one read from bit stream.");
+
+		if (n == 0)
+			return 0;
+		if (n <= 56)
+			return take(n);
+
+		long high = take(n - 32);
+		return (high << 32) | take(32);
+	}
+
+	@Override
+	public boolean endOfStream() throws IOException {
+		return endOfStream;
+	}
+
+	@Override
+	public boolean putBack(long b, int numBits) {
+		return false;
+	}
+
+	@Override
+	public void alignToByte() throws IOException {
+		nofBufferedBits -= nofBufferedBits % 8;
+	}
+
+	@Override
+	public int readAlignedBytes(byte[] array) throws IOException {
+		int i = 0;
+		for (; i < array.length && nofBufferedBits >= 8; i++)
+			array[i] = (byte) take(8);
+
+		int len = array.length - i;
+		if (len > end - pos) {
+			endOfStream = true;
+			throw new EOFException("End of stream.");
+		}
+		ByteBuffer view = data.duplicate();
+		view.position(pos);
+		view.get(array, i, len);
+		pos += len;
+		return array.length * 8;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		return (byte) take(8);
+	}
+
+	@Override
+	public boolean ensureMarker(long marker, int nofBits) throws IOException {
+		long actual = readLongBits(nofBits);
+		return actual == marker;
+	}
+}
@@ -0,0 +1,44 @@
+package net.sf.cram.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream over the remaining bytes of a byte buffer, for example a
+ * view of a memory mapped file. Reading advances the buffer's position.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buf;
+
+	public ByteBufferInputStream(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	@Override
+	public int read() {
+		return buf.hasRemaining() ? 0xFF & buf.get() : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!buf.hasRemaining())
+			return -1;
+		len = Math.min(len, buf.remaining());
+		buf.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) {
+		int len = (int) Math.max(0, Math.min(n, buf.remaining()));
+		buf.position(buf.position() + len);
+		return len;
+	}
+
+	@Override
+	public int available() {
+		return buf.remaining();
+	}
+}
@@ -8,8 +8,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.apache.tools.bzip2.CBZip2OutputStream;
 
 public class ByteBufferUtils {
 
@@ -287,6 +293,19 @@ public class ByteBufferUtils {
 				| (15 & buf.get());
 	}
 
+	/**
+	 * Same as {@link #readUnsignedLTF8(InputStream)}: the number of leading
+	 * one bits in the first byte is the number of bytes that follow.
+	 */
+	public static final long readUnsignedLTF8(ByteBuffer buf) {
+		int b1 = 0xFF & buf.get();
+		int extraBytes = Integer.numberOfLeadingZeros(~(b1 << 24));
+		long value = extraBytes < 8 ? b1 & (0xFF >> (extraBytes + 1)) : 0;
+		for (int i = 0; i < extraBytes; i++)
+			value = (value << 8) | (0xFF & buf.get());
+		return value;
+	}
+
 	public static final void writeUnsignedITF8(int value, ByteBuffer buf) {
 		if ((value >>> 7) == 0) {
 			buf.put((byte) value);
@@ -477,7 +496,8 @@ public class ByteBufferUtils {
 	 * @throws IOException
 	 */
 	public static int int32(ByteBuffer buf) throws IOException {
-		return buf.get() | buf.get() << 8 | buf.get() << 16 | buf.get() << 24;
+		return (0xFF & buf.get()) | (0xFF & buf.get()) << 8
+				| (0xFF & buf.get()) << 16 | (0xFF & buf.get()) << 24;
 	}
 
 	public static int[] array(InputStream is) throws IOException {
@@ -489,6 +509,15 @@ public class ByteBufferUtils {
 		return array;
 	}
 
+	public static int[] array(ByteBuffer buf) {
+		int size = readUnsignedITF8(buf);
+		int[] array = new int[size];
+		for (int i = 0; i < size; i++)
+			array[i] = readUnsignedITF8(buf);
+
+		return array;
+	}
+
 	public static int write(int[] array, OutputStream os) throws IOException {
 		int len = writeUnsignedITF8(array.length, os);
 		for (int i = 0; i < array.length; i++)
@@ -515,6 +544,18 @@ public class ByteBufferUtils {
 		return n;
 	}
 
+	public static void skipFully(InputStream is, long n) throws IOException {
+		while (n > 0) {
+			long skipped = is.skip(n);
+			if (skipped <= 0) {
+				if (is.read() < 0)
+					throw new EOFException();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
 	public static long copyLarge(InputStream input, OutputStream output)
 			throws IOException {
 		byte[] buffer = new byte[1024 * 4];
@@ -536,19 +577,196 @@ public class ByteBufferUtils {
 		return output.toByteArray();
 	}
 
+	/**
+	 * Deflaters and inflaters are native zlib contexts, they are kept per
+	 * thread and reset after every use instead of being created per block.
+	 */
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	private static final ThreadLocal<CRC32> crcs = new ThreadLocal<CRC32>() {
+
+		@Override
+		protected CRC32 initialValue() {
+			return new CRC32();
+		}
+	};
+
+	private static final int GZIP_HEADER_SIZE = 10;
+	private static final int GZIP_TRAILER_SIZE = 8;
+
+	/**
+	 * Same header as written by GZIPOutputStream: no flags, no modification
+	 * time, unknown OS.
+	 */
+	private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b,
+			Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
 	public static byte[] gunzip(byte[] data) throws IOException {
-		GZIPInputStream gis = new GZIPInputStream(
-				new ByteArrayInputStream(data));
-		return readFully(gis);
+		return gunzip(data, -1);
+	}
+
+	/**
+	 * @param sizeHint
+	 *            the expected size of the uncompressed data or -1 if unknown
+	 */
+	public static byte[] gunzip(byte[] data, int sizeHint) throws IOException {
+		// only single member streams without optional header fields are
+		// handled here:
+		if (data.length < GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE
+				|| data[0] != GZIP_HEADER[0] || data[1] != GZIP_HEADER[1]
+				|| data[2] != Deflater.DEFLATED || data[3] != 0)
+			return readFully(new GZIPInputStream(new ByteArrayInputStream(
+					data)));
+
+		int size = readIntLE(data, data.length - 4);
+		if (sizeHint >= 0 && sizeHint != size)
+			size = sizeHint;
+		byte[] result = new byte[size];
+
+		Inflater inflater = inflaters.get();
+		int inflated = 0;
+		try {
+			inflater.setInput(data, GZIP_HEADER_SIZE, data.length
+					- GZIP_HEADER_SIZE);
+			while (!inflater.finished()) {
+				if (inflated == result.length)
+					result = Arrays.copyOf(result,
+							Math.max(16, result.length * 2));
+
+				int n = inflater.inflate(result, inflated, result.length
+						- inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new EOFException("Unexpected end of gzip stream.");
+				inflated += n;
+			}
+
+			if (inflater.getRemaining() != GZIP_TRAILER_SIZE)
+				// concatenated members or garbage, let the stream deal with it:
+				return readFully(new GZIPInputStream(new ByteArrayInputStream(
+						data)));
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.reset();
+		}
+
+		if (inflated != result.length)
+			result = Arrays.copyOf(result, inflated);
+
+		CRC32 crc = crcs.get();
+		crc.reset();
+		crc.update(result, 0, result.length);
+		if ((int) crc.getValue() != readIntLE(data, data.length - 8))
+			throw new IOException("Corrupt gzip stream: CRC mismatch.");
+
+		return result;
 	}
 
 	public static byte[] gzip(byte[] data) throws IOException {
+		return gzip(data, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param level
+	 *            deflate level from 1 (fastest) to 9 (best compression)
+	 */
+	public static byte[] gzip(byte[] data, int level) throws IOException {
+		// enough for incompressible data, grown if ever needed:
+		byte[] result = new byte[GZIP_HEADER_SIZE + data.length
+				+ (data.length >> 12) + (data.length >> 14) + 64
+				+ GZIP_TRAILER_SIZE];
+		System.arraycopy(GZIP_HEADER, 0, result, 0, GZIP_HEADER_SIZE);
+		int size = GZIP_HEADER_SIZE;
+
+		Deflater deflater = deflaters.get();
+		try {
+			deflater.setLevel(level);
+			deflater.setInput(data);
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (size == result.length - GZIP_TRAILER_SIZE)
+					result = Arrays.copyOf(result, result.length * 2);
+				size += deflater.deflate(result, size, result.length
+						- GZIP_TRAILER_SIZE - size);
+			}
+		} finally {
+			deflater.reset();
+		}
+
+		CRC32 crc = crcs.get();
+		crc.reset();
+		crc.update(data, 0, data.length);
+		writeIntLE((int) crc.getValue(), result, size);
+		writeIntLE(data.length, result, size + 4);
+		size += GZIP_TRAILER_SIZE;
+
+		return result.length == size ? result : Arrays.copyOf(result, size);
+	}
+
+	private static int readIntLE(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+				| (data[offset + 2] & 0xFF) << 16
+				| (data[offset + 3] & 0xFF) << 24;
+	}
+
+	private static void writeIntLE(int value, byte[] data, int offset) {
+		data[offset] = (byte) value;
+		data[offset + 1] = (byte) (value >>> 8);
+		data[offset + 2] = (byte) (value >>> 16);
+		data[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * The output includes the 'BZ' magic, so it is a regular bzip2 stream.
+	 */
+	public static byte[] bzip2(byte[] data) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		GZIPOutputStream gos = new GZIPOutputStream(baos);
-		long count = copyLarge(new ByteArrayInputStream(data), gos);
-		gos.close();
+		baos.write('B');
+		baos.write('Z');
+		CBZip2OutputStream bos = new CBZip2OutputStream(baos,
+				CBZip2OutputStream.chooseBlockSize(data.length));
+		bos.write(data, 0, data.length);
+		bos.close();
 
 		return baos.toByteArray();
 	}
 
+	public static byte[] bunzip2(byte[] data) throws IOException {
+		return bunzip2(data, -1);
+	}
+
+	/**
+	 * @param sizeHint
+	 *            the expected size of the uncompressed data or -1 if unknown
+	 */
+	public static byte[] bunzip2(byte[] data, int sizeHint) throws IOException {
+		if (data.length < 2 || data[0] != 'B' || data[1] != 'Z')
+			throw new IOException("Not a bzip2 stream.");
+
+		InputStream is = new CBZip2InputStream(new ByteArrayInputStream(data,
+				2, data.length - 2));
+		if (sizeHint < 0)
+			return readFully(is);
+
+		byte[] result = new byte[sizeHint];
+		readFully(result, is);
+		if (is.read() != -1)
+			throw new IOException("More data in bzip2 stream than expected.");
+		return result;
+	}
+
 }
@@ -32,8 +32,11 @@ public class DefaultBitInputStream extends DataInputStream implements BitInputSt
 	private int byteBuffer = 0;
 	private boolean endOfStream = false;
 	private boolean throwEOF = false;
-	private static final long[] masks = new long[] { 0, (1L << 1) - 1, (1L << 2) - 1, (1L << 3) - 1, (1L << 4) - 1,
-			(1L << 5) - 1, (1L << 6) - 1, (1L << 7) - 1, (1L << 8) - 1 };
+	private static final long[] masks = new long[33];
+	static {
+		for (int i = 0; i < masks.length; i++)
+			masks[i] = (1L << i) - 1;
+	}
 	private boolean byteAligned = false ;
 
 	public DefaultBitInputStream(InputStream in) {
@@ -79,6 +82,25 @@ public class DefaultBitInputStream extends DataInputStream implements BitInputSt
 		return x | rightBits(n, byteBuffer >>> nofBufferedBits);
 	}
 
+	/**
+	 * Peeked bytes are kept in the bit buffer, so the buffer may hold more
+	 * than 8 bits after this call.
+	 */
+	public final int peekBits(int n) throws IOException {
+		if (n > 24)
+			throw new RuntimeException("More then 24 bits are requested in one peek from bit stream.");
+
+		while (nofBufferedBits < n) {
+			int b = in.read();
+			if (b == -1)
+				return rightBits(nofBufferedBits, byteBuffer) << (n - nofBufferedBits);
+
+			byteBuffer = (rightBits(nofBufferedBits, byteBuffer) << 8) | b;
+			nofBufferedBits += 8;
+		}
+		return rightBits(n, byteBuffer >>> (nofBufferedBits - n));
+	}
+
 	private static final int rightBits(int n, int x) {
 		return x & ((1 << n) - 1);
 	}
@@ -164,14 +186,19 @@ public class DefaultBitInputStream extends DataInputStream implements BitInputSt
 
 	@Override
 	public void alignToByte() throws IOException {
-		nofBufferedBits = 0;
-		byteBuffer = 0;
+		// whole bytes may be buffered by peekBits, only drop the partial one:
+		nofBufferedBits -= nofBufferedBits % 8;
+		if (nofBufferedBits == 0)
+			byteBuffer = 0;
 		byteAligned = true ;
 	}
 
 	@Override
 	public int readAlignedBytes(byte[] array) throws IOException {
-		readFully(array);
+		int i = 0;
+		for (; i < array.length && nofBufferedBits >= 8; i++)
+			array[i] = (byte) readBits(8);
+		readFully(array, i, array.length - i);
 		return array.length * 8;
 	}
 
@@ -0,0 +1,199 @@
+package net.sf.cram.stats;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import net.sf.cram.CramRecord;
+import net.sf.cram.stats.CompressionHeaderFactory.HuffmanParamsCalculator;
+import net.sf.cram.stats.CompressionHeaderFactory.IntegerEncodingCalculator;
+import net.sf.cram.structure.CompressionHeader;
+import net.sf.cram.structure.SubstitutionMatrix;
+import net.sf.picard.util.Log;
+
+/**
+ * Shares one compression header between consecutive containers. The header
+ * is built from a model: the statistics of the first records of a run of
+ * containers. Every container is still counted, in one pass, and the header
+ * is reused as long as it can encode all values of the container and its
+ * codes do not drift too far from the data:
+ * <ul>
+ * <li>while the model has fewer records than the sample size, or if the
+ * container has values the header has no codes for, the container is added
+ * to the model and the header is rebuilt,</li>
+ * <li>if the bits the header would take relative to the entropy of the
+ * container grow past the same ratio of the model by more than the allowed
+ * drift, the model is started again from the container.</li>
+ * </ul>
+ * Containers may be built on several threads, the choice is made in their
+ * order so that the output does not depend on the threads.
+ */
+public class CompressionHeaderCache {
+	private static Log log = Log.getInstance(CompressionHeaderCache.class);
+
+	public static final int DEFAULT_SAMPLE_RECORDS = 100000;
+	public static final double DEFAULT_MAX_DRIFT = 0.05;
+
+	/**
+	 * The model is built from at least this many records.
+	 */
+	public int sampleRecords = DEFAULT_SAMPLE_RECORDS;
+	/**
+	 * Allowed growth of the ratio of header bits to entropy, 0.05 for 5%.
+	 */
+	public double maxDrift = DEFAULT_MAX_DRIFT;
+
+	public int headersBuilt = 0;
+	public int headersReused = 0;
+
+	private final CompressionHeaderFactory factory = new CompressionHeaderFactory();
+	private RecordStats model;
+	private CompressionHeader header;
+	private SubstitutionMatrix modelMatrix;
+	private HuffmanParamsCalculator substitutionCodes;
+	private double modelRatio;
+	private long nextSequence = 0;
+	private boolean failed = false;
+
+	/**
+	 * Counts the records and returns a header for them, the records are
+	 * linked to the tag id list dictionary of the header.
+	 *
+	 * @param sequence
+	 *            the number of the container, containers are given headers in
+	 *            this order starting with 0
+	 * @param substitutionMatrix
+	 *            the matrix for the header or null to derive it from the model
+	 */
+	public CompressionHeader get(List<CramRecord> records, long sequence,
+			SubstitutionMatrix substitutionMatrix, ExecutorService executor,
+			int parts) {
+		RecordStats stats = RecordStats.collect(records, executor, parts);
+
+		synchronized (this) {
+			if (sequence < nextSequence)
+				throw new IllegalArgumentException("Container " + sequence
+						+ " already has a header.");
+			try {
+				while (!failed && sequence != nextSequence)
+					wait();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			if (failed)
+				throw new RuntimeException("Container " + sequence
+						+ " abandoned, an earlier container failed.");
+
+			try {
+				return choose(stats, substitutionMatrix);
+			} finally {
+				nextSequence++;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Abandons the cache after a container failed before it got its header:
+	 * containers waiting for their turn, and any asking later, throw instead
+	 * of waiting for it forever.
+	 */
+	public synchronized void fail() {
+		failed = true;
+		notifyAll();
+	}
+
+	private CompressionHeader choose(RecordStats stats,
+			SubstitutionMatrix substitutionMatrix) {
+		if (header == null || substitutionMatrix != modelMatrix) {
+			model = new RecordStats();
+		} else if (model.records >= sampleRecords && covers(stats)) {
+			double ratio = ratio(stats,
+					stats.getSubstitutionCodes(header.substitutionMatrix));
+			if (ratio <= modelRatio * (1 + maxDrift)) {
+				link(stats);
+				headersReused++;
+				return header;
+			}
+
+			log.debug(String.format(
+					"Compression header drifted: %.3f, model %.3f.", ratio,
+					modelRatio));
+			model = new RecordStats();
+		}
+
+		model.mergeCounts(stats);
+		header = factory.build(model, substitutionMatrix);
+		modelMatrix = substitutionMatrix;
+		substitutionCodes = model.getSubstitutionCodes(header.substitutionMatrix);
+		substitutionCodes.calculate();
+		modelRatio = ratio(model, substitutionCodes);
+		link(stats);
+		headersBuilt++;
+		return header;
+	}
+
+	/**
+	 * Points the records to the tag id lists of the model.
+	 */
+	private void link(RecordStats stats) {
+		for (byte[] ids : stats.tagIdLists.keySet())
+			stats.setTagIdListIndex(ids, model.tagIdLists.get(ids).index.value);
+	}
+
+	private boolean covers(RecordStats stats) {
+		List<HuffmanParamsCalculator> modelSeries = model.getHuffmanSeries();
+		List<HuffmanParamsCalculator> series = stats.getHuffmanSeries();
+		for (int i = 0; i < series.size(); i++)
+			if (!modelSeries.get(i).covers(series.get(i)))
+				return false;
+
+		List<IntegerEncodingCalculator> modelIntegers = model
+				.getIntegerSeries();
+		List<IntegerEncodingCalculator> integers = stats.getIntegerSeries();
+		for (int i = 0; i < integers.size(); i++)
+			if (!modelIntegers.get(i).covers(integers.get(i)))
+				return false;
+
+		for (Integer key : stats.tagValueLengths.keySet()) {
+			HuffmanParamsCalculator c = model.tagValueLengths.get(key);
+			if (c == null || !c.covers(stats.tagValueLengths.get(key)))
+				return false;
+		}
+
+		for (byte[] ids : stats.tagIdLists.keySet()) {
+			if (stats.tagIdLists.get(ids).count == 0)
+				continue;
+			RecordStats.TagIdList list = model.tagIdLists.get(ids);
+			if (list == null || list.count == 0)
+				return false;
+		}
+
+		return substitutionCodes.covers(stats
+				.getSubstitutionCodes(header.substitutionMatrix));
+	}
+
+	/**
+	 * @return bits of the Huffman coded series with the codes of the header
+	 *         relative to their entropy, both with a bit per record added
+	 */
+	private double ratio(RecordStats stats,
+			HuffmanParamsCalculator statsSubstitutionCodes) {
+		double bits = substitutionCodes.bits(statsSubstitutionCodes);
+		double entropy = statsSubstitutionCodes.entropyBits();
+
+		List<HuffmanParamsCalculator> modelSeries = model.getHuffmanSeries();
+		List<HuffmanParamsCalculator> series = stats.getHuffmanSeries();
+		for (int i = 0; i < series.size(); i++) {
+			bits += modelSeries.get(i).bits(series.get(i));
+			entropy += series.get(i).entropyBits();
+		}
+
+		for (Integer key : stats.tagValueLengths.keySet()) {
+			HuffmanParamsCalculator c = stats.tagValueLengths.get(key);
+			bits += model.tagValueLengths.get(key).bits(c);
+			entropy += c.entropyBits();
+		}
+
+		return (bits + stats.records) / (entropy + stats.records);
+	}
+}
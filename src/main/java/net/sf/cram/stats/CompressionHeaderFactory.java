@@ -3,11 +3,10 @@ package net.sf.cram.stats;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 import net.sf.cram.CramRecord;
 import net.sf.cram.EncodingKey;
@@ -26,10 +25,9 @@ import net.sf.cram.encoding.GammaIntegerEncoding;
 import net.sf.cram.encoding.HuffmanByteEncoding;
 import net.sf.cram.encoding.HuffmanIntegerEncoding;
 import net.sf.cram.encoding.NullEncoding;
+import net.sf.cram.encoding.RangeByteEncoding;
 import net.sf.cram.encoding.SubexpIntegerEncoding;
-import net.sf.cram.encoding.read_features.Deletion;
-import net.sf.cram.encoding.read_features.ReadFeature;
-import net.sf.cram.encoding.read_features.Substitution;
+import net.sf.cram.encoding.TokenizedNameEncoding;
 import net.sf.cram.huffman.HuffmanCode;
 import net.sf.cram.huffman.HuffmanTree;
 import net.sf.cram.structure.CompressionHeader;
@@ -42,7 +40,42 @@ public class CompressionHeaderFactory {
 	private static final int oqz = ReadTag.nameType3BytesToInt("OQ", 'Z');
 	private static final int bqz = ReadTag.nameType3BytesToInt("OQ", 'Z');
 
+	/**
+	 * Context order of the range coder for quality scores, negative to write
+	 * them to a plain external block.
+	 */
+	public static int qualityScoreContextOrder = -1;
+	/**
+	 * Code read names by tokens against the previous name instead of writing
+	 * them to a plain external block.
+	 */
+	public static boolean tokenizeReadNames = false;
+
 	public CompressionHeader build(List<CramRecord> records, SubstitutionMatrix substitutionMatrix) {
+		return build(records, substitutionMatrix, null, 1);
+	}
+
+	/**
+	 * Builds the header from statistics collected in one pass over the
+	 * records.
+	 * 
+	 * @param executor
+	 *            if not null, large record lists are split into the given
+	 *            number of parts counted by the executor
+	 */
+	public CompressionHeader build(List<CramRecord> records,
+			SubstitutionMatrix substitutionMatrix, ExecutorService executor,
+			int parts) {
+		return build(RecordStats.collect(records, executor, parts),
+				substitutionMatrix);
+	}
+
+	/**
+	 * Builds the header from the statistics and links the counted records to
+	 * the tag id list dictionary of the header.
+	 */
+	CompressionHeader build(RecordStats stats,
+			SubstitutionMatrix substitutionMatrix) {
 		CompressionHeader h = new CompressionHeader();
 		h.externalIds = new ArrayList<Integer>();
 		int exCounter = 0;
@@ -75,36 +108,28 @@ public class CompressionHeaderFactory {
 		h.tMap = new TreeMap<Integer, EncodingParams>();
 
 		{ // bit flags encoding:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getFlags());
+			HuffmanParamsCalculator calculator = stats.bitFlags;
 			calculator.calculate();
 			h.eMap.put(EncodingKey.BF_BitFlags, HuffmanIntegerEncoding.toParam(
 					calculator.values(), calculator.bitLens()));
 		}
 
 		{ // compression bit flags encoding:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getCompressionFlags());
+			HuffmanParamsCalculator calculator = stats.compressionFlags;
 			calculator.calculate();
 			h.eMap.put(EncodingKey.CF_CompressionBitFlags, HuffmanByteEncoding
 					.toParam(calculator.valuesAsBytes(), calculator.bitLens()));
 		}
 
 		{ // ref id:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.sequenceId);
+			HuffmanParamsCalculator calculator = stats.refIds;
 			calculator.calculate();
 			h.eMap.put(EncodingKey.RI_RefId, HuffmanIntegerEncoding.toParam(
 					calculator.values(), calculator.bitLens()));
 		}
 
 		{ // read length encoding:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getReadLength());
+			HuffmanParamsCalculator calculator = stats.readLengths;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.RL_ReadLength, HuffmanIntegerEncoding
@@ -112,13 +137,8 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // alignment offset:
-			IntegerEncodingCalculator calc = new IntegerEncodingCalculator(
-					"alignment offset");
-			for (CramRecord r : records) {
-				calc.addValue(r.alignmentStartOffsetFromPreviousRecord);
-			}
-
-			Encoding<Integer> bestEncoding = calc.getBestEncoding();
+			Encoding<Integer> bestEncoding = stats.alignmentOffsets
+					.getBestEncoding();
 			h.eMap.put(
 					EncodingKey.AP_AlignmentPositionOffset,
 					new EncodingParams(bestEncoding.id(), bestEncoding
@@ -126,9 +146,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // read group
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getReadGroupID());
+			HuffmanParamsCalculator calculator = stats.readGroups;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.RG_ReadGroup, HuffmanIntegerEncoding
@@ -136,26 +154,24 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // read name encoding:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getReadName().length());
+			HuffmanParamsCalculator calculator = stats.readNameLengths;
 			calculator.calculate();
 
-			h.eMap.put(EncodingKey.RN_ReadName, ByteArrayLenEncoding.toParam(
-					HuffmanIntegerEncoding.toParam(calculator.values(),
-							calculator.bitLens()), ExternalByteArrayEncoding
-							.toParam(readNameID)));
+			if (tokenizeReadNames)
+				h.eMap.put(EncodingKey.RN_ReadName,
+						TokenizedNameEncoding.toParam(readNameID));
+			else
+				h.eMap.put(EncodingKey.RN_ReadName, ByteArrayLenEncoding
+						.toParam(HuffmanIntegerEncoding.toParam(
+								calculator.values(), calculator.bitLens()),
+								ExternalByteArrayEncoding.toParam(readNameID)));
 			// h.eMap.put(EncodingKey.RN_ReadName,
 			// ByteArrayStopEncoding.toParam((byte) 0, readNameID));
 		}
 
 		{ // records to next fragment
-			IntegerEncodingCalculator calc = new IntegerEncodingCalculator(
-					"records to next fragment");
-			for (CramRecord r : records)
-				calc.addValue(r.getRecordsToNextFragment());
-
-			Encoding<Integer> bestEncoding = calc.getBestEncoding();
+			Encoding<Integer> bestEncoding = stats.recordsToNextFragment
+					.getBestEncoding();
 			h.eMap.put(
 					EncodingKey.NF_RecordsToNextFragment,
 					new EncodingParams(bestEncoding.id(), bestEncoding
@@ -163,9 +179,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // tag count
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.tags == null ? 0 : r.tags.length);
+			HuffmanParamsCalculator calculator = stats.tagCounts;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.TC_TagCount, HuffmanIntegerEncoding.toParam(
@@ -173,78 +187,15 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // tag name and type
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records) {
-				if (r.tags == null)
-					continue;
-				for (ReadTag tag : r.tags)
-					calculator.add(tag.keyType3BytesAsInt);
-			}
+			HuffmanParamsCalculator calculator = stats.tagNamesAndTypes;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.TN_TagNameAndType, HuffmanIntegerEncoding
 					.toParam(calculator.values(), calculator.bitLens()));
 		}
 
-		{
-
-			Comparator<ReadTag> comparator = new Comparator<ReadTag>() {
-
-				@Override
-				public int compare(ReadTag o1, ReadTag o2) {
-					return o1.keyType3BytesAsInt - o2.keyType3BytesAsInt;
-				}
-			};
-
-			Comparator<byte[]> baComparator = new Comparator<byte[]>() {
-
-				@Override
-				public int compare(byte[] o1, byte[] o2) {
-					if (o1.length - o2.length != 0)
-						return o1.length - o2.length;
-
-					for (int i = 0; i < o1.length; i++)
-						if (o1[i] != o2[i])
-							return o1[i] - o2[i];
-
-					return 0;
-				}
-			};
-
-			Map<byte[], MutableInt> map = new TreeMap<byte[], MutableInt>(
-					baComparator);
-			MutableInt noTagCounter = new MutableInt();
-			map.put(new byte[0], noTagCounter);
-			for (CramRecord r : records) {
-				if (r.tags == null) {
-					noTagCounter.value++;
-					r.tagIdsIndex = noTagCounter;
-					continue;
-				}
-
-				Arrays.sort(r.tags, comparator);
-				r.tagIds = new byte[r.tags.length * 3];
-
-				int tagIndex = 0;
-				for (int i = 0; i < r.tags.length; i++) {
-					r.tagIds[i * 3] = (byte) r.tags[tagIndex].keyType3Bytes
-							.charAt(0);
-					r.tagIds[i * 3 + 1] = (byte) r.tags[tagIndex].keyType3Bytes
-							.charAt(1);
-					r.tagIds[i * 3 + 2] = (byte) r.tags[tagIndex].keyType3Bytes
-							.charAt(2);
-					tagIndex++;
-				}
-
-				MutableInt count = map.get(r.tagIds);
-				if (count == null) {
-					count = new MutableInt();
-					map.put(r.tagIds, count);
-				}
-				count.value++;
-				r.tagIdsIndex = count;
-			}
-
+		{ // tag id lists
+			Map<byte[], RecordStats.TagIdList> map = stats.tagIdLists;
 			byte[][][] dic = new byte[map.size()][][];
 			int i = 0;
 			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
@@ -258,8 +209,8 @@ public class CompressionHeaderFactory {
 					dic[i][idIndex][1] = idsAsBytes[j++];
 					dic[i][idIndex][2] = idsAsBytes[j++];
 				}
-				calculator.add(i, map.get(idsAsBytes).value);
-				map.get(idsAsBytes).value = i++;
+				calculator.add(i, map.get(idsAsBytes).count);
+				stats.setTagIdListIndex(idsAsBytes, i++);
 			}
 
 			calculator.calculate();
@@ -269,37 +220,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // tag values
-			Map<Integer, HuffmanParamsCalculator> cc = new TreeMap<Integer, HuffmanParamsCalculator>();
-
-			for (CramRecord r : records) {
-				if (r.tags == null)
-					continue;
-
-				for (ReadTag tag : r.tags) {
-					switch (tag.keyType3BytesAsInt) {
-					// case ReadTag.OQZ:
-					// case ReadTag.BQZ:
-					// EncodingParams params = h.tMap
-					// .get(tag.keyType3BytesAsInt);
-					// if (params == null) {
-					// h.tMap.put(tag.keyType3BytesAsInt,
-					// ByteArrayStopEncoding.toParam((byte) 1,
-					// tagValueExtID));
-					// }
-					// break;
-
-					default:
-						HuffmanParamsCalculator c = cc
-								.get(tag.keyType3BytesAsInt);
-						if (c == null) {
-							c = new HuffmanParamsCalculator();
-							cc.put(tag.keyType3BytesAsInt, c);
-						}
-						c.add(tag.getValueAsByteArray().length);
-						break;
-					}
-				}
-			}
+			Map<Integer, HuffmanParamsCalculator> cc = stats.tagValueLengths;
 
 			if (!cc.isEmpty())
 				for (Integer key : cc.keySet()) {
@@ -316,26 +237,10 @@ public class CompressionHeaderFactory {
 				log.debug(String.format("TAG ENCODING: %d, %s", key,
 						h.tMap.get(key)));
 			}
-
-			// for (CramRecord r : records) {
-			// if (r.tags == null || r.tags.isEmpty())
-			// continue;
-			// for (ReadTag tag : r.tags) {
-			// EncodingParams params = h.tMap.get(tag.keyType3BytesAsInt);
-			// if (params == null) {
-			// h.tMap.put(tag.keyType3BytesAsInt,
-			// ByteArrayStopEncoding.toParam((byte) 0,
-			// tagValueExtID));
-			// }
-			// }
-			// }
 		}
 
 		{ // number of read features
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getReadFeatures() == null ? 0 : r
-						.getReadFeatures().size());
+			HuffmanParamsCalculator calculator = stats.featureCounts;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.FN_NumberOfReadFeatures,
@@ -344,31 +249,14 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // feature position
-			IntegerEncodingCalculator calc = new IntegerEncodingCalculator(
-					"read feature position");
-			for (CramRecord r : records) {
-				int prevPos = 0;
-				if (r.getReadFeatures() == null)
-					continue;
-				for (ReadFeature rf : r.getReadFeatures()) {
-					calc.addValue(rf.getPosition() - prevPos);
-					prevPos = rf.getPosition();
-				}
-			}
-
-			Encoding<Integer> bestEncoding = calc.getBestEncoding();
+			Encoding<Integer> bestEncoding = stats.featurePositions
+					.getBestEncoding();
 			h.eMap.put(EncodingKey.FP_FeaturePosition, new EncodingParams(
 					bestEncoding.id(), bestEncoding.toByteArray()));
 		}
 
 		{ // feature code
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				if (r.getReadFeatures() == null)
-					continue;
-				else
-					for (ReadFeature rf : r.getReadFeatures())
-						calculator.add(rf.getOperator());
+			HuffmanParamsCalculator calculator = stats.featureCodes;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.FC_FeatureCode, HuffmanByteEncoding.toParam(
@@ -381,71 +269,25 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // quality scores:
-			// HuffmanParamsCalculator calculator = new
-			// HuffmanParamsCalculator();
-			// for (CramRecord r : records) {
-			// if (r.getQualityScores() == null) {
-			// if (r.getReadFeatures() != null) {
-			// for (ReadFeature f:r.getReadFeatures()) {
-			// switch (f.getOperator()) {
-			// case BaseQualityScore.operator:
-			// calculator.add(((BaseQualityScore)f).getQualityScore()) ;
-			// break;
-			// default:
-			// break;
-			// }
-			// }
-			// }
-			// } else {
-			// for (byte s:r.getQualityScores()) calculator.add(s) ;
-			// }
-			// }
-			// calculator.calculate();
-			//
-			// h.eMap.put(EncodingKey.QS_QualityScore,
-			// HuffmanByteEncoding.toParam(
-			// calculator.valuesAsBytes(), calculator.bitLens));
-
-			h.eMap.put(EncodingKey.QS_QualityScore,
-					ExternalByteEncoding.toParam(qualityScoreID));
+			if (qualityScoreContextOrder < 0)
+				h.eMap.put(EncodingKey.QS_QualityScore,
+						ExternalByteEncoding.toParam(qualityScoreID));
+			else
+				h.eMap.put(EncodingKey.QS_QualityScore, RangeByteEncoding
+						.toParam(qualityScoreID, qualityScoreContextOrder));
 		}
 
 		{ // base substitution code
-			if (substitutionMatrix == null) {
-				long[][] freqs = new long[200][200];
-				for (CramRecord r : records) {
-					if (r.getReadFeatures() == null)
-						continue;
-					else
-						for (ReadFeature rf : r.getReadFeatures())
-							if (rf.getOperator() == Substitution.operator) {
-								Substitution s = ((Substitution) rf);
-								byte refBase = s.getRefernceBase();
-								byte base = s.getBase();
-								freqs[refBase][base]++;
-							}
-				}
-
-				h.substitutionMatrix = new SubstitutionMatrix(freqs);
-			} else h.substitutionMatrix = substitutionMatrix ;
-
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				if (r.getReadFeatures() == null)
-					continue;
-				else
-					for (ReadFeature rf : r.getReadFeatures()) {
-						if (rf.getOperator() == Substitution.operator) {
-							Substitution s = ((Substitution) rf);
-							if (s.getCode() == -1) {
-								byte refBase = s.getRefernceBase();
-								byte base = s.getBase();
-								s.setCode(h.substitutionMatrix.code(refBase,
-										base));
-							}
-							calculator.add(s.getCode());
-						}
-					}
+			if (substitutionMatrix == null)
+				h.substitutionMatrix = new SubstitutionMatrix(
+						stats.getSubstitutionFrequencies());
+			else
+				h.substitutionMatrix = substitutionMatrix;
+
+			// substitutions without a code are coded by the writer from the
+			// matrix, count them by the code they will get:
+			HuffmanParamsCalculator calculator = stats
+					.getSubstitutionCodes(h.substitutionMatrix);
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.BS_BaseSubstitutionCode,
@@ -464,14 +306,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // deletion length
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				if (r.getReadFeatures() == null)
-					continue;
-				else
-					for (ReadFeature rf : r.getReadFeatures())
-						if (rf.getOperator() == Deletion.operator)
-							calculator.add(((Deletion) rf).getLength());
+			HuffmanParamsCalculator calculator = stats.deletionLengths;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.DL_DeletionLength, HuffmanIntegerEncoding
@@ -479,10 +314,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // mapping quality score
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				if (!r.segmentUnmapped)
-					calculator.add(r.getMappingQuality());
+			HuffmanParamsCalculator calculator = stats.mappingQualities;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.MQ_MappingQualityScore,
@@ -491,9 +323,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // mate bit flags
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				calculator.add(r.getMateFlags());
+			HuffmanParamsCalculator calculator = stats.mateFlags;
 			calculator.calculate();
 
 			h.eMap.put(EncodingKey.MF_MateBitFlags, HuffmanIntegerEncoding
@@ -501,10 +331,7 @@ public class CompressionHeaderFactory {
 		}
 
 		{ // next fragment ref id:
-			HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
-			for (CramRecord r : records)
-				if (r.detached)
-					calculator.add(r.mateSequnceID);
+			HuffmanParamsCalculator calculator = stats.mateRefIds;
 			calculator.calculate();
 
 			if (calculator.values.length == 0)
@@ -555,26 +382,54 @@ public class CompressionHeaderFactory {
 	}
 
 	public static class HuffmanParamsCalculator {
-		private HashMap<Integer, MutableInt> countMap = new HashMap<Integer, MutableInt>();
+		private IntHistogram histogram = new IntHistogram();
 		private int[] values = new int[] {};
 		private int[] bitLens = new int[] {};
 
 		public void add(int value) {
-			MutableInt counter = countMap.get(value);
-			if (counter == null) {
-				counter = new MutableInt();
-				countMap.put(value, counter);
-			}
-			counter.value++;
+			histogram.add(value);
 		}
 
-		public void add(Integer value, int inc) {
-			MutableInt counter = countMap.get(value);
-			if (counter == null) {
-				counter = new MutableInt();
-				countMap.put(value, counter);
+		public void add(int value, int inc) {
+			histogram.add(value, inc);
+		}
+
+		/**
+		 * Adds the counts of another calculator.
+		 */
+		public void merge(HuffmanParamsCalculator other) {
+			histogram.merge(other.histogram);
+		}
+
+		/**
+		 * @return true if the codes calculated here have a code for every
+		 *         value counted by the other calculator
+		 */
+		boolean covers(HuffmanParamsCalculator other) {
+			for (int value : other.histogram.values())
+				if (other.histogram.count(value) > 0
+						&& Arrays.binarySearch(values, value) < 0)
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return number of bits the values of the other calculator take
+		 *         with the codes calculated here, the codes must cover them
+		 */
+		long bits(HuffmanParamsCalculator other) {
+			long bits = 0;
+			for (int value : other.histogram.values()) {
+				int count = other.histogram.count(value);
+				if (count > 0)
+					bits += (long) count
+							* bitLens[Arrays.binarySearch(values, value)];
 			}
-			counter.value += inc;
+			return bits;
+		}
+
+		double entropyBits() {
+			return histogram.entropyBits();
 		}
 
 		public int[] bitLens() {
@@ -612,16 +467,10 @@ public class CompressionHeaderFactory {
 		public void calculate() {
 			HuffmanTree<Integer> tree = null;
 			{
-				int size = countMap.size();
-				int[] freqs = new int[size];
-				int[] values = new int[size];
-
-				int i = 0;
-				for (Integer v : countMap.keySet()) {
-					values[i] = v;
-					freqs[i] = countMap.get(v).value;
-					i++;
-				}
+				int[] values = histogram.values();
+				int[] freqs = new int[values.length];
+				for (int i = 0; i < values.length; i++)
+					freqs[i] = histogram.count(values[i]);
 				tree = HuffmanCode.buildTree(freqs, Utils.autobox(values));
 			}
 
@@ -665,45 +514,40 @@ public class CompressionHeaderFactory {
 			len += inc * codec.numberOfBits(value);
 		}
 
+		/**
+		 * Adds the length of every value of the histogram, the codec is asked
+		 * once per distinct value.
+		 */
+		public void add(IntHistogram histogram) {
+			for (int value : histogram.values())
+				add(value, histogram.count(value));
+		}
+
 		public long len() {
 			return len;
 		}
 	}
 
-	private static class IntegerEncodingCalculator {
-		private List<EncodingLengthCalculator> calcs = new ArrayList<EncodingLengthCalculator>();
+	static class IntegerEncodingCalculator {
+		private List<Encoding<Integer>> encodings = new ArrayList<Encoding<Integer>>();
+		private IntHistogram histogram = new IntHistogram();
 		private int max = 0;
-		private int count = 0;
 		private String name;
-		private HashMap<Integer, MutableInt> dictionary = new HashMap<Integer, MutableInt>();
 		private int dictionaryThreshold = 100;
 
 		public IntegerEncodingCalculator(String name, int dictionaryThreshold) {
 			this.name = name;
+			this.dictionaryThreshold = dictionaryThreshold;
 			// for (int i = 2; i < 10; i++)
-			// calcs.add(new EncodingLengthCalculator(
-			// new GolombIntegerEncoding(i)));
+			// encodings.add(new GolombIntegerEncoding(i));
 			//
 			// for (int i = 2; i < 20; i++)
-			// calcs.add(new EncodingLengthCalculator(
-			// new GolombRiceIntegerEncoding(i)));
+			// encodings.add(new GolombRiceIntegerEncoding(i));
 
-			calcs.add(new EncodingLengthCalculator(new GammaIntegerEncoding(1)));
+			encodings.add(new GammaIntegerEncoding(1));
 
 			for (int i = 2; i < 5; i++)
-				calcs.add(new EncodingLengthCalculator(
-						new SubexpIntegerEncoding(i)));
-
-			if (dictionaryThreshold < 1)
-				dictionary = null;
-			else {
-				dictionary = new HashMap<Integer, MutableInt>();
-				// int pow = (int) Math.ceil(Math.log(dictionaryThreshold)
-				// / Math.log(2f));
-				// dictionaryThreshold = 1 << pow ;
-				// dictionary = new HashMap<Integer,
-				// MutableInt>(dictionaryThreshold, 1);
-			}
+				encodings.add(new SubexpIntegerEncoding(i));
 		}
 
 		public IntegerEncodingCalculator(String name) {
@@ -711,34 +555,53 @@ public class CompressionHeaderFactory {
 		}
 
 		public void addValue(int value) {
-			count++;
 			if (value > max)
 				max = value;
-
-			for (EncodingLengthCalculator c : calcs)
-				c.add(value);
-
-			if (dictionary != null) {
-				if (dictionary.size() >= dictionaryThreshold - 1)
-					dictionary = null;
-				else {
-					MutableInt m = dictionary.get(value);
-					if (m == null) {
-						m = new MutableInt();
-						dictionary.put(value, m);
-					}
-					m.value++;
-				}
-
+			histogram.add(value);
+		}
+
+		/**
+		 * Adds the values of another calculator.
+		 */
+		public void merge(IntegerEncodingCalculator other) {
+			if (other.max > max)
+				max = other.max;
+			histogram.merge(other.histogram);
+		}
+
+		/**
+		 * @return true if the encoding chosen here can write every value of
+		 *         the other calculator: the values must be in the range
+		 *         counted here, or counted here at all if a Huffman code may
+		 *         have been chosen
+		 */
+		boolean covers(IntegerEncodingCalculator other) {
+			if (other.histogram.size() == 0)
+				return true;
+			if (histogram.size() == 0)
+				return false;
+
+			int[] otherValues = other.histogram.values();
+			if (histogram.size() < dictionaryThreshold - 1) {
+				for (int value : otherValues)
+					if (histogram.count(value) == 0)
+						return false;
+				return true;
 			}
 
+			int[] values = histogram.values();
+			return otherValues[0] >= values[0]
+					&& otherValues[otherValues.length - 1] <= values[values.length - 1];
 		}
 
 		public Encoding<Integer> getBestEncoding() {
-			EncodingLengthCalculator bestC = calcs.get(0);
-
-			for (EncodingLengthCalculator c : calcs) {
-				if (c.len() < bestC.len())
+			long count = histogram.total();
+			EncodingLengthCalculator bestC = null;
+			for (Encoding<Integer> encoding : encodings) {
+				EncodingLengthCalculator c = new EncodingLengthCalculator(
+						encoding);
+				c.add(histogram);
+				if (bestC == null || c.len() < bestC.len())
 					bestC = c;
 			}
 
@@ -756,11 +619,9 @@ public class CompressionHeaderFactory {
 			}
 
 			{ // try huffman:
-				if (dictionary != null) {
+				if (histogram.size() < dictionaryThreshold - 1) {
 					HuffmanParamsCalculator c = new HuffmanParamsCalculator();
-					for (Integer value : dictionary.keySet())
-						c.add(value, dictionary.get(value).value);
-
+					c.histogram = histogram;
 					c.calculate();
 
 					EncodingParams param = HuffmanIntegerEncoding.toParam(
@@ -769,8 +630,7 @@ public class CompressionHeaderFactory {
 					he.fromByteArray(param.params);
 					EncodingLengthCalculator lc = new EncodingLengthCalculator(
 							he);
-					for (Integer value : dictionary.keySet())
-						lc.add(value, dictionary.get(value).value);
+					lc.add(histogram);
 
 					if (lc.len() < bits) {
 						bestEncoding = he;
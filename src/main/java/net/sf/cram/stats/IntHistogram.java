@@ -0,0 +1,125 @@
+package net.sf.cram.stats;
+
+import java.util.Arrays;
+
+/**
+ * Counts of int values in an open addressing hash table of primitive arrays,
+ * values are counted without boxing or allocating a counter per value.
+ * Values are listed in ascending order, so anything built from a histogram
+ * does not depend on the order the values were counted in.
+ */
+class IntHistogram {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] keys;
+	private int[] counts;
+	private boolean[] used;
+	private int mask;
+	private int size = 0;
+	private long total = 0;
+
+	IntHistogram() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		counts = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	private int slot(int value) {
+		int h = value * 0x9E3779B9;
+		int i = (h ^ (h >>> 16)) & mask;
+		while (used[i] && keys[i] != value)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	void add(int value) {
+		add(value, 1);
+	}
+
+	/**
+	 * Adds the value even if the increment is zero.
+	 */
+	void add(int value, int inc) {
+		int i = slot(value);
+		if (!used[i]) {
+			used[i] = true;
+			keys[i] = value;
+			if (++size * 2 > keys.length)
+				grow();
+			i = slot(value);
+		}
+		counts[i] += inc;
+		total += inc;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length * 2);
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (!oldUsed[j])
+				continue;
+			int i = slot(oldKeys[j]);
+			used[i] = true;
+			keys[i] = oldKeys[j];
+			counts[i] = oldCounts[j];
+		}
+	}
+
+	void merge(IntHistogram other) {
+		for (int j = 0; j < other.keys.length; j++)
+			if (other.used[j])
+				add(other.keys[j], other.counts[j]);
+	}
+
+	int count(int value) {
+		int i = slot(value);
+		return used[i] ? counts[i] : 0;
+	}
+
+	/**
+	 * @return number of distinct values
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return sum of all counts
+	 */
+	long total() {
+		return total;
+	}
+
+	/**
+	 * @return the number of bits an ideal entropy coder would take for the
+	 *         counted values
+	 */
+	double entropyBits() {
+		double bits = 0;
+		for (int j = 0; j < keys.length; j++)
+			if (used[j] && counts[j] > 0)
+				bits += counts[j] * Math.log((double) total / counts[j])
+						/ Math.log(2);
+		return bits;
+	}
+
+	/**
+	 * @return the distinct values in ascending order
+	 */
+	int[] values() {
+		int[] values = new int[size];
+		int v = 0;
+		for (int j = 0; j < keys.length; j++)
+			if (used[j])
+				values[v++] = keys[j];
+		Arrays.sort(values);
+		return values;
+	}
+}
@@ -0,0 +1,391 @@
+package net.sf.cram.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.sf.cram.CramRecord;
+import net.sf.cram.ReadTag;
+import net.sf.cram.encoding.read_features.Deletion;
+import net.sf.cram.encoding.read_features.ReadFeature;
+import net.sf.cram.encoding.read_features.Substitution;
+import net.sf.cram.stats.CompressionHeaderFactory.HuffmanParamsCalculator;
+import net.sf.cram.stats.CompressionHeaderFactory.IntegerEncodingCalculator;
+import net.sf.cram.structure.SubstitutionMatrix;
+
+/**
+ * Statistics of all data series of a list of records, collected in a single
+ * pass over the records and their read features. Parts of the list can be
+ * counted separately, on different threads, and the statistics merged.
+ * <p>
+ * Counting also prepares the records for writing: tags are sorted and each
+ * record is linked to its entry in the tag id list dictionary.
+ */
+class RecordStats {
+	/**
+	 * Smaller lists are not split, counting them costs less than handing
+	 * them to another thread.
+	 */
+	static final int MIN_RECORDS_PER_PART = 10000;
+
+	private static final int MAX_BASE = 200;
+
+	private static final Comparator<ReadTag> tagComparator = new Comparator<ReadTag>() {
+
+		@Override
+		public int compare(ReadTag o1, ReadTag o2) {
+			return o1.keyType3BytesAsInt - o2.keyType3BytesAsInt;
+		}
+	};
+
+	private static final Comparator<byte[]> tagIdsComparator = new Comparator<byte[]>() {
+
+		@Override
+		public int compare(byte[] o1, byte[] o2) {
+			if (o1.length - o2.length != 0)
+				return o1.length - o2.length;
+
+			for (int i = 0; i < o1.length; i++)
+				if (o1[i] != o2[i])
+					return o1[i] - o2[i];
+
+			return 0;
+		}
+	};
+
+	final HuffmanParamsCalculator bitFlags = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator compressionFlags = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator refIds = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator readLengths = new HuffmanParamsCalculator();
+	final IntegerEncodingCalculator alignmentOffsets = new IntegerEncodingCalculator(
+			"alignment offset");
+	final HuffmanParamsCalculator readGroups = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator readNameLengths = new HuffmanParamsCalculator();
+	final IntegerEncodingCalculator recordsToNextFragment = new IntegerEncodingCalculator(
+			"records to next fragment");
+	final HuffmanParamsCalculator tagCounts = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator tagNamesAndTypes = new HuffmanParamsCalculator();
+	final Map<Integer, HuffmanParamsCalculator> tagValueLengths = new TreeMap<Integer, HuffmanParamsCalculator>();
+
+	/**
+	 * A tag id list and the records having it. The records point to the
+	 * index, it is set once the dictionary is built.
+	 */
+	static class TagIdList {
+		final MutableInt index = new MutableInt();
+		int count = 0;
+	}
+
+	final TreeMap<byte[], TagIdList> tagIdLists = new TreeMap<byte[], TagIdList>(
+			tagIdsComparator);
+	private final List<RecordStats> mergedParts = new ArrayList<RecordStats>();
+	int records = 0;
+
+	final HuffmanParamsCalculator featureCounts = new HuffmanParamsCalculator();
+	final IntegerEncodingCalculator featurePositions = new IntegerEncodingCalculator(
+			"read feature position");
+	final HuffmanParamsCalculator featureCodes = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator deletionLengths = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator mappingQualities = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator mateFlags = new HuffmanParamsCalculator();
+	final HuffmanParamsCalculator mateRefIds = new HuffmanParamsCalculator();
+
+	/**
+	 * Substitutions by reference base and read base, all of them and those
+	 * without a code yet. Rows are allocated as they are needed.
+	 */
+	final long[][] substitutions = new long[MAX_BASE][];
+	final long[][] uncodedSubstitutions = new long[MAX_BASE][];
+	final HuffmanParamsCalculator substitutionCodes = new HuffmanParamsCalculator();
+
+	RecordStats() {
+		tagIdLists.put(new byte[0], new TagIdList());
+	}
+
+	/**
+	 * Counts the records, splitting the list into parts counted by the
+	 * executor if it is large enough.
+	 *
+	 * @param executor
+	 *            the executor to count the parts or null to count the records
+	 *            on the calling thread
+	 */
+	static RecordStats collect(List<CramRecord> records,
+			ExecutorService executor, int parts) {
+		parts = Math.min(parts, records.size() / MIN_RECORDS_PER_PART);
+		if (executor == null || parts < 2) {
+			RecordStats stats = new RecordStats();
+			for (CramRecord r : records)
+				stats.add(r);
+			return stats;
+		}
+
+		int partSize = (records.size() + parts - 1) / parts;
+		List<Future<RecordStats>> futures = new ArrayList<Future<RecordStats>>(
+				parts);
+		for (int i = 0; i < records.size(); i += partSize) {
+			final List<CramRecord> part = records.subList(i,
+					Math.min(records.size(), i + partSize));
+			futures.add(executor.submit(new Callable<RecordStats>() {
+
+				@Override
+				public RecordStats call() throws Exception {
+					RecordStats stats = new RecordStats();
+					for (CramRecord r : part)
+						stats.add(r);
+					return stats;
+				}
+			}));
+		}
+
+		RecordStats stats = null;
+		try {
+			for (Future<RecordStats> future : futures) {
+				if (stats == null)
+					stats = future.get();
+				else
+					stats.merge(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		return stats;
+	}
+
+	void add(CramRecord r) {
+		records++;
+		bitFlags.add(r.getFlags());
+		compressionFlags.add(r.getCompressionFlags());
+		refIds.add(r.sequenceId);
+		readLengths.add(r.getReadLength());
+		alignmentOffsets.addValue(r.alignmentStartOffsetFromPreviousRecord);
+		readGroups.add(r.getReadGroupID());
+		readNameLengths.add(r.getReadName().length());
+		recordsToNextFragment.addValue(r.getRecordsToNextFragment());
+		tagCounts.add(r.tags == null ? 0 : r.tags.length);
+		addTags(r);
+
+		List<ReadFeature> features = r.getReadFeatures();
+		featureCounts.add(features == null ? 0 : features.size());
+		if (features != null) {
+			int prevPos = 0;
+			for (ReadFeature rf : features) {
+				featurePositions.addValue(rf.getPosition() - prevPos);
+				prevPos = rf.getPosition();
+				featureCodes.add(rf.getOperator());
+
+				switch (rf.getOperator()) {
+				case Substitution.operator:
+					Substitution s = (Substitution) rf;
+					if (s.getCode() == -1) {
+						count(substitutions, s.getRefernceBase(), s.getBase());
+						count(uncodedSubstitutions, s.getRefernceBase(),
+								s.getBase());
+					} else {
+						// decoded records may have the code only:
+						if (s.getRefernceBase() >= 0 && s.getBase() >= 0)
+							count(substitutions, s.getRefernceBase(),
+									s.getBase());
+						substitutionCodes.add(s.getCode());
+					}
+					break;
+				case Deletion.operator:
+					deletionLengths.add(((Deletion) rf).getLength());
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		if (!r.segmentUnmapped)
+			mappingQualities.add(r.getMappingQuality());
+		mateFlags.add(r.getMateFlags());
+		if (r.detached)
+			mateRefIds.add(r.mateSequnceID);
+	}
+
+	private void addTags(CramRecord r) {
+		if (r.tags == null) {
+			TagIdList list = tagIdLists.get(new byte[0]);
+			list.count++;
+			r.tagIdsIndex = list.index;
+			return;
+		}
+
+		Arrays.sort(r.tags, tagComparator);
+		r.tagIds = new byte[r.tags.length * 3];
+		for (int i = 0; i < r.tags.length; i++) {
+			ReadTag tag = r.tags[i];
+			tagNamesAndTypes.add(tag.keyType3BytesAsInt);
+
+			r.tagIds[i * 3] = (byte) tag.keyType3Bytes.charAt(0);
+			r.tagIds[i * 3 + 1] = (byte) tag.keyType3Bytes.charAt(1);
+			r.tagIds[i * 3 + 2] = (byte) tag.keyType3Bytes.charAt(2);
+
+			HuffmanParamsCalculator c = tagValueLengths
+					.get(tag.keyType3BytesAsInt);
+			if (c == null) {
+				c = new HuffmanParamsCalculator();
+				tagValueLengths.put(tag.keyType3BytesAsInt, c);
+			}
+			c.add(tag.getValueAsByteArray().length);
+		}
+
+		TagIdList list = tagIdLists.get(r.tagIds);
+		if (list == null) {
+			list = new TagIdList();
+			tagIdLists.put(r.tagIds, list);
+		}
+		list.count++;
+		r.tagIdsIndex = list.index;
+	}
+
+	private static void count(long[][] freqs, byte refBase, byte base) {
+		if (freqs[refBase] == null)
+			freqs[refBase] = new long[MAX_BASE];
+		freqs[refBase][base]++;
+	}
+
+	/**
+	 * Adds the counts of another part. The records of the part keep pointing
+	 * to its tag id list indexes, see {@link #setTagIdListIndex}.
+	 */
+	void merge(RecordStats o) {
+		mergeCounts(o);
+		mergedParts.add(o);
+		mergedParts.addAll(o.mergedParts);
+	}
+
+	/**
+	 * Adds the counts of other records without linking the records to the
+	 * tag id lists of this.
+	 */
+	void mergeCounts(RecordStats o) {
+		records += o.records;
+		bitFlags.merge(o.bitFlags);
+		compressionFlags.merge(o.compressionFlags);
+		refIds.merge(o.refIds);
+		readLengths.merge(o.readLengths);
+		alignmentOffsets.merge(o.alignmentOffsets);
+		readGroups.merge(o.readGroups);
+		readNameLengths.merge(o.readNameLengths);
+		recordsToNextFragment.merge(o.recordsToNextFragment);
+		tagCounts.merge(o.tagCounts);
+		tagNamesAndTypes.merge(o.tagNamesAndTypes);
+		for (Integer key : o.tagValueLengths.keySet()) {
+			HuffmanParamsCalculator c = tagValueLengths.get(key);
+			if (c == null) {
+				c = new HuffmanParamsCalculator();
+				tagValueLengths.put(key, c);
+			}
+			c.merge(o.tagValueLengths.get(key));
+		}
+
+		for (byte[] ids : o.tagIdLists.keySet()) {
+			TagIdList list = tagIdLists.get(ids);
+			if (list == null) {
+				list = new TagIdList();
+				tagIdLists.put(ids, list);
+			}
+			list.count += o.tagIdLists.get(ids).count;
+		}
+
+		featureCounts.merge(o.featureCounts);
+		featurePositions.merge(o.featurePositions);
+		featureCodes.merge(o.featureCodes);
+		deletionLengths.merge(o.deletionLengths);
+		mappingQualities.merge(o.mappingQualities);
+		mateFlags.merge(o.mateFlags);
+		mateRefIds.merge(o.mateRefIds);
+
+		merge(substitutions, o.substitutions);
+		merge(uncodedSubstitutions, o.uncodedSubstitutions);
+		substitutionCodes.merge(o.substitutionCodes);
+	}
+
+	private static void merge(long[][] freqs, long[][] other) {
+		for (int i = 0; i < other.length; i++) {
+			if (other[i] == null)
+				continue;
+			if (freqs[i] == null)
+				freqs[i] = new long[MAX_BASE];
+			for (int j = 0; j < other[i].length; j++)
+				freqs[i][j] += other[i][j];
+		}
+	}
+
+	/**
+	 * Replaces the counter of a tag id list with its index in the dictionary,
+	 * in this and in all merged parts.
+	 */
+	void setTagIdListIndex(byte[] ids, int index) {
+		tagIdLists.get(ids).index.value = index;
+		for (RecordStats part : mergedParts) {
+			TagIdList list = part.tagIdLists.get(ids);
+			if (list != null)
+				list.index.value = index;
+		}
+	}
+
+	/**
+	 * Counts the substitution codes, substitutions without a code are counted
+	 * by the code the matrix gives them.
+	 */
+	HuffmanParamsCalculator getSubstitutionCodes(SubstitutionMatrix matrix) {
+		HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
+		calculator.merge(substitutionCodes);
+		for (int refBase = 0; refBase < uncodedSubstitutions.length; refBase++) {
+			if (uncodedSubstitutions[refBase] == null)
+				continue;
+			for (int base = 0; base < MAX_BASE; base++)
+				if (uncodedSubstitutions[refBase][base] > 0)
+					calculator.add((int) matrix.code((byte) refBase,
+							(byte) base),
+							(int) uncodedSubstitutions[refBase][base]);
+		}
+		return calculator;
+	}
+
+	/**
+	 * @return the series counted for Huffman codes, in the same order for all
+	 *         stats
+	 */
+	List<HuffmanParamsCalculator> getHuffmanSeries() {
+		return Arrays.asList(bitFlags, compressionFlags, refIds, readLengths,
+				readGroups, readNameLengths, tagCounts, tagNamesAndTypes,
+				featureCounts, featureCodes, deletionLengths, mappingQualities,
+				mateFlags, mateRefIds);
+	}
+
+	/**
+	 * @return the series counted for integer encodings, in the same order for
+	 *         all stats
+	 */
+	List<IntegerEncodingCalculator> getIntegerSeries() {
+		return Arrays.asList(alignmentOffsets, recordsToNextFragment,
+				featurePositions);
+	}
+
+	/**
+	 * @return substitution frequencies with all rows allocated
+	 */
+	long[][] getSubstitutionFrequencies() {
+		long[][] freqs = new long[MAX_BASE][];
+		for (int i = 0; i < MAX_BASE; i++)
+			freqs[i] = substitutions[i] == null ? new long[MAX_BASE]
+					: substitutions[i];
+		return freqs;
+	}
+}
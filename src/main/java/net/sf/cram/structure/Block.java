@@ -3,6 +3,7 @@ package net.sf.cram.structure;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import net.sf.cram.io.ByteBufferUtils;
@@ -17,6 +18,8 @@ public class Block {
 	// public byte[] content;
 
 	private byte[] rawContent, compressedContent;
+	// a view of the raw content in the buffer the block was read from:
+	private ByteBuffer rawBuffer;
 
 	public Block() {
 	}
@@ -52,6 +55,38 @@ public class Block {
 		}
 	}
 
+	/**
+	 * Reads a block at the buffer's position and leaves the position after
+	 * it. The content of RAW blocks is not copied, the block keeps a view of
+	 * the buffer, see {@link #getRawContentBuffer()}. Compressed content is
+	 * copied once for the codec.
+	 */
+	public Block(ByteBuffer buf, boolean uncompress) {
+		method = 0xFF & buf.get();
+
+		int contentTypeId = 0xFF & buf.get();
+		contentType = BlockContentType.values()[contentTypeId];
+
+		contentId = ByteBufferUtils.readUnsignedITF8(buf);
+		compressedContentSize = ByteBufferUtils.readUnsignedITF8(buf);
+		rawContentSize = ByteBufferUtils.readUnsignedITF8(buf);
+
+		ByteBuffer content = buf.slice();
+		content.limit(compressedContentSize);
+		buf.position(buf.position() + compressedContentSize);
+
+		if (method == BlockCompressionMethod.RAW.ordinal()) {
+			rawBuffer = content;
+			rawContentSize = compressedContentSize;
+			return;
+		}
+
+		compressedContent = new byte[compressedContentSize];
+		content.get(compressedContent);
+		if (uncompress)
+			uncompress();
+	}
+
 	@Override
 	public String toString() {
 		String raw = rawContent == null ? "NULL" : Arrays.toString(Arrays
@@ -70,11 +105,12 @@ public class Block {
 	}
 
 	public boolean isUncompressed() {
-		return rawContent != null;
+		return rawContent != null || rawBuffer != null;
 	}
 
 	public void setRawContent(byte[] raw) {
 		rawContent = raw;
+		rawBuffer = null;
 		rawContentSize = raw == null ? 0 : raw.length;
 
 		compressedContent = null;
@@ -82,16 +118,32 @@ public class Block {
 	}
 
 	public byte[] getRawContent() {
+		if (rawContent == null && rawBuffer != null) {
+			rawContent = new byte[rawBuffer.remaining()];
+			rawBuffer.duplicate().get(rawContent);
+		}
 		if (rawContent == null)
 			uncompress();
 		return rawContent;
 	}
 
+	/**
+	 * @return the raw content without copying it if the block has been read
+	 *         from a buffer, the returned buffer can be read independently of
+	 *         other callers
+	 */
+	public ByteBuffer getRawContentBuffer() {
+		if (rawBuffer != null)
+			return rawBuffer.duplicate();
+		return ByteBuffer.wrap(getRawContent());
+	}
+
 	public void setCompressedContent(byte[] compressed) {
 		this.compressedContent = compressed;
 		compressedContentSize = compressed == null ? 0 : compressed.length;
 
 		rawContent = null;
+		rawBuffer = null;
 		rawContentSize = 0;
 	}
 
@@ -102,57 +154,60 @@ public class Block {
 	}
 
 	public void compress() {
-		if (compressedContent != null || rawContent == null)
+		if (compressedContent != null || !isUncompressed())
 			return;
 
-		BlockCompressionMethod m = BlockCompressionMethod.values()[method];
-
-		switch (m) {
-		case RAW:
-			compressedContent = rawContent;
-			compressedContentSize = rawContentSize;
-			break;
-		case GZIP:
-			try {
-				compressedContent = ByteBufferUtils.gzip(rawContent);
-			} catch (IOException e) {
-				throw new RuntimeException("This should have never happned.", e);
-			}
-			compressedContentSize = compressedContent.length;
-			break;
-		default:
-			break;
+		compress(BlockCodecs.forMethod(BlockCompressionMethod.values()[method]));
+	}
+
+	/**
+	 * Compresses the raw content with the codec and sets the block method
+	 * accordingly.
+	 */
+	public void compress(BlockCodec codec) {
+		if (compressedContent != null || !isUncompressed())
+			return;
+
+		try {
+			setCompressedContent(codec,
+					BlockCodecs.compress(codec, getRawContent()));
+		} catch (IOException e) {
+			throw new RuntimeException("This should have never happned.", e);
 		}
 	}
 
+	/**
+	 * Keeps the raw content, the compressed content must be the output of
+	 * the codec.
+	 */
+	void setCompressedContent(BlockCodec codec, byte[] compressed) {
+		method = codec.getMethod().ordinal();
+		compressedContent = compressed;
+		compressedContentSize = compressed.length;
+		BlockCodecs.chosen(codec);
+	}
+
 	public void uncompress() {
-		if (rawContent != null || compressedContent == null)
+		if (isUncompressed() || compressedContent == null)
 			return;
 
-		BlockCompressionMethod m = BlockCompressionMethod.values()[method];
-
-		switch (m) {
-		case RAW:
-			rawContent = compressedContent;
-			rawContentSize = compressedContentSize;
-			break;
-		case GZIP:
-			try {
-				rawContent = ByteBufferUtils.gunzip(compressedContent);
-			} catch (IOException e) {
-				throw new RuntimeException("This should have never happned.", e);
-			}
-			break;
-		default:
-			throw new RuntimeException("Unknown block compression method: "
-					+ m.name());
+		BlockCodec codec = BlockCodecs.forMethod(BlockCompressionMethod
+				.values()[method]);
+		try {
+			// the raw size is known when the block has been read from a stream:
+			rawContent = BlockCodecs.uncompress(codec, compressedContent,
+					rawContentSize > 0 ? rawContentSize : -1);
+		} catch (IOException e) {
+			throw new RuntimeException("This should have never happned.", e);
 		}
+		rawContentSize = rawContent.length;
 	}
 
 	public void write(OutputStream os) throws IOException {
 		if (!isCompressed())
 			compress();
-		if (!isUncompressed())
+		// blocks read from a stream know their raw size already:
+		if (!isUncompressed() && rawContentSize == 0)
 			uncompress();
 
 		os.write(method);
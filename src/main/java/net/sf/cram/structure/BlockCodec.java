@@ -0,0 +1,23 @@
+package net.sf.cram.structure;
+
+import java.io.IOException;
+
+/**
+ * Compresses block content with one of the {@link BlockCompressionMethod}s.
+ * Several codecs may share a method, for example deflate at different levels,
+ * as long as any of them can uncompress the output of the others.
+ */
+public interface BlockCodec {
+
+	public String getName();
+
+	public BlockCompressionMethod getMethod();
+
+	public byte[] compress(byte[] data) throws IOException;
+
+	/**
+	 * @param rawSize
+	 *            the size of the uncompressed data if known or -1
+	 */
+	public byte[] uncompress(byte[] data, int rawSize) throws IOException;
+}
@@ -0,0 +1,228 @@
+package net.sf.cram.structure;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.cram.io.ByteBufferUtils;
+
+/**
+ * Registry of block codecs. Each compression method has one codec that is
+ * used to uncompress blocks, more codecs can be created by name for
+ * compression, see {@link #forName(String)}. Time and bytes spent in every
+ * codec are collected so that the choices can be compared.
+ */
+public class BlockCodecs {
+
+	public static final BlockCodec RAW = new BlockCodec() {
+
+		@Override
+		public String getName() {
+			return "RAW";
+		}
+
+		@Override
+		public BlockCompressionMethod getMethod() {
+			return BlockCompressionMethod.RAW;
+		}
+
+		@Override
+		public byte[] compress(byte[] data) {
+			return data;
+		}
+
+		@Override
+		public byte[] uncompress(byte[] data, int rawSize) {
+			return data;
+		}
+	};
+
+	public static final BlockCodec GZIP = new GzipCodec(-1);
+
+	public static final BlockCodec BZIP2 = new BlockCodec() {
+
+		@Override
+		public String getName() {
+			return "BZIP2";
+		}
+
+		@Override
+		public BlockCompressionMethod getMethod() {
+			return BlockCompressionMethod.BZIP2;
+		}
+
+		@Override
+		public byte[] compress(byte[] data) throws IOException {
+			return ByteBufferUtils.bzip2(data);
+		}
+
+		@Override
+		public byte[] uncompress(byte[] data, int rawSize) throws IOException {
+			return ByteBufferUtils.bunzip2(data, rawSize);
+		}
+	};
+
+	private static final Map<BlockCompressionMethod, BlockCodec> codecs = new EnumMap<BlockCompressionMethod, BlockCodec>(
+			BlockCompressionMethod.class);
+	static {
+		register(RAW);
+		register(GZIP);
+		register(BZIP2);
+	}
+
+	private static final Map<String, Stats> stats = new TreeMap<String, Stats>();
+
+	private static class GzipCodec implements BlockCodec {
+		private int level;
+
+		/**
+		 * @param level
+		 *            deflate level or -1 for the default level
+		 */
+		GzipCodec(int level) {
+			if (level != -1 && (level < 1 || level > 9))
+				throw new IllegalArgumentException(
+						"Deflate level must be between 1 and 9: " + level);
+			this.level = level;
+		}
+
+		@Override
+		public String getName() {
+			return level == -1 ? "GZIP" : "GZIP-" + level;
+		}
+
+		@Override
+		public BlockCompressionMethod getMethod() {
+			return BlockCompressionMethod.GZIP;
+		}
+
+		@Override
+		public byte[] compress(byte[] data) throws IOException {
+			return ByteBufferUtils.gzip(data, level);
+		}
+
+		@Override
+		public byte[] uncompress(byte[] data, int rawSize) throws IOException {
+			return ByteBufferUtils.gunzip(data, rawSize);
+		}
+	}
+
+	public static BlockCodec gzip(int level) {
+		return new GzipCodec(level);
+	}
+
+	/**
+	 * Sets the codec for its compression method, replacing the previous one.
+	 */
+	public static synchronized void register(BlockCodec codec) {
+		codecs.put(codec.getMethod(), codec);
+	}
+
+	public static synchronized BlockCodec forMethod(BlockCompressionMethod method) {
+		BlockCodec codec = codecs.get(method);
+		if (codec == null)
+			throw new RuntimeException("Unknown block compression method: "
+					+ method.name());
+		return codec;
+	}
+
+	/**
+	 * @param name
+	 *            one of RAW, GZIP, GZIP-1 to GZIP-9 or BZIP2
+	 */
+	public static BlockCodec forName(String name) {
+		String s = name.trim().toUpperCase();
+		if (s.startsWith("GZIP-"))
+			return gzip(Integer.valueOf(s.substring("GZIP-".length())));
+
+		try {
+			return forMethod(BlockCompressionMethod.valueOf(s));
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Unknown block codec: " + name, e);
+		}
+	}
+
+	static byte[] compress(BlockCodec codec, byte[] data) throws IOException {
+		long time = System.nanoTime();
+		byte[] compressed = codec.compress(data);
+		getStats(codec.getName()).addCompress(data.length, compressed.length,
+				System.nanoTime() - time);
+		return compressed;
+	}
+
+	static byte[] uncompress(BlockCodec codec, byte[] data, int rawSize)
+			throws IOException {
+		long time = System.nanoTime();
+		byte[] raw = codec.uncompress(data, rawSize);
+		getStats(codec.getName()).addUncompress(raw.length,
+				System.nanoTime() - time);
+		return raw;
+	}
+
+	static void chosen(BlockCodec codec) {
+		getStats(codec.getName()).addChosen();
+	}
+
+	private static synchronized Stats getStats(String name) {
+		Stats s = stats.get(name);
+		if (s == null) {
+			s = new Stats();
+			stats.put(name, s);
+		}
+		return s;
+	}
+
+	private static class Stats {
+		long rawBytes, compressedBytes, compressNanos;
+		long uncompressedBytes, uncompressNanos;
+		long chosen;
+
+		synchronized void addCompress(long raw, long compressed, long nanos) {
+			rawBytes += raw;
+			compressedBytes += compressed;
+			compressNanos += nanos;
+		}
+
+		synchronized void addUncompress(long raw, long nanos) {
+			uncompressedBytes += raw;
+			uncompressNanos += nanos;
+		}
+
+		synchronized void addChosen() {
+			chosen++;
+		}
+	}
+
+	private static double mbPerSecond(long bytes, long nanos) {
+		return nanos == 0 ? 0 : 1000d * bytes / nanos;
+	}
+
+	/**
+	 * @return one line per codec with its compression ratio, throughput in
+	 *         MB/s and how many blocks it was chosen for.
+	 */
+	public static synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		for (String name : stats.keySet()) {
+			Stats s = stats.get(name);
+			synchronized (s) {
+				sb.append(name).append(":");
+				if (s.rawBytes > 0)
+					sb.append(String.format(
+							" ratio %.2f, compress %.1f MB/s, chosen for %d blocks;",
+							(double) s.rawBytes / s.compressedBytes,
+							mbPerSecond(s.rawBytes, s.compressNanos), s.chosen));
+				if (s.uncompressedBytes > 0)
+					sb.append(String.format(" uncompress %.1f MB/s;",
+							mbPerSecond(s.uncompressedBytes, s.uncompressNanos)));
+				sb.append("\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	public static synchronized void resetStats() {
+		stats.clear();
+	}
+}
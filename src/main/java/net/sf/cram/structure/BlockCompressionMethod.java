@@ -1,5 +1,5 @@
 package net.sf.cram.structure;
 
 public enum BlockCompressionMethod {
-	RAW, GZIP ;
+	RAW, GZIP, BZIP2 ;
 }
@@ -0,0 +1,100 @@
+package net.sf.cram.structure;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses a codec for each external block by its content id. A codec can be
+ * fixed for a content id, otherwise the block is either compressed with every
+ * trial codec and the smallest output is kept, or with the default codec.
+ */
+public class BlockCompressionPolicy {
+	private BlockCodec defaultCodec;
+	private Map<Integer, BlockCodec> codecs = new HashMap<Integer, BlockCodec>();
+	private List<BlockCodec> trialCodecs = Collections.emptyList();
+
+	public BlockCompressionPolicy(BlockCodec defaultCodec) {
+		this.defaultCodec = defaultCodec;
+	}
+
+	public void setDefaultCodec(BlockCodec defaultCodec) {
+		this.defaultCodec = defaultCodec;
+	}
+
+	public void setCodec(int contentId, BlockCodec codec) {
+		codecs.put(contentId, codec);
+	}
+
+	public void setTrialCodecs(List<BlockCodec> trialCodecs) {
+		this.trialCodecs = trialCodecs;
+	}
+
+	public void compress(Block block) {
+		BlockCodec codec = codecs.get(block.contentId);
+		if (codec != null || trialCodecs.isEmpty()) {
+			block.compress(codec == null ? defaultCodec : codec);
+			return;
+		}
+
+		byte[] raw = block.getRawContent();
+		BlockCodec best = null;
+		byte[] smallest = null;
+		for (BlockCodec trial : trialCodecs) {
+			byte[] compressed;
+			try {
+				compressed = BlockCodecs.compress(trial, raw);
+			} catch (IOException e) {
+				throw new RuntimeException("This should have never happned.",
+						e);
+			}
+			if (smallest == null || compressed.length < smallest.length) {
+				best = trial;
+				smallest = compressed;
+			}
+		}
+		block.setCompressedContent(best, smallest);
+	}
+
+	/**
+	 * @param spec
+	 *            comma separated list of content id and codec name pairs, for
+	 *            example '1:BZIP2,2:BZIP2,*:GZIP-1', where '*' sets the
+	 *            default codec
+	 * @param trialSpec
+	 *            comma separated list of codec names to try on blocks without
+	 *            a fixed codec, may be null
+	 */
+	public static BlockCompressionPolicy fromSpec(String spec, String trialSpec) {
+		BlockCompressionPolicy policy = new BlockCompressionPolicy(
+				BlockCodecs.GZIP);
+		if (spec != null) {
+			for (String pair : spec.split(",")) {
+				if (pair.trim().length() == 0)
+					continue;
+				String[] chunks = pair.split(":");
+				if (chunks.length != 2)
+					throw new RuntimeException(
+							"Expecting content id and codec name, for example '1:BZIP2': "
+									+ pair);
+				BlockCodec codec = BlockCodecs.forName(chunks[1]);
+				if ("*".equals(chunks[0].trim()))
+					policy.setDefaultCodec(codec);
+				else
+					policy.setCodec(Integer.valueOf(chunks[0].trim()), codec);
+			}
+		}
+
+		if (trialSpec != null) {
+			List<BlockCodec> trials = new ArrayList<BlockCodec>();
+			for (String name : trialSpec.split(","))
+				if (name.trim().length() > 0)
+					trials.add(BlockCodecs.forName(name));
+			policy.setTrialCodecs(trials);
+		}
+		return policy;
+	}
+}
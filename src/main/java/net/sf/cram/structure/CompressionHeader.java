@@ -8,6 +8,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -15,7 +16,9 @@ import java.util.TreeMap;
 import net.sf.cram.EncodingID;
 import net.sf.cram.EncodingKey;
 import net.sf.cram.EncodingParams;
+import net.sf.cram.encoding.CodecPlan;
 import net.sf.cram.encoding.NullEncoding;
+import net.sf.cram.encoding.SeriesProjection;
 import net.sf.cram.io.ByteBufferUtils;
 import net.sf.picard.util.Log;
 
@@ -34,6 +37,13 @@ public class CompressionHeader {
 
 	public byte[][][] dictionary;
 
+	/**
+	 * Codec plans built for this header by projection, see
+	 * {@link CodecPlan#forReader}. Guarded by the header.
+	 */
+	public final Map<SeriesProjection, CodecPlan> readerPlans = new HashMap<SeriesProjection, CodecPlan>();
+	public CodecPlan writerPlan;
+
 	public CompressionHeader() {
 	}
 
@@ -2,8 +2,31 @@ package net.sf.cram.structure;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class CompressionHeaderBLock extends Block {
+	/**
+	 * The last compression header read from a stream. Consecutive containers
+	 * often share the compression header, the last header is returned again
+	 * for the same bytes so that its codecs can be reused. Keep one per
+	 * stream.
+	 */
+	public static class LastHeader {
+		private byte[] bytes;
+		private CompressionHeader header;
+
+		synchronized CompressionHeader get(ByteBuffer content) {
+			if (bytes != null && ByteBuffer.wrap(bytes).equals(content))
+				return header;
+
+			byte[] newBytes = new byte[content.remaining()];
+			content.duplicate().get(newBytes);
+			header = parse(newBytes);
+			bytes = newBytes;
+			return header;
+		}
+	}
+
 	private CompressionHeader compressionHeader;
 
 	public CompressionHeader getCompressionHeader() {
@@ -26,13 +49,52 @@ public class CompressionHeaderBLock extends Block {
 	}
 
 	public CompressionHeaderBLock(InputStream is) throws IOException {
+		this(is, null);
+	}
+
+	/**
+	 * @param last
+	 *            the last header of the stream, null to always parse the
+	 *            header
+	 */
+	public CompressionHeaderBLock(InputStream is, LastHeader last)
+			throws IOException {
 		super(is, true, true);
 
 		if (contentType != BlockContentType.COMPRESSION_HEADER)
 			throw new RuntimeException("Content type does not match: "
 					+ contentType.name());
 
-		compressionHeader = new CompressionHeader();
-		compressionHeader.read(getRawContent());
+		byte[] bytes = getRawContent();
+		compressionHeader = last == null ? parse(bytes) : last.get(ByteBuffer
+				.wrap(bytes));
+	}
+
+	public CompressionHeaderBLock(ByteBuffer buf) throws IOException {
+		this(buf, null);
+	}
+
+	public CompressionHeaderBLock(ByteBuffer buf, LastHeader last)
+			throws IOException {
+		super(buf, true);
+
+		if (contentType != BlockContentType.COMPRESSION_HEADER)
+			throw new RuntimeException("Content type does not match: "
+					+ contentType.name());
+
+		ByteBuffer content = getRawContentBuffer();
+		if (last != null) {
+			compressionHeader = last.get(content);
+			return;
+		}
+		byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		compressionHeader = parse(bytes);
+	}
+
+	private static CompressionHeader parse(byte[] bytes) {
+		CompressionHeader header = new CompressionHeader();
+		header.read(bytes);
+		return header;
 	}
 }
@@ -4,6 +4,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import net.sf.cram.io.ByteBufferUtils;
 import net.sf.samtools.util.IOUtil;
@@ -32,18 +33,43 @@ public class ContainerHeaderIO {
 		return true ;
 	}
 	
+	/**
+	 * Same as above but parses the header at the buffer's position.
+	 * 
+	 * @return false if there are no bytes left in the buffer
+	 */
+	public boolean readContainerHeader(Container c, ByteBuffer buf)
+			throws IOException {
+		if (!buf.hasRemaining())
+			return false;
+
+		c.containerByteSize = ByteBufferUtils.int32(buf);
+		c.sequenceId = ByteBufferUtils.readUnsignedITF8(buf);
+		c.alignmentStart = ByteBufferUtils.readUnsignedITF8(buf);
+		c.alignmentSpan = ByteBufferUtils.readUnsignedITF8(buf);
+		c.nofRecords = ByteBufferUtils.readUnsignedITF8(buf);
+		c.globalRecordCounter = ByteBufferUtils.readUnsignedLTF8(buf);
+		c.bases = ByteBufferUtils.readUnsignedLTF8(buf);
+		c.blockCount = ByteBufferUtils.readUnsignedITF8(buf);
+		c.landmarks = ByteBufferUtils.array(buf);
+
+		return true;
+	}
+
 	public int writeContainerHeader(Container c, OutputStream os)
 			throws IOException {
 		int len = ByteBufferUtils.writeInt32(c.containerByteSize, os);
-		len += ByteBufferUtils.writeUnsignedITF8(c.sequenceId, os);
-		len += ByteBufferUtils.writeUnsignedITF8(c.alignmentStart, os);
-		len += ByteBufferUtils.writeUnsignedITF8(c.alignmentSpan, os);
-		len += ByteBufferUtils.writeUnsignedITF8(c.nofRecords, os);
-		len += ByteBufferUtils.writeUnsignedLTF8(c.globalRecordCounter, os);
-		len += ByteBufferUtils.writeUnsignedLTF8(c.bases, os);
-		len += ByteBufferUtils.writeUnsignedITF8(c.blockCount, os);
-		len += ByteBufferUtils.write(c.landmarks, os);
-
-		return len;
+
+		// ITF8 and LTF8 lengths are counted in bits:
+		int bits = ByteBufferUtils.writeUnsignedITF8(c.sequenceId, os);
+		bits += ByteBufferUtils.writeUnsignedITF8(c.alignmentStart, os);
+		bits += ByteBufferUtils.writeUnsignedITF8(c.alignmentSpan, os);
+		bits += ByteBufferUtils.writeUnsignedITF8(c.nofRecords, os);
+		bits += ByteBufferUtils.writeUnsignedLTF8(c.globalRecordCounter, os);
+		bits += ByteBufferUtils.writeUnsignedLTF8(c.bases, os);
+		bits += ByteBufferUtils.writeUnsignedITF8(c.blockCount, os);
+		bits += ByteBufferUtils.write(c.landmarks, os);
+
+		return len + bits / 8;
 	}
 }
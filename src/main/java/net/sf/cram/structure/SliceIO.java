@@ -1,10 +1,10 @@
 package net.sf.cram.structure;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import net.sf.cram.io.ByteBufferUtils;
@@ -16,21 +16,25 @@ public class SliceIO {
 		parseSliceHeaderBlock(s);
 	}
 
+	public void readSliceHeadBlock(Slice s, ByteBuffer buf) throws IOException {
+		s.headerBlock = new Block(buf, true);
+		parseSliceHeaderBlock(s);
+	}
+
 	public void parseSliceHeaderBlock(Slice s) throws IOException {
-		InputStream is = new ByteArrayInputStream(s.headerBlock.getRawContent());
-		// is = new DebuggingInputStream (is) ;
-
-		s.sequenceId = ByteBufferUtils.readUnsignedITF8(is);
-		s.alignmentStart = ByteBufferUtils.readUnsignedITF8(is);
-		s.alignmentSpan = ByteBufferUtils.readUnsignedITF8(is);
-		s.nofRecords = ByteBufferUtils.readUnsignedITF8(is);
-		s.globalRecordCounter = ByteBufferUtils.readUnsignedLTF8(is);
-		s.nofBlocks = ByteBufferUtils.readUnsignedITF8(is);
-
-		s.contentIDs = ByteBufferUtils.array(is);
-		s.embeddedRefBlockContentID = ByteBufferUtils.readUnsignedITF8(is);
+		ByteBuffer buf = s.headerBlock.getRawContentBuffer();
+
+		s.sequenceId = ByteBufferUtils.readUnsignedITF8(buf);
+		s.alignmentStart = ByteBufferUtils.readUnsignedITF8(buf);
+		s.alignmentSpan = ByteBufferUtils.readUnsignedITF8(buf);
+		s.nofRecords = ByteBufferUtils.readUnsignedITF8(buf);
+		s.globalRecordCounter = ByteBufferUtils.readUnsignedLTF8(buf);
+		s.nofBlocks = ByteBufferUtils.readUnsignedITF8(buf);
+
+		s.contentIDs = ByteBufferUtils.array(buf);
+		s.embeddedRefBlockContentID = ByteBufferUtils.readUnsignedITF8(buf);
 		s.refMD5 = new byte[16];
-		ByteBufferUtils.readFully(s.refMD5, is);
+		buf.get(s.refMD5);
 	}
 
 	public byte[] createSliceHeaderBlockContent(Slice s) throws IOException {
@@ -65,31 +69,37 @@ public class SliceIO {
 	public void readSliceBlocks(Slice s, boolean uncompressBlocks,
 			InputStream is) throws IOException {
 		s.external = new HashMap<Integer, Block>();
-		for (int i = 0; i < s.nofBlocks; i++) {
-			Block b1 = new Block(is, true, uncompressBlocks);
-
-			switch (b1.contentType) {
-			case CORE:
-				s.coreBlock = b1;
-				break;
-			case EXTERNAL:
-				if (s.embeddedRefBlockContentID == b1.contentId)
-					s.embeddedRefBlock = b1;
-				s.external.put(b1.contentId, b1);
-				break;
-
-			default:
-				throw new RuntimeException(
-						"Not a slice block, content type id "
-								+ b1.contentType.name());
-			}
+		for (int i = 0; i < s.nofBlocks; i++)
+			addSliceBlock(s, new Block(is, true, uncompressBlocks));
+	}
+
+	public void readSliceBlocks(Slice s, boolean uncompressBlocks,
+			ByteBuffer buf) throws IOException {
+		s.external = new HashMap<Integer, Block>();
+		for (int i = 0; i < s.nofBlocks; i++)
+			addSliceBlock(s, new Block(buf, uncompressBlocks));
+	}
+
+	private static void addSliceBlock(Slice s, Block b1) {
+		switch (b1.contentType) {
+		case CORE:
+			s.coreBlock = b1;
+			break;
+		case EXTERNAL:
+			if (s.embeddedRefBlockContentID == b1.contentId)
+				s.embeddedRefBlock = b1;
+			s.external.put(b1.contentId, b1);
+			break;
+
+		default:
+			throw new RuntimeException("Not a slice block, content type id "
+					+ b1.contentType.name());
 		}
 	}
 
 	public void write(Slice s, OutputStream os) throws IOException {
 
-		s.nofBlocks = 1 + s.external.size() + (s.embeddedRefBlock == null ? 0
-				: 1);
+		s.nofBlocks = 1 + s.external.size();
 
 		{
 			s.contentIDs = new int[s.external.size()];
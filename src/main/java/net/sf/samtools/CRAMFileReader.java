@@ -155,7 +155,7 @@ public class CRAMFileReader extends SAMFileReader.ReaderImplementation {
 	CloseableIterator<SAMRecord> query(String sequence, int start, int end,
 			boolean contained) {
 		CloseableIterator<SAMRecord> iterator = queryAlignmentStart(sequence,
-				start);
+				start, end);
 
 		QueryType qt = QueryType.CONTAINED;
 		if (!contained)
@@ -196,6 +196,21 @@ public class CRAMFileReader extends SAMFileReader.ReaderImplementation {
 	@Override
 	public CloseableIterator<SAMRecord> queryAlignmentStart(String sequence,
 			int start) {
+		return queryAlignmentStart(sequence, start, -1);
+	}
+
+	/**
+	 * Seeks to the first slice overlapping the start and decodes only slices
+	 * overlapping the region. The index chunks of slices in the same container
+	 * are coalesced, so the slices are found by their headers, see
+	 * {@link SAMIterator#seekRegion(long, int, int, int)}.
+	 *
+	 * @param end
+	 *            the end of the region or a value less than 1 to iterate to
+	 *            the end of the file
+	 */
+	private CloseableIterator<SAMRecord> queryAlignmentStart(String sequence,
+			int start, int end) {
 		long[] filePointers = null;
 
 		// Hit the index to determine the chunk boundaries for the required
@@ -205,7 +220,7 @@ public class CRAMFileReader extends SAMFileReader.ReaderImplementation {
 		if (referenceIndex != -1) {
 			final BAMIndex fileIndex = getIndex();
 			final BAMFileSpan fileSpan = fileIndex.getSpanOverlapping(
-					referenceIndex, start, -1);
+					referenceIndex, start, end > 0 ? end : -1);
 			filePointers = fileSpan != null ? fileSpan.toCoordinateArray()
 					: null;
 		}
@@ -236,19 +251,11 @@ public class CRAMFileReader extends SAMFileReader.ReaderImplementation {
 		Container c = null;
 		for (int i = 0; i < filePointers.length; i += 2) {
 			long containerOffset = filePointers[i] >>> 16;
-			int sliceIndex = (int) ((filePointers[i] << 48) >>> 48);
 			try {
 				s.seek(containerOffset);
-				// the following is not optimal because this is container-level
-				// access, not slice:
-
-				// CountingInputStream cis = new CountingInputStream(s) ;
 				c = ReadWrite.readContainerHeader(s);
-				// long headerSize = cis.getCount() ;
-				// int sliceOffset = c.landmarks[sliceIndex] ;
 				if (c.alignmentStart + c.alignmentSpan > start) {
-					s.seek(containerOffset);
-					// s.seek(containerOffset + headerSize + sliceOffset);
+					si.seekRegion(containerOffset, referenceIndex, start, end);
 					return si;
 				}
 			} catch (IOException e) {
@@ -279,7 +286,10 @@ public class CRAMFileReader extends SAMFileReader.ReaderImplementation {
 			s.seek(0);
 			si = new SAMIterator(s, referenceSequenceFile);
 			si.setValidationStringency(validationStringency);
-			s.seek(startOfLastLinearBin);
+			// the index holds container offsets shifted like BAM virtual
+			// file pointers, without mapped records there is nothing to skip:
+			if (startOfLastLinearBin != -1)
+				s.seek(startOfLastLinearBin >>> 16);
 			it = si;
 		} catch (IOException e) {
 			throw new RuntimeEOFException(e);
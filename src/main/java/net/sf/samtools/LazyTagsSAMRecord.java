@@ -0,0 +1,107 @@
+package net.sf.samtools;
+
+import java.util.List;
+
+import net.sf.cram.ReferenceRegion;
+import net.sf.cram.Utils;
+
+/**
+ * A SAM record that restores its MD and NM tags from the reference only when
+ * the tags are first accessed. Any access to the attributes, including
+ * setting or clearing them, restores the tags first.
+ */
+class LazyTagsSAMRecord extends SAMRecord {
+	private ReferenceRegion ref;
+	private boolean calcMD;
+	private boolean calcNM;
+
+	public LazyTagsSAMRecord(SAMFileHeader header) {
+		super(header);
+	}
+
+	void setPendingTags(ReferenceRegion ref, boolean calcMD, boolean calcNM) {
+		this.ref = calcMD || calcNM ? ref : null;
+		this.calcMD = calcMD;
+		this.calcNM = calcNM;
+	}
+
+	boolean hasPendingTags() {
+		return ref != null;
+	}
+
+	private void restoreTags() {
+		if (ref == null)
+			return;
+		ReferenceRegion ref = this.ref;
+		this.ref = null;
+		Utils.calculateMdAndNmTags(this, ref, calcMD, calcNM);
+	}
+
+	@Override
+	public Object getAttribute(short tag) {
+		restoreTags();
+		return super.getAttribute(tag);
+	}
+
+	@Override
+	public boolean isUnsignedArrayAttribute(String tag) {
+		restoreTags();
+		return super.isUnsignedArrayAttribute(tag);
+	}
+
+	@Override
+	public List<SAMTagAndValue> getAttributes() {
+		restoreTags();
+		return super.getAttributes();
+	}
+
+	@Override
+	protected SAMBinaryTagAndValue getBinaryAttributes() {
+		restoreTags();
+		return super.getBinaryAttributes();
+	}
+
+	@Override
+	public int getAttributesBinarySize() {
+		restoreTags();
+		return super.getAttributesBinarySize();
+	}
+
+	@Override
+	protected void setAttribute(short tag, Object value, boolean isUnsignedArray) {
+		restoreTags();
+		super.setAttribute(tag, value, isUnsignedArray);
+	}
+
+	@Override
+	protected void setAttributes(SAMBinaryTagAndValue attributes) {
+		restoreTags();
+		super.setAttributes(attributes);
+	}
+
+	@Override
+	public void clearAttributes() {
+		restoreTags();
+		super.clearAttributes();
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		restoreTags();
+		return super.clone();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		restoreTags();
+		if (o instanceof LazyTagsSAMRecord)
+			((LazyTagsSAMRecord) o).restoreTags();
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		restoreTags();
+		return super.hashCode();
+	}
+}
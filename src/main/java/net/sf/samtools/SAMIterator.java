@@ -1,7 +1,6 @@
 package net.sf.samtools;
 
 import java.io.BufferedInputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -9,37 +8,49 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-import net.sf.cram.BLOCK_PROTO;
 import net.sf.cram.Cram2BamRecordFactory;
-import net.sf.cram.CramNormalizer;
+import net.sf.cram.ContainerDecoder;
+import net.sf.cram.ContainerDecoder.DecodedContainer;
 import net.sf.cram.CramRecord;
 import net.sf.cram.ReadWrite;
 import net.sf.cram.ReadWrite.CramHeader;
-import net.sf.cram.Utils;
+import net.sf.cram.ReferenceRegion;
+import net.sf.cram.io.CountingInputStream;
 import net.sf.cram.structure.Container;
-import net.sf.picard.reference.ReferenceSequence;
+import net.sf.cram.structure.Slice;
 import net.sf.picard.reference.ReferenceSequenceFile;
 import net.sf.picard.util.Log;
 import net.sf.samtools.SAMFileHeader.SortOrder;
 import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.util.RuntimeEOFException;
+import net.sf.samtools.util.SeekableStream;
 
 public class SAMIterator implements SAMRecordIterator {
 	private static Log log = Log.getInstance(SAMIterator.class);
 	private InputStream is;
 	private CramHeader cramHeader;
-	private ArrayList<SAMRecord> records;
+	// records of the current container, converted one at a time:
+	private ArrayList<CramRecord> records;
 	private int recordCounter = 0;
+	private Cram2BamRecordFactory c2sFactory;
 	private SAMRecord nextRecord = null;
 	private ReferenceSequenceFile referenceSequenceFile;
 	private boolean restoreNMTag = true;
 	private boolean restoreMDTag = false;
-	private CramNormalizer normalizer;
-	private byte[] refs;
-	private int prevSeqId = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+	private ContainerDecoder decoder;
+	private ReferenceRegion refs;
+	private DecodedContainer decoded;
 	private Container container;
 
+	// random access, see seekRegion. The offset of the next container to look
+	// at, -1 to read containers sequentially or -2 when past the region:
+	private long regionOffset = -1;
+	private int regionSequenceId;
+	private int regionStart;
+	private int regionEnd;
+
 	private ValidationStringency validationStringency = ValidationStringency.SILENT;
 
 	public ValidationStringency getValidationStringency() {
@@ -55,104 +66,183 @@ public class SAMIterator implements SAMRecordIterator {
 
 	public SAMIterator(InputStream is,
 			ReferenceSequenceFile referenceSequenceFile) throws IOException {
+		this(is, referenceSequenceFile, 1);
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads to decode containers with, containers are
+	 *            read ahead if more than one.
+	 */
+	public SAMIterator(InputStream is,
+			ReferenceSequenceFile referenceSequenceFile, int threads)
+			throws IOException {
 		this.is = is;
 		this.referenceSequenceFile = referenceSequenceFile;
 		cramHeader = ReadWrite.readCramHeader(is);
-		records = new ArrayList<SAMRecord>(100000);
-		normalizer = new CramNormalizer(cramHeader.samFileHeader);
+		c2sFactory = new Cram2BamRecordFactory(cramHeader.samFileHeader);
+		decoder = new ContainerDecoder(is, cramHeader, referenceSequenceFile,
+				threads);
+		decoder.setRecordPooling(true);
 	}
 
 	public CramHeader getCramHeader() {
 		return cramHeader;
 	}
 
-	private void nextContainer() throws IOException, IllegalArgumentException,
-			IllegalAccessException {
-		if (records == null)
-			records = new ArrayList<SAMRecord>(100000);
-		records.clear();
-		recordCounter = 0;
-
-		container = null;
-		container = ReadWrite.readContainer(cramHeader.samFileHeader, is);
-		if (container == null)
-			return;
-
-		ArrayList<CramRecord> cramRecords = new ArrayList<CramRecord>();
-		try {
-			cramRecords.clear();
-			BLOCK_PROTO.getRecords(container.h, container,
-					cramHeader.samFileHeader, cramRecords);
-		} catch (EOFException e) {
-			throw e;
-		}
-
-		if (container.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-			refs = new byte[] {};
-		} else if (prevSeqId < 0 || prevSeqId != container.sequenceId) {
-			SAMSequenceRecord sequence = cramHeader.samFileHeader
-					.getSequence(container.sequenceId);
-			ReferenceSequence referenceSequence = Utils
-					.trySequenceNameVariants(referenceSequenceFile,
-							sequence.getSequenceName());
-			refs = referenceSequence.getBases();
-			prevSeqId = container.sequenceId;
-		}
+	/**
+	 * Holds at most about this many decoded records instead of a whole
+	 * container, see {@link ContainerDecoder#setMaxDecodedRecords}. Must be
+	 * set before the first record is read.
+	 */
+	public void setMaxDecodedRecords(int maxDecodedRecords) {
+		decoder.setMaxDecodedRecords(maxDecodedRecords);
+	}
 
-		long time1 = System.nanoTime();
+	/**
+	 * Restarts the iteration at the first slice overlapping the start of the
+	 * region. Only slices overlapping the region are decoded, or all slices
+	 * to the end of the stream if the region has no end. The stream must be
+	 * seekable and the iterator must not read ahead.
+	 *
+	 * @param containerOffset
+	 *            a container at or before the region start
+	 * @param end
+	 *            the region end or a value less than 1 for no end
+	 */
+	public void seekRegion(long containerOffset, int sequenceId, int start,
+			int end) {
+		if (!(is instanceof SeekableStream))
+			throw new RuntimeException(
+					"Random access requires a seekable stream.");
+
+		regionOffset = containerOffset;
+		regionSequenceId = sequenceId;
+		regionStart = start;
+		regionEnd = end;
+
+		releaseRecords();
+		nextRecord = null;
+	}
 
-		normalizer.normalize(cramRecords, true, refs, container.alignmentStart,
-				container.h.substitutionMatrix, container.h.AP_seriesDelta);
-		long time2 = System.nanoTime();
+	private void releaseRecords() {
+		if (decoded != null)
+			// the SAM records keep the bases and scores:
+			decoder.recycle(decoded, false);
+		decoded = null;
+		records = null;
+		recordCounter = 0;
+	}
 
-		Cram2BamRecordFactory c2sFactory = new Cram2BamRecordFactory(
-				cramHeader.samFileHeader);
+	/**
+	 * Uses the slice headers to find the next slices overlapping the region.
+	 */
+	private DecodedContainer nextRegionSlices() throws IOException,
+			IllegalAccessException {
+		SeekableStream s = (SeekableStream) is;
+		while (regionOffset >= 0) {
+			long offset = regionOffset;
+			s.seek(offset);
+			CountingInputStream cis = new CountingInputStream(s);
+			Container c = ReadWrite.readSliceHeaders(cis);
+			if (c == null)
+				return null;
+			regionOffset += cis.getCount();
+
+			int fromSlice = -1, toSlice = -1;
+			boolean past = false;
+			for (Slice slice : c.slices) {
+				if (slice.sequenceId != regionSequenceId
+						|| (regionEnd > 0 && slice.alignmentStart > regionEnd)) {
+					past = true;
+					break;
+				}
+				if (slice.alignmentStart + slice.alignmentSpan <= regionStart)
+					continue;
+				if (fromSlice < 0)
+					fromSlice = slice.index;
+				toSlice = slice.index;
+			}
 
-		long c2sTime = 0;
+			if (regionEnd < 1 && fromSlice >= 0) {
+				// no end, read sequentially from here:
+				regionOffset = -1;
+				return decoder.decodeSlices(s, offset, fromSlice,
+						Integer.MAX_VALUE);
+			}
+			if (past)
+				regionOffset = -2;
+			if (fromSlice >= 0)
+				return decoder.decodeSlices(s, offset, fromSlice, toSlice);
+		}
+		return null;
+	}
 
-		for (CramRecord r : cramRecords) {
-			long time = System.nanoTime();
-			SAMRecord s = c2sFactory.create(r);
-			c2sTime += System.nanoTime() - time;
-			if (!r.segmentUnmapped)
-				Utils.calculateMdAndNmTags(s, refs, restoreMDTag, restoreNMTag);
+	private void nextContainer() throws IOException, IllegalArgumentException,
+			IllegalAccessException {
+		releaseRecords();
 
-			s.setValidationStringency(validationStringency);
+		container = null;
+		DecodedContainer d = regionOffset == -1 ? decoder.next()
+				: nextRegionSlices();
+		if (d == null)
+			return;
+		decoded = d;
+		container = d.container;
+		records = d.records;
+		refs = d.ref;
 
-			if (validationStringency != ValidationStringency.SILENT) {
-				final List<SAMValidationError> validationErrors = s.isValid();
-				SAMUtils.processValidationErrors(validationErrors,
-						samRecordIndex, validationStringency);
-			}
+		log.info(String.format("CONTAINER READ: io %dms, parse %dms, norm %dms",
+				container.readTime / 1000000, container.parseTime / 1000000,
+				d.normTime / 1000000));
+	}
 
-			records.add(s);
+	/**
+	 * Converts a single record, MD and NM tags are restored when first
+	 * accessed.
+	 */
+	private SAMRecord convert(CramRecord r) {
+		LazyTagsSAMRecord s = new LazyTagsSAMRecord(cramHeader.samFileHeader);
+		c2sFactory.create(r, s);
+		if (!r.segmentUnmapped)
+			s.setPendingTags(refs, restoreMDTag, restoreNMTag);
+
+		s.setValidationStringency(validationStringency);
+
+		if (validationStringency != ValidationStringency.SILENT) {
+			final List<SAMValidationError> validationErrors = s.isValid();
+			SAMUtils.processValidationErrors(validationErrors, samRecordIndex,
+					validationStringency);
 		}
-
-		log.info(String.format(
-				"CONTAINER READ: io %dms, parse %dms, norm %dms, convert %dms",
-				container.readTime / 1000000, container.parseTime / 1000000,
-				c2sTime / 1000000, (time2 - time1) / 1000000));
+		return s;
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (recordCounter >= records.size()) {
+		if (nextRecord != null)
+			return true;
+
+		while (records == null || recordCounter >= records.size()) {
 			try {
 				nextContainer();
-				if (records.isEmpty())
+				if (records == null)
 					return false;
 			} catch (Exception e) {
 				throw new RuntimeEOFException(e);
 			}
 		}
 
-		nextRecord = records.get(recordCounter++);
+		nextRecord = convert(records.get(recordCounter++));
 		return true;
 	}
 
 	@Override
 	public SAMRecord next() {
-		return nextRecord;
+		if (!hasNext())
+			throw new NoSuchElementException();
+		SAMRecord record = nextRecord;
+		nextRecord = null;
+		return record;
 	}
 
 	@Override
@@ -162,7 +252,8 @@ public class SAMIterator implements SAMRecordIterator {
 
 	@Override
 	public void close() {
-		records.clear();
+		releaseRecords();
+		decoder.close();
 		try {
 			is.close();
 		} catch (IOException e) {
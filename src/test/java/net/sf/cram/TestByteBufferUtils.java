@@ -2,10 +2,14 @@ package net.sf.cram;
 
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 import net.sf.cram.io.ByteBufferUtils;
 
@@ -173,4 +177,40 @@ public class TestByteBufferUtils {
 		System.out.println(Arrays.toString(ByteBufferUtils.writeUnsignedITF8(value)));
 	}
 
+	@Test
+	public void testGzipCompatibleWithStreams() throws IOException {
+		Random random = new Random(0);
+		for (int size : new int[] { 0, 1, 100, 100000 }) {
+			byte[] data = new byte[size];
+			for (int i = 0; i < size; i++)
+				data[i] = (byte) ('A' + random.nextInt(4));
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			GZIPOutputStream gos = new GZIPOutputStream(baos);
+			gos.write(data);
+			gos.close();
+			byte[] expected = baos.toByteArray();
+
+			// pooled deflaters must produce the same bytes every time:
+			Assert.assertArrayEquals(expected, ByteBufferUtils.gzip(data));
+			Assert.assertArrayEquals(expected, ByteBufferUtils.gzip(data));
+
+			Assert.assertArrayEquals(data, ByteBufferUtils.gunzip(expected));
+			Assert.assertArrayEquals(data,
+					ByteBufferUtils.gunzip(expected, data.length));
+			// a wrong hint only costs a copy:
+			Assert.assertArrayEquals(data,
+					ByteBufferUtils.gunzip(expected, data.length / 2));
+			Assert.assertArrayEquals(data,
+					ByteBufferUtils.gunzip(ByteBufferUtils.gzip(data, 1)));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testGunzipCorrupt() throws IOException {
+		byte[] data = ByteBufferUtils.gzip("ACGTACGTACGT".getBytes());
+		data[data.length - 5]++;
+		ByteBufferUtils.gunzip(data);
+	}
 }
+
@@ -0,0 +1,189 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.cram.ContainerDecoder.DecodedContainer;
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.io.CountingInputStream;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+import net.sf.samtools.util.SeekableFileStream;
+
+import org.junit.Test;
+
+public class TestContainerDecoder {
+
+	private List<CramRecord> decode(int threads) throws IOException,
+			IllegalAccessException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		ReferenceSequenceFile refFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(new File(getClass().getResource(
+						"/data/set1/small.fa").getFile()));
+
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		ContainerDecoder decoder = new ContainerDecoder(is, cramHeader,
+				refFile, threads);
+
+		List<CramRecord> records = new ArrayList<CramRecord>();
+		DecodedContainer d;
+		while ((d = decoder.next()) != null)
+			records.addAll(d.records);
+
+		decoder.close();
+		is.close();
+		return records;
+	}
+
+	@Test
+	public void testParallelDecodingPreservesOrder() throws IOException,
+			IllegalAccessException {
+		List<CramRecord> expected = decode(1);
+		List<CramRecord> actual = decode(4);
+
+		assertTrue(expected.size() > 0);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			CramRecord e = expected.get(i);
+			CramRecord a = actual.get(i);
+			assertEquals(e.index, a.index);
+			assertEquals(e.getReadName(), a.getReadName());
+			assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+			assertEquals(e.mateAlignmentStart, a.mateAlignmentStart);
+			assertArrayEquals(e.getReadBases(), a.getReadBases());
+			assertArrayEquals(e.getQualityScores(), a.getQualityScores());
+		}
+	}
+
+	private List<String> decodeToStrings(int threads, Set<CramRecord> seen)
+			throws IOException, IllegalAccessException {
+		return decodeToStrings(threads, seen, 0, null);
+	}
+
+	/**
+	 * @param seen
+	 *            if not null the records are pooled and every record object
+	 *            decoded is added to it
+	 */
+	private List<String> decodeToStrings(int threads, Set<CramRecord> seen,
+			int maxDecodedRecords, List<Integer> sizes) throws IOException,
+			IllegalAccessException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		ReferenceSequenceFile refFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(new File(getClass().getResource(
+						"/data/set1/small.fa").getFile()));
+
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		ContainerDecoder decoder = new ContainerDecoder(is, cramHeader,
+				refFile, threads);
+		decoder.setRecordPooling(seen != null);
+		decoder.setMaxDecodedRecords(maxDecodedRecords);
+
+		List<String> records = new ArrayList<String>();
+		DecodedContainer d;
+		while ((d = decoder.next()) != null) {
+			if (sizes != null)
+				sizes.add(d.records.size());
+			for (CramRecord r : d.records)
+				records.add(r.index + " " + r.mateAlignmentStart + " "
+						+ r.templateSize + " " + r.toString());
+			if (seen != null)
+				seen.addAll(d.records);
+			decoder.recycle(d, true);
+		}
+
+		decoder.close();
+		is.close();
+		return records;
+	}
+
+	@Test
+	public void testPooledDecoding() throws IOException,
+			IllegalAccessException {
+		List<String> expected = decodeToStrings(1, null);
+		Set<CramRecord> seen = newIdentitySet();
+		assertEquals(expected, decodeToStrings(1, seen));
+		// records of earlier containers are reused:
+		assertTrue(seen.size() < expected.size());
+		assertEquals(expected, decodeToStrings(4, newIdentitySet()));
+	}
+
+	@Test
+	public void testDecodingInParts() throws IOException,
+			IllegalAccessException {
+		List<String> expected = decodeToStrings(1, null);
+		List<Integer> sizes = new ArrayList<Integer>();
+		assertEquals(expected,
+				decodeToStrings(1, newIdentitySet(), 100, sizes));
+
+		assertTrue(sizes.size() > expected.size() / 1000);
+		int extended = 0;
+		for (int size : sizes)
+			if (size > 100)
+				extended++;
+		// parts only grow to take in mates:
+		assertTrue(extended < sizes.size() / 2);
+	}
+
+	@Test
+	public void testSliceDecodingRestoresMates() throws IOException,
+			IllegalAccessException {
+		File cramFile = new File(getClass().getResource(
+				"/data/set1/small.cram").getFile());
+		ReferenceSequenceFile refFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(new File(getClass().getResource(
+						"/data/set1/small.fa").getFile()));
+
+		SeekableFileStream s = new SeekableFileStream(cramFile);
+		CountingInputStream cis = new CountingInputStream(s);
+		CramHeader cramHeader = ReadWrite.readCramHeader(cis);
+		long offset = cis.getCount();
+
+		int partial = 0;
+		DecodedContainer full;
+		while ((full = new ContainerDecoder(s, cramHeader, refFile, 1)
+				.decodeSlices(s, offset, 0, Integer.MAX_VALUE)) != null) {
+			for (int slice = 0; slice < full.container.landmarks.length; slice++) {
+				DecodedContainer d = new ContainerDecoder(s, cramHeader,
+						refFile, 1).decodeSlices(s, offset, slice, slice);
+				assertEquals(full.nextContainerOffset, d.nextContainerOffset);
+				if (d.records.size() < full.records.size())
+					partial++;
+
+				int from = 0;
+				for (int i = 0; i < d.container.slices[0].index; i++)
+					from += full.container.slices[i].nofRecords;
+				for (int i = 0; i < d.records.size(); i++) {
+					CramRecord e = full.records.get(from + i);
+					CramRecord a = d.records.get(i);
+					assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+					assertEquals(e.mateAlignmentStart, a.mateAlignmentStart);
+					assertEquals(e.mateSequnceID, a.mateSequnceID);
+					assertEquals(e.templateSize, a.templateSize);
+					assertArrayEquals(e.getReadBases(), a.getReadBases());
+				}
+			}
+			offset = full.nextContainerOffset;
+		}
+		s.close();
+		assertTrue(partial > 0);
+	}
+
+	private static Set<CramRecord> newIdentitySet() {
+		return Collections
+				.newSetFromMap(new IdentityHashMap<CramRecord, Boolean>());
+	}
+}
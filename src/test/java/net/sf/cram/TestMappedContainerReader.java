@@ -0,0 +1,76 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.io.CountingInputStream;
+import net.sf.cram.structure.Container;
+
+import org.junit.Test;
+
+public class TestMappedContainerReader {
+
+	private File cramFile() {
+		return new File(getClass().getResource("/data/set1/small.cram")
+				.getFile());
+	}
+
+	private static List<String> toStrings(CramHeader cramHeader, Container c)
+			throws IllegalAccessException, IOException {
+		List<String> list = new ArrayList<String>();
+		list.add(c.toString());
+		for (CramRecord r : BLOCK_PROTO.getRecords(c.h, c,
+				cramHeader.samFileHeader, null))
+			list.add(r.toString());
+		return list;
+	}
+
+	private List<String> readMapped(int windowSize)
+			throws IllegalAccessException, IOException {
+		CountingInputStream cis = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(cramFile())));
+		CramHeader cramHeader = ReadWrite.readCramHeader(cis);
+		cis.close();
+
+		FileChannel channel = new FileInputStream(cramFile()).getChannel();
+		MappedContainerReader reader = new MappedContainerReader(channel,
+				cramHeader.samFileHeader, cis.getCount(), windowSize);
+		List<String> list = new ArrayList<String>();
+		Container c;
+		while ((c = reader.next()) != null)
+			list.addAll(toStrings(cramHeader, c));
+		assertEquals(channel.size(), reader.getOffset());
+		assertNull(reader.next());
+		channel.close();
+		return list;
+	}
+
+	@Test
+	public void testSameAsStream() throws IOException, IllegalAccessException {
+		InputStream is = new BufferedInputStream(new FileInputStream(
+				cramFile()));
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		List<String> expected = new ArrayList<String>();
+		Container c;
+		while ((c = ReadWrite.readContainer(cramHeader.samFileHeader, is)) != null)
+			expected.addAll(toStrings(cramHeader, c));
+		is.close();
+		assertTrue(expected.size() > 0);
+
+		assertEquals(expected,
+				readMapped(MappedContainerReader.DEFAULT_WINDOW_SIZE));
+		// containers spanning windows and larger than the window:
+		assertEquals(expected, readMapped(1000));
+	}
+}
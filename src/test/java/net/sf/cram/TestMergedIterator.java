@@ -0,0 +1,204 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Test;
+
+public class TestMergedIterator {
+
+	private static class ListIterator implements CloseableIterator<SAMRecord> {
+		private Iterator<SAMRecord> it;
+		boolean closed = false;
+
+		ListIterator(List<SAMRecord> list) {
+			it = list.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public SAMRecord next() {
+			return it.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException("Unsupported operation.");
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * Takes a while for every record like a decoding iterator and notes if it
+	 * is closed in the middle of a record.
+	 */
+	private static class SlowIterator extends ListIterator {
+		private volatile boolean reading = false;
+		private volatile boolean closedWhileReading = false;
+
+		SlowIterator(List<SAMRecord> list) {
+			super(list);
+		}
+
+		@Override
+		public SAMRecord next() {
+			reading = true;
+			// busy, not interrupted like blocking reads:
+			long end = System.nanoTime() + 1000000;
+			while (System.nanoTime() < end)
+				Thread.yield();
+			SAMRecord record = super.next();
+			reading = false;
+			return record;
+		}
+
+		@Override
+		public void close() {
+			if (reading)
+				closedWhileReading = true;
+			super.close();
+		}
+	}
+
+	private static SAMFileHeader createHeader(String... names) {
+		SAMFileHeader header = new SAMFileHeader();
+		for (String name : names)
+			header.addSequence(new SAMSequenceRecord(name, 100000));
+		return header;
+	}
+
+	/**
+	 * Sorted records on both sequences followed by unmapped records.
+	 */
+	private static List<SAMRecord> createRecords(SAMFileHeader header,
+			Random random, int count) {
+		int[] starts = new int[count];
+		for (int i = 0; i < count; i++)
+			starts[i] = 1 + random.nextInt(1000);
+		Arrays.sort(starts);
+
+		List<SAMRecord> list = new ArrayList<SAMRecord>();
+		for (String name : new String[] { "chr1", "chr2" }) {
+			for (int i = 0; i < count; i++) {
+				SAMRecord r = new SAMRecord(header);
+				r.setReadName(name + "_" + i);
+				r.setReferenceName(name);
+				r.setAlignmentStart(starts[i]);
+				r.setCigarString("10M");
+				r.setReadString("ACGTACGTAC");
+				r.setBaseQualityString("##########");
+				list.add(r);
+			}
+		}
+		for (int i = 0; i < 3; i++) {
+			SAMRecord r = new SAMRecord(header);
+			r.setReadName("unmapped_" + i);
+			r.setReadUnmappedFlag(true);
+			r.setReadString("ACGT");
+			r.setBaseQualityString("####");
+			list.add(r);
+		}
+		return list;
+	}
+
+	private List<String> merge(int readAhead, int threads) {
+		Random random = new Random(7);
+		// the sources have the sequences in different orders:
+		SAMFileHeader h1 = createHeader("chr1", "chr2");
+		SAMFileHeader h2 = createHeader("chr2", "chr1");
+		SAMFileHeader merged = createHeader("chr1", "chr2");
+
+		List<String> ids = new ArrayList<String>();
+		List<ListIterator> iterators = new ArrayList<ListIterator>();
+		for (int i = 0; i < 5; i++) {
+			ids.add("s" + i);
+			iterators.add(new ListIterator(createRecords(i % 2 == 0 ? h1
+					: h2, random, 50 + 10 * i)));
+		}
+		// an empty source:
+		ids.add("empty");
+		iterators.add(new ListIterator(new ArrayList<SAMRecord>()));
+
+		MergedIterator it = new MergedIterator(ids, iterators, merged,
+				readAhead, threads);
+		List<String> result = new ArrayList<String>();
+		int prevSeq = 0, prevStart = 0;
+		boolean unmapped = false;
+		while (it.hasNext()) {
+			SAMRecord r = it.next();
+			assertTrue(r.getHeader() == merged);
+			if (r.getReadUnmappedFlag()) {
+				unmapped = true;
+				assertEquals(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, r
+						.getReferenceIndex().intValue());
+			} else {
+				assertFalse(unmapped);
+				int seq = r.getReferenceIndex();
+				assertEquals(r.getReadName().split("\\.")[1].split("_")[0],
+						r.getReferenceName());
+				assertTrue(seq > prevSeq
+						|| (seq == prevSeq && r.getAlignmentStart() >= prevStart));
+				prevSeq = seq;
+				prevStart = r.getAlignmentStart();
+			}
+			result.add(r.getReadName());
+		}
+		it.close();
+		for (ListIterator li : iterators)
+			assertTrue(li.closed);
+		return result;
+	}
+
+	@Test
+	public void testMergeOrder() {
+		List<String> expected = merge(MergedIterator.DEFAULT_READ_AHEAD_RECORDS,
+				0);
+		assertEquals(2 * (50 + 60 + 70 + 80 + 90) + 5 * 3, expected.size());
+
+		// small budgets and background reading do not change the order:
+		assertEquals(expected, merge(1, 0));
+		assertEquals(expected, merge(1, 3));
+		assertEquals(expected, merge(100, 2));
+	}
+
+	@Test
+	public void testCloseWaitsForReads() {
+		SAMFileHeader header = createHeader("chr1", "chr2");
+		List<String> ids = new ArrayList<String>();
+		List<SlowIterator> iterators = new ArrayList<SlowIterator>();
+		for (int i = 0; i < 3; i++) {
+			ids.add("s" + i);
+			iterators.add(new SlowIterator(createRecords(header, new Random(
+					i), 500)));
+		}
+
+		MergedIterator it = new MergedIterator(ids, iterators, header, 300, 3);
+		it.next();
+		// the next batches are being read:
+		it.close();
+		for (SlowIterator si : iterators) {
+			assertTrue(si.closed);
+			assertFalse(si.closedWhileReading);
+		}
+	}
+}
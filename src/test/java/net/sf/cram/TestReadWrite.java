@@ -0,0 +1,94 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.index.CramIndex;
+import net.sf.cram.io.CountingInputStream;
+import net.sf.cram.structure.Container;
+
+import org.junit.Test;
+
+public class TestReadWrite {
+
+	private CountingInputStream openCram() throws IOException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		return new CountingInputStream(is);
+	}
+
+	private static String toString(Container c) {
+		return c.offset + " " + c.toString() + " " + c.containerByteSize;
+	}
+
+	@Test
+	public void testSkipScan() throws IOException {
+		CountingInputStream is = openCram();
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		List<String> expected = new ArrayList<String>();
+		List<String> expectedEntries = new ArrayList<String>();
+		while (true) {
+			long offset = is.getCount();
+			Container c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
+			if (c == null)
+				break;
+			c.offset = offset;
+			c.slices = null;
+			expected.add(toString(c));
+		}
+		is.close();
+		assertTrue(expected.size() > 1);
+
+		is = openCram();
+		ReadWrite.readCramHeader(is);
+		List<String> skipped = new ArrayList<String>();
+		while (true) {
+			long offset = is.getCount();
+			Container c = ReadWrite.skipContainer(is);
+			if (c == null)
+				break;
+			c.offset = offset;
+			skipped.add(toString(c));
+		}
+		is.close();
+		assertEquals(expected, skipped);
+
+		// the index entries from slice headers only:
+		is = openCram();
+		ReadWrite.readCramHeader(is);
+		List<String> entries = new ArrayList<String>();
+		while (true) {
+			long offset = is.getCount();
+			Container c = ReadWrite.readSliceHeaders(is);
+			if (c == null)
+				break;
+			c.offset = offset;
+			for (CramIndex.Entry e : CramIndex.getEntries(c))
+				entries.add(e.toString());
+		}
+		assertNull(ReadWrite.skipContainer(is));
+		is.close();
+
+		is = openCram();
+		ReadWrite.readCramHeader(is);
+		while (true) {
+			long offset = is.getCount();
+			Container c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
+			if (c == null)
+				break;
+			c.offset = offset;
+			for (CramIndex.Entry e : CramIndex.getEntries(c))
+				expectedEntries.add(e.toString());
+		}
+		is.close();
+		assertEquals(expectedEntries, entries);
+	}
+}
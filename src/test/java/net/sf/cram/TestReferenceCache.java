@@ -0,0 +1,41 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+
+import org.junit.Test;
+
+public class TestReferenceCache {
+
+	@Test
+	public void testNormalize() {
+		assertArrayEquals("ACGTNNNA".getBytes(),
+				ReferenceCache.normalize("acg\nTn\nRyA".getBytes()));
+		byte[] bases = "ACGT".getBytes();
+		assertSame(bases, ReferenceCache.normalize(bases));
+	}
+
+	@Test
+	public void testEviction() {
+		ReferenceSequenceFile rsFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(new File(
+						"src/test/resources/data/set1/small.fa"));
+		String name = rsFile.nextSequence().getName();
+
+		ReferenceCache cache = new ReferenceCache(1);
+		byte[] bases = cache.getBases(rsFile, name, null);
+		assertSame(bases, cache.getBases(rsFile, name, null));
+		assertEquals(bases.length, cache.getBytes());
+
+		// the last sequence is kept even if it is over the limit:
+		byte[] other = cache.getBases(rsFile, name, "md5");
+		assertArrayEquals(bases, other);
+		assertEquals(other.length, cache.getBytes());
+	}
+}
@@ -0,0 +1,91 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.junit.Test;
+
+public class TestReferenceSource {
+
+	private static File writeFasta(String name, byte[] bases, int lineLength,
+			int faiLineBytes) throws IOException {
+		File file = File.createTempFile("test", ".fa");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(">" + name + "\n");
+		for (int i = 0; i < bases.length; i += lineLength) {
+			writer.write(new String(bases, i, Math.min(lineLength, bases.length
+					- i)));
+			writer.write("\n");
+		}
+		writer.close();
+
+		File fai = new File(file.getAbsolutePath() + ".fai");
+		fai.deleteOnExit();
+		writer = new FileWriter(fai);
+		writer.write(String.format("%s\t%d\t%d\t%d\t%d\n", name, bases.length,
+				name.length() + 2, lineLength, faiLineBytes));
+		writer.close();
+		return file;
+	}
+
+	private static byte[] randomBases(int length) {
+		Random random = new Random(0);
+		byte[] bases = new byte[length];
+		for (int i = 0; i < length; i++)
+			bases[i] = (byte) "acgtACGTN".charAt(random.nextInt(9));
+		return bases;
+	}
+
+	@Test
+	public void testRegions() throws IOException {
+		byte[] bases = randomBases(5000);
+		byte[] normalized = ReferenceCache.normalize(bases.clone());
+		ReferenceSequenceFile rsFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(writeFasta("seq1", bases, 60, 61));
+		ReferenceCache cache = new ReferenceCache(Long.MAX_VALUE);
+		ReferenceSource source = new ReferenceSource(rsFile, cache);
+		SAMSequenceRecord sequence = new SAMSequenceRecord("chrseq1",
+				bases.length);
+
+		ReferenceRegion region = source.getRegion(sequence, 100, 1000);
+		assertEquals(100, region.start);
+		assertArrayEquals(Arrays.copyOfRange(normalized, 100, 1000),
+				region.bases);
+		assertNull(cache.getCachedBases(rsFile, sequence));
+
+		region = source.getRegion(sequence, 4990, 6000);
+		assertEquals(bases.length, region.end());
+		assertArrayEquals(Arrays.copyOfRange(normalized, 4990, 5000),
+				region.bases);
+
+		// whole sequence once cached:
+		source.getSequence(sequence);
+		region = source.getRegion(sequence, 100, 1000);
+		assertEquals(0, region.start);
+		assertArrayEquals(normalized, region.bases);
+	}
+
+	@Test
+	public void testIndexNotMatchingFile() throws IOException {
+		byte[] bases = randomBases(5000);
+		ReferenceSequenceFile rsFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(writeFasta("seq1", bases, 60, 62));
+		ReferenceSource source = new ReferenceSource(rsFile,
+				new ReferenceCache(Long.MAX_VALUE));
+		ReferenceRegion region = source.getRegion(new SAMSequenceRecord(
+				"seq1", bases.length), 100, 1000);
+		assertEquals(0, region.start);
+	}
+}
@@ -0,0 +1,125 @@
+package net.sf.cram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.cram.index.CramIndex;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
+import net.sf.samtools.SAMIterator;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Test;
+
+public class TestShardedMerge {
+
+	private File getResourceFile(String name) {
+		return new File(getClass().getResource(name).getFile());
+	}
+
+	@Test
+	public void testSplit() {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 25));
+		header.addSequence(new SAMSequenceRecord("chr2", 10));
+
+		List<String> shards = new ArrayList<String>();
+		for (ShardedMerge.Shard shard : ShardedMerge.split(header, null, 10))
+			shards.add(shard.toString());
+		assertEquals(Arrays.asList("chr1:1-10", "chr1:11-20", "chr1:21-25",
+				"chr2:1-10", "unmapped"), shards);
+
+		shards.clear();
+		for (ShardedMerge.Shard shard : ShardedMerge.split(header,
+				new AlignmentSliceQuery("chr1:5-16"), 10))
+			shards.add(shard.toString());
+		assertEquals(Arrays.asList("chr1:5-14", "chr1:15-16"), shards);
+	}
+
+	@Test
+	public void testMergeIntoCram() throws IOException {
+		SAMFileReader.setDefaultValidationStringency(ValidationStringency.SILENT);
+		File bamFile = getResourceFile("/data/set1/small_noRG.bam");
+		ReferenceSequenceFile refFile = ReferenceSequenceFileFactory
+				.getReferenceSequenceFile(getResourceFile("/data/set1/small.fa"));
+		List<File> files = Arrays.asList(bamFile, bamFile);
+		List<String> ids = Arrays.asList("a", "b");
+
+		SAMFileReader r1 = new SAMFileReader(bamFile);
+		SAMFileReader r2 = new SAMFileReader(bamFile);
+		SAMFileHeader header = r1.getFileHeader().clone();
+		List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>();
+		iterators.add(r1.iterator());
+		iterators.add(r2.iterator());
+		MergedIterator expected = new MergedIterator(ids, iterators, header,
+				MergedIterator.DEFAULT_READ_AHEAD_RECORDS, 0);
+
+		File cramFile = File.createTempFile("merged", ".cram");
+		File craiFile = new File(cramFile.getAbsolutePath() + ".crai");
+		cramFile.deleteOnExit();
+		craiFile.deleteOnExit();
+
+		// small shards and containers, so that there are several of each:
+		ShardedMerge merge = new ShardedMerge(files, ids, header, refFile);
+		merge.maxContainerSize = 1000;
+		merge.run(ShardedMerge.split(header, null, 5000), cramFile, 3);
+
+		InputStream is = new BufferedInputStream(new FileInputStream(cramFile));
+		SAMIterator actual = new SAMIterator(is, refFile);
+		int count = 0;
+		while (expected.hasNext()) {
+			SAMRecord e = expected.next();
+			assertTrue(actual.hasNext());
+			SAMRecord a = actual.next();
+			assertEquals(e.getReadName(), a.getReadName());
+			assertEquals(e.getFlags(), a.getFlags());
+			assertEquals(e.getReferenceIndex(), a.getReferenceIndex());
+			assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+			assertEquals(e.getCigarString(), a.getCigarString());
+			assertEquals(e.getReadString(), a.getReadString());
+			assertEquals(e.getBaseQualityString(), a.getBaseQualityString());
+			count++;
+		}
+		assertFalse(actual.hasNext());
+		actual.close();
+		expected.close();
+		r1.close();
+		r2.close();
+		assertTrue(count > 0);
+
+		// the index points at the containers of the output:
+		InputStream indexIs = new GZIPInputStream(new FileInputStream(
+				craiFile));
+		List<CramIndex.Entry> entries = CramIndex.readIndex(indexIs);
+		indexIs.close();
+		assertTrue(entries.size() > 1);
+		long prevOffset = -1;
+		for (CramIndex.Entry entry : entries) {
+			// the first slice of a container starts where the container does:
+			if (entry.containerStartOffset == prevOffset)
+				continue;
+			prevOffset = entry.containerStartOffset;
+			is = new FileInputStream(cramFile);
+			is.skip(entry.containerStartOffset);
+			assertEquals(entry.alignmentStart, ReadWrite
+					.readContainerHeader(is).alignmentStart);
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package net.sf.cram.encoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.cram.BLOCK_PROTO;
+import net.sf.cram.CramRecord;
+import net.sf.cram.ReadWrite;
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.io.DefaultBitInputStream;
+import net.sf.cram.io.DefaultBitOutputStream;
+import net.sf.cram.io.ExposedByteArrayOutputStream;
+import net.sf.cram.structure.CompressionHeader;
+import net.sf.cram.structure.Container;
+import net.sf.cram.structure.Slice;
+
+import org.junit.Test;
+
+public class TestCodecPlan {
+
+	@Test
+	public void testSharedPlanMatchesPerSliceHeader() throws IOException,
+			IllegalAccessException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+
+		int containers = 0;
+		Container c;
+		while ((c = ReadWrite.readContainer(cramHeader.samFileHeader, is)) != null) {
+			List<CramRecord> expected = new ArrayList<CramRecord>();
+			for (Slice s : c.slices)
+				expected.addAll(BLOCK_PROTO.getRecords(s, c.h,
+						cramHeader.samFileHeader,
+						new TreeMap<String, Long>()));
+
+			// the plan is built once and shared by all slices here:
+			List<CramRecord> actual = BLOCK_PROTO.getRecords(c.h, c,
+					cramHeader.samFileHeader, null);
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				CramRecord e = expected.get(i);
+				CramRecord a = actual.get(i);
+				assertEquals(e.getFlags(), a.getFlags());
+				assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+				assertEquals(e.getReadFeatures(), a.getReadFeatures());
+				assertArrayEquals(e.getQualityScores(), a.getQualityScores());
+			}
+			containers++;
+		}
+		is.close();
+		assertTrue(containers > 0);
+	}
+
+	@Test
+	public void testEverySeriesFieldIsBound() throws IOException,
+			IllegalAccessException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		Container c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
+		is.close();
+
+		Map<Integer, InputStream> inputMap = new HashMap<Integer, InputStream>();
+		for (Integer id : c.slices[0].external.keySet())
+			inputMap.put(id, new ByteArrayInputStream(new byte[0]));
+		Reader reader = new DataReaderFactory().buildReader(
+				new DefaultBitInputStream(new ByteArrayInputStream(new byte[0])),
+				inputMap, c.h, 0);
+
+		Map<Integer, ExposedByteArrayOutputStream> outputMap = new HashMap<Integer, ExposedByteArrayOutputStream>();
+		for (Integer id : c.slices[0].external.keySet())
+			outputMap.put(id, new ExposedByteArrayOutputStream());
+		Writer writer = new DataWriterFactory().buildWriter(
+				new DefaultBitOutputStream(new ByteArrayOutputStream()),
+				outputMap, c.h, 0);
+
+		for (Object o : new Object[] { reader, writer })
+			for (Field f : o.getClass().getFields())
+				if (f.isAnnotationPresent(DataSeries.class))
+					assertNotNull(f.getName(), f.get(o));
+	}
+
+	@Test
+	public void testPlansKeptPerHeader() throws IOException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		Container c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
+		is.close();
+
+		CompressionHeader h1 = c.h;
+		CompressionHeader h2 = new CompressionHeader();
+		h2.read(h1.toByteArray());
+		CodecPlan p1 = CodecPlan.forReader(h1);
+		CodecPlan p2 = CodecPlan.forReader(h2);
+		assertTrue(p1 != p2);
+		// alternating headers do not rebuild the plans:
+		assertTrue(p1 == CodecPlan.forReader(h1));
+		assertTrue(p2 == CodecPlan.forReader(h2));
+		assertTrue(CodecPlan.forWriter(h1) == CodecPlan.forWriter(h1));
+		assertTrue(CodecPlan.forWriter(h1) != CodecPlan.forWriter(h2));
+	}
+}
@@ -0,0 +1,63 @@
+package net.sf.cram.encoding;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import net.sf.cram.encoding.huffint.CanonicalHuffmanIntegerCodec2;
+import net.sf.cram.io.DefaultBitInputStream;
+import net.sf.cram.io.DefaultBitOutputStream;
+
+import org.junit.Test;
+
+public class TestIntBitCodec {
+	private static final int[] values = new int[] { 1, 2, 3, 4, 5, 6, 7, 8,
+			9, 10, 11, 12 };
+
+	/**
+	 * Values written with the primitive method must be read back with both
+	 * the primitive and the boxed methods and vice versa.
+	 */
+	private static void roundTrip(IntBitCodec codec) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DefaultBitOutputStream bos = new DefaultBitOutputStream(baos);
+		for (int value : values) {
+			assertEquals(codec.numberOfBits(value), codec.writeInt(bos, value));
+			codec.write(bos, value);
+		}
+		bos.close();
+
+		DefaultBitInputStream bis = new DefaultBitInputStream(
+				new ByteArrayInputStream(baos.toByteArray()));
+		for (int value : values) {
+			assertEquals(value, (int) codec.read(bis));
+			assertEquals(value, codec.readInt(bis));
+		}
+	}
+
+	@Test
+	public void testBitCodecs() throws IOException {
+		roundTrip(new BetaIntegerCodec(0, 4));
+		roundTrip(new GammaIntegerCodec(0));
+		roundTrip(new SubexpIntegerCodec(0, 2));
+		roundTrip(new GolombIntegerCodec(3));
+		roundTrip(new GolombRiceIntegerCodec(2));
+		roundTrip(new CanonicalHuffmanIntegerCodec2(values, new int[] { 2, 2,
+				3, 4, 5, 6, 7, 8, 9, 10, 11, 11 }));
+	}
+
+	@Test
+	public void testExternalCodec() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ExternalIntegerCodec writer = new ExternalIntegerCodec(os, null);
+		for (int value : new int[] { 0, 127, 128, 1 << 20, Integer.MAX_VALUE })
+			writer.writeInt(null, value);
+
+		ExternalIntegerCodec reader = new ExternalIntegerCodec(null,
+				new ByteArrayInputStream(os.toByteArray()));
+		for (int value : new int[] { 0, 127, 128, 1 << 20, Integer.MAX_VALUE })
+			assertEquals(value, reader.readInt(null));
+	}
+}
@@ -0,0 +1,119 @@
+package net.sf.cram.encoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.sf.cram.DataSeriesType;
+import net.sf.cram.EncodingID;
+import net.sf.cram.EncodingParams;
+import net.sf.cram.structure.BlockCodecs;
+
+import org.junit.Test;
+
+public class TestNameTokenizer {
+
+	private static byte[] block(String... names) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		for (String name : names) {
+			os.write(name.getBytes("US-ASCII"));
+			os.write(0);
+		}
+		return os.toByteArray();
+	}
+
+	private static byte[] assertRoundTrip(byte[] data) {
+		byte[] coded = NameTokenizer.encode(data, 0, data.length);
+		assertArrayEquals(data, NameTokenizer.decode(coded));
+		return coded;
+	}
+
+	/**
+	 * Illumina names sorted by tile, each name given once or twice.
+	 */
+	private static String[] createNames(Random random, int count) {
+		String[] names = new String[count];
+		int tile = 1101, x = 1000;
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && random.nextBoolean()) {
+				names[i] = names[i - 1];
+				continue;
+			}
+			if (random.nextInt(100) == 0) {
+				tile++;
+				x = 1000;
+			}
+			x += random.nextInt(300);
+			names[i] = "HWI-ST1234:8:" + tile + ":" + x + ":"
+					+ random.nextInt(200000) + "#0/1";
+		}
+		return names;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		assertRoundTrip(new byte[0]);
+		assertRoundTrip(block(""));
+		assertRoundTrip(block("", "", "a", ""));
+		assertRoundTrip(block(createNames(new Random(1), 1000)));
+		assertRoundTrip(block("SRR062634.1", "SRR062634.2", "SRR062634.3",
+				"SRR062634.300", "SRR062634.299", "SRR062634.299"));
+
+		// leading zeros, numbers too long for an int, changing token types:
+		assertRoundTrip(block("r007", "r008", "r0", "r0", "r00", "r1",
+				"r12345678901234567890", "r12345678901234567891",
+				"r999999999", "r1000000000", "a1b2", "1a2b", "a1b2c", "a1"));
+
+		// more tokens than positions:
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			sb.append("x").append(i);
+		String longName = sb.toString();
+		assertRoundTrip(block(longName, longName + "y", longName, "x1x2",
+				longName));
+
+		// names of any bytes but zero:
+		Random random = new Random(2);
+		byte[] data = new byte[10000];
+		random.nextBytes(data);
+		for (int i = 0; i < data.length; i++)
+			if (data[i] == 0 && random.nextInt(20) != 0)
+				data[i] = 1;
+		data[data.length - 1] = 0;
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testPartOfArray() throws IOException {
+		byte[] data = block("a:1", "a:2", "b:3");
+		byte[] coded = NameTokenizer.encode(data, 4, 8);
+		assertArrayEquals(block("a:2", "b:3"),
+				NameTokenizer.decode(ByteBuffer.wrap(coded)));
+	}
+
+	@Test
+	public void testSmallerThanPlainNames() throws IOException {
+		byte[] data = block(createNames(new Random(3), 10000));
+		byte[] coded = assertRoundTrip(data);
+		int plain = BlockCodecs.GZIP.compress(data).length;
+		int tokens = BlockCodecs.GZIP.compress(coded).length;
+		assertTrue(tokens * 4 < plain * 3);
+	}
+
+	@Test
+	public void testEncodingParams() {
+		EncodingParams params = TokenizedNameEncoding.toParam(3);
+		assertEquals(EncodingID.TOKENS, params.id);
+
+		Encoding<byte[]> e = new EncodingFactory().createEncoding(
+				DataSeriesType.BYTE_ARRAY, EncodingID.TOKENS);
+		e.fromByteArray(params.params);
+		assertEquals(3, ((TokenizedNameEncoding) e).contentId);
+		assertArrayEquals(params.params, e.toByteArray());
+	}
+}
@@ -0,0 +1,181 @@
+package net.sf.cram.encoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.cram.DataSeriesType;
+import net.sf.cram.EncodingID;
+import net.sf.cram.EncodingParams;
+import net.sf.cram.io.ArrayBitInputStream;
+import net.sf.cram.io.ArrayBitOutputStream;
+import net.sf.cram.stats.CompressionHeaderFactory.HuffmanParamsCalculator;
+import net.sf.cram.structure.BlockCodec;
+import net.sf.cram.structure.BlockCodecs;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class TestRangeCoder {
+
+	/**
+	 * Quality scores drifting down along reads, with runs of '#' at the end
+	 * of some of them.
+	 */
+	private static byte[] createScores(Random random, int reads, int length) {
+		byte[] scores = new byte[reads * length];
+		for (int r = 0; r < reads; r++) {
+			int q = 30 + random.nextInt(10);
+			int tail = random.nextInt(4) == 0 ? random.nextInt(length) : length;
+			for (int i = 0; i < length; i++) {
+				if (i >= tail) {
+					scores[r * length + i] = '#';
+					continue;
+				}
+				q = Math.max(2, Math.min(40, q + random.nextInt(5) - 2
+						- (random.nextInt(length) < i ? 1 : 0)));
+				scores[r * length + i] = (byte) (33 + q);
+			}
+		}
+		return scores;
+	}
+
+	private static void assertRoundTrip(byte[] data, int order) {
+		byte[] coded = RangeCoder.encode(data, 0, data.length, order);
+		assertArrayEquals(data, RangeCoder.decode(coded));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(7);
+		byte[] scores = createScores(random, 1000, 100);
+		for (int order = 0; order <= RangeCoder.MAX_ORDER; order++)
+			assertRoundTrip(scores, order);
+
+		assertRoundTrip(new byte[0], 2);
+		byte[] single = new byte[1000];
+		Arrays.fill(single, (byte) 'I');
+		assertRoundTrip(single, 2);
+
+		// all byte values, too many for an order 2 model:
+		byte[] all = new byte[100000];
+		random.nextBytes(all);
+		assertRoundTrip(all, 2);
+		assertEquals(1, RangeCoder.order(2, 256));
+		assertEquals(2, RangeCoder.order(2, 64));
+	}
+
+	@Test
+	public void testPartOfArray() {
+		byte[] scores = createScores(new Random(3), 100, 50);
+		byte[] coded = RangeCoder.encode(scores, 50, 2000, 2);
+		assertArrayEquals(Arrays.copyOfRange(scores, 50, 2050),
+				RangeCoder.decode(coded));
+	}
+
+	@Test
+	public void testContextHelps() {
+		byte[] scores = createScores(new Random(5), 1000, 100);
+		int order0 = RangeCoder.encode(scores, 0, scores.length, 0).length;
+		int order2 = RangeCoder.encode(scores, 0, scores.length, 2).length;
+		assertTrue(order2 < order0);
+	}
+
+	@Test
+	public void testEncodingParams() {
+		EncodingParams params = RangeByteEncoding.toParam(1, 2);
+		assertEquals(EncodingID.RANGE, params.id);
+
+		EncodingFactory f = new EncodingFactory();
+		Encoding<Byte> bytes = f.createEncoding(DataSeriesType.BYTE,
+				EncodingID.RANGE);
+		bytes.fromByteArray(params.params);
+		assertEquals(1, ((RangeByteEncoding) bytes).contentId);
+		assertEquals(2, ((RangeByteEncoding) bytes).order);
+
+		Encoding<byte[]> arrays = f.createEncoding(DataSeriesType.BYTE_ARRAY,
+				EncodingID.RANGE);
+		arrays.fromByteArray(params.params);
+		assertArrayEquals(params.params, arrays.toByteArray());
+	}
+
+	/**
+	 * Throughput of quality scores in an external block compressed with gzip,
+	 * Huffman coded in the core and range coded.
+	 */
+	@Test
+	@Ignore
+	public void benchmark() throws IOException {
+		byte[] scores = createScores(new Random(1), 100000, 100);
+		int rounds = 5;
+
+		BlockCodec gzip = BlockCodecs.GZIP;
+		byte[] gzipped = null;
+		long time = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			gzipped = gzip.compress(scores);
+		long gzipWrite = System.nanoTime() - time;
+		time = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			gzip.uncompress(gzipped, scores.length);
+		long gzipRead = System.nanoTime() - time;
+		print("gzip", scores.length, gzipped.length, gzipWrite, gzipRead,
+				rounds);
+
+		HuffmanParamsCalculator calculator = new HuffmanParamsCalculator();
+		for (byte b : scores)
+			calculator.add(b);
+		calculator.calculate();
+		EncodingParams params = HuffmanByteEncoding.toParam(
+				calculator.valuesAsBytes(), calculator.bitLens());
+		HuffmanByteEncoding huffman = new HuffmanByteEncoding();
+		huffman.fromByteArray(params.params);
+		BitCodec<Byte> codec = huffman.buildCodec(null, null);
+		ByteBitCodec byteCodec = (ByteBitCodec) codec;
+		byte[] huffmanBits = null;
+		time = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			ArrayBitOutputStream bos = new ArrayBitOutputStream();
+			for (byte b : scores)
+				byteCodec.writeByte(bos, b);
+			bos.close();
+			huffmanBits = bos.toByteArray();
+		}
+		long huffmanWrite = System.nanoTime() - time;
+		time = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			ArrayBitInputStream bis = new ArrayBitInputStream(huffmanBits);
+			for (int j = 0; j < scores.length; j++)
+				byteCodec.readByte(bis);
+		}
+		long huffmanRead = System.nanoTime() - time;
+		print("huffman", scores.length, huffmanBits.length, huffmanWrite,
+				huffmanRead, rounds);
+
+		for (int order = 0; order <= RangeCoder.MAX_ORDER; order++) {
+			byte[] coded = null;
+			time = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				coded = RangeCoder.encode(scores, 0, scores.length, order);
+			long write = System.nanoTime() - time;
+			time = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				RangeCoder.decode(coded);
+			long read = System.nanoTime() - time;
+			print("range order " + order, scores.length, coded.length, write,
+					read, rounds);
+		}
+	}
+
+	private static void print(String name, int size, int codedSize,
+			long writeNanos, long readNanos, int rounds) {
+		System.out.printf(
+				"%s: %d bytes, %.2f bits per score, write %.1f MB/s, read %.1f MB/s\n",
+				name, codedSize, 8.0 * codedSize / size, rounds * size * 1000.0
+						/ writeNanos, rounds * size * 1000.0 / readNanos);
+	}
+}
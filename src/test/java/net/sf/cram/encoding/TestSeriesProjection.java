@@ -0,0 +1,126 @@
+package net.sf.cram.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import net.sf.cram.BLOCK_PROTO;
+import net.sf.cram.CramRecord;
+import net.sf.cram.EncodingKey;
+import net.sf.cram.ReadWrite;
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.encoding.read_features.ReadFeature;
+import net.sf.cram.structure.Block;
+import net.sf.cram.structure.Container;
+import net.sf.cram.structure.Slice;
+
+import org.junit.Test;
+
+public class TestSeriesProjection {
+
+	private InputStream openCram() {
+		return new BufferedInputStream(getClass().getResourceAsStream(
+				"/data/set1/small.cram"));
+	}
+
+	@Test
+	public void testStructuralSeriesOnly() throws IOException,
+			IllegalAccessException {
+		InputStream fullIs = openCram();
+		InputStream projectedIs = openCram();
+		CramHeader cramHeader = ReadWrite.readCramHeader(fullIs);
+		ReadWrite.readCramHeader(projectedIs);
+
+		SeriesProjection projection = SeriesProjection.of();
+		int skippedBlocks = 0;
+		Container full;
+		while ((full = ReadWrite.readContainer(cramHeader.samFileHeader,
+				fullIs)) != null) {
+			Container projected = ReadWrite.readContainer(
+					cramHeader.samFileHeader, projectedIs);
+			List<CramRecord> expected = BLOCK_PROTO.getRecords(full.h, full,
+					cramHeader.samFileHeader, null);
+			List<CramRecord> actual = BLOCK_PROTO.getRecords(projected.h,
+					projected, cramHeader.samFileHeader, null, null,
+					projection);
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				CramRecord e = expected.get(i);
+				CramRecord a = actual.get(i);
+				assertEquals(e.getFlags(), a.getFlags());
+				assertEquals(e.getAlignmentStart(), a.getAlignmentStart());
+				assertEquals(e.getReadLength(), a.getReadLength());
+				assertEquals(e.getMappingQuality(), a.getMappingQuality());
+				assertEquals(e.getRecordsToNextFragment(),
+						a.getRecordsToNextFragment());
+				assertFeatureLayout(e.getReadFeatures(), a.getReadFeatures());
+				assertNull(a.tags);
+				assertFalse(a.hasReadName());
+			}
+
+			// quality scores are not needed by anything else:
+			CodecPlan plan = CodecPlan.forReader(projected.h, projection);
+			assertFalse(plan.getSkippedContentIds().isEmpty());
+			for (Slice s : projected.slices)
+				for (Block b : s.external.values())
+					if (plan.getSkippedContentIds().contains(b.contentId)) {
+						assertFalse(b.isUncompressed());
+						skippedBlocks++;
+					} else
+						assertTrue(b.isUncompressed());
+		}
+		fullIs.close();
+		projectedIs.close();
+		assertTrue(skippedBlocks > 0);
+	}
+
+	@Test
+	public void testAllSeries() throws IOException, IllegalAccessException {
+		InputStream is = openCram();
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		Container c = ReadWrite.readContainer(cramHeader.samFileHeader, is);
+		is.close();
+
+		CodecPlan plan = CodecPlan.forReader(c.h, SeriesProjection.of(
+				EncodingKey.QS_QualityScore, EncodingKey.RN_ReadName,
+				EncodingKey.BA_Base, EncodingKey.BS_BaseSubstitutionCode,
+				EncodingKey.NP_NextFragmentAlignmentStart,
+				EncodingKey.TS_InsetSize).withAllTags());
+		assertTrue(plan.getSkippedContentIds().isEmpty());
+		for (CodecPlan.Series s : plan.series)
+			assertFalse(s.skipped);
+	}
+
+	@Test
+	public void testTags() {
+		SeriesProjection projection = SeriesProjection.of().withTags("RG");
+		assertTrue(projection.includesTag('R' << 16 | 'G' << 8 | 'Z'));
+		assertFalse(projection.includesTag('N' << 16 | 'M' << 8 | 'i'));
+		assertFalse(projection.includes(EncodingKey.QS_QualityScore));
+		assertTrue(projection.includes(EncodingKey.BF_BitFlags));
+		assertTrue(SeriesProjection.ALL.includesTag('N' << 16 | 'M' << 8
+				| 'i'));
+	}
+
+	private static void assertFeatureLayout(List<ReadFeature> expected,
+			List<ReadFeature> actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getOperator(), actual.get(i)
+					.getOperator());
+			assertEquals(expected.get(i).getPosition(), actual.get(i)
+					.getPosition());
+		}
+	}
+}
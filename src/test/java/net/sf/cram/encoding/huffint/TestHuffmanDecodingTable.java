@@ -0,0 +1,65 @@
+package net.sf.cram.encoding.huffint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import net.sf.cram.io.DefaultBitInputStream;
+import net.sf.cram.io.DefaultBitOutputStream;
+import net.sf.cram.stats.CompressionHeaderFactory.HuffmanParamsCalculator;
+
+import org.junit.Test;
+
+public class TestHuffmanDecodingTable {
+
+	@Test
+	public void testLongCodesAndMixedReads() throws IOException {
+		// exponentially skewed frequencies give codes longer than the table:
+		HuffmanParamsCalculator cal = new HuffmanParamsCalculator();
+		for (int i = 0; i < 20; i++)
+			cal.add(i * 7, 1 << (20 - i));
+		cal.calculate();
+
+		int maxLen = 0;
+		for (int len : cal.bitLens())
+			maxLen = Math.max(maxLen, len);
+		assertTrue(maxLen > HuffmanDecodingTable.MAX_TABLE_BITS);
+
+		Helper helper = new Helper(cal.values(), cal.bitLens());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DefaultBitOutputStream bos = new DefaultBitOutputStream(baos);
+		for (int round = 0; round < 3; round++) {
+			for (int value : cal.values()) {
+				helper.write(bos, value);
+				bos.write(value & 7, 3);
+			}
+		}
+		// finish with the longest code so that the peek hits the end:
+		helper.write(bos, cal.values()[cal.values().length - 1]);
+		bos.close();
+
+		DefaultBitInputStream bis = new DefaultBitInputStream(
+				new ByteArrayInputStream(baos.toByteArray()));
+		for (int round = 0; round < 3; round++) {
+			for (int value : cal.values()) {
+				assertEquals(value, helper.read(bis));
+				assertEquals(value & 7, bis.readBits(3));
+			}
+		}
+		assertEquals(cal.values()[cal.values().length - 1], helper.read(bis));
+	}
+
+	@Test
+	public void testSingleValue() throws IOException {
+		HelperByte helper = new HelperByte(new byte[] { 33 }, new int[] { 0 });
+
+		DefaultBitInputStream bis = new DefaultBitInputStream(
+				new ByteArrayInputStream(new byte[0]));
+		assertEquals(33, helper.read(bis));
+		assertEquals(33, helper.read(bis));
+	}
+}
@@ -0,0 +1,111 @@
+package net.sf.cram.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.cram.index.CramIndex.Entry;
+
+import org.junit.Test;
+
+public class TestBinaryCramIndex {
+
+	private static List<Entry> randomEntries(Random random) {
+		List<Entry> entries = new ArrayList<Entry>();
+		long offset = 100;
+		for (int seqId = 0; seqId < 3; seqId++) {
+			int start = 1;
+			for (int i = 0; i < 200; i++) {
+				Entry e = new Entry();
+				e.sequenceId = seqId;
+				e.alignmentStart = start;
+				e.alignmentSpan = 1 + random.nextInt(seqId == 1 ? 5000 : 100);
+				e.containerStartOffset = offset;
+				e.sliceOffset = i % 2 == 0 ? 0 : 1000;
+				e.sliceSize = 1000;
+				e.sliceIndex = i % 2;
+				if (i % 2 == 1)
+					offset += 2000;
+				entries.add(e);
+				start += random.nextInt(50);
+			}
+		}
+		return entries;
+	}
+
+	private static List<Entry> bruteForce(List<Entry> entries, int seqId,
+			int start, int span) {
+		List<Entry> found = new ArrayList<Entry>();
+		for (Entry e : entries)
+			if (e.sequenceId == seqId && e.alignmentStart < start + span
+					&& e.alignmentStart + e.alignmentSpan > start)
+				found.add(e);
+		return found;
+	}
+
+	private static void assertSameEntries(List<Entry> expected,
+			List<Entry> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).toString(), actual.get(i).toString());
+			assertEquals(expected.get(i).sliceIndex, actual.get(i).sliceIndex);
+		}
+	}
+
+	@Test
+	public void testFind() throws IOException {
+		Random random = new Random(0);
+		List<Entry> entries = randomEntries(random);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryCramIndex.write(new ArrayList<Entry>(entries), baos);
+		BinaryCramIndex index = new BinaryCramIndex(ByteBuffer.wrap(baos
+				.toByteArray()));
+		assertEquals(entries.size(), index.size());
+
+		for (int i = 0; i < 1000; i++) {
+			int seqId = random.nextInt(4);
+			int start = random.nextInt(12000);
+			int span = 1 + random.nextInt(500);
+			assertSameEntries(bruteForce(entries, seqId, start, span),
+					index.find(seqId, start, span));
+		}
+	}
+
+	@Test
+	public void testConvert() throws IOException {
+		List<Entry> entries = randomEntries(new Random(1));
+
+		File file = File.createTempFile("test", ".crai");
+		file.deleteOnExit();
+		OutputStream os = new GZIPOutputStream(new FileOutputStream(file));
+		for (Entry e : entries) {
+			os.write(e.toString().getBytes());
+			os.write('\n');
+		}
+		os.close();
+		assertFalse(BinaryCramIndex.isBinary(file));
+
+		BinaryCramIndex.convert(file, file);
+		assertTrue(BinaryCramIndex.isBinary(file));
+
+		BinaryCramIndex index = BinaryCramIndex.open(file);
+		assertEquals(entries.size(), index.size());
+		for (int i = 0; i < entries.size(); i++)
+			assertEquals(entries.get(i).sliceIndex, index.get(i).sliceIndex);
+
+		assertSameEntries(bruteForce(entries, 1, 3000, 100),
+				CramIndex.find(file, 1, 3000, 100));
+	}
+}
@@ -0,0 +1,67 @@
+package net.sf.cram.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the default and the array based bit streams for reads of 1 to 32
+ * bits. Usage: BitStreamBenchmark [number of reads] [rounds]
+ */
+public class BitStreamBenchmark {
+
+	private static long readDefault(byte[] data, int len, int reads)
+			throws IOException {
+		DefaultBitInputStream bis = new DefaultBitInputStream(
+				new ByteArrayInputStream(data));
+		long sum = 0;
+		for (int i = 0; i < reads; i++)
+			sum += bis.readBits(len);
+		return sum;
+	}
+
+	private static long readArray(byte[] data, int len, int reads)
+			throws IOException {
+		ArrayBitInputStream bis = new ArrayBitInputStream(data);
+		long sum = 0;
+		for (int i = 0; i < reads; i++)
+			sum += bis.readBits(len);
+		return sum;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int reads = args.length > 0 ? Integer.valueOf(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.valueOf(args[1]) : 5;
+
+		byte[] data = new byte[reads * 4];
+		new Random(0).nextBytes(data);
+
+		// warm up:
+		for (int len = 1; len <= 32; len++) {
+			readDefault(data, len, reads);
+			readArray(data, len, reads);
+		}
+
+		System.out.println("bits\tdefault, ms\tarray, ms\tspeedup");
+		for (int len = 1; len <= 32; len++) {
+			long defaultNanos = Long.MAX_VALUE;
+			long arrayNanos = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++) {
+				long time = System.nanoTime();
+				long sum1 = readDefault(data, len, reads);
+				defaultNanos = Math.min(defaultNanos, System.nanoTime() - time);
+
+				time = System.nanoTime();
+				long sum2 = readArray(data, len, reads);
+				arrayNanos = Math.min(arrayNanos, System.nanoTime() - time);
+
+				if (sum1 != sum2)
+					throw new RuntimeException("Bit streams disagree for "
+							+ len + " bits.");
+			}
+			System.out.printf("%d\t%.2f\t%.2f\t%.2f\n", len,
+					defaultNanos / 1000000f, arrayNanos / 1000000f,
+					(float) defaultNanos / arrayNanos);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package net.sf.cram.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestArrayBitStreams {
+
+	@Test
+	public void testSameBytesAsDefaultStreams() throws IOException {
+		Random random = new Random(5);
+		int[] lens = new int[10000];
+		long[] values = new long[lens.length];
+		for (int i = 0; i < lens.length; i++) {
+			lens[i] = random.nextInt(65);
+			values[i] = random.nextLong();
+			if (lens[i] < 64)
+				values[i] &= (1L << lens[i]) - 1;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DefaultBitOutputStream dbos = new DefaultBitOutputStream(baos);
+		ArrayBitOutputStream abos = new ArrayBitOutputStream(16);
+		for (int i = 0; i < lens.length; i++) {
+			if (lens[i] <= 32) {
+				dbos.write((int) values[i], lens[i]);
+				abos.write((int) values[i], lens[i]);
+			} else {
+				dbos.write(values[i], lens[i]);
+				abos.write(values[i], lens[i]);
+			}
+		}
+		dbos.write(true, 37);
+		abos.write(true, 37);
+		dbos.close();
+		abos.close();
+
+		byte[] data = abos.toByteArray();
+		assertArrayEquals(baos.toByteArray(), data);
+
+		ArrayBitInputStream bis = new ArrayBitInputStream(data);
+		for (int i = 0; i < lens.length; i++) {
+			if (lens[i] <= 24 && lens[i] > 0)
+				assertEquals(values[i], bis.peekBits(lens[i]));
+			if (lens[i] <= 32)
+				assertEquals(values[i], bis.readBits(lens[i]) & 0xFFFFFFFFL);
+			else
+				assertEquals(values[i], bis.readLongBits(lens[i]));
+		}
+		for (int i = 0; i < 37; i++)
+			assertEquals(true, bis.readBit());
+	}
+
+	@Test
+	public void testAlignedBytesAndEOF() throws IOException {
+		ArrayBitOutputStream bos = new ArrayBitOutputStream();
+		bos.write(5, 3);
+		assertEquals(3, bos.alignToByte());
+		bos.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+		bos.write(1, 1);
+		bos.close();
+
+		ArrayBitInputStream bis = new ArrayBitInputStream(bos.toByteArray());
+		assertEquals(5, bis.readBits(3));
+		bis.alignToByte();
+		// buffer some whole bytes before the aligned read:
+		assertEquals(1, bis.peekBits(8));
+		byte[] bytes = new byte[12];
+		bis.readAlignedBytes(bytes);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 },
+				bytes);
+		assertEquals(0x80, bis.peekBits(8));
+		assertEquals(1, bis.readBits(1));
+		assertEquals(0, bis.readBits(7));
+
+		try {
+			bis.readBit();
+			fail("Expecting EOF.");
+		} catch (EOFException e) {
+			assertEquals(true, bis.endOfStream());
+		}
+	}
+
+	@Test
+	public void testPeekAtTheEnd() throws IOException {
+		byte[] data = new byte[] { (byte) 0xAB };
+		ArrayBitInputStream bis = new ArrayBitInputStream(data);
+		DefaultBitInputStream dbis = new DefaultBitInputStream(
+				new ByteArrayInputStream(data));
+		assertEquals(dbis.peekBits(12), bis.peekBits(12));
+		assertEquals(dbis.readBits(4), bis.readBits(4));
+		assertEquals(dbis.peekBits(10), bis.peekBits(10));
+	}
+
+	@Test
+	public void testByteBufferStream() throws IOException {
+		Random random = new Random(7);
+		byte[] data = new byte[1000];
+		random.nextBytes(data);
+
+		// a direct buffer has no array, same as a memory mapped one:
+		ByteBuffer buf = ByteBuffer.allocateDirect(data.length + 10);
+		buf.position(10);
+		buf.put(data);
+		buf.position(10);
+
+		ArrayBitInputStream abis = new ArrayBitInputStream(data);
+		ByteBufferBitInputStream bbis = new ByteBufferBitInputStream(buf);
+		int bits = 0;
+		while (bits + 32 < data.length * 8) {
+			int len = 1 + random.nextInt(32);
+			if (len <= 24)
+				assertEquals(abis.peekBits(len), bbis.peekBits(len));
+			assertEquals(abis.readBits(len), bbis.readBits(len));
+			bits += len;
+		}
+		bbis.alignToByte();
+		abis.alignToByte();
+		byte[] expected = new byte[2];
+		byte[] actual = new byte[2];
+		abis.readAlignedBytes(expected);
+		bbis.readAlignedBytes(actual);
+		assertArrayEquals(expected, actual);
+		assertEquals(10, buf.position());
+	}
+}
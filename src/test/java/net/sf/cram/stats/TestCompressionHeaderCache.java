@@ -0,0 +1,148 @@
+package net.sf.cram.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.cram.CramRecord;
+import net.sf.cram.ReadTag;
+import net.sf.cram.encoding.read_features.ReadFeature;
+import net.sf.cram.encoding.read_features.Substitution;
+import net.sf.cram.structure.CompressionHeader;
+
+import org.junit.Test;
+
+public class TestCompressionHeaderCache {
+	private static final byte[] bases = "ACGT".getBytes();
+
+	/**
+	 * Records with few distinct values, so that every container has all of
+	 * them.
+	 */
+	private static List<CramRecord> createRecords(Random random, int count,
+			int flags) {
+		List<CramRecord> records = new ArrayList<CramRecord>(count);
+		for (int i = 0; i < count; i++) {
+			CramRecord r = new CramRecord();
+			r.setFlags(flags < 0 ? random.nextInt(4) : flags);
+			r.setReadLength(50 + random.nextInt(3));
+			r.alignmentStartOffsetFromPreviousRecord = random.nextInt(5);
+			r.setReadName("r" + random.nextInt(10));
+			r.setMappingQuality(random.nextInt(3));
+
+			List<ReadFeature> features = new ArrayList<ReadFeature>();
+			Substitution s = new Substitution();
+			s.setPosition(1 + random.nextInt(3));
+			s.setRefernceBase(bases[random.nextInt(4)]);
+			s.setBase((byte) 'N');
+			features.add(s);
+			r.setReadFeatures(features);
+
+			if (random.nextBoolean())
+				r.tags = new ReadTag[] { new ReadTag("NM", 'i',
+						random.nextInt(5)) };
+			records.add(r);
+		}
+		return records;
+	}
+
+	private static void assertLinked(CompressionHeader h,
+			List<CramRecord> records) {
+		for (CramRecord r : records) {
+			byte[][] ids = h.dictionary[r.tagIdsIndex.value];
+			byte[] flat = new byte[ids.length * 3];
+			for (int i = 0; i < ids.length; i++)
+				System.arraycopy(ids[i], 0, flat, i * 3, 3);
+			assertArrayEquals(r.tagIds == null ? new byte[0] : r.tagIds, flat);
+		}
+	}
+
+	@Test
+	public void testReuseAndRebuild() {
+		Random random = new Random(11);
+		CompressionHeaderCache cache = new CompressionHeaderCache();
+		cache.sampleRecords = 1000;
+
+		List<CramRecord> records = createRecords(random, 1000, -1);
+		CompressionHeader h = cache.get(records, 0, null, null, 1);
+		assertLinked(h, records);
+
+		// the same distribution:
+		records = createRecords(random, 1000, -1);
+		assertSame(h, cache.get(records, 1, null, null, 1));
+		assertLinked(h, records);
+		assertEquals(1, cache.headersBuilt);
+		assertEquals(1, cache.headersReused);
+
+		// a read length the header has no code for:
+		records = createRecords(random, 1000, -1);
+		records.get(0).setReadLength(1000);
+		CompressionHeader h2 = cache.get(records, 2, null, null, 1);
+		assertNotSame(h, h2);
+		assertLinked(h2, records);
+
+		// all records with the same flags, the codes of the header are too
+		// long for them:
+		records = createRecords(random, 1000, 3);
+		CompressionHeader h3 = cache.get(records, 3, null, null, 1);
+		assertNotSame(h2, h3);
+		assertLinked(h3, records);
+		assertEquals(3, cache.headersBuilt);
+	}
+
+	@Test
+	public void testContainerOrder() throws InterruptedException {
+		final CompressionHeaderCache cache = new CompressionHeaderCache();
+		cache.sampleRecords = 0;
+		final List<CramRecord> second = createRecords(new Random(2), 100, -1);
+		final CompressionHeader[] result = new CompressionHeader[1];
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				result[0] = cache.get(second, 1, null, null, 1);
+			}
+		});
+		thread.start();
+
+		// the second container waits for the first one:
+		List<CramRecord> first = createRecords(new Random(1), 100, -1);
+		first.get(0).setReadLength(1000);
+		CompressionHeader h = cache.get(first, 0, null, null, 1);
+		thread.join();
+		assertSame(h, result[0]);
+		assertEquals(1, cache.headersBuilt);
+	}
+
+	@Test
+	public void testFail() throws InterruptedException {
+		final CompressionHeaderCache cache = new CompressionHeaderCache();
+		final List<CramRecord> second = createRecords(new Random(2), 100, -1);
+		final Throwable[] error = new Throwable[1];
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					cache.get(second, 1, null, null, 1);
+				} catch (RuntimeException e) {
+					error[0] = e;
+				}
+			}
+		});
+		thread.start();
+
+		// the first container never asks for its header:
+		cache.fail();
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertNotNull(error[0]);
+	}
+}
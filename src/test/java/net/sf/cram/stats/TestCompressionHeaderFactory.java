@@ -0,0 +1,120 @@
+package net.sf.cram.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.sf.cram.CramRecord;
+import net.sf.cram.ReadTag;
+import net.sf.cram.encoding.read_features.Deletion;
+import net.sf.cram.encoding.read_features.ReadFeature;
+import net.sf.cram.encoding.read_features.Substitution;
+import net.sf.cram.structure.CompressionHeader;
+import net.sf.cram.structure.SubstitutionMatrix;
+
+import org.junit.Test;
+
+public class TestCompressionHeaderFactory {
+	private static final byte[] bases = "ACGT".getBytes();
+
+	private static List<CramRecord> createRecords(int count) {
+		Random random = new Random(5);
+		List<CramRecord> records = new ArrayList<CramRecord>(count);
+		for (int i = 0; i < count; i++) {
+			CramRecord r = new CramRecord();
+			r.setFlags(random.nextInt(4));
+			r.sequenceId = random.nextInt(3);
+			r.setReadLength(50 + random.nextInt(10));
+			r.alignmentStartOffsetFromPreviousRecord = random.nextInt(30);
+			r.setReadName("read" + random.nextInt(1000));
+			r.setMappingQuality(random.nextInt(60));
+
+			List<ReadFeature> features = new ArrayList<ReadFeature>();
+			for (int pos = 1 + random.nextInt(20); pos < 50; pos += 1 + random
+					.nextInt(20)) {
+				if (random.nextInt(5) == 0) {
+					features.add(new Deletion(pos, 1 + random.nextInt(3)));
+					continue;
+				}
+				Substitution s = new Substitution();
+				s.setPosition(pos);
+				byte refBase = bases[random.nextInt(4)];
+				byte base = bases[random.nextInt(4)];
+				if (base == refBase)
+					base = 'N';
+				s.setRefernceBase(refBase);
+				s.setBase(base);
+				features.add(s);
+			}
+			r.setReadFeatures(features);
+
+			switch (random.nextInt(3)) {
+			case 0:
+				break;
+			case 1:
+				r.tags = new ReadTag[] { new ReadTag("NM", 'i',
+						random.nextInt(5)) };
+				break;
+			default:
+				r.tags = new ReadTag[] {
+						new ReadTag("XA", 'Z', "x" + random.nextInt(100)),
+						new ReadTag("NM", 'i', random.nextInt(5)) };
+				break;
+			}
+			records.add(r);
+		}
+		return records;
+	}
+
+	@Test
+	public void testPartsGiveSameHeader() throws IOException {
+		int count = 4 * RecordStats.MIN_RECORDS_PER_PART + 17;
+		List<CramRecord> records = createRecords(count);
+		CompressionHeader expected = new CompressionHeaderFactory().build(
+				records, null);
+		int[] expectedTagIds = new int[count];
+		for (int i = 0; i < count; i++)
+			expectedTagIds[i] = records.get(i).tagIdsIndex.value;
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (int parts = 2; parts <= 4; parts++) {
+				records = createRecords(count);
+				CompressionHeader h = new CompressionHeaderFactory().build(
+						records, null, executor, parts);
+				assertArrayEquals(expected.toByteArray(), h.toByteArray());
+				for (int i = 0; i < count; i++)
+					assertEquals(expectedTagIds[i],
+							records.get(i).tagIdsIndex.value);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSubstitutionCodes() {
+		List<CramRecord> records = createRecords(1000);
+		CompressionHeader h = new CompressionHeaderFactory().build(records,
+				null);
+
+		// codes of substitutions are left to the writer, the matrix codes
+		// every substitution in the records:
+		SubstitutionMatrix m = h.substitutionMatrix;
+		for (CramRecord r : records)
+			for (ReadFeature rf : r.getReadFeatures())
+				if (rf.getOperator() == Substitution.operator) {
+					Substitution s = (Substitution) rf;
+					assertEquals(-1, s.getCode());
+					assertEquals(s.getBase(),
+							m.base(s.getRefernceBase(),
+									m.code(s.getRefernceBase(), s.getBase())));
+				}
+	}
+}
@@ -0,0 +1,59 @@
+package net.sf.cram.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class TestIntHistogram {
+
+	@Test
+	public void testCounts() {
+		Random random = new Random(3);
+		IntHistogram h = new IntHistogram();
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		for (int i = 0; i < 100000; i++) {
+			// negative, small and large values:
+			int value = random.nextInt(3) == 0 ? random.nextInt() : random
+					.nextInt(100) - 10;
+			h.add(value);
+			Integer count = expected.get(value);
+			expected.put(value, count == null ? 1 : count + 1);
+		}
+
+		assertEquals(expected.size(), h.size());
+		assertEquals(100000, h.total());
+		int[] values = new int[expected.size()];
+		int i = 0;
+		for (int value : new TreeSet<Integer>(expected.keySet())) {
+			values[i++] = value;
+			assertEquals(expected.get(value).intValue(), h.count(value));
+		}
+		assertArrayEquals(values, h.values());
+		assertEquals(0, h.count(Integer.MIN_VALUE + 1));
+	}
+
+	@Test
+	public void testZeroCountAndMerge() {
+		IntHistogram h1 = new IntHistogram();
+		h1.add(5, 0);
+		h1.add(-1, 3);
+		assertEquals(2, h1.size());
+		assertEquals(0, h1.count(5));
+
+		IntHistogram h2 = new IntHistogram();
+		for (int i = 0; i < 100; i++)
+			h2.add(i);
+		h1.merge(h2);
+		assertEquals(101, h1.size());
+		assertEquals(103, h1.total());
+		assertEquals(1, h1.count(5));
+		assertEquals(3, h1.count(-1));
+		assertEquals(-1, h1.values()[0]);
+	}
+}
@@ -0,0 +1,197 @@
+package net.sf.samtools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.cram.BLOCK_PROTO;
+import net.sf.cram.Bam2Cram;
+import net.sf.cram.ContainerDecoder;
+import net.sf.cram.ContainerDecoder.DecodedContainer;
+import net.sf.cram.Cram2BamRecordFactory;
+import net.sf.cram.CramRecord;
+import net.sf.cram.ReadWrite;
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.Utils;
+import net.sf.cram.io.CountingInputStream;
+import net.sf.picard.reference.ReferenceSequenceFile;
+import net.sf.picard.reference.ReferenceSequenceFileFactory;
+import net.sf.samtools.util.SeekableFileStream;
+
+import org.junit.Test;
+
+public class TestSAMIterator {
+
+	private InputStream openCram() {
+		return new BufferedInputStream(getClass().getResourceAsStream(
+				"/data/set1/small.cram"));
+	}
+
+	private ReferenceSequenceFile openReference() {
+		return ReferenceSequenceFileFactory.getReferenceSequenceFile(new File(
+				getClass().getResource("/data/set1/small.fa").getFile()));
+	}
+
+	/**
+	 * Converts whole containers and restores the NM tags up front.
+	 */
+	private List<String> convertEagerly() throws IOException,
+			IllegalAccessException {
+		InputStream is = openCram();
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		ContainerDecoder decoder = new ContainerDecoder(is, cramHeader,
+				openReference(), 1);
+		Cram2BamRecordFactory factory = new Cram2BamRecordFactory(
+				cramHeader.samFileHeader);
+
+		List<String> records = new ArrayList<String>();
+		DecodedContainer d;
+		while ((d = decoder.next()) != null) {
+			for (CramRecord r : d.records) {
+				SAMRecord s = factory.create(r);
+				if (!r.segmentUnmapped)
+					Utils.calculateMdAndNmTags(s, d.ref, false, true);
+				records.add(s.getSAMString());
+			}
+		}
+		decoder.close();
+		is.close();
+		return records;
+	}
+
+	@Test
+	public void testLazyConversion() throws IOException,
+			IllegalAccessException {
+		List<String> expected = convertEagerly();
+		assertTrue(expected.size() > 0);
+
+		SAMIterator iterator = new SAMIterator(openCram(), openReference());
+		List<String> actual = new ArrayList<String>();
+		while (iterator.hasNext())
+			actual.add(iterator.next().getSAMString());
+		iterator.close();
+
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testTagsRestoredOnAccess() throws IOException {
+		SAMIterator iterator = new SAMIterator(openCram(), openReference());
+		int mapped = 0;
+		while (iterator.hasNext()) {
+			LazyTagsSAMRecord record = (LazyTagsSAMRecord) iterator.next();
+			if (record.getReadUnmappedFlag()) {
+				assertFalse(record.hasPendingTags());
+				continue;
+			}
+			mapped++;
+			assertTrue(record.hasPendingTags());
+			assertTrue(record.getIntegerAttribute("NM") != null);
+			assertFalse(record.hasPendingTags());
+		}
+		iterator.close();
+		assertTrue(mapped > 0);
+	}
+
+	/**
+	 * Encodes the reads of small.bam as pairs of neighbours without read
+	 * names into small slices, so that names are generated from the record
+	 * counters.
+	 */
+	private File encodeWithoutNames() throws Exception {
+		File samFile = File.createTempFile("pairs", ".sam");
+		samFile.deleteOnExit();
+		SAMFileReader reader = new SAMFileReader(new File(getClass()
+				.getResource("/data/set1/small.bam").getFile()));
+		SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(
+				reader.getFileHeader(), true, samFile);
+		SAMRecord first = null;
+		for (SAMRecord r : reader) {
+			if (first == null) {
+				first = r;
+				continue;
+			}
+			pair(first, r, "pair" + r.getAlignmentStart());
+			writer.addAlignment(first);
+			writer.addAlignment(r);
+			first = null;
+		}
+		writer.close();
+		reader.close();
+
+		File cramFile = File.createTempFile("nameless", ".cram");
+		cramFile.deleteOnExit();
+		int recordsPerSlice = BLOCK_PROTO.recordsPerSlice;
+		try {
+			Bam2Cram.main(new String[] { "-I", samFile.getAbsolutePath(),
+					"--input-is-sam", "-R",
+					getClass().getResource("/data/set1/small.fa").getFile(),
+					"-O", cramFile.getAbsolutePath(), "--max-slice-size",
+					"100", "--max-container-size", "1000" });
+		} finally {
+			BLOCK_PROTO.recordsPerSlice = recordsPerSlice;
+		}
+		return cramFile;
+	}
+
+	private static void pair(SAMRecord first, SAMRecord second, String name) {
+		first.setReadName(name);
+		second.setReadName(name);
+		first.setReadPairedFlag(true);
+		second.setReadPairedFlag(true);
+		first.setFirstOfPairFlag(true);
+		second.setSecondOfPairFlag(true);
+		first.setMateReferenceIndex(second.getReferenceIndex());
+		first.setMateAlignmentStart(second.getAlignmentStart());
+		first.setMateNegativeStrandFlag(second.getReadNegativeStrandFlag());
+		second.setMateReferenceIndex(first.getReferenceIndex());
+		second.setMateAlignmentStart(first.getAlignmentStart());
+		second.setMateNegativeStrandFlag(first.getReadNegativeStrandFlag());
+	}
+
+	@Test
+	public void testOpenEndedRegionNames() throws Exception {
+		File cramFile = encodeWithoutNames();
+
+		List<SAMRecord> all = new ArrayList<SAMRecord>();
+		SAMIterator iterator = new SAMIterator(new BufferedInputStream(
+				new FileInputStream(cramFile)), openReference());
+		while (iterator.hasNext())
+			all.add(iterator.next());
+		iterator.close();
+		// start the region in a later slice of the first container:
+		SAMRecord first = all.get(all.size() / 2 + 250);
+		assertEquals(0, first.getReferenceIndex().intValue());
+
+		SeekableFileStream s = new SeekableFileStream(cramFile);
+		CountingInputStream cis = new CountingInputStream(s);
+		ReadWrite.readCramHeader(cis);
+		long offset = cis.getCount();
+		s.seek(0);
+		iterator = new SAMIterator(s, openReference());
+		iterator.seekRegion(offset, 0, first.getAlignmentStart(), 0);
+		List<String> actual = new ArrayList<String>();
+		while (iterator.hasNext())
+			actual.add(iterator.next().getSAMString());
+		iterator.close();
+
+		assertFalse(actual.get(0).startsWith("pair"));
+		assertTrue(actual.size() > 1000);
+		assertTrue(actual.size() < all.size());
+		// the first slice decoded starts on a slice boundary:
+		int from = all.size() - actual.size();
+		assertEquals(0, from % 100);
+		List<String> expected = new ArrayList<String>();
+		for (SAMRecord r : all.subList(from, all.size()))
+			expected.add(r.getSAMString());
+		assertEquals(expected, actual);
+	}
+}
@@ -0,0 +1,71 @@
+package structure;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.cram.structure.Block;
+import net.sf.cram.structure.BlockCompressionMethod;
+import net.sf.cram.structure.BlockCompressionPolicy;
+import net.sf.cram.structure.BlockContentType;
+
+import org.junit.Test;
+
+public class TestBlockCompressionPolicy {
+
+	private static Block roundTrip(BlockCompressionPolicy policy,
+			int contentId, byte[] data) throws IOException {
+		Block block = new Block(BlockCompressionMethod.RAW.ordinal(),
+				BlockContentType.EXTERNAL, contentId, data, null);
+		policy.compress(block);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		block.write(baos);
+
+		Block read = new Block(new ByteArrayInputStream(baos.toByteArray()),
+				true, true);
+		assertEquals(block.method, read.method);
+		assertArrayEquals(data, read.getRawContent());
+		return read;
+	}
+
+	@Test
+	public void testFixedAndTrialCodecs() throws IOException {
+		BlockCompressionPolicy policy = BlockCompressionPolicy.fromSpec(
+				"1:BZIP2,2:GZIP-1,*:GZIP-9", "RAW,GZIP-1");
+
+		byte[] repetitive = new byte[10000];
+		for (int i = 0; i < repetitive.length; i++)
+			repetitive[i] = (byte) ('A' + i % 4);
+		byte[] random = new byte[10000];
+		new Random(0).nextBytes(random);
+
+		assertEquals(BlockCompressionMethod.BZIP2.ordinal(),
+				roundTrip(policy, 1, repetitive).method);
+		assertEquals(BlockCompressionMethod.GZIP.ordinal(),
+				roundTrip(policy, 2, random).method);
+
+		// no fixed codec, the smallest trial wins:
+		assertEquals(BlockCompressionMethod.GZIP.ordinal(),
+				roundTrip(policy, 3, repetitive).method);
+		assertEquals(BlockCompressionMethod.RAW.ordinal(),
+				roundTrip(policy, 3, random).method);
+	}
+
+	@Test
+	public void testDefaultCodec() throws IOException {
+		BlockCompressionPolicy policy = BlockCompressionPolicy.fromSpec(
+				"*:BZIP2", null);
+		byte[] data = new byte[1000];
+		Arrays.fill(data, (byte) 'C');
+		assertEquals(BlockCompressionMethod.BZIP2.ordinal(),
+				roundTrip(policy, 0, data).method);
+		assertEquals(BlockCompressionMethod.BZIP2.ordinal(),
+				roundTrip(policy, 0, new byte[0]).method);
+	}
+}
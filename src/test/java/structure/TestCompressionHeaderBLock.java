@@ -0,0 +1,55 @@
+package structure;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import net.sf.cram.ReadWrite;
+import net.sf.cram.ReadWrite.CramHeader;
+import net.sf.cram.structure.CompressionHeaderBLock.LastHeader;
+import net.sf.cram.structure.Container;
+import net.sf.samtools.SAMFileHeader;
+
+import org.junit.Test;
+
+public class TestCompressionHeaderBLock {
+
+	private Container read(SAMFileHeader header, byte[] bytes,
+			LastHeader lastHeader) throws IOException {
+		return ReadWrite.readContainer(header, ByteBuffer.wrap(bytes), 0,
+				Integer.MAX_VALUE, lastHeader);
+	}
+
+	@Test
+	public void testLastHeaderPerStream() throws IOException {
+		InputStream is = new BufferedInputStream(getClass()
+				.getResourceAsStream("/data/set1/small.cram"));
+		CramHeader cramHeader = ReadWrite.readCramHeader(is);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = is.read(buf)) > 0)
+			baos.write(buf, 0, len);
+		is.close();
+		byte[] bytes = baos.toByteArray();
+		SAMFileHeader header = cramHeader.samFileHeader;
+
+		LastHeader a = new LastHeader();
+		LastHeader b = new LastHeader();
+		Container a1 = read(header, bytes, a);
+		Container b1 = read(header, bytes, b);
+		// interleaved streams keep their own header:
+		Container a2 = read(header, bytes, a);
+		Container b2 = read(header, bytes, b);
+		assertTrue(a1.h == a2.h);
+		assertTrue(b1.h == b2.h);
+		assertTrue(a1.h != b1.h);
+
+		// without a last header the header is always parsed:
+		assertTrue(read(header, bytes, null).h != read(header, bytes, null).h);
+	}
+}
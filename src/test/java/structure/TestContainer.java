@@ -290,7 +290,10 @@ public class TestContainer {
 							+ r3.toString(), compare(r1, r3));
 		}
 		
-		FileOutputStream fos = new FileOutputStream(new File("./src/test/resources/data/set1/small.cram2")) ;
+		// written aside instead of over the test resources:
+		File file = File.createTempFile("small", ".cram2");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file) ;
 		fos.write(baos.getBuffer(), 0, baos.size()) ;
 		fos.close() ;
 	}